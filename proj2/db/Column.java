@@ -0,0 +1,219 @@
+package db;
+
+import java.util.Arrays;
+
+/**
+ * One column of a table, stored as a primitive array of its type (see IntColumn, FloatColumn
+ * and StringColumn) so that scans are tight loops over the array. The special values are kept
+ * out of the array in bitmaps: NOVALUE for any type, and NaN for numeric types. A row's slot
+ * in the array holds 0 (or the empty string) when it is special.
+ */
+abstract class Column {
+    protected int size;
+    private long[] noValue = new long[0];
+    private long[] nan = new long[0];
+    /* How many rows are flagged in each bitmap, so that loops can skip them when none are */
+    private int numNoValue, numNaN;
+    /* Statistics for the planner and a hash index, made when first asked for and kept until
+       the column grows */
+    private int statsSize = -1, distinct;
+    private boolean sorted;
+    private Index index;
+
+    /**
+     * A hash index on a column: the rows with each hash of their value (see hashAt), as chains
+     * in increasing row order.
+     */
+    static class Index {
+        private final int[] head, next;
+        private final int mask;
+
+        private Index(Column c) {
+            mask = Integer.highestOneBit(Math.max(c.size, 1) * 2 - 1) * 2 - 1;
+            head = new int[mask + 1];
+            next = new int[c.size];
+            Arrays.fill(head, -1);
+            for (int r = c.size - 1; r >= 0; r--) {
+                int bucket = spread(c.hashAt(r)) & mask;
+                next[r] = head[bucket];
+                head[bucket] = r;
+            }
+        }
+
+        /**
+         * The first row in the chain for a hash, or -1. A chain can also hold rows with other
+         * hashes, so callers compare the values.
+         */
+        int first(int hash) {
+            return head[spread(hash) & mask];
+        }
+
+        /** The row after r in its chain, or -1. */
+        int next(int r) {
+            return next[r];
+        }
+
+        /** Mixes the high bits of a hash into the low ones, which pick the bucket. */
+        static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    abstract Type type();
+
+    int size() {
+        return size;
+    }
+
+    /** Appends a value, which must be NOVALUE or of this column's type. */
+    abstract void append(Literal v);
+
+    /** The value in a row as written by print and store. */
+    abstract String format(int row);
+
+    /** A new column holding rows[0] to rows[n - 1] of this one, in that order. */
+    abstract Column gather(int[] rows, int n);
+
+    /** Whether a row of this column and a row of other hold the same value. */
+    abstract boolean sameValue(int row, Column other, int otherRow);
+
+    /** A hash of the value in a row, consistent with sameValue. */
+    abstract int hashAt(int row);
+
+    /** The number of distinct values, with NOVALUE and NaN counting as one value each. */
+    protected abstract int countDistinct();
+
+    /**
+     * Whether the values are in nondecreasing order with no NOVALUE or NaN. Only int columns
+     * are checked, since only they are merge joined.
+     */
+    protected boolean checkSorted() {
+        return false;
+    }
+
+    /** The number of distinct values (see countDistinct). */
+    int distinct() {
+        computeStats();
+        return distinct;
+    }
+
+    /** Whether the values are in order (see checkSorted). */
+    boolean isSorted() {
+        computeStats();
+        return sorted;
+    }
+
+    private void computeStats() {
+        if (statsSize != size) {
+            distinct = countDistinct();
+            sorted = checkSorted();
+            statsSize = size;
+        }
+    }
+
+    /** The hash index on this column, made now if it is missing or older than the column. */
+    Index index() {
+        if (!hasIndex()) {
+            index = new Index(this);
+        }
+        return index;
+    }
+
+    boolean hasIndex() {
+        return index != null && index.next.length == size;
+    }
+
+    static Column create(Type type) {
+        switch (type) {
+            case INT:
+                return new IntColumn();
+            case FLOAT:
+                return new FloatColumn();
+            default:
+                return new StringColumn();
+        }
+    }
+
+    /** A column of n copies of a value of the given type. */
+    static Column constant(Type type, Literal v, int n) {
+        Column c = create(type);
+        for (int i = 0; i < n; i++) {
+            c.append(v);
+        }
+        return c;
+    }
+
+    boolean hasNoValue() {
+        return numNoValue > 0;
+    }
+
+    boolean hasNaN() {
+        return numNaN > 0;
+    }
+
+    boolean isNoValue(int row) {
+        return numNoValue > 0 && isSet(noValue, row);
+    }
+
+    boolean isNaN(int row) {
+        return numNaN > 0 && isSet(nan, row);
+    }
+
+    /* Bitmaps only grow as far as the last row flagged in them */
+    private static boolean isSet(long[] bits, int row) {
+        return (row >>> 6) < bits.length && (bits[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /** Whether a row holds NOVALUE or NaN. */
+    boolean isSpecial(int row) {
+        return isNoValue(row) || isNaN(row);
+    }
+
+    protected void setNoValue(int row) {
+        noValue = grow(noValue, row);
+        noValue[row >>> 6] |= 1L << row;
+        numNoValue++;
+    }
+
+    protected void setNaN(int row) {
+        nan = grow(nan, row);
+        nan[row >>> 6] |= 1L << row;
+        numNaN++;
+    }
+
+    private static long[] grow(long[] bits, int row) {
+        if ((row >>> 6) < bits.length) {
+            return bits;
+        }
+        return Arrays.copyOf(bits, Math.max((row >>> 6) + 1, bits.length * 2));
+    }
+
+    /** Copies the flags of rows[0] to rows[n - 1] into the first n rows of dst. */
+    protected void gatherFlags(int[] rows, int n, Column dst) {
+        if (numNoValue == 0 && numNaN == 0) {
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            if (isNoValue(rows[i])) {
+                dst.setNoValue(i);
+            } else if (isNaN(rows[i])) {
+                dst.setNaN(i);
+            }
+        }
+    }
+
+    /** Helper for countDistinct: the number of distinct special values. */
+    protected int distinctSpecial() {
+        return (numNoValue > 0 ? 1 : 0) + (numNaN > 0 ? 1 : 0);
+    }
+
+    /** Helper for format: the special value in a row, or null if it holds a regular value. */
+    protected String formatSpecial(int row) {
+        if (isNoValue(row)) {
+            return Literal.NOVALUE;
+        } else if (isNaN(row)) {
+            return Literal.NAN;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,165 @@
+package db;
+
+import java.util.Arrays;
+
+/**
+ * A where clause condition: a column compared with another column or with a literal. Rows
+ * holding NOVALUE in a compared column never match; NaN is greater than every other number
+ * and equal to itself. Filtering compacts a selection vector in place with one loop over the
+ * column arrays, and a string compared with a literal is decided once per dictionary entry.
+ */
+class Condition {
+    /* The operators, by the code that test switches on */
+    private static final String[] OPS = {"==", "!=", "<", ">", "<=", ">="};
+
+    final String column;
+    final String op;
+    private final int code;
+    /** The column compared with, or null if it is a literal. */
+    final String otherColumn;
+    final Literal literal;
+
+    Condition(String column, String op, String otherColumn, Literal literal) {
+        this.column = column;
+        this.op = op;
+        this.code = Arrays.asList(OPS).indexOf(op);
+        this.otherColumn = otherColumn;
+        this.literal = literal;
+    }
+
+    /** The columns the condition reads. */
+    String[] columns() {
+        return otherColumn == null ? new String[]{column} : new String[]{column, otherColumn};
+    }
+
+    /**
+     * Keeps the rows among rows[0] to rows[n - 1] that satisfy the condition, moving them to
+     * the front of rows in the same order.
+     *
+     * @return The number of rows kept
+     */
+    int filter(Table t, int[] rows, int n) {
+        Column a = t.column(column);
+        if (otherColumn != null) {
+            return filter(a, t.column(otherColumn), rows, n);
+        } else if (literal.isNoValue()) {
+            return 0;
+        }
+        checkComparable(a.type(), literal.type);
+        int m = 0;
+        if (literal.isNaN) {
+            for (int i = 0; i < n; i++) {
+                int r = rows[i];
+                if (!a.isNoValue(r) && test(a.isNaN(r) ? 0 : -1)) {
+                    rows[m++] = r;
+                }
+            }
+            return m;
+        }
+        boolean special = a.hasNoValue() || a.hasNaN();
+        if (a instanceof IntColumn && literal.type == Type.INT) {
+            int[] values = ((IntColumn) a).values;
+            int k = literal.intValue;
+            for (int i = 0; i < n; i++) {
+                int r = rows[i];
+                if (special && a.isSpecial(r)) {
+                    if (!a.isNoValue(r) && test(1)) {
+                        rows[m++] = r;
+                    }
+                } else if (test(Integer.compare(values[r], k))) {
+                    rows[m++] = r;
+                }
+            }
+        } else if (a instanceof StringColumn) {
+            StringColumn s = (StringColumn) a;
+            boolean[] accept = new boolean[s.dict.size()];
+            for (int code = 0; code < accept.length; code++) {
+                accept[code] = test(s.dict.decode(code).compareTo(literal.stringValue));
+            }
+            for (int i = 0; i < n; i++) {
+                int r = rows[i];
+                if (accept[s.codes[r]] && !(special && a.isNoValue(r))) {
+                    rows[m++] = r;
+                }
+            }
+        } else {
+            /* Adding 0.0 makes -0.0 equal to 0.0, as it is in joins (see FloatColumn.hashAt) */
+            double k = literal.floatValue + 0.0;
+            for (int i = 0; i < n; i++) {
+                int r = rows[i];
+                if (special && a.isSpecial(r)) {
+                    if (!a.isNoValue(r) && test(1)) {
+                        rows[m++] = r;
+                    }
+                } else if (test(Double.compare(doubleAt(a, r) + 0.0, k))) {
+                    rows[m++] = r;
+                }
+            }
+        }
+        return m;
+    }
+
+    /** Helper method: the filter for a comparison of two columns. */
+    private int filter(Column a, Column b, int[] rows, int n) {
+        checkComparable(a.type(), b.type());
+        boolean special = a.hasNoValue() || a.hasNaN() || b.hasNoValue() || b.hasNaN();
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            int r = rows[i];
+            int cmp;
+            if (special && (a.isSpecial(r) || b.isSpecial(r))) {
+                if (a.isNoValue(r) || b.isNoValue(r)) {
+                    continue;
+                }
+                cmp = Boolean.compare(a.isNaN(r), b.isNaN(r));
+            } else if (a instanceof IntColumn && b instanceof IntColumn) {
+                cmp = Integer.compare(((IntColumn) a).values[r], ((IntColumn) b).values[r]);
+            } else if (a instanceof StringColumn) {
+                cmp = ((StringColumn) a).get(r).compareTo(((StringColumn) b).get(r));
+            } else {
+                cmp = Double.compare(doubleAt(a, r) + 0.0, doubleAt(b, r) + 0.0);
+            }
+            if (test(cmp)) {
+                rows[m++] = r;
+            }
+        }
+        return m;
+    }
+
+    @Override
+    public String toString() {
+        return column + " " + op + " " + (otherColumn != null ? otherColumn : literal);
+    }
+
+    /** Helper method: whether a comparison result satisfies the operator. */
+    private boolean test(int cmp) {
+        switch (code) {
+            case 0:
+                return cmp == 0;
+            case 1:
+                return cmp != 0;
+            case 2:
+                return cmp < 0;
+            case 3:
+                return cmp > 0;
+            case 4:
+                return cmp <= 0;
+            default:
+                return cmp >= 0;
+        }
+    }
+
+    private void checkComparable(Type a, Type b) {
+        if (a.isNumeric() != b.isNumeric()) {
+            throw new DBException("cannot compare %s with %s", a, b);
+        }
+    }
+
+    /** The value in a row of a numeric column, as a double. */
+    static double doubleAt(Column c, int row) {
+        if (c instanceof IntColumn) {
+            return ((IntColumn) c).values[row];
+        }
+        return ((FloatColumn) c).values[row];
+    }
+}
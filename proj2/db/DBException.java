@@ -0,0 +1,14 @@
+package db;
+
+/** An error in a query, reported to the client as "ERROR: " and the message. */
+public class DBException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public DBException(String message) {
+        super(message);
+    }
+
+    public DBException(String format, Object... args) {
+        super(String.format(format, args));
+    }
+}
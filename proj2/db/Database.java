@@ -1,11 +1,127 @@
 package db;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class Database {
+    /** Default number of query shapes whose statements and plans are kept. */
+    public static final int CACHE_CAPACITY = 256;
+
+    private final Map<String, Table> tables;
+    private final QueryCache cache;
+
     public Database() {
-        // YOUR CODE HERE
+        this(CACHE_CAPACITY);
+    }
+
+    /** A database keeping the statements and plans of up to cacheCapacity query shapes. */
+    public Database(int cacheCapacity) {
+        tables = new HashMap<>();
+        cache = new QueryCache(cacheCapacity);
     }
 
+    /**
+     * Runs a query.
+     *
+     * @return The table for print and select, the empty string for other commands, or
+     *         "ERROR: " and what went wrong
+     */
     public String transact(String query) {
-        return "YOUR CODE HERE";
+        try {
+            return cache.statement(query).run(this);
+        } catch (DBException e) {
+            return "ERROR: " + e.getMessage();
+        }
+    }
+
+    /** The fraction of queries whose statement was found in the cache (see QueryCache). */
+    public double cacheHitRate() {
+        return cache.hitRate();
+    }
+
+    /** Counts of cache hits, misses and evictions, as one line. */
+    public String cacheStats() {
+        return cache.toString();
+    }
+
+    /**
+     * The table with the given name.
+     *
+     * @throws DBException if there is none
+     */
+    Table table(String name) {
+        Table t = tables.get(name);
+        if (t == null) {
+            throw new DBException("no table named %s", name);
+        }
+        return t;
+    }
+
+    /** Creates an empty table with the given columns. */
+    void create(String name, String[] names, Type[] types) {
+        create(name, new Table(names, types));
+    }
+
+    /** Adds a table under a new name. */
+    void create(String name, Table t) {
+        if (!Table.isName(name)) {
+            throw new DBException("invalid table name: %s", name);
+        } else if (tables.containsKey(name)) {
+            throw new DBException("table %s already exists", name);
+        }
+        tables.put(name, t);
+    }
+
+    /** Reads name.tbl into the table name, replacing any table of that name. */
+    void load(String name) {
+        if (!Table.isName(name)) {
+            throw new DBException("invalid table name: %s", name);
+        }
+        tables.put(name, Table.load(name));
+    }
+
+    void store(String name) {
+        table(name).store(name);
+    }
+
+    void drop(String name) {
+        if (tables.remove(name) == null) {
+            throw new DBException("no table named %s", name);
+        }
+    }
+
+    void insert(String name, Literal[] values) {
+        table(name).insert(values);
+    }
+
+    /**
+     * The natural join of the named tables, filtered by the conditions, with the given
+     * column expressions (or null for all columns). See Planner for how it is run.
+     */
+    Table select(List<Expression> expressions, List<String> tableNames,
+                 List<Condition> conditions) {
+        return plan(expressions, tableNames, conditions).execute();
+    }
+
+    /** A description of how select would run. */
+    String explain(List<Expression> expressions, List<String> tableNames,
+                   List<Condition> conditions) {
+        return plan(expressions, tableNames, conditions).explain();
+    }
+
+    private Planner plan(List<Expression> expressions, List<String> tableNames,
+                         List<Condition> conditions) {
+        return new Planner(tableNames, tables(tableNames), expressions, conditions);
+    }
+
+    /** The tables with the given names (see table). */
+    List<Table> tables(List<String> names) {
+        List<Table> ret = new ArrayList<>();
+        for (String name : names) {
+            ret.add(table(name));
+        }
+        return ret;
     }
 }
@@ -0,0 +1,169 @@
+package db;
+
+/**
+ * A column expression of a select: a column name, or "a op b as name" where a is a column, b is
+ * a column or a literal and op is one of + - * /. Ints combine to ints, and any float makes a
+ * float; strings can only be concatenated with +. NaN in either operand gives NaN, as does
+ * dividing by zero. NOVALUE counts as 0 (or the empty string), unless both operands are
+ * NOVALUE, which gives NOVALUE.
+ */
+class Expression {
+    /** The name of the result column. */
+    final String name;
+    final String column;
+    /** The operator, or 0 for a plain column. */
+    final char op;
+    /** The second operand when it is a column, or else null. */
+    final String otherColumn;
+    final Literal literal;
+
+    Expression(String name, String column, char op, String otherColumn,
+               Literal literal) {
+        this.name = name;
+        this.column = column;
+        this.op = op;
+        this.otherColumn = otherColumn;
+        this.literal = literal;
+    }
+
+    /** The columns the expression reads. */
+    String[] columns() {
+        return otherColumn == null ? new String[]{column} : new String[]{column, otherColumn};
+    }
+
+    /** Computes the expression for every row of t. A plain column is returned as it is. */
+    Column evaluate(Table t) {
+        Column a = t.column(column);
+        if (op == 0) {
+            return a;
+        }
+        Column b;
+        if (otherColumn != null) {
+            b = t.column(otherColumn);
+        } else {
+            Type type = literal.type;
+            if (literal.isNoValue()) {
+                type = a.type();
+            } else if (literal.isNaN && a.type() == Type.STRING) {
+                type = Type.FLOAT;
+            }
+            b = Column.constant(type, literal, t.rows());
+        }
+
+        Type type = resultType(a.type(), b.type());
+        int n = t.rows();
+        boolean special = a.hasNoValue() || a.hasNaN() || b.hasNoValue() || b.hasNaN();
+        Literal noValue = Literal.noValue(), nan = Literal.nan(type);
+        Column out = Column.create(type);
+        if (type == Type.STRING) {
+            StringColumn x = (StringColumn) a, y = (StringColumn) b, s = (StringColumn) out;
+            for (int r = 0; r < n; r++) {
+                if (special && x.isNoValue(r) && y.isNoValue(r)) {
+                    s.append(noValue);
+                } else {
+                    s.add(x.get(r) + y.get(r));
+                }
+            }
+        } else if (type == Type.INT) {
+            int[] x = ((IntColumn) a).values, y = ((IntColumn) b).values;
+            IntColumn ints = (IntColumn) out;
+            for (int r = 0; r < n; r++) {
+                if (special && (a.isSpecial(r) || b.isSpecial(r))) {
+                    ints.append(special(a, b, r, noValue, nan));
+                } else if (op == '/' && y[r] == 0) {
+                    ints.append(nan);
+                } else {
+                    ints.add(apply(x[r], y[r]));
+                }
+            }
+        } else {
+            double[] x = doubles(a), y = doubles(b);
+            FloatColumn floats = (FloatColumn) out;
+            for (int r = 0; r < n; r++) {
+                if (special && (a.isSpecial(r) || b.isSpecial(r))) {
+                    floats.append(special(a, b, r, noValue, nan));
+                } else if (op == '/' && y[r] == 0) {
+                    floats.append(nan);
+                } else {
+                    floats.add(apply(x[r], y[r]));
+                }
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        if (op == 0) {
+            return column;
+        }
+        return column + " " + op + " " + (otherColumn != null ? otherColumn : literal) + " as "
+                + name;
+    }
+
+    private Type resultType(Type a, Type b) {
+        if (a == Type.STRING || b == Type.STRING) {
+            if (a != b || op != '+') {
+                throw new DBException("cannot compute %s %c %s", a, op, b);
+            }
+            return Type.STRING;
+        }
+        return a == Type.INT && b == Type.INT ? Type.INT : Type.FLOAT;
+    }
+
+    /**
+     * Helper method: the result for a row where an operand is NOVALUE or NaN. A single NOVALUE
+     * has already been stored as 0, so that case computes normally.
+     */
+    private Literal special(Column a, Column b, int r, Literal noValue, Literal nan) {
+        if (a.isNaN(r) || b.isNaN(r)) {
+            return nan;
+        } else if (a.isNoValue(r) && b.isNoValue(r)) {
+            return noValue;
+        } else if (a instanceof IntColumn && b instanceof IntColumn) {
+            int x = ((IntColumn) a).values[r], y = ((IntColumn) b).values[r];
+            return op == '/' && y == 0 ? nan : Literal.ofInt(apply(x, y));
+        }
+        double x = Condition.doubleAt(a, r), y = Condition.doubleAt(b, r);
+        return op == '/' && y == 0 ? nan : Literal.ofFloat(apply(x, y));
+    }
+
+    private int apply(int x, int y) {
+        switch (op) {
+            case '+':
+                return x + y;
+            case '-':
+                return x - y;
+            case '*':
+                return x * y;
+            default:
+                return x / y;
+        }
+    }
+
+    private double apply(double x, double y) {
+        switch (op) {
+            case '+':
+                return x + y;
+            case '-':
+                return x - y;
+            case '*':
+                return x * y;
+            default:
+                return x / y;
+        }
+    }
+
+    /** Helper method: the values of a numeric column as doubles. */
+    private static double[] doubles(Column c) {
+        if (c instanceof FloatColumn) {
+            return ((FloatColumn) c).values;
+        }
+        int[] ints = ((IntColumn) c).values;
+        double[] ret = new double[c.size()];
+        for (int r = 0; r < ret.length; r++) {
+            ret[r] = ints[r];
+        }
+        return ret;
+    }
+}
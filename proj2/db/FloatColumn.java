@@ -0,0 +1,85 @@
+package db;
+
+import java.util.Arrays;
+
+/** A column of floats, kept as doubles. */
+class FloatColumn extends Column {
+    double[] values = new double[16];
+
+    @Override
+    Type type() {
+        return Type.FLOAT;
+    }
+
+    /** Appends a regular value. */
+    void add(double v) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = v;
+    }
+
+    @Override
+    void append(Literal v) {
+        if (v.isNoValue()) {
+            setNoValue(size);
+            add(0);
+        } else if (v.isNaN) {
+            setNaN(size);
+            add(0);
+        } else {
+            add(v.floatValue);
+        }
+    }
+
+    @Override
+    protected int countDistinct() {
+        double[] sorted = new double[size];
+        int n = 0;
+        for (int r = 0; r < size; r++) {
+            if (!isSpecial(r)) {
+                sorted[n++] = values[r] + 0.0;
+            }
+        }
+        Arrays.sort(sorted, 0, n);
+        int distinct = distinctSpecial();
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    @Override
+    String format(int row) {
+        String special = formatSpecial(row);
+        return special != null ? special : String.format("%.3f", values[row]);
+    }
+
+    @Override
+    Column gather(int[] rows, int n) {
+        FloatColumn c = new FloatColumn();
+        c.values = new double[Math.max(n, 1)];
+        for (int i = 0; i < n; i++) {
+            c.values[i] = values[rows[i]];
+        }
+        c.size = n;
+        gatherFlags(rows, n, c);
+        return c;
+    }
+
+    @Override
+    boolean sameValue(int row, Column other, int otherRow) {
+        if (isSpecial(row) || other.isSpecial(otherRow)) {
+            return isNoValue(row) == other.isNoValue(otherRow)
+                    && isNaN(row) == other.isNaN(otherRow);
+        }
+        return values[row] == ((FloatColumn) other).values[otherRow];
+    }
+
+    @Override
+    int hashAt(int row) {
+        return isSpecial(row) ? (isNaN(row) ? 1 : 2) : Double.hashCode(values[row] + 0.0);
+    }
+}
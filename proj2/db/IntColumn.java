@@ -0,0 +1,98 @@
+package db;
+
+import java.util.Arrays;
+
+/** A column of ints. */
+class IntColumn extends Column {
+    int[] values = new int[16];
+
+    @Override
+    Type type() {
+        return Type.INT;
+    }
+
+    /** Appends a regular value. */
+    void add(int v) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = v;
+    }
+
+    @Override
+    void append(Literal v) {
+        if (v.isNoValue()) {
+            setNoValue(size);
+            add(0);
+        } else if (v.isNaN) {
+            setNaN(size);
+            add(0);
+        } else {
+            add(v.intValue);
+        }
+    }
+
+    @Override
+    protected int countDistinct() {
+        int[] sorted = new int[size];
+        int n = 0;
+        for (int r = 0; r < size; r++) {
+            if (!isSpecial(r)) {
+                sorted[n++] = values[r];
+            }
+        }
+        Arrays.sort(sorted, 0, n);
+        int distinct = distinctSpecial();
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    @Override
+    protected boolean checkSorted() {
+        if (hasNoValue() || hasNaN()) {
+            return false;
+        }
+        for (int r = 1; r < size; r++) {
+            if (values[r] < values[r - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    String format(int row) {
+        String special = formatSpecial(row);
+        return special != null ? special : Integer.toString(values[row]);
+    }
+
+    @Override
+    Column gather(int[] rows, int n) {
+        IntColumn c = new IntColumn();
+        c.values = new int[Math.max(n, 1)];
+        for (int i = 0; i < n; i++) {
+            c.values[i] = values[rows[i]];
+        }
+        c.size = n;
+        gatherFlags(rows, n, c);
+        return c;
+    }
+
+    @Override
+    boolean sameValue(int row, Column other, int otherRow) {
+        if (isSpecial(row) || other.isSpecial(otherRow)) {
+            return isNoValue(row) == other.isNoValue(otherRow)
+                    && isNaN(row) == other.isNaN(otherRow);
+        }
+        return values[row] == ((IntColumn) other).values[otherRow];
+    }
+
+    @Override
+    int hashAt(int row) {
+        return isSpecial(row) ? (isNaN(row) ? 1 : 2) : values[row] * 0x9E3779B1;
+    }
+}
@@ -0,0 +1,64 @@
+package db;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times natural joins of generated tables of growing size, to check that they take time linear
+ * in the number of rows. Each size joins a table of orders with its customers (a
+ * many-to-one join on one column), and then with the customers' regions as well.
+ * Usage: java db.JoinBenchmark [largest number of orders, default 4000000]
+ */
+public class JoinBenchmark {
+    private static final int RUNS = 3;
+    private static final List<String> NAMES = Arrays.asList("orders", "customers", "regions");
+
+    public static void main(String[] args) {
+        int largest = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+        System.out.printf("%10s %10s %12s %12s %12s%n", "orders", "customers", "result rows",
+                          "ms", "ns per row");
+        for (int orders = largest / 8; orders <= largest; orders *= 2) {
+            int customers = orders / 10;
+            Random r = new Random(orders);
+            Table order = new Table(new String[]{"id", "customer", "amount"},
+                                    new Type[]{Type.INT, Type.INT, Type.FLOAT});
+            for (int i = 0; i < orders; i++) {
+                ((IntColumn) order.columns[0]).add(i);
+                ((IntColumn) order.columns[1]).add(r.nextInt(customers));
+                ((FloatColumn) order.columns[2]).add(r.nextInt(10000) / 100.0);
+            }
+            Table customer = new Table(new String[]{"customer", "name", "region"},
+                                       new Type[]{Type.INT, Type.STRING, Type.INT});
+            for (int i = 0; i < customers; i++) {
+                ((IntColumn) customer.columns[0]).add(i);
+                ((StringColumn) customer.columns[1]).add("customer " + i);
+                ((IntColumn) customer.columns[2]).add(r.nextInt(50));
+            }
+            Table region = new Table(new String[]{"region", "country"},
+                                     new Type[]{Type.INT, Type.STRING});
+            for (int i = 0; i < 50; i++) {
+                ((IntColumn) region.columns[0]).add(i);
+                ((StringColumn) region.columns[1]).add("country " + i % 7);
+            }
+
+            time(orders, customers, order, customer);
+            time(orders, customers, order, customer, region);
+        }
+    }
+
+    /** Helper method: prints the best time of RUNS joins of the tables. */
+    private static void time(int orders, int customers, Table... tables) {
+        long best = Long.MAX_VALUE;
+        int rows = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            rows = new Planner(NAMES.subList(0, tables.length), Arrays.asList(tables), null,
+                               Collections.emptyList()).execute().rows();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%10d %10d %12d %12.1f %12.1f  (%d tables)%n", orders, customers,
+                          rows, best / 1e6, (double) best / rows, tables.length);
+    }
+}
@@ -0,0 +1,111 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a query into tokens in one pass over its characters: words (names and keywords),
+ * int, float and string literals, and symbols. Each token keeps its position in the query so
+ * that errors can point at it. Signs are separate symbols; Parser joins them to numbers where
+ * a literal is expected.
+ */
+class Lexer {
+    enum Kind { WORD, INT, FLOAT, STRING, SYMBOL, END }
+
+    static class Token {
+        final Kind kind;
+        final String text;
+        /** The position of the first character in the query, from 0. */
+        final int position;
+
+        Token(Kind kind, String text, int position) {
+            this.kind = kind;
+            this.text = text;
+            this.position = position;
+        }
+
+        /** Whether this is the given word or symbol. */
+        boolean is(String s) {
+            return (kind == Kind.WORD || kind == Kind.SYMBOL) && text.equals(s);
+        }
+
+        @Override
+        public String toString() {
+            return kind == Kind.END ? "the end of the query" : "'" + text + "'";
+        }
+    }
+
+    /**
+     * The tokens of a query, ending with an END token.
+     *
+     * @throws DBException at the first character that does not start a token
+     */
+    static List<Token> tokenize(String query) {
+        List<Token> tokens = new ArrayList<>();
+        int n = query.length();
+        int i = 0;
+        while (true) {
+            while (i < n && Character.isWhitespace(query.charAt(i))) {
+                i++;
+            }
+            if (i == n) {
+                tokens.add(new Token(Kind.END, "", i));
+                return tokens;
+            }
+            int start = i;
+            char c = query.charAt(i);
+            if (isLetter(c)) {
+                while (i < n && (isLetter(query.charAt(i)) || isDigit(query.charAt(i))
+                        || query.charAt(i) == '_')) {
+                    i++;
+                }
+                tokens.add(new Token(Kind.WORD, query.substring(start, i), start));
+            } else if (isDigit(c) || (c == '.' && i + 1 < n && isDigit(query.charAt(i + 1)))) {
+                while (i < n && isDigit(query.charAt(i))) {
+                    i++;
+                }
+                Kind kind = Kind.INT;
+                if (i < n && query.charAt(i) == '.') {
+                    kind = Kind.FLOAT;
+                    i++;
+                    while (i < n && isDigit(query.charAt(i))) {
+                        i++;
+                    }
+                }
+                tokens.add(new Token(kind, query.substring(start, i), start));
+            } else if (c == '\'') {
+                i++;
+                while (i < n && query.charAt(i) != '\'') {
+                    char s = query.charAt(i);
+                    if (s == ',' || s == '\t' || s == '\n') {
+                        throw new DBException("strings cannot hold commas, tabs or newlines, "
+                                              + "at position %d", i + 1);
+                    }
+                    i++;
+                }
+                if (i == n) {
+                    throw new DBException("unterminated string at position %d", start + 1);
+                }
+                i++;
+                tokens.add(new Token(Kind.STRING, query.substring(start + 1, i - 1), start));
+            } else if ((c == '=' || c == '!' || c == '<' || c == '>') && i + 1 < n
+                    && query.charAt(i + 1) == '=') {
+                i += 2;
+                tokens.add(new Token(Kind.SYMBOL, query.substring(start, i), start));
+            } else if ("(),*+-/<>".indexOf(c) != -1) {
+                i++;
+                tokens.add(new Token(Kind.SYMBOL, String.valueOf(c), start));
+            } else {
+                throw new DBException("unexpected '%c' at position %d", c, i + 1);
+            }
+        }
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
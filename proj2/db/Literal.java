@@ -0,0 +1,107 @@
+package db;
+
+import java.util.regex.Pattern;
+
+/** A constant value as written in a query or a table file. */
+class Literal {
+    private static final Pattern INT    = Pattern.compile("[+-]?\\d+"),
+                                 FLOAT  = Pattern.compile("[+-]?(?:\\d+\\.\\d*|\\.\\d+)"),
+                                 STRING = Pattern.compile("'[^'\\t\\n,]*'");
+
+    static final String NOVALUE = "NOVALUE",
+                        NAN     = "NaN";
+
+    /** The type of the value, or null for NOVALUE, which fits any column. */
+    final Type type;
+    final boolean isNaN;
+    final int intValue;
+    final double floatValue;
+    final String stringValue;
+
+    private Literal(Type type, boolean isNaN, int intValue, double floatValue,
+                    String stringValue) {
+        this.type = type;
+        this.isNaN = isNaN;
+        this.intValue = intValue;
+        this.floatValue = floatValue;
+        this.stringValue = stringValue;
+    }
+
+    static Literal ofInt(int v) {
+        return new Literal(Type.INT, false, v, v, null);
+    }
+
+    static Literal ofFloat(double v) {
+        return new Literal(Type.FLOAT, false, 0, v, null);
+    }
+
+    static Literal ofString(String v) {
+        return new Literal(Type.STRING, false, 0, 0, v);
+    }
+
+    static Literal noValue() {
+        return new Literal(null, false, 0, 0, null);
+    }
+
+    /** NaN, for a numeric column of the given type. */
+    static Literal nan(Type type) {
+        return new Literal(type, true, 0, Double.NaN, null);
+    }
+
+    boolean isNoValue() {
+        return type == null && !isNaN;
+    }
+
+    /**
+     * The value written as token. NaN is a float unless a column says otherwise.
+     *
+     * @throws DBException if token is not a literal
+     */
+    static Literal parse(String token) {
+        token = token.trim();
+        if (token.equals(NOVALUE)) {
+            return noValue();
+        } else if (token.equals(NAN)) {
+            return nan(Type.FLOAT);
+        } else if (INT.matcher(token).matches()) {
+            try {
+                return ofInt(Integer.parseInt(token));
+            } catch (NumberFormatException e) {
+                throw new DBException("integer out of range: %s", token);
+            }
+        } else if (FLOAT.matcher(token).matches()) {
+            return ofFloat(Double.parseDouble(token));
+        } else if (STRING.matcher(token).matches()) {
+            return ofString(token.substring(1, token.length() - 1));
+        }
+        throw new DBException("malformed value: %s", token);
+    }
+
+    /**
+     * This value as stored in a column of the given type.
+     *
+     * @throws DBException if it is not NOVALUE or a value of that type
+     */
+    Literal as(Type columnType) {
+        if (isNoValue() || type == columnType) {
+            return this;
+        } else if (isNaN && columnType.isNumeric()) {
+            return nan(columnType);
+        }
+        throw new DBException("%s is not a value of type %s", this, columnType);
+    }
+
+    @Override
+    public String toString() {
+        if (isNoValue()) {
+            return NOVALUE;
+        } else if (isNaN) {
+            return NAN;
+        } else if (type == Type.INT) {
+            return Integer.toString(intValue);
+        } else if (type == Type.FLOAT) {
+            return Double.toString(floatValue);
+        }
+        return "'" + stringValue + "'";
+    }
+}
@@ -0,0 +1,121 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares Parser with the regular expressions of the original Parse skeleton, on two
+ * workloads: a batch of inserts, and malformed selects with long where clauses, which the
+ * nested select pattern backtracks over before failing (time grows exponentially with the
+ * number of conditions). The inserts are also run through Database.transact, where all but
+ * the first hit the QueryCache.
+ * Usage: java db.ParseBenchmark [number of inserts, default 200000]
+ */
+public class ParseBenchmark {
+    private static final int RUNS = 3;
+    private static final int MAX_CONDITIONS = 20;
+
+    /* The skeleton's patterns for the two commands benchmarked, as the baseline */
+    private static final String REST  = "\\s*(.*)\\s*",
+                                COMMA = "\\s*,\\s*";
+    private static final Pattern INSERT_CMD = Pattern.compile("insert into " + REST),
+                                 SELECT_CMD = Pattern.compile("select " + REST),
+                                 SELECT_CLS = Pattern.compile("([^,]+?(?:,[^,]+?)*)\\s+from\\s+" +
+                                              "(\\S+\\s*(?:,\\s*\\S+\\s*)*)(?:\\s+where\\s+" +
+                                              "([\\w\\s+\\-*/'<>=!.]+?(?:\\s+and\\s+" +
+                                              "[\\w\\s+\\-*/'<>=!.]+?)*))?"),
+                                 INSERT_CLS = Pattern.compile("(\\S+)\\s+values\\s+(.+?" +
+                                              "\\s*(?:,\\s*.+?\\s*)*)");
+
+    private interface Runner {
+        void run(Database db, String query);
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        List<String> inserts = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            inserts.add(String.format("insert into scores values %d, 'player %d', %d.%02d, %d",
+                                      i, i % 1000, i % 100, i % 97, i % 7 - 3));
+        }
+        System.out.printf("%d inserts, best of %d runs:%n", n, RUNS);
+        System.out.printf("  regex:            %8.2f us each%n",
+                          inserts(inserts, ParseBenchmark::regex));
+        System.out.printf("  Parser:           %8.2f us each%n",
+                          inserts(inserts, (db, q) -> Parser.parse(q).run(db)));
+        System.out.printf("  Parser, no run:   %8.2f us each%n",
+                          inserts(inserts, (db, q) -> Parser.parse(q)));
+        System.out.printf("  transact, cached: %8.2f us each%n",
+                          inserts(inserts, Database::transact));
+
+        System.out.println("Malformed select with k conditions:");
+        System.out.printf("%6s %14s %14s%n", "k", "regex ms", "Parser ms");
+        for (int k = 4; k <= MAX_CONDITIONS; k += 4) {
+            StringBuilder sb = new StringBuilder("select id, score from scores where id > 1");
+            for (int i = 1; i < k; i++) {
+                sb.append(" and score < ").append(i);
+            }
+            String query = sb.append(" and team < (").toString();
+            System.out.printf("%6d %14.3f %14.3f%n", k,
+                              malformed(query, ParseBenchmark::regex),
+                              malformed(query, (db, q) -> Parser.parse(q).run(db)));
+        }
+    }
+
+    /**
+     * Helper method: runs an insert, or rejects a select that does not match, using the
+     * baseline patterns
+     */
+    private static void regex(Database db, String query) {
+        Matcher m;
+        if ((m = INSERT_CMD.matcher(query)).matches()) {
+            if (!(m = INSERT_CLS.matcher(m.group(1))).matches()) {
+                throw new DBException("malformed insert: %s", query);
+            }
+            String[] tokens = m.group(2).split(COMMA, -1);
+            Literal[] values = new Literal[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                values[i] = Literal.parse(tokens[i]);
+            }
+            db.insert(m.group(1), values);
+        } else if (!(m = SELECT_CMD.matcher(query)).matches()
+                || !SELECT_CLS.matcher(m.group(1)).matches()) {
+            throw new DBException("malformed select: %s", query);
+        } else {
+            throw new UnsupportedOperationException("only inserts are run: " + query);
+        }
+    }
+
+    /** Helper method: the best time per insert of running them all on a new table, in us. */
+    private static double inserts(List<String> inserts, Runner runner) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            Database db = new Database();
+            db.create("scores", new String[]{"id", "name", "score", "team"},
+                      new Type[]{Type.INT, Type.STRING, Type.FLOAT, Type.INT});
+            long start = System.nanoTime();
+            for (String q : inserts) {
+                runner.run(db, q);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e3 / inserts.size();
+    }
+
+    /** Helper method: the best time of rejecting a malformed query, in ms. */
+    private static double malformed(String query, Runner runner) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            try {
+                runner.run(new Database(), query);
+                throw new IllegalStateException("Query was not rejected: " + query);
+            } catch (DBException e) {
+                best = Math.min(best, System.nanoTime() - start);
+            }
+        }
+        return best / 1e6;
+    }
+}
@@ -0,0 +1,268 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Parses a query into a Statement by recursive descent over its tokens (see Lexer), in a
+ * single pass with one token of lookahead. Errors name what was expected, what was found, and
+ * its position in the query (counting characters from 1). The grammar:
+ * <pre>
+ * statement   = "create" "table" name ( "(" name type { "," name type } ")" | "as" select )
+ *             | "load" name | "store" name | "drop" "table" name | "print" name
+ *             | "insert" "into" name "values" literal { "," literal }
+ *             | select | "explain" select
+ * select      = "select" ( "*" | expression { "," expression } ) "from" name { "," name }
+ *               [ "where" condition { "and" condition } ]
+ * expression  = name [ ( "+" | "-" | "*" | "/" ) operand "as" name ]
+ * condition   = name ( "==" | "!=" | "<" | ">" | "<=" | ">=" ) operand
+ * operand     = name | literal
+ * literal     = [ "+" | "-" ] ( int | float ) | string | "NOVALUE" | "NaN"
+ * </pre>
+ */
+class Parser {
+    /** Keywords that cannot be names, since they end a list of names or expressions. */
+    private static final Set<String> RESERVED = new HashSet<>(Arrays.asList("select", "from",
+                                                                            "where", "and",
+                                                                            "as"));
+
+    private final List<Lexer.Token> tokens;
+    private final List<Boolean> negated;
+    private int pos;
+
+    private Parser(List<Lexer.Token> tokens, List<Boolean> negated) {
+        this.tokens = tokens;
+        this.negated = negated;
+    }
+
+    /**
+     * Parses a query.
+     *
+     * @throws DBException if it is malformed
+     */
+    static Statement parse(String query) {
+        return parse(Lexer.tokenize(query), new ArrayList<>());
+    }
+
+    /**
+     * Parses the tokens of a query.
+     *
+     * @param negated Gets, for each int, float and string token in order, whether a minus sign
+     *                before it was applied to it
+     * @throws DBException if it is malformed
+     */
+    static Statement parse(List<Lexer.Token> tokens, List<Boolean> negated) {
+        Parser p = new Parser(tokens, negated);
+        Statement s = p.statement();
+        p.expectEnd();
+        return s;
+    }
+
+    private Statement statement() {
+        if (accept("create")) {
+            expect("table");
+            String name = name();
+            if (accept("(")) {
+                List<String> columns = new ArrayList<>();
+                List<Type> types = new ArrayList<>();
+                do {
+                    columns.add(name());
+                    types.add(type());
+                } while (accept(","));
+                expect(")");
+                return new Statement.CreateTable(name, columns.toArray(new String[0]),
+                                                 types.toArray(new Type[0]));
+            }
+            expect("as");
+            return new Statement.CreateTableAs(name, select());
+        } else if (accept("load")) {
+            return new Statement.Load(name());
+        } else if (accept("store")) {
+            return new Statement.Store(name());
+        } else if (accept("drop")) {
+            expect("table");
+            return new Statement.Drop(name());
+        } else if (accept("print")) {
+            return new Statement.Print(name());
+        } else if (accept("insert")) {
+            expect("into");
+            String name = name();
+            expect("values");
+            List<Literal> values = new ArrayList<>();
+            do {
+                values.add(literal());
+            } while (accept(","));
+            return new Statement.Insert(name, values.toArray(new Literal[0]));
+        } else if (accept("explain")) {
+            return new Statement.Explain(select());
+        } else if (peek().is("select")) {
+            return select();
+        }
+        throw error("a command");
+    }
+
+    private Statement.Select select() {
+        expect("select");
+        List<Expression> expressions = null;
+        if (!accept("*")) {
+            expressions = new ArrayList<>();
+            do {
+                expressions.add(expression());
+            } while (accept(","));
+        }
+        expect("from");
+        List<String> tables = new ArrayList<>();
+        do {
+            tables.add(name());
+        } while (accept(","));
+        List<Condition> conditions = new ArrayList<>();
+        if (accept("where")) {
+            do {
+                conditions.add(condition());
+            } while (accept("and"));
+        }
+        return new Statement.Select(expressions, tables, conditions);
+    }
+
+    private Expression expression() {
+        String column = name();
+        Lexer.Token t = peek();
+        if (!(t.is("+") || t.is("-") || t.is("*") || t.is("/"))) {
+            return new Expression(column, column, (char) 0, null, null);
+        }
+        pos++;
+        char op = t.text.charAt(0);
+        String otherColumn = null;
+        Literal literal = null;
+        if (isName(peek())) {
+            otherColumn = name();
+        } else {
+            literal = literal();
+        }
+        expect("as");
+        return new Expression(name(), column, op, otherColumn, literal);
+    }
+
+    private Condition condition() {
+        String column = name();
+        Lexer.Token t = peek();
+        if (!(t.is("==") || t.is("!=") || t.is("<") || t.is(">") || t.is("<=")
+                || t.is(">="))) {
+            throw error("a comparison");
+        }
+        pos++;
+        if (isName(peek())) {
+            return new Condition(column, t.text, name(), null);
+        }
+        return new Condition(column, t.text, null, literal());
+    }
+
+    private Literal literal() {
+        Lexer.Token t = peek();
+        boolean negate = false;
+        if (t.is("-") || t.is("+")) {
+            negate = t.is("-");
+            pos++;
+            t = peek();
+            if (t.kind != Lexer.Kind.INT && t.kind != Lexer.Kind.FLOAT) {
+                throw error("a number");
+            }
+        }
+        if (isValue(t)) {
+            pos++;
+            negated.add(negate);
+            return value(t, negate);
+        } else if (accept(Literal.NOVALUE)) {
+            return Literal.noValue();
+        } else if (accept(Literal.NAN)) {
+            return Literal.nan(Type.FLOAT);
+        }
+        throw error("a value");
+    }
+
+    /** Whether t is an int, float or string literal. */
+    static boolean isValue(Lexer.Token t) {
+        return t.kind == Lexer.Kind.INT || t.kind == Lexer.Kind.FLOAT
+                || t.kind == Lexer.Kind.STRING;
+    }
+
+    /**
+     * The value of an int, float or string token, negated if a minus sign came before it.
+     *
+     * @throws DBException if it is an int out of range
+     */
+    static Literal value(Lexer.Token t, boolean negate) {
+        switch (t.kind) {
+            case INT:
+                try {
+                    return Literal.ofInt(Integer.parseInt(negate ? "-" + t.text : t.text));
+                } catch (NumberFormatException e) {
+                    throw new DBException("expected an int in range but found %s at position %d",
+                                          t, t.position + 1);
+                }
+            case FLOAT:
+                double v = Double.parseDouble(t.text);
+                return Literal.ofFloat(negate ? -v : v);
+            default:
+                return Literal.ofString(t.text);
+        }
+    }
+
+    private Type type() {
+        Lexer.Token t = peek();
+        for (Type type : Type.values()) {
+            if (t.is(type.toString())) {
+                pos++;
+                return type;
+            }
+        }
+        throw error("a type");
+    }
+
+    private String name() {
+        if (!isName(peek())) {
+            throw error("a name");
+        }
+        return tokens.get(pos++).text;
+    }
+
+    /** Helper method: whether t is a name rather than a keyword or a literal. */
+    private static boolean isName(Lexer.Token t) {
+        return t.kind == Lexer.Kind.WORD && !RESERVED.contains(t.text)
+                && !t.text.equals(Literal.NOVALUE) && !t.text.equals(Literal.NAN);
+    }
+
+    private Lexer.Token peek() {
+        return tokens.get(pos);
+    }
+
+    /** Helper method: skips the next token if it is the given word or symbol. */
+    private boolean accept(String s) {
+        if (peek().is(s)) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String s) {
+        if (!accept(s)) {
+            throw error("'" + s + "'");
+        }
+    }
+
+    private void expectEnd() {
+        if (peek().kind != Lexer.Kind.END) {
+            throw error("the end of the query");
+        }
+    }
+
+    private DBException error(String expected) {
+        Lexer.Token t = peek();
+        return new DBException("expected %s but found %s at position %d", expected, t,
+                               t.position + 1);
+    }
+}
@@ -0,0 +1,362 @@
+package db;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A plan for the join part of a select, made by Planner: a tree of scans of the tables in the
+ * from clause, with the conditions pushed down to them, and of joins. Running a plan gives its
+ * rows as a selection vector per table (see Rows); no column is copied until the end. Nodes
+ * refer to conditions by their position in the where clause, and get them when run, so that a
+ * plan can be run again with other literals in the conditions (see QueryCache).
+ */
+abstract class Plan {
+    /** Estimated number of rows out. */
+    double rows;
+    /** Estimated cost of the whole subtree, in rows read and written. */
+    double cost;
+    /** The tables in the subtree, as a bit per position in the from clause. */
+    int tables;
+
+    /** Runs the plan with the given conditions of the where clause. */
+    abstract Rows execute(List<Condition> conditions);
+
+    /** Whether the rows come out in nondecreasing order of the column (with no NOVALUE or NaN). */
+    abstract boolean isSortedBy(String column);
+
+    /**
+     * Whether the plan still gives the right rows for the tables as they are now: the sides of
+     * every merge join are still sorted by its key, as they were when it was planned.
+     */
+    abstract boolean isValid();
+
+    /** Appends a line describing each node of the subtree, indented by its depth. */
+    abstract void explain(StringBuilder sb, int depth, List<Condition> conditions);
+
+    /** Helper method: appends the line for this node. */
+    protected void line(StringBuilder sb, int depth, String text) {
+        for (int i = 0; i < depth; i++) {
+            sb.append("  ");
+        }
+        sb.append(String.format("%s  (~%d rows, cost %d)%n", text, Math.round(rows),
+                                Math.round(cost)));
+    }
+
+    /**
+     * Rows of a plan: row i of the result is made of row rows[j][i] of table tables[j] for
+     * each j. A null vector stands for all the rows of its table, in order.
+     */
+    static class Rows {
+        final int[] tables;
+        final int[][] rows;
+        final int size;
+
+        Rows(int[] tables, int[][] rows, int size) {
+            this.tables = tables;
+            this.rows = rows;
+            this.size = size;
+        }
+
+        /** The selection vector of the table at the given position in the from clause. */
+        int[] of(int table) {
+            for (int j = 0; j < tables.length; j++) {
+                if (tables[j] == table) {
+                    return rows[j];
+                }
+            }
+            throw new IllegalArgumentException("No table " + table + " in these rows");
+        }
+
+        /** The rows made of row left[i] of a and row right[i] of b, for i below n. */
+        static Rows pair(Rows a, int[] left, Rows b, int[] right, int n) {
+            int[] tables = Arrays.copyOf(a.tables, a.tables.length + b.tables.length);
+            int[][] rows = new int[tables.length][];
+            for (int j = 0; j < a.tables.length; j++) {
+                rows[j] = pick(a.rows[j], left, n);
+            }
+            for (int j = 0; j < b.tables.length; j++) {
+                tables[a.tables.length + j] = b.tables[j];
+                rows[a.tables.length + j] = pick(b.rows[j], right, n);
+            }
+            return new Rows(tables, rows, n);
+        }
+
+        private static int[] pick(int[] vector, int[] positions, int n) {
+            int[] ret = new int[n];
+            for (int i = 0; i < n; i++) {
+                ret[i] = vector == null ? positions[i] : vector[positions[i]];
+            }
+            return ret;
+        }
+    }
+
+    /** A table in the from clause, filtered by the conditions on its columns alone. */
+    static class Scan extends Plan {
+        final int index;
+        final String name;
+        final Table table;
+        /** The positions of its conditions in the where clause. */
+        final List<Integer> filters;
+
+        Scan(int index, String name, Table table, List<Integer> filters, double rows) {
+            this.index = index;
+            this.name = name;
+            this.table = table;
+            this.filters = filters;
+            this.rows = rows;
+            this.cost = (double) table.rows() * (1 + filters.size());
+            this.tables = 1 << index;
+        }
+
+        @Override
+        Rows execute(List<Condition> conditions) {
+            int[] rows = table.allRows();
+            int n = rows.length;
+            for (int i : filters) {
+                n = conditions.get(i).filter(table, rows, n);
+            }
+            return new Rows(new int[]{index}, new int[][]{Arrays.copyOf(rows, n)}, n);
+        }
+
+        @Override
+        boolean isSortedBy(String column) {
+            int i = table.indexOf(column);
+            return i != -1 && table.columns[i].isSorted();
+        }
+
+        @Override
+        boolean isValid() {
+            return true;
+        }
+
+        @Override
+        void explain(StringBuilder sb, int depth, List<Condition> conditions) {
+            StringBuilder text = new StringBuilder("Scan " + name);
+            for (int i = 0; i < filters.size(); i++) {
+                text.append(i == 0 ? " where " : " and ").append(conditions.get(filters.get(i)));
+            }
+            line(sb, depth, text.toString());
+        }
+    }
+
+    /**
+     * A natural join of a plan and a scan. How the matches are found:
+     * HASH builds a hash table on the smaller side and probes it with the larger;
+     * INDEX probes the hash index of the right table's column (see Column.Index) with each
+     * left row, so that the right table is not read at all (it must not be filtered);
+     * MERGE walks both sides together, when both are sorted on the only shared column;
+     * NESTED_LOOP pairs every row with every row, when no columns are shared.
+     */
+    static class Join extends Plan {
+        enum Method { HASH, INDEX, MERGE, NESTED_LOOP }
+
+        /**
+         * Columns that must be equal for rows to match, and where to read them on each side:
+         * a shared column, or two named in a == condition.
+         */
+        static class Key {
+            final String leftName, rightName;
+            final int leftTable, rightTable;
+            final Column leftColumn, rightColumn;
+
+            Key(String leftName, int leftTable, Column leftColumn, String rightName,
+                int rightTable, Column rightColumn) {
+                this.leftName = leftName;
+                this.rightName = rightName;
+                this.leftTable = leftTable;
+                this.leftColumn = leftColumn;
+                this.rightTable = rightTable;
+                this.rightColumn = rightColumn;
+            }
+        }
+
+        final Plan left;
+        final Scan right;
+        final Method method;
+        final List<Key> keys;
+
+        Join(Plan left, Scan right, Method method, List<Key> keys, double rows, double cost) {
+            this.left = left;
+            this.right = right;
+            this.method = method;
+            this.keys = keys;
+            this.rows = rows;
+            this.cost = cost;
+            this.tables = left.tables | right.tables;
+        }
+
+        @Override
+        Rows execute(List<Condition> conditions) {
+            Rows a = left.execute(conditions);
+            Rows b;
+            Pairs matches = new Pairs();
+            if (method == Method.INDEX) {
+                b = new Rows(new int[]{right.index}, new int[][]{null}, right.table.rows());
+                indexJoin(a, matches);
+            } else {
+                b = right.execute(conditions);
+                if (method == Method.HASH) {
+                    hashJoin(a, b, matches);
+                } else if (method == Method.MERGE) {
+                    mergeJoin(a, b, matches);
+                } else {
+                    for (int i = 0; i < a.size; i++) {
+                        for (int j = 0; j < b.size; j++) {
+                            matches.add(i, j);
+                        }
+                    }
+                }
+            }
+            return Rows.pair(a, matches.left, b, matches.right, matches.n);
+        }
+
+        private void hashJoin(Rows a, Rows b, Pairs matches) {
+            boolean buildLeft = a.size < b.size;
+            Rows build = buildLeft ? a : b, probe = buildLeft ? b : a;
+            Column[] buildKeys = new Column[keys.size()], probeKeys = new Column[keys.size()];
+            int[][] buildRows = new int[keys.size()][], probeRows = new int[keys.size()][];
+            for (int c = 0; c < keys.size(); c++) {
+                Key key = keys.get(c);
+                buildKeys[c] = buildLeft ? key.leftColumn : key.rightColumn;
+                probeKeys[c] = buildLeft ? key.rightColumn : key.leftColumn;
+                buildRows[c] = build.of(buildLeft ? key.leftTable : key.rightTable);
+                probeRows[c] = probe.of(buildLeft ? key.rightTable : key.leftTable);
+            }
+
+            /* Chained hash table: head of each bucket, and the next entry after each */
+            int mask = Integer.highestOneBit(Math.max(build.size, 1) * 2 - 1) * 2 - 1;
+            int[] head = new int[mask + 1];
+            int[] next = new int[build.size];
+            Arrays.fill(head, -1);
+            for (int i = build.size - 1; i >= 0; i--) {
+                int bucket = hash(buildKeys, buildRows, i) & mask;
+                next[i] = head[bucket];
+                head[bucket] = i;
+            }
+            for (int p = 0; p < probe.size; p++) {
+                for (int i = head[hash(probeKeys, probeRows, p) & mask]; i != -1; i = next[i]) {
+                    boolean match = true;
+                    for (int c = 0; c < keys.size() && match; c++) {
+                        match = probeKeys[c].sameValue(probeRows[c][p], buildKeys[c],
+                                                       buildRows[c][i]);
+                    }
+                    if (match) {
+                        matches.add(buildLeft ? i : p, buildLeft ? p : i);
+                    }
+                }
+            }
+        }
+
+        /** Helper method: the hash of the key columns at position i of a side. */
+        private static int hash(Column[] keys, int[][] keyRows, int i) {
+            int h = 0;
+            for (int c = 0; c < keys.length; c++) {
+                h = h * 31 + keys[c].hashAt(keyRows[c][i]);
+            }
+            return Column.Index.spread(h);
+        }
+
+        private void indexJoin(Rows a, Pairs matches) {
+            Key first = keys.get(0);
+            Column.Index index = first.rightColumn.index();
+            int[][] leftRows = new int[keys.size()][];
+            for (int c = 0; c < keys.size(); c++) {
+                leftRows[c] = a.of(keys.get(c).leftTable);
+            }
+            for (int i = 0; i < a.size; i++) {
+                int r = leftRows[0][i];
+                for (int s = index.first(first.leftColumn.hashAt(r)); s != -1;
+                     s = index.next(s)) {
+                    boolean match = true;
+                    for (int c = 0; c < keys.size() && match; c++) {
+                        Key key = keys.get(c);
+                        match = key.leftColumn.sameValue(leftRows[c][i], key.rightColumn, s);
+                    }
+                    if (match) {
+                        matches.add(i, s);
+                    }
+                }
+            }
+        }
+
+        private void mergeJoin(Rows a, Rows b, Pairs matches) {
+            Key key = keys.get(0);
+            int[] x = ((IntColumn) key.leftColumn).values, y = ((IntColumn) key.rightColumn).values;
+            int[] leftRows = a.of(key.leftTable), rightRows = b.of(key.rightTable);
+            int j = 0;
+            for (int i = 0; i < a.size; i++) {
+                int v = x[leftRows[i]];
+                while (j < b.size && y[rightRows[j]] < v) {
+                    j++;
+                }
+                for (int k = j; k < b.size && y[rightRows[k]] == v; k++) {
+                    matches.add(i, k);
+                }
+            }
+        }
+
+        @Override
+        boolean isSortedBy(String column) {
+            /* Every method but HASH keeps the order of the left side */
+            return method != Method.HASH && left.isSortedBy(column);
+        }
+
+        @Override
+        boolean isValid() {
+            if (method == Method.MERGE && !(left.isSortedBy(keys.get(0).leftName)
+                                            && right.isSortedBy(keys.get(0).rightName))) {
+                return false;
+            }
+            return left.isValid();
+        }
+
+        @Override
+        void explain(StringBuilder sb, int depth, List<Condition> conditions) {
+            StringBuilder text = new StringBuilder();
+            switch (method) {
+                case HASH:
+                    text.append("HashJoin");
+                    break;
+                case INDEX:
+                    text.append("IndexJoin");
+                    break;
+                case MERGE:
+                    text.append("MergeJoin");
+                    break;
+                default:
+                    text.append("NestedLoopJoin");
+            }
+            for (int c = 0; c < keys.size(); c++) {
+                Key key = keys.get(c);
+                text.append(c == 0 ? " on " : ", ").append(key.leftName);
+                if (!key.leftName.equals(key.rightName)) {
+                    text.append(" == ").append(key.rightName);
+                }
+            }
+            if (method == Method.INDEX) {
+                text.append(" using the index on ").append(right.name).append('.')
+                    .append(keys.get(0).rightName);
+            }
+            line(sb, depth, text.toString());
+            left.explain(sb, depth + 1, conditions);
+            if (method != Method.INDEX) {
+                right.explain(sb, depth + 1, conditions);
+            }
+        }
+    }
+
+    /** Matches found by a join, as positions on the left and right side, growing as needed. */
+    private static class Pairs {
+        int[] left = new int[16], right = new int[16];
+        int n;
+
+        void add(int i, int j) {
+            if (n == left.length) {
+                left = Arrays.copyOf(left, n * 2);
+                right = Arrays.copyOf(right, n * 2);
+            }
+            left[n] = i;
+            right[n++] = j;
+        }
+    }
+}
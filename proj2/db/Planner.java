@@ -0,0 +1,455 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Plans and runs a select. The planner:
+ * <ul>
+ * <li>pushes each condition on the columns of one table down to the scan of that table (and of
+ * every table sharing those columns, since the join makes them equal);</li>
+ * <li>estimates the rows out of each scan and join from the tables' statistics (the number of
+ * rows and of distinct values in each column, see Column.distinct);</li>
+ * <li>tries every order of joining the tables (or, for many tables, adds them greedily) and,
+ * for each join, picks the cheapest of a hash, index, merge or nested-loop join (see
+ * Plan.Join);</li>
+ * <li>gathers only the columns that the expressions and remaining conditions use.</li>
+ * </ul>
+ * Conditions on the results of expressions are applied after computing them. The result is the
+ * same as joining the tables from left to right by nested loops, then filtering, then
+ * computing the expressions.
+ * <p>
+ * A plan can be run again with other literals in the expressions and conditions, and is kept
+ * for that by QueryCache while it is current (see isCurrent).
+ */
+class Planner {
+    /** The most tables in a select (one bit each in Plan.tables). */
+    private static final int MAX_TABLES = 30;
+    /** Above this many tables, joins are added greedily instead of trying every order. */
+    private static final int MAX_EXHAUSTIVE = 12;
+    /** Fraction of rows assumed to satisfy a comparison other than == and !=. */
+    private static final double RANGE_SELECTIVITY = 1.0 / 3;
+    /** How much a table can grow or shrink before its plans are remade. */
+    private static final int REPLAN_FACTOR = 2;
+
+    private final List<String> tableNames;
+    private final List<Table> tables;
+    /** The number of rows in each table when planned. */
+    private final int[] plannedRows;
+    /** The expressions and conditions planned for; the expressions are null for all columns. */
+    private final List<Expression> expressions;
+    private final List<Condition> conditions;
+    /* The columns of the join, and the table and column each is read from */
+    private final List<String> names = new ArrayList<>();
+    private final List<int[]> sources = new ArrayList<>();
+    /* Conditions applied after the join, and after computing the expressions, by position */
+    private final List<Integer> residual = new ArrayList<>();
+    private final List<Integer> late = new ArrayList<>();
+    /** The columns of the join to gather, in order. */
+    private final List<String> needed = new ArrayList<>();
+    private final Plan plan;
+
+    Planner(List<String> tableNames, List<Table> tables, List<Expression> expressions,
+            List<Condition> conditions) {
+        if (tables.size() > MAX_TABLES) {
+            throw new DBException("at most %d tables can be joined", MAX_TABLES);
+        }
+        this.tableNames = tableNames;
+        this.tables = tables;
+        this.expressions = expressions;
+        this.conditions = conditions;
+        plannedRows = new int[tables.size()];
+        for (int k = 0; k < tables.size(); k++) {
+            plannedRows[k] = tables.get(k).rows();
+            addColumns(k);
+        }
+
+        List<List<Integer>> pushed = new ArrayList<>();
+        for (int k = 0; k < tables.size(); k++) {
+            pushed.add(new ArrayList<>());
+        }
+        for (int i = 0; i < conditions.size(); i++) {
+            Condition c = conditions.get(i);
+            if (!names.containsAll(Arrays.asList(c.columns()))) {
+                late.add(i);
+                continue;
+            }
+            boolean isPushed = false;
+            for (int k = 0; k < tables.size(); k++) {
+                boolean hasAll = true;
+                for (String column : c.columns()) {
+                    hasAll &= tables.get(k).indexOf(column) != -1;
+                }
+                if (hasAll) {
+                    pushed.get(k).add(i);
+                    isPushed = true;
+                }
+            }
+            if (!isPushed) {
+                residual.add(i);
+            }
+        }
+
+        List<Plan.Scan> scans = new ArrayList<>();
+        for (int k = 0; k < tables.size(); k++) {
+            Table t = tables.get(k);
+            double rows = t.rows();
+            for (int i : pushed.get(k)) {
+                rows *= selectivity(conditions.get(i), t);
+            }
+            scans.add(new Plan.Scan(k, tableNames.get(k), t, pushed.get(k), rows));
+        }
+        plan = tables.size() <= MAX_EXHAUSTIVE ? exhaustive(scans) : greedy(scans);
+
+        List<String> used = new ArrayList<>();
+        if (expressions == null) {
+            used.addAll(names);
+        } else {
+            for (Expression e : expressions) {
+                used.addAll(Arrays.asList(e.columns()));
+            }
+        }
+        for (int i : residual) {
+            used.addAll(Arrays.asList(conditions.get(i).columns()));
+        }
+        for (String name : names) {
+            if (used.contains(name)) {
+                needed.add(name);
+            }
+        }
+    }
+
+    /**
+     * Helper method: Joins the column names of table k into those of the tables before it, as
+     * a nested-loop join would order them: shared columns first, then the rest of the tables
+     * before, then the rest of k
+     */
+    private void addColumns(int k) {
+        Table t = tables.get(k);
+        List<String> sharedNames = new ArrayList<>(), restNames = new ArrayList<>();
+        List<int[]> sharedSources = new ArrayList<>(), restSources = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            int j = t.indexOf(names.get(i));
+            if (j == -1) {
+                restNames.add(names.get(i));
+                restSources.add(sources.get(i));
+                continue;
+            }
+            int[] source = sources.get(i);
+            Type type = tables.get(source[0]).columns[source[1]].type();
+            if (type != t.columns[j].type()) {
+                throw new DBException("cannot join %s %s with %s %s", names.get(i), type,
+                                      names.get(i), t.columns[j].type());
+            }
+            sharedNames.add(names.get(i));
+            sharedSources.add(source);
+        }
+        for (int j = 0; j < t.names.length; j++) {
+            if (!names.contains(t.names[j])) {
+                restNames.add(t.names[j]);
+                restSources.add(new int[]{k, j});
+            }
+        }
+        names.clear();
+        names.addAll(sharedNames);
+        names.addAll(restNames);
+        sources.clear();
+        sources.addAll(sharedSources);
+        sources.addAll(restSources);
+    }
+
+    /** Helper method: the estimated fraction of the rows of t that satisfy c. */
+    private static double selectivity(Condition c, Table t) {
+        if (c.otherColumn == null && c.literal.isNoValue()) {
+            return 0;
+        }
+        double distinct = Math.max(1, t.column(c.column).distinct());
+        if (c.otherColumn != null) {
+            distinct = Math.max(distinct, t.column(c.otherColumn).distinct());
+        }
+        switch (c.op) {
+            case "==":
+                return 1 / distinct;
+            case "!=":
+                return 1 - 1 / distinct;
+            default:
+                return RANGE_SELECTIVITY;
+        }
+    }
+
+    /** Helper method: the cheapest left-deep join of every subset of the tables. */
+    private Plan exhaustive(List<Plan.Scan> scans) {
+        int n = scans.size();
+        Plan[] best = new Plan[1 << n];
+        for (int k = 0; k < n; k++) {
+            best[1 << k] = scans.get(k);
+        }
+        for (int set = 1; set < best.length; set++) {
+            if (Integer.bitCount(set) < 2) {
+                continue;
+            }
+            for (int k = 0; k < n; k++) {
+                if ((set & (1 << k)) == 0) {
+                    continue;
+                }
+                Plan p = join(best[set ^ (1 << k)], scans.get(k));
+                if (best[set] == null || p.cost < best[set].cost) {
+                    best[set] = p;
+                }
+            }
+        }
+        return best[best.length - 1];
+    }
+
+    /** Helper method: starting from the smallest table, adds the cheapest one to join next. */
+    private Plan greedy(List<Plan.Scan> scans) {
+        List<Plan.Scan> rest = new ArrayList<>(scans);
+        Plan.Scan first = rest.get(0);
+        for (Plan.Scan s : rest) {
+            if (s.rows < first.rows) {
+                first = s;
+            }
+        }
+        rest.remove(first);
+        Plan plan = first;
+        while (!rest.isEmpty()) {
+            Plan best = null;
+            Plan.Scan next = null;
+            for (Plan.Scan s : rest) {
+                Plan p = join(plan, s);
+                if (best == null || p.cost < best.cost) {
+                    best = p;
+                    next = s;
+                }
+            }
+            rest.remove(next);
+            plan = best;
+        }
+        return plan;
+    }
+
+    /** Helper method: the cheapest join of a plan with a scan. */
+    private Plan.Join join(Plan left, Plan.Scan right) {
+        List<Plan.Join.Key> keys = new ArrayList<>();
+        double rows = left.rows * right.rows;
+        Table t = right.table;
+        for (String name : t.names) {
+            addKey(keys, left, name, right, name);
+        }
+        /* An == between columns on either side is a key too (and still filters afterwards,
+           since rows holding NOVALUE match as keys but not in conditions) */
+        for (int i : residual) {
+            Condition c = conditions.get(i);
+            if (c.otherColumn != null && c.op.equals("==")) {
+                addKey(keys, left, c.column, right, c.otherColumn);
+                addKey(keys, left, c.otherColumn, right, c.column);
+            }
+        }
+        for (Plan.Join.Key key : keys) {
+            double leftDistinct = Math.min(left.rows, key.leftColumn.distinct());
+            double rightDistinct = Math.min(right.rows, key.rightColumn.distinct());
+            rows /= Math.max(1, Math.max(leftDistinct, rightDistinct));
+        }
+
+        /* Costs of each method, in rows read and written; ties go to the earlier method */
+        Plan.Join.Method method;
+        double cost;
+        if (keys.isEmpty()) {
+            method = Plan.Join.Method.NESTED_LOOP;
+            cost = left.cost + right.cost + left.rows * right.rows;
+        } else {
+            method = Plan.Join.Method.HASH;
+            cost = left.cost + right.cost + 2 * Math.min(left.rows, right.rows)
+                    + Math.max(left.rows, right.rows) + rows;
+            Plan.Join.Key first = keys.get(0);
+            if (keys.size() == 1 && first.rightColumn.type() == Type.INT
+                    && left.isSortedBy(first.leftName) && right.isSortedBy(first.rightName)
+                    && left.cost + right.cost + left.rows + right.rows + rows <= cost) {
+                method = Plan.Join.Method.MERGE;
+                cost = left.cost + right.cost + left.rows + right.rows + rows;
+            }
+            double build = first.rightColumn.hasIndex() ? 0 : 2 * t.rows();
+            if (right.filters.isEmpty() && left.cost + left.rows + build + rows <= cost) {
+                method = Plan.Join.Method.INDEX;
+                cost = left.cost + left.rows + build + rows;
+            }
+        }
+        return new Plan.Join(left, right, method, keys, rows, cost);
+    }
+
+    /**
+     * Helper method: Adds a key for leftName on the left of a join equal to rightName on the
+     * right, if the sides have those columns, of the same type
+     */
+    private void addKey(List<Plan.Join.Key> keys, Plan left, String leftName, Plan.Scan right,
+                        String rightName) {
+        int j = right.table.indexOf(rightName);
+        if (j == -1) {
+            return;
+        }
+        for (int k = 0; k < tables.size(); k++) {
+            int i = tables.get(k).indexOf(leftName);
+            if ((left.tables & (1 << k)) != 0 && i != -1) {
+                Column column = tables.get(k).columns[i];
+                if (column.type() == right.table.columns[j].type()) {
+                    keys.add(new Plan.Join.Key(leftName, k, column, rightName, right.index,
+                                               right.table.columns[j]));
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Whether the plan is still good for the tables now named in the from clause: they are the
+     * same tables, none has grown or shrunk by more than REPLAN_FACTOR since planning, and the
+     * plan still gives the right rows for them (see Plan.isValid).
+     */
+    boolean isCurrent(List<Table> now) {
+        for (int k = 0; k < tables.size(); k++) {
+            if (now.get(k) != tables.get(k)) {
+                return false;
+            }
+            int planned = Math.max(plannedRows[k], 1), rows = Math.max(now.get(k).rows(), 1);
+            if (rows > planned * REPLAN_FACTOR || planned > rows * REPLAN_FACTOR) {
+                return false;
+            }
+        }
+        return plan.isValid();
+    }
+
+    /** Runs the plan, then the remaining conditions and the expressions. */
+    Table execute() {
+        return execute(expressions, conditions);
+    }
+
+    /**
+     * Runs the plan with other expressions and conditions, which must be those planned for
+     * with only their literals changed.
+     */
+    Table execute(List<Expression> expressions, List<Condition> conditions) {
+        Plan.Rows rows = plan.execute(conditions);
+        int[] order = sortedOrder(rows);
+        String[] columnNames = needed.toArray(new String[0]);
+        Column[] columns = new Column[columnNames.length];
+        int[][] gathered = new int[tables.size()][];
+        for (int i = 0; i < columns.length; i++) {
+            int[] source = sources.get(names.indexOf(columnNames[i]));
+            int k = source[0];
+            if (gathered[k] == null) {
+                int[] r = rows.of(k);
+                gathered[k] = new int[rows.size];
+                for (int j = 0; j < rows.size; j++) {
+                    gathered[k][j] = r[order[j]];
+                }
+            }
+            columns[i] = tables.get(k).columns[source[1]].gather(gathered[k], rows.size);
+        }
+        Table joined = filter(new Table(columnNames, columns), pick(conditions, residual));
+        if (expressions == null) {
+            return joined;
+        }
+        String[] resultNames = new String[expressions.size()];
+        Column[] resultColumns = new Column[expressions.size()];
+        for (int i = 0; i < resultNames.length; i++) {
+            resultNames[i] = expressions.get(i).name;
+            resultColumns[i] = expressions.get(i).evaluate(joined);
+        }
+        return filter(new Table(resultNames, resultColumns), pick(conditions, late));
+    }
+
+    /**
+     * Helper method: The positions of the rows in order of their row in the first table of
+     * the from clause, then the second and so on, as a nested-loop join would give them, by a
+     * stable counting sort on each table from the last to the first
+     */
+    private int[] sortedOrder(Plan.Rows rows) {
+        int[] order = new int[rows.size], sorted = new int[rows.size];
+        for (int i = 0; i < rows.size; i++) {
+            order[i] = i;
+        }
+        for (int k = tables.size() - 1; k >= 0; k--) {
+            int[] r = rows.of(k);
+            int[] count = new int[tables.get(k).rows() + 1];
+            for (int i = 0; i < rows.size; i++) {
+                count[r[i] + 1]++;
+            }
+            for (int v = 0; v + 1 < count.length; v++) {
+                count[v + 1] += count[v];
+            }
+            for (int i = 0; i < rows.size; i++) {
+                sorted[count[r[order[i]]]++] = order[i];
+            }
+            int[] swap = order;
+            order = sorted;
+            sorted = swap;
+        }
+        return order;
+    }
+
+    /** Helper method: a new table of the rows of t that satisfy all the conditions. */
+    private static Table filter(Table t, List<Condition> conditions) {
+        if (conditions.isEmpty()) {
+            return t;
+        }
+        int[] rows = t.allRows();
+        int n = rows.length;
+        for (Condition c : conditions) {
+            n = c.filter(t, rows, n);
+        }
+        return t.gather(rows, n);
+    }
+
+    /** Helper method: the conditions at the given positions. */
+    private static List<Condition> pick(List<Condition> conditions, List<Integer> positions) {
+        List<Condition> ret = new ArrayList<>();
+        for (int i : positions) {
+            ret.add(conditions.get(i));
+        }
+        return ret;
+    }
+
+    /** A description of the plan, one line per step, the first step at the bottom. */
+    String explain() {
+        return explain(expressions, conditions);
+    }
+
+    /** The description of the plan run with other expressions and conditions (see execute). */
+    String explain(List<Expression> expressions, List<Condition> conditions) {
+        StringBuilder sb = new StringBuilder();
+        int depth = 0;
+        if (!late.isEmpty()) {
+            sb.append("Filter ").append(join(pick(conditions, late), " and ")).append('\n');
+            depth++;
+        }
+        if (expressions != null) {
+            indent(sb, depth++).append("Project ").append(join(expressions, ", ")).append('\n');
+        }
+        if (!residual.isEmpty()) {
+            indent(sb, depth++).append("Filter ").append(join(pick(conditions, residual), " and "))
+                    .append('\n');
+        }
+        indent(sb, depth++).append("Gather ").append(join(needed, ", ")).append('\n');
+        plan.explain(sb, depth, conditions);
+        return sb.toString().trim();
+    }
+
+    private static StringBuilder indent(StringBuilder sb, int depth) {
+        for (int i = 0; i < depth; i++) {
+            sb.append("  ");
+        }
+        return sb;
+    }
+
+    private static String join(List<?> items, String separator) {
+        StringBuilder sb = new StringBuilder();
+        for (Object item : items) {
+            if (sb.length() > 0) {
+                sb.append(separator);
+            }
+            sb.append(item);
+        }
+        return sb.toString();
+    }
+}
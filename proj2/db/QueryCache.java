@@ -0,0 +1,110 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsed statements, by the shape of their query: its tokens with each int, float and string
+ * literal replaced by a parameter. A query with the same shape as one seen before (say, the
+ * same insert with other values) is then only tokenized, and its values bound into the cached
+ * statement instead of parsing it again. A select keeps its plan across those bindings, so it
+ * is not planned again either (see Planner.isCurrent). The least recently used shapes are
+ * evicted once there are more than the capacity.
+ */
+class QueryCache {
+    private final int capacity;
+    private final Map<String, Entry> entries;
+    private long hits, misses, evictions;
+
+    /** A cached statement, and whether a minus sign was applied to each of its parameters. */
+    private static class Entry {
+        final Statement statement;
+        final boolean[] negated;
+
+        Entry(Statement statement, List<Boolean> negated) {
+            this.statement = statement;
+            this.negated = new boolean[negated.size()];
+            for (int i = 0; i < this.negated.length; i++) {
+                this.negated[i] = negated.get(i);
+            }
+        }
+    }
+
+    QueryCache(int capacity) {
+        this.capacity = capacity;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > QueryCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * The statement for a query, from the cache if its shape is there.
+     *
+     * @throws DBException if the query is malformed
+     */
+    Statement statement(String query) {
+        List<Lexer.Token> tokens = Lexer.tokenize(query);
+        List<Lexer.Token> parameters = new ArrayList<>();
+        String shape = shape(tokens, parameters);
+        Entry entry = entries.get(shape);
+        if (entry == null) {
+            misses++;
+            List<Boolean> negated = new ArrayList<>();
+            Statement statement = Parser.parse(tokens, negated);
+            if (capacity > 0) {
+                entries.put(shape, new Entry(statement, negated));
+            }
+            return statement;
+        }
+        hits++;
+        List<Literal> values = new ArrayList<>(parameters.size());
+        for (int i = 0; i < parameters.size(); i++) {
+            values.add(Parser.value(parameters.get(i), entry.negated[i]));
+        }
+        return entry.statement.bind(values.iterator());
+    }
+
+    /** Helper method: the shape of a query, adding its parameters to parameters. */
+    private static String shape(List<Lexer.Token> tokens, List<Lexer.Token> parameters) {
+        StringBuilder sb = new StringBuilder();
+        for (Lexer.Token t : tokens) {
+            if (Parser.isValue(t)) {
+                parameters.add(t);
+                sb.append('?').append(t.kind.ordinal());
+            } else {
+                sb.append(t.text);
+            }
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+
+    /** The fraction of queries found in the cache, or 0 before any query. */
+    double hitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d queries, %d hits (%.1f%%), %d misses, %d evictions, %d of %d "
+                             + "shapes cached", hits + misses, hits, 100 * hitRate(), misses,
+                             evictions, entries.size(), capacity);
+    }
+}
@@ -0,0 +1,227 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/** A parsed query (see Parser), ready to run on a Database. */
+abstract class Statement {
+    /**
+     * Runs the statement.
+     *
+     * @return The table for print and select, the plan for explain, or else the empty string
+     */
+    abstract String run(Database db);
+
+    /**
+     * The same statement with other values for its int, float and string literals, given in
+     * the order they appear in the query (see QueryCache).
+     */
+    Statement bind(Iterator<Literal> values) {
+        return this;
+    }
+
+    /** Helper method: the value for a literal of a statement being bound. */
+    private static Literal boundValue(Literal literal, Iterator<Literal> values) {
+        /* NOVALUE and NaN are keywords rather than values (see Parser.literal) */
+        if (literal == null || literal.isNoValue() || literal.isNaN) {
+            return literal;
+        }
+        return values.next();
+    }
+
+    static class CreateTable extends Statement {
+        final String name;
+        final String[] columns;
+        final Type[] types;
+
+        CreateTable(String name, String[] columns, Type[] types) {
+            this.name = name;
+            this.columns = columns;
+            this.types = types;
+        }
+
+        @Override
+        String run(Database db) {
+            db.create(name, columns, types);
+            return "";
+        }
+    }
+
+    static class CreateTableAs extends Statement {
+        final String name;
+        final Select select;
+
+        CreateTableAs(String name, Select select) {
+            this.name = name;
+            this.select = select;
+        }
+
+        @Override
+        String run(Database db) {
+            db.create(name, select.execute(db));
+            return "";
+        }
+
+        @Override
+        Statement bind(Iterator<Literal> values) {
+            return new CreateTableAs(name, select.bind(values));
+        }
+    }
+
+    static class Load extends Statement {
+        final String name;
+
+        Load(String name) {
+            this.name = name;
+        }
+
+        @Override
+        String run(Database db) {
+            db.load(name);
+            return "";
+        }
+    }
+
+    static class Store extends Statement {
+        final String name;
+
+        Store(String name) {
+            this.name = name;
+        }
+
+        @Override
+        String run(Database db) {
+            db.store(name);
+            return "";
+        }
+    }
+
+    static class Drop extends Statement {
+        final String name;
+
+        Drop(String name) {
+            this.name = name;
+        }
+
+        @Override
+        String run(Database db) {
+            db.drop(name);
+            return "";
+        }
+    }
+
+    static class Insert extends Statement {
+        final String name;
+        final Literal[] values;
+
+        Insert(String name, Literal[] values) {
+            this.name = name;
+            this.values = values;
+        }
+
+        @Override
+        String run(Database db) {
+            db.insert(name, values);
+            return "";
+        }
+
+        @Override
+        Statement bind(Iterator<Literal> values) {
+            Literal[] bound = new Literal[this.values.length];
+            for (int i = 0; i < bound.length; i++) {
+                bound[i] = boundValue(this.values[i], values);
+            }
+            return new Insert(name, bound);
+        }
+    }
+
+    static class Print extends Statement {
+        final String name;
+
+        Print(String name) {
+            this.name = name;
+        }
+
+        @Override
+        String run(Database db) {
+            return db.table(name).toString();
+        }
+    }
+
+    static class Select extends Statement {
+        /** The column expressions, or null for all columns. */
+        final List<Expression> expressions;
+        final List<String> tables;
+        final List<Condition> conditions;
+        /** The plan last made for this select and those bound from it, in a shared box. */
+        private final Planner[] plan;
+
+        Select(List<Expression> expressions, List<String> tables, List<Condition> conditions) {
+            this(expressions, tables, conditions, new Planner[1]);
+        }
+
+        private Select(List<Expression> expressions, List<String> tables,
+                       List<Condition> conditions, Planner[] plan) {
+            this.expressions = expressions;
+            this.tables = tables;
+            this.conditions = conditions;
+            this.plan = plan;
+        }
+
+        /** The plan, remade if the tables have changed too much since it was made. */
+        Planner planner(Database db) {
+            List<Table> from = db.tables(tables);
+            if (plan[0] == null || !plan[0].isCurrent(from)) {
+                plan[0] = new Planner(tables, from, expressions, conditions);
+            }
+            return plan[0];
+        }
+
+        Table execute(Database db) {
+            return planner(db).execute(expressions, conditions);
+        }
+
+        @Override
+        String run(Database db) {
+            return execute(db).toString();
+        }
+
+        /* Expressions come before conditions in a select, so their literals do too */
+        @Override
+        Select bind(Iterator<Literal> values) {
+            List<Expression> boundExpressions = null;
+            if (expressions != null) {
+                boundExpressions = new ArrayList<>();
+                for (Expression e : expressions) {
+                    boundExpressions.add(new Expression(e.name, e.column, e.op, e.otherColumn,
+                                                        boundValue(e.literal, values)));
+                }
+            }
+            List<Condition> boundConditions = new ArrayList<>();
+            for (Condition c : conditions) {
+                boundConditions.add(new Condition(c.column, c.op, c.otherColumn,
+                                                  boundValue(c.literal, values)));
+            }
+            return new Select(boundExpressions, tables, boundConditions, plan);
+        }
+    }
+
+    static class Explain extends Statement {
+        final Select select;
+
+        Explain(Select select) {
+            this.select = select;
+        }
+
+        @Override
+        String run(Database db) {
+            return select.planner(db).explain(select.expressions, select.conditions);
+        }
+
+        @Override
+        Statement bind(Iterator<Literal> values) {
+            return new Explain(select.bind(values));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A column of strings, dictionary encoded: each distinct string is stored once, and each row
+ * holds the int code of its string. Comparing against a constant then means deciding once per
+ * distinct string and scanning the codes. Columns gathered from this one share its dictionary.
+ */
+class StringColumn extends Column {
+    int[] codes = new int[16];
+    final Dictionary dict;
+
+    /** The distinct strings of one or more columns, by code. */
+    static class Dictionary {
+        final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> index = new HashMap<>();
+
+        int encode(String s) {
+            Integer code = index.get(s);
+            if (code == null) {
+                code = strings.size();
+                strings.add(s);
+                index.put(s, code);
+            }
+            return code;
+        }
+
+        /** The code of s, or -1 if no row holds it. */
+        int lookup(String s) {
+            Integer code = index.get(s);
+            return code == null ? -1 : code;
+        }
+
+        String decode(int code) {
+            return strings.get(code);
+        }
+
+        int size() {
+            return strings.size();
+        }
+    }
+
+    StringColumn() {
+        this(new Dictionary());
+    }
+
+    private StringColumn(Dictionary dict) {
+        this.dict = dict;
+    }
+
+    @Override
+    Type type() {
+        return Type.STRING;
+    }
+
+    /** Appends a regular value. */
+    void add(String s) {
+        addCode(dict.encode(s));
+    }
+
+    private void addCode(int code) {
+        if (size == codes.length) {
+            codes = Arrays.copyOf(codes, size * 2);
+        }
+        codes[size++] = code;
+    }
+
+    /** The string in a row ("" for NOVALUE). */
+    String get(int row) {
+        return dict.decode(codes[row]);
+    }
+
+    @Override
+    void append(Literal v) {
+        if (v.isNoValue()) {
+            setNoValue(size);
+            add("");
+        } else {
+            add(v.stringValue);
+        }
+    }
+
+    @Override
+    protected int countDistinct() {
+        boolean[] seen = new boolean[dict.size()];
+        int distinct = distinctSpecial();
+        for (int r = 0; r < size; r++) {
+            if (!isNoValue(r) && !seen[codes[r]]) {
+                seen[codes[r]] = true;
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    @Override
+    String format(int row) {
+        String special = formatSpecial(row);
+        return special != null ? special : "'" + get(row) + "'";
+    }
+
+    @Override
+    Column gather(int[] rows, int n) {
+        StringColumn c = new StringColumn(dict);
+        c.codes = new int[Math.max(n, 1)];
+        for (int i = 0; i < n; i++) {
+            c.codes[i] = codes[rows[i]];
+        }
+        c.size = n;
+        gatherFlags(rows, n, c);
+        return c;
+    }
+
+    @Override
+    boolean sameValue(int row, Column other, int otherRow) {
+        if (isNoValue(row) || other.isNoValue(otherRow)) {
+            return isNoValue(row) && other.isNoValue(otherRow);
+        }
+        StringColumn o = (StringColumn) other;
+        if (o.dict == dict) {
+            return codes[row] == o.codes[otherRow];
+        }
+        return get(row).equals(o.get(otherRow));
+    }
+
+    @Override
+    int hashAt(int row) {
+        return isNoValue(row) ? 2 : get(row).hashCode();
+    }
+}
@@ -0,0 +1,199 @@
+package db;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A table, stored by column: each column is one primitive array (see Column), so an operation
+ * on a column is a loop over an array rather than over row objects. Operations that keep some
+ * of the rows (filters, joins) work on selection vectors, arrays of row numbers, and build
+ * their result with gather.
+ */
+class Table {
+    private static final Pattern NAME   = Pattern.compile("[A-Za-z]\\w*"),
+                                 HEADER = Pattern.compile("\\s*(\\S+)\\s+(\\S+)\\s*");
+
+    final String[] names;
+    final Column[] columns;
+
+    /** An empty table. */
+    Table(String[] names, Type[] types) {
+        this.names = names;
+        this.columns = new Column[types.length];
+        for (int i = 0; i < types.length; i++) {
+            columns[i] = Column.create(types[i]);
+        }
+        checkNames();
+    }
+
+    /** A table of existing columns, which must all have the same number of rows. */
+    Table(String[] names, Column[] columns) {
+        this.names = names;
+        this.columns = columns;
+        checkNames();
+    }
+
+    private void checkNames() {
+        if (names.length == 0) {
+            throw new DBException("a table needs at least one column");
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (!NAME.matcher(names[i]).matches()) {
+                throw new DBException("invalid column name: %s", names[i]);
+            }
+            for (int j = 0; j < i; j++) {
+                if (names[i].equals(names[j])) {
+                    throw new DBException("duplicate column name: %s", names[i]);
+                }
+            }
+        }
+    }
+
+    /** Whether name can name a table or a column. */
+    static boolean isName(String name) {
+        return NAME.matcher(name).matches();
+    }
+
+    int rows() {
+        return columns[0].size();
+    }
+
+    /** The index of the column with the given name, or -1 if there is none. */
+    int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The column with the given name.
+     *
+     * @throws DBException if there is none
+     */
+    Column column(String name) {
+        int i = indexOf(name);
+        if (i == -1) {
+            throw new DBException("no column named %s", name);
+        }
+        return columns[i];
+    }
+
+    /** Appends a row, checking that each value fits its column. */
+    void insert(Literal[] values) {
+        if (values.length != columns.length) {
+            throw new DBException("expected %d values but got %d", columns.length,
+                                  values.length);
+        }
+        Literal[] row = new Literal[values.length];
+        for (int i = 0; i < values.length; i++) {
+            row[i] = values[i].as(columns[i].type());
+        }
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].append(row[i]);
+        }
+    }
+
+    /** Appends a row given as one literal per column, as written in a .tbl file. */
+    void insert(String[] tokens) {
+        Literal[] values = new Literal[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            values[i] = Literal.parse(tokens[i]);
+        }
+        insert(values);
+    }
+
+    /** A new table of rows[0] to rows[n - 1] of this one. */
+    Table gather(int[] rows, int n) {
+        Column[] gathered = new Column[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            gathered[i] = columns[i].gather(rows, n);
+        }
+        return new Table(names, gathered);
+    }
+
+    /** The row numbers 0 to rows() - 1, as a selection vector to filter. */
+    int[] allRows() {
+        int[] rows = new int[rows()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        return rows;
+    }
+
+    /** Reads a table in .tbl format: a header of "name type" pairs, then one row per line. */
+    static Table read(BufferedReader in) throws IOException {
+        String header = in.readLine();
+        if (header == null) {
+            throw new DBException("missing header");
+        }
+        String[] decls = header.split(",");
+        String[] names = new String[decls.length];
+        Type[] types = new Type[decls.length];
+        for (int i = 0; i < decls.length; i++) {
+            Matcher m = HEADER.matcher(decls[i]);
+            if (!m.matches()) {
+                throw new DBException("malformed column declaration: %s", decls[i]);
+            }
+            names[i] = m.group(1);
+            types[i] = Type.of(m.group(2));
+        }
+        Table t = new Table(names, types);
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (!line.trim().isEmpty()) {
+                t.insert(line.split(",", -1));
+            }
+        }
+        return t;
+    }
+
+    /** Reads the table in file name.tbl. */
+    static Table load(String name) {
+        try (BufferedReader in = new BufferedReader(new FileReader(name + ".tbl"))) {
+            return read(in);
+        } catch (FileNotFoundException e) {
+            throw new DBException("no file %s.tbl", name);
+        } catch (IOException e) {
+            throw new DBException("could not read %s.tbl: %s", name, e.getMessage());
+        }
+    }
+
+    /** Writes the table to file name.tbl. */
+    void store(String name) {
+        try (PrintWriter out = new PrintWriter(name + ".tbl")) {
+            out.print(toString());
+        } catch (IOException e) {
+            throw new DBException("could not write %s.tbl: %s", name, e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(names[i]).append(' ').append(columns[i].type());
+        }
+        int n = rows();
+        for (int r = 0; r < n; r++) {
+            sb.append('\n');
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(columns[i].format(r));
+            }
+        }
+        return sb.toString();
+    }
+}
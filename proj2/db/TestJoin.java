@@ -0,0 +1,202 @@
+package db;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/** Tests joins against joining the same tables by nested loops. */
+public class TestJoin {
+    /** The lines of a printed table: its header, then one per row. */
+    private static List<String> lines(String printed) {
+        return new ArrayList<>(Arrays.asList(printed.split("\n")));
+    }
+
+    /**
+     * Makes table ref in db the natural join of tables a and b by nested loops, a's rows
+     * outside: rows pair up when every shared column prints the same, so NOVALUE matches
+     * NOVALUE and NaN matches NaN, as they do as join keys.
+     */
+    private static void nestedLoopJoin(Database db, String a, String b, String ref) {
+        List<String> left = lines(db.transact("print " + a));
+        List<String> right = lines(db.transact("print " + b));
+        List<String> leftColumns = Arrays.asList(left.get(0).split(","));
+        List<String> rightColumns = Arrays.asList(right.get(0).split(","));
+        List<String> columns = new ArrayList<>(leftColumns);
+        /* Positions in b of the shared columns, matching their positions in a */
+        List<Integer> shared = new ArrayList<>(), sharedLeft = new ArrayList<>();
+        List<Integer> rest = new ArrayList<>();
+        for (int j = 0; j < rightColumns.size(); j++) {
+            int i = leftColumns.indexOf(rightColumns.get(j));
+            if (i == -1) {
+                columns.add(rightColumns.get(j));
+                rest.add(j);
+            } else {
+                shared.add(j);
+                sharedLeft.add(i);
+            }
+        }
+        db.transact("create table " + ref + " (" + String.join(", ", columns) + ")");
+        for (String l : left.subList(1, left.size())) {
+            String[] x = l.split(",");
+            for (String r : right.subList(1, right.size())) {
+                String[] y = r.split(",");
+                boolean match = true;
+                for (int k = 0; k < shared.size(); k++) {
+                    match &= x[sharedLeft.get(k)].equals(y[shared.get(k)]);
+                }
+                if (match) {
+                    StringBuilder row = new StringBuilder(l);
+                    for (int j : rest) {
+                        row.append(',').append(y[j]);
+                    }
+                    assertEquals("", db.transact("insert into " + ref + " values " + row));
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that selecting what from a and b where (if not empty) gives the same as
+     * selecting it from their nested-loop join.
+     *
+     * @return The result
+     */
+    private static String check(Database db, String what, String a, String b, String where) {
+        nestedLoopJoin(db, a, b, "ref");
+        String suffix = where.isEmpty() ? "" : " where " + where;
+        String expected = db.transact("select " + what + " from ref" + suffix);
+        db.transact("drop table ref");
+        String result = db.transact("select " + what + " from " + a + ", " + b + suffix);
+        assertFalse(result, result.startsWith("ERROR"));
+        assertEquals(what + suffix, expected, result);
+        return result;
+    }
+
+    /** Helper method: A database with the given tables, each a create and its rows. */
+    private static Database database(String... tables) {
+        Database db = new Database();
+        for (String table : tables) {
+            String[] lines = table.split("\n");
+            assertEquals("", db.transact(lines[0]));
+            String name = lines[0].split(" ")[2];
+            for (int i = 1; i < lines.length; i++) {
+                assertEquals("", db.transact("insert into " + name + " values " + lines[i]));
+            }
+        }
+        return db;
+    }
+
+    /** NOVALUE and NaN keys match only themselves, whichever table is on the left. */
+    @Test
+    public void testSpecialKeys() {
+        Database db = database("create table a (k int, x int)\n"
+                               + "1, 10\nNOVALUE, 11\nNaN, 12\n2, 13\nNOVALUE, 14\nNaN, 15",
+                               "create table b (k int, y int)\n"
+                               + "NaN, 20\n2, 21\nNOVALUE, 22\n1, 23\n3, 24",
+                               "create table f (g float, x int)\n"
+                               + "1.5, 30\nNaN, 31\nNOVALUE, 32\n-2.0, 33",
+                               "create table h (g float, y int)\n"
+                               + "NOVALUE, 40\n1.5, 41\nNaN, 42\nNaN, 43");
+        assertEquals("k int,x int,y int\n1,10,23\nNOVALUE,11,22\nNaN,12,20\n2,13,21\n"
+                     + "NOVALUE,14,22\nNaN,15,20", check(db, "k, x, y", "a", "b", ""));
+        check(db, "k, x, y", "b", "a", "");
+        check(db, "k, x, y", "a", "b", "y > 21");
+        check(db, "k, x, y", "a", "b", "k < 3");
+        check(db, "g, x, y", "f", "h", "");
+        check(db, "g, x, y", "h", "f", "g >= 0");
+        /* As a condition, == never holds for NOVALUE, while NaN still equals itself */
+        assertEquals("k int,x int,y int\n1,10,23\nNaN,12,20\n2,13,21\nNaN,15,20",
+                     check(db, "k, x, y", "a", "b", "k == k"));
+    }
+
+    /** Rows join only when every shared column matches. */
+    @Test
+    public void testMultiColumnKeys() {
+        Database db = database("create table a (k int, s string, x int)\n"
+                               + "1, 'p', 10\n1, 'q', 11\n2, 'p', 12\nNOVALUE, 'p', 13\n"
+                               + "2, NOVALUE, 14\n1, 'p', 15",
+                               "create table b (s string, k int, y int)\n"
+                               + "'p', 1, 20\n'q', 2, 21\n'p', NOVALUE, 22\nNOVALUE, 2, 23\n"
+                               + "'q', 1, 24\n'p', 1, 25",
+                               "create table c (k int, x int, z float)\n"
+                               + "1, 10, 0.5\n1, 11, 1.5\n2, 10, NaN\n3, 15, 2.5");
+        assertEquals("k int,s string,x int,y int\n1,'p',10,20\n1,'p',10,25\n1,'q',11,24\n"
+                     + "NOVALUE,'p',13,22\n2,NOVALUE,14,23\n1,'p',15,20\n1,'p',15,25",
+                     check(db, "k, s, x, y", "a", "b", ""));
+        check(db, "k, s, x, y", "b", "a", "");
+        check(db, "k, s, x, y", "a", "b", "s == 'p'");
+        check(db, "k, x, z", "a", "c", "");
+        check(db, "k, x, z", "c", "a", "z < 2");
+        check(db, "k, y", "b", "c", "y != 20");
+    }
+
+    /**
+     * Helper method: A table of n rows (k int, name int) with k from 0 up when sorted, else
+     * random, and name random but at least 1.
+     */
+    private static String table(String table, String name, int n, boolean sorted, Random r) {
+        StringBuilder sb = new StringBuilder("create table " + table + " (k int, " + name
+                                             + " int)");
+        for (int i = 0; i < n; i++) {
+            int k = sorted ? i / 2 : r.nextInt(n);
+            sb.append('\n').append(k).append(", ").append(1 + r.nextInt(9));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Checks a select on a and b against their nested-loop join, and that its plan joins them
+     * with the given method.
+     */
+    private static void checkMethod(Database db, String method, String what, String a,
+                                    String b, String where) {
+        String plan = db.transact("explain select " + what + " from " + a + ", " + b
+                                  + " where " + where);
+        assertTrue(plan, plan.contains(method + "Join"));
+        check(db, what, a, b, where);
+    }
+
+    /** Each join method, as the planner picks it for the shape of the tables. */
+    @Test
+    public void testEachMethod() {
+        Random r = new Random(48);
+        Database db = database(table("sa", "x", 40, true, r), table("sb", "y", 30, true, r),
+                               table("ua", "x", 40, false, r), table("ub", "y", 30, false, r),
+                               table("small", "x", 3, false, r),
+                               "create table c (z int, w int)\n1, 2\n3, 4\n5, 6");
+        /* Both sides sorted on the key, and filtered so that neither is an index lookup */
+        checkMethod(db, "Merge", "k, x, y", "sa", "sb", "x > 2 and y < 8");
+        /* The same, but unsorted */
+        checkMethod(db, "Hash", "k, x, y", "ua", "ub", "x > 2 and y < 8");
+        /* A few rows looked up in the other table, which is not filtered */
+        checkMethod(db, "Index", "k, x, y", "small", "ub", "x > 0");
+        checkMethod(db, "Index", "k, x, y", "ub", "small", "x > 0");
+        /* No shared columns */
+        checkMethod(db, "NestedLoop", "k, x, z, w", "small", "c", "w > 2");
+        checkMethod(db, "NestedLoop", "k, y, z", "c", "ub", "z < y");
+    }
+
+    /**
+     * A condition on one table's columns is applied in its scan, and one on a join key in the
+     * scans of both tables, without changing the result.
+     */
+    @Test
+    public void testPredicatePushdown() {
+        Random r = new Random(48);
+        Database db = database(table("a", "x", 40, false, r), table("b", "y", 30, false, r));
+        String plan = db.transact("explain select k, x, y from a, b where x > 4 and k < 10");
+        assertTrue(plan, plan.contains("Scan a where x > 4 and k < 10"));
+        assertTrue(plan, plan.contains("Scan b where k < 10"));
+        check(db, "k, x, y", "a", "b", "x > 4 and k < 10");
+        /* A condition across both tables stays after the join */
+        plan = db.transact("explain select k, x, y from a, b where x < y");
+        assertTrue(plan, plan.contains("Filter x < y"));
+        assertFalse(plan, plan.contains("where x < y"));
+        check(db, "k, x, y", "a", "b", "x < y");
+    }
+}
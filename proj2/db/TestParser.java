@@ -0,0 +1,91 @@
+package db;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/** Tests the errors for malformed queries, from the parser and the lexer. */
+public class TestParser {
+    /** The message of the error that parsing query throws. */
+    private static String error(String query) {
+        try {
+            Parser.parse(query);
+        } catch (DBException e) {
+            return e.getMessage();
+        }
+        fail("parsed " + query);
+        return null;
+    }
+
+    @Test
+    public void testExpectedButFound() {
+        assertEquals("expected a command but found 'selec' at position 1",
+                     error("selec * from t"));
+        assertEquals("expected a name but found the end of the query at position 14",
+                     error("select * from"));
+        assertEquals("expected ')' but found the end of the query at position 22",
+                     error("create table t (x int"));
+        assertEquals("expected a type but found 'integer' at position 19",
+                     error("create table t (x integer)"));
+        assertEquals("expected 'as' but found 'from' at position 14", error("select x + 1 from t"));
+        assertEquals("expected a comparison but found '1' at position 25",
+                     error("select * from t where x 1"));
+        assertEquals("expected the end of the query but found 't2' at position 17",
+                     error("select * from t t2"));
+        assertEquals("expected a value but found ')' at position 22",
+                     error("insert into t values )"));
+    }
+
+    @Test
+    public void testLexerErrors() {
+        assertEquals("unexpected '=' at position 25", error("select * from t where x = 1"));
+        assertEquals("unexpected '#' at position 25", error("select * from t where x # 1"));
+        assertEquals("unterminated string at position 22", error("insert into t values 'ab"));
+        assertEquals("strings cannot hold commas, tabs or newlines, at position 24",
+                     error("insert into t values 'a,b'"));
+    }
+
+    /** A sign must be followed by a number, not a name, string or special value. */
+    @Test
+    public void testSignedNonNumber() {
+        assertEquals("expected a number but found 'x' at position 24",
+                     error("insert into t values - x"));
+        assertEquals("expected a number but found 'y' at position 29",
+                     error("select * from t where x == -y"));
+        assertEquals("expected a number but found 'a' at position 23",
+                     error("insert into t values +'a'"));
+        assertEquals("expected a number but found 'NaN' at position 23",
+                     error("insert into t values -NaN"));
+    }
+
+    /** Keywords that end lists, and the special values, cannot be names. */
+    @Test
+    public void testReservedWordsAsNames() {
+        assertEquals("expected a name but found 'select' at position 14",
+                     error("create table select (x int)"));
+        assertEquals("expected a name but found 'from' at position 8",
+                     error("select from, x from t"));
+        assertEquals("expected a name but found 'where' at position 17",
+                     error("create table t (where int)"));
+        assertEquals("expected a name but found 'NaN' at position 6", error("load NaN"));
+        assertEquals("expected a name but found 'NOVALUE' at position 7",
+                     error("print NOVALUE"));
+    }
+
+    /** Ints must fit in 32 bits, counting the sign. */
+    @Test
+    public void testIntOutOfRange() {
+        assertEquals("expected an int in range but found '2147483648' at position 22",
+                     error("insert into t values 2147483648"));
+        assertEquals("expected an int in range but found '2147483649' at position 23",
+                     error("insert into t values -2147483649"));
+        assertEquals(Integer.MIN_VALUE, ((Statement.Insert) Parser.parse(
+            "insert into t values -2147483648")).values[0].intValue);
+        /* Also when the query's shape is cached and only its values are bound */
+        Database db = new Database();
+        db.transact("create table t (x int)");
+        assertEquals("", db.transact("insert into t values 1"));
+        assertEquals("ERROR: expected an int in range but found '99999999999' at position 22",
+                     db.transact("insert into t values 99999999999"));
+    }
+}
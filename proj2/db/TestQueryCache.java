@@ -0,0 +1,142 @@
+package db;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/** Tests that cached statements and plans give the same results as parsing every query. */
+public class TestQueryCache {
+    /** Runs each query on every database, checking that they all give the same result. */
+    private static void check(List<String> queries, Database... dbs) {
+        Database plain = new Database(0);
+        for (String q : queries) {
+            /* Estimates in explain are those of the plan in use, which may be an older one */
+            String expected = plain.transact(q).replaceAll("\\(~.*\\)", "");
+            for (Database db : dbs) {
+                assertEquals(q, expected, db.transact(q).replaceAll("\\(~.*\\)", ""));
+            }
+        }
+    }
+
+    /** A merge join planned on sorted keys must not be reused once a key is out of order. */
+    @Test
+    public void testMergeJoinOnUnsortedKey() {
+        Database db = new Database();
+        db.transact("create table a (k int, x int)");
+        db.transact("create table b (k int, y int)");
+        for (int k = 1; k <= 4; k++) {
+            db.transact("insert into a values " + k + ", " + k * 10);
+            db.transact("insert into b values " + k + ", " + k * 100);
+        }
+        assertTrue(db.transact("explain select * from a, b where y > 0").contains("MergeJoin"));
+        db.transact("select * from a, b where y > 0");
+        db.transact("insert into a values 2, 25");
+        String result = db.transact("select * from a, b where y > 0");
+        assertTrue(result, result.contains("2,25,200"));
+        assertEquals(6, result.split("\n").length);
+        assertTrue(db.cacheHitRate() > 0);
+    }
+
+    @Test
+    public void testSameShapeOtherValues() {
+        Database db = new Database();
+        db.transact("create table t (k int, v float, s string)");
+        db.transact("insert into t values 1, 1.5, 'a'");
+        db.transact("insert into t values -2, -0.5, 'b'");
+        db.transact("insert into t values 3, NaN, NOVALUE");
+        assertEquals("k int\n-2", db.transact("select k from t where k < 0"));
+        assertEquals("k int\n1\n-2", db.transact("select k from t where k < 3"));
+        assertEquals("k int\n1\n3", db.transact("select k from t where k > -2"));
+        assertEquals("s string\n'b'", db.transact("select s from t where s == 'b'"));
+        assertEquals("s string\n'a'", db.transact("select s from t where s == 'a'"));
+        assertTrue(db.transact("insert into t values 99999999999, 1.0, 'c'")
+                   .startsWith("ERROR: "));
+        assertTrue(db.transact("insert into t values 1, 'x', 'c'").startsWith("ERROR: "));
+        assertEquals("", db.transact("insert into t values 4, 2.0, 'c'"));
+        assertTrue(db.cacheHitRate() > 0);
+    }
+
+    /**
+     * Random creates, inserts, drops, selects and explains, with the selects repeated between
+     * inserts so that plans are reused as the tables change, including the sorted keys of merge
+     * joins going out of order.
+     */
+    @Test
+    public void testRandomQueries() {
+        Random r = new Random(50);
+        List<String> queries = new ArrayList<>();
+        queries.add("create table p (k int, v float, s string)");
+        queries.add("create table q (k int, w int)");
+        queries.add("create table a (n int, x int)");
+        queries.add("create table b (n int, y int)");
+        /* The next key to insert into a and into b */
+        int[] next = new int[2];
+        for (int i = 0; i < 3000; i++) {
+            int x = r.nextInt(20) - 10;
+            String q;
+            switch (r.nextInt(14)) {
+                case 0:
+                case 1:
+                    q = "insert into p values " + x + ", " + (r.nextBoolean() ? "-" : "")
+                        + r.nextInt(9) + "." + r.nextInt(9) + ", '" + (char) ('a' + r.nextInt(3))
+                        + "'";
+                    break;
+                case 2:
+                    q = "insert into q values " + (r.nextBoolean() ? "- " : "") + r.nextInt(10)
+                        + ", " + (r.nextBoolean() ? "NOVALUE" : "" + x);
+                    break;
+                case 3:
+                    /* Mostly in order, so that merge joins are planned and then go stale; the
+                       tables are remade now and then to be in order again */
+                    int t = r.nextInt(2);
+                    String name = t == 0 ? "a" : "b";
+                    if (r.nextInt(15) == 0) {
+                        queries.add("drop table " + name);
+                        q = "create table " + name + " (n int, " + (t == 0 ? "x" : "y") + " int)";
+                        next[t] = 0;
+                    } else {
+                        int n = r.nextInt(8) == 0 ? r.nextInt(next[t] + 1) : next[t]++;
+                        q = "insert into " + name + " values " + n + ", " + x;
+                    }
+                    break;
+                case 4:
+                case 5:
+                    q = "select * from a, b where y > " + x;
+                    break;
+                case 6:
+                    q = "select * from p, q where k > " + x + " and w < " + (x + 5);
+                    break;
+                case 7:
+                    q = "select k, v * " + x + " as t from p where s == '"
+                        + (char) ('a' + r.nextInt(3)) + "'";
+                    break;
+                case 8:
+                    q = "explain select k, w - " + x + " as u from q, p where v <= " + x + ".5";
+                    break;
+                case 9:
+                    q = "select k, w from q where k == " + x;
+                    break;
+                case 10:
+                    q = r.nextInt(10) == 0 ? "drop table q" : "print q";
+                    break;
+                case 11:
+                    q = r.nextInt(10) == 0 ? "create table q (k int, w int)"
+                        : "select k + " + x + " as z from q where z > 3";
+                    break;
+                case 12:
+                    q = "insert into q values 99999999999, 1";
+                    break;
+                default:
+                    q = "create table t" + i + " as select k from p where k < " + x;
+            }
+            queries.add(q);
+        }
+        Database cached = new Database(), small = new Database(3);
+        check(queries, cached, small);
+        assertTrue(cached.cacheHitRate() > 0.5);
+    }
+}
@@ -0,0 +1,199 @@
+package db;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+/** Tests the columnar engine: columns, their special-value bitmaps, filters and expressions. */
+public class TestTable {
+    private static Table read(String text) throws IOException {
+        return Table.read(new BufferedReader(new StringReader(text)));
+    }
+
+    /** The select of a query, as Parser reads it. */
+    private static Statement.Select select(String query) {
+        return (Statement.Select) Parser.parse(query);
+    }
+
+    /** The values of column name in the rows of t that satisfy condition, one per line. */
+    private static String filter(Table t, String condition, String name) {
+        int[] rows = t.allRows();
+        Condition c = select("select * from t where " + condition).conditions.get(0);
+        int n = c.filter(t, rows, rows.length);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(t.column(name).format(rows[i])).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static final String MIXED = "i int,f float,s string\n"
+                                        + "1,1.5,'b'\n"
+                                        + "NOVALUE,NaN,NOVALUE\n"
+                                        + "3,NOVALUE,'a'\n"
+                                        + "NaN,-2.0,'c'\n"
+                                        + "2,2.25,'b'";
+
+    @Test
+    public void testFormatRoundTrip() throws IOException {
+        Table t = read(MIXED);
+        assertEquals(5, t.rows());
+        assertEquals("i int,f float,s string\n"
+                     + "1,1.500,'b'\n"
+                     + "NOVALUE,NaN,NOVALUE\n"
+                     + "3,NOVALUE,'a'\n"
+                     + "NaN,-2.000,'c'\n"
+                     + "2,2.250,'b'", t.toString());
+        assertEquals(t.toString(), read(t.toString()).toString());
+    }
+
+    @Test
+    public void testStoreAndLoad() throws IOException {
+        File file = File.createTempFile("test", ".tbl");
+        file.deleteOnExit();
+        String name = file.getPath().substring(0, file.getPath().length() - ".tbl".length());
+        Table t = read(MIXED);
+        t.store(name);
+        assertEquals(t.toString(), Table.load(name).toString());
+    }
+
+    @Test(expected = DBException.class)
+    public void testInsertWrongType() throws IOException {
+        read("i int\n'one'");
+    }
+
+    @Test
+    public void testNoValueNeverMatches() throws IOException {
+        Table t = read(MIXED);
+        assertEquals("1\n2\n", filter(t, "i < 3", "i"));
+        assertEquals("1\n3\nNaN\n2\n", filter(t, "i != 0", "i"));
+        assertEquals("", filter(t, "i == NOVALUE", "i"));
+        assertEquals("'b'\n'a'\n'c'\n'b'\n", filter(t, "s >= ''", "s"));
+        assertEquals("1\n3\nNaN\n2\n", filter(t, "i == i", "i"));
+    }
+
+    @Test
+    public void testNaNIsLargestAndEqualToItself() throws IOException {
+        Table t = read(MIXED);
+        assertEquals("NaN\n", filter(t, "i > 1000000", "i"));
+        assertEquals("NaN\n", filter(t, "f == NaN", "f"));
+        assertEquals("1.500\n-2.000\n2.250\n", filter(t, "f < NaN", "f"));
+        assertEquals("1.500\n-2.000\n2.250\n", filter(t, "f <= 3", "f"));
+        /* An int NaN and a float compare by value, with NaN above */
+        assertEquals("NaN\n", filter(t, "i > f", "i"));
+    }
+
+    @Test
+    public void testDictionaryComparisons() throws IOException {
+        /* Codes are given in order of first appearance, which is not string order */
+        Table t = read("s string\n'pear'\n'apple'\n'fig'\n'apple'\n'zucchini'");
+        assertEquals("'pear'\n'fig'\n'zucchini'\n", filter(t, "s > 'banana'", "s"));
+        assertEquals("'apple'\n'apple'\n", filter(t, "s == 'apple'", "s"));
+        assertEquals("", filter(t, "s == 'kiwi'", "s"));
+        assertEquals("'pear'\n'apple'\n'fig'\n'apple'\n", filter(t, "s < 'zucchini'", "s"));
+
+        StringColumn s = (StringColumn) t.column("s");
+        assertEquals(4, s.distinct());
+        StringColumn gathered = (StringColumn) s.gather(new int[]{3, 1}, 2);
+        assertSame(s.dict, gathered.dict);
+        assertTrue(gathered.sameValue(0, s, 1));
+        StringColumn other = (StringColumn) read("s string\n'fig'\n'apple'").column("s");
+        assertTrue(other.sameValue(1, s, 3));
+        assertEquals(other.hashAt(1), s.hashAt(3));
+        assertFalse(other.sameValue(0, s, 3));
+    }
+
+    /** -0.0 compares equal to 0.0, with a literal or another column, as it joins. */
+    @Test
+    public void testNegativeZero() throws IOException {
+        Table t = read("x float,z float\n0.0,0.0\n-1.0,0.0");
+        Database db = new Database();
+        db.transact("create table t (x float, z float)");
+        db.transact("insert into t values 0.0, 0.0");
+        db.transact("create table u as select x * -1.0 as y, z from t");
+        assertEquals("y float\n-0.000", db.transact("select y from u where y >= 0.0"));
+        assertEquals("y float\n-0.000", db.transact("select y from u where y == z"));
+        assertEquals("", db.transact("select y from u where y < 0.0").replace("y float", ""));
+        assertEquals("", db.transact("select y from u where y != -0.0").replace("y float", ""));
+        assertEquals("y float,x float\n-0.000,0.000",
+                     db.transact("select y, x from u, t where y == x"));
+        assertEquals("0.000\n", filter(t, "x >= -0.0", "x"));
+    }
+
+    @Test(expected = DBException.class)
+    public void testCompareStringWithNumber() throws IOException {
+        filter(read(MIXED), "s < 1", "s");
+    }
+
+    /** Flags set only in early rows must read as unset far past the end of their bitmap. */
+    @Test
+    public void testBitmapBounds() {
+        IntColumn c = new IntColumn();
+        c.append(Literal.noValue());
+        c.append(Literal.nan(Type.INT));
+        for (int i = 0; i < 300; i++) {
+            c.add(i);
+        }
+        c.append(Literal.noValue());
+        for (int r = 2; r < 302; r++) {
+            assertFalse(c.isSpecial(r));
+        }
+        assertTrue(c.isNoValue(0));
+        assertTrue(c.isNaN(1));
+        assertTrue(c.isNoValue(302));
+        assertFalse(c.isNaN(302));
+        assertEquals(302, c.distinct());
+
+        Column g = c.gather(new int[]{302, 5, 1, 0}, 4);
+        assertEquals("NOVALUE 3 NaN NOVALUE", g.format(0) + " " + g.format(1) + " "
+                     + g.format(2) + " " + g.format(3));
+    }
+
+    @Test
+    public void testSortedStats() {
+        IntColumn c = new IntColumn();
+        c.add(1);
+        c.add(1);
+        c.add(4);
+        assertTrue(c.isSorted());
+        c.add(2);
+        assertFalse(c.isSorted());
+        IntColumn special = new IntColumn();
+        special.add(1);
+        special.append(Literal.noValue());
+        assertFalse(special.isSorted());
+    }
+
+    private static String evaluate(Table t, String expression) {
+        Column c = select("select " + expression + " from t").expressions.get(0).evaluate(t);
+        StringBuilder sb = new StringBuilder();
+        for (int r = 0; r < c.size(); r++) {
+            sb.append(c.format(r)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testExpressions() throws IOException {
+        Table t = read("a int,b int,f float,s string,u string\n"
+                       + "7,2,0.5,'x','y'\n"
+                       + "NOVALUE,3,NOVALUE,NOVALUE,'y'\n"
+                       + "NOVALUE,NOVALUE,NaN,NOVALUE,NOVALUE\n"
+                       + "NaN,0,1.0,'x',NOVALUE");
+        assertEquals("3\n0\nNOVALUE\nNaN\n", evaluate(t, "a / b as c"));
+        assertEquals("7.500\nNOVALUE\nNaN\nNaN\n", evaluate(t, "a + f as c"));
+        assertEquals("4.000\nNaN\nNaN\n0.000\n", evaluate(t, "b / f as c"));
+        assertEquals("NaN\nNaN\nNaN\nNaN\n", evaluate(t, "f / 0 as c"));
+        assertEquals("'xy'\n'y'\nNOVALUE\n'x'\n", evaluate(t, "s + u as c"));
+    }
+
+    @Test(expected = DBException.class)
+    public void testSubtractStrings() throws IOException {
+        evaluate(read("s string\n'x'"), "s - s as c");
+    }
+}
@@ -0,0 +1,31 @@
+package db;
+
+/** The type of a column. */
+public enum Type {
+    INT("int"), FLOAT("float"), STRING("string");
+
+    private final String name;
+
+    Type(String name) {
+        this.name = name;
+    }
+
+    /** The type with the given name, as written in a column declaration. */
+    public static Type of(String name) {
+        for (Type t : values()) {
+            if (t.name.equals(name)) {
+                return t;
+            }
+        }
+        throw new DBException("unknown type " + name);
+    }
+
+    public boolean isNumeric() {
+        return this != STRING;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,279 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Read-only snapshot of a GraphDB with vertices renumbered 0 to n-1 and everything stored in
+ * primitive arrays: coordinates, and adjacency in compressed-row form (the directed edges out
+ * of vertex v are adjStart[v] to adjStart[v+1] - 1). Searches that run often or concurrently
+ * (isochrones, alternatives, trips...) work on this instead of the HashMap-based graph, and
+ * borrow their per-vertex arrays from a pool of SearchStates instead of allocating maps.
+ * Vertices are numbered along a Hilbert curve, so a search's working set stays local in memory
+ * as it spreads out over the map (see RoutingBenchmark in the tests).
+ * Get one with GraphDB.compact().
+ */
+public class CompactGraph {
+    final int n;
+    /** OSM id of each vertex. */
+    final long[] ids;
+    final double[] lon, lat;
+    /** Directed edges: target vertex, length in meters and way index (see GraphDB.addWay). */
+    final int[] adjStart, adjTarget, adjWay;
+    final double[] adjMeters;
+
+    private final HashMap<Long, Integer> indexOf;
+    private final ConcurrentLinkedQueue<SearchState> pool = new ConcurrentLinkedQueue<>();
+
+    /** Vertices are ordered along a Hilbert curve over a grid with 2^HILBERT_BITS rows. */
+    private static final int HILBERT_BITS = 16;
+
+    CompactGraph(GraphDB g) {
+        this(g, true);
+    }
+
+    /**
+     * @param hilbertOrder Whether to number the vertices in the order they appear along a
+     *                     Hilbert curve, so that vertices close on the map (which a search
+     *                     visits at about the same time) are close in memory. Otherwise they
+     *                     are in the graph's (hash map) order, which is only useful for
+     *                     comparison.
+     */
+    CompactGraph(GraphDB g, boolean hilbertOrder) {
+        n = g.nodes.size();
+        ids = new long[n];
+        int i = 0;
+        for (long id : g.vertices())
+            ids[i++] = id;
+        if (hilbertOrder)
+            sortByHilbertIndex(g, ids);
+
+        lon = new double[n];
+        lat = new double[n];
+        indexOf = new HashMap<>(n * 2);
+        for (int v = 0; v < n; v++) {
+            lon[v] = g.lon(ids[v]);
+            lat[v] = g.lat(ids[v]);
+            indexOf.put(ids[v], v);
+        }
+
+        adjStart = new int[n + 1];
+        for (int v = 0; v < n; v++)
+            adjStart[v + 1] = adjStart[v] + g.nodes.get(ids[v]).getDestinations().size();
+        adjTarget = new int[adjStart[n]];
+        adjWay = new int[adjStart[n]];
+        adjMeters = new double[adjStart[n]];
+        for (int v = 0; v < n; v++) {
+            int e = adjStart[v];
+            for (long w : g.adjacent(ids[v])) {
+                adjTarget[e] = indexOf.get(w);
+                adjWay[e] = g.way(ids[v], w);
+                adjMeters[e] = GraphDB.greatCircleDistance(lon[v], lat[v], g.lon(w), g.lat(w));
+                e++;
+            }
+        }
+    }
+
+    /**
+     * Helper method: Sort vertex ids by the Hilbert curve index of their position within the
+     * bounding box of the graph
+     */
+    private static void sortByHilbertIndex(GraphDB g, long[] ids) {
+        double minLon = Double.POSITIVE_INFINITY, minLat = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        for (long id : ids) {
+            minLon = Math.min(minLon, g.lon(id));
+            maxLon = Math.max(maxLon, g.lon(id));
+            minLat = Math.min(minLat, g.lat(id));
+            maxLat = Math.max(maxLat, g.lat(id));
+        }
+        int side = 1 << HILBERT_BITS;
+        double width = Math.max(maxLon - minLon, 1e-9), height = Math.max(maxLat - minLat, 1e-9);
+        // Sort (curve index, position) pairs packed into longs: the curve index takes
+        // 2 * HILBERT_BITS bits, leaving the low 31 for the position
+        long[] keys = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            int x = (int) Math.min(side - 1, (g.lon(ids[i]) - minLon) / width * side);
+            int y = (int) Math.min(side - 1, (g.lat(ids[i]) - minLat) / height * side);
+            keys[i] = (hilbertIndex(x, y, side) << 31) | i;
+        }
+        Arrays.sort(keys);
+        long[] sorted = new long[ids.length];
+        for (int i = 0; i < ids.length; i++)
+            sorted[i] = ids[(int) (keys[i] & Integer.MAX_VALUE)];
+        System.arraycopy(sorted, 0, ids, 0, ids.length);
+    }
+
+    /**
+     * Position of cell (x, y) along the Hilbert curve filling a side by side grid (side a
+     * power of two).
+     */
+    static long hilbertIndex(int x, int y, int side) {
+        long d = 0;
+        for (int s = side / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            // Rotate the quadrant so the curve inside it starts and ends in the right corners
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = side - 1 - x;
+                    y = side - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /** Dense index of the vertex with the given OSM id, or -1 if it is not in the graph. */
+    int index(long id) {
+        Integer i = indexOf.get(id);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * Borrows a cleared SearchState for this graph. Hand it back with release when done;
+     * states are reused, so only the vertices a search touched ever need resetting.
+     */
+    SearchState acquire() {
+        SearchState s = pool.poll();
+        return s == null ? new SearchState(n) : s;
+    }
+
+    void release(SearchState s) {
+        s.reset();
+        pool.offer(s);
+    }
+
+    /**
+     * Per-vertex arrays for one Dijkstra-style search (tentative distance, parent and an
+     * indexed binary heap ordered by distance), plus a list of the touched vertices so that
+     * reset only undoes what the search changed.
+     */
+    static class SearchState {
+        final double[] dist;
+        final int[] parent;
+        private final int[] heap;
+        private final int[] heapPos;
+        private int heapSize;
+        private final int[] touched;
+        private int numTouched;
+
+        SearchState(int n) {
+            dist = new double[n];
+            parent = new int[n];
+            heap = new int[n];
+            heapPos = new int[n];
+            touched = new int[n];
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            Arrays.fill(parent, -1);
+            Arrays.fill(heapPos, -1);
+        }
+
+        /** Whether v has been given a distance in this search. */
+        boolean reached(int v) {
+            return dist[v] != Double.POSITIVE_INFINITY;
+        }
+
+        /**
+         * Lowers v's distance to d (with the given parent) if that is an improvement, and
+         * adds it to or moves it up in the heap. Returns whether anything changed.
+         */
+        boolean relax(int v, double d, int from) {
+            if (d >= dist[v])
+                return false;
+            if (!reached(v))
+                touched[numTouched++] = v;
+            dist[v] = d;
+            parent[v] = from;
+            if (heapPos[v] == -1) {
+                heap[heapSize] = v;
+                heapPos[v] = heapSize;
+                heapSize++;
+            }
+            siftUp(heapPos[v]);
+            return true;
+        }
+
+        boolean isEmpty() {
+            return heapSize == 0;
+        }
+
+        /** The vertex with the smallest distance in the heap, without removing it. */
+        int peek() {
+            return heap[0];
+        }
+
+        /** Removes and returns the vertex with the smallest distance in the heap. */
+        int poll() {
+            int top = heap[0];
+            heapSize--;
+            heapPos[top] = -2;  // Settled; never re-added since its distance can't drop
+            if (heapSize > 0) {
+                heap[0] = heap[heapSize];
+                heapPos[heap[0]] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        /** Whether v has been removed from the heap (its distance is final). */
+        boolean settled(int v) {
+            return heapPos[v] == -2;
+        }
+
+        /** Number of vertices reached so far, and the vertices themselves. */
+        int numTouched() {
+            return numTouched;
+        }
+
+        int touched(int i) {
+            return touched[i];
+        }
+
+        void reset() {
+            for (int i = 0; i < numTouched; i++) {
+                int v = touched[i];
+                dist[v] = Double.POSITIVE_INFINITY;
+                parent[v] = -1;
+                heapPos[v] = -1;
+            }
+            numTouched = 0;
+            heapSize = 0;
+        }
+
+        private void siftUp(int i) {
+            int v = heap[i];
+            while (i > 0) {
+                int p = (i - 1) / 2;
+                if (dist[heap[p]] <= dist[v])
+                    break;
+                heap[i] = heap[p];
+                heapPos[heap[i]] = i;
+                i = p;
+            }
+            heap[i] = v;
+            heapPos[v] = i;
+        }
+
+        private void siftDown(int i) {
+            int v = heap[i];
+            while (true) {
+                int c = 2 * i + 1;
+                if (c >= heapSize)
+                    break;
+                if (c + 1 < heapSize && dist[heap[c + 1]] < dist[heap[c]])
+                    c++;
+                if (dist[v] <= dist[heap[c]])
+                    break;
+                heap[i] = heap[c];
+                heapPos[heap[i]] = i;
+                i = c;
+            }
+            heap[i] = v;
+            heapPos[v] = i;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+import java.util.Arrays;
+
+/**
+ * A uniform grid over the bounding box of the graph, bucketing every road segment (edge) by the
+ * cells its bounding box covers. Lets us find the edges near a point or inside a viewport
+ * without looking at the whole graph.
+ * Edges and cells are stored in flat arrays (cells in compressed-row form) rather than lists of
+ * objects, so the index stays small and queries don't allocate.
+ */
+public class EdgeIndex {
+    /** Aim for about this many edges per cell. */
+    private static final int EDGES_PER_CELL = 4;
+
+    /** Receives the edges found by a query. */
+    public interface EdgeVisitor {
+        void visit(int edge);
+    }
+
+    private final GraphDB g;
+
+    // Edge i goes from vertex from[i] to vertex to[i] and is part of way way[i]
+    private long[] from, to;
+    private int[] way;
+    // Endpoint coordinates, copied here so that queries don't need to hash into the graph
+    private double[] lon1, lat1, lon2, lat2;
+    private int numEdges;
+
+    private double minLon, minLat, maxLon, maxLat;
+    private int cols, rows;
+    private double cellWidth, cellHeight;
+    // Edges of cell c are cellEdges[cellStart[c]] to cellEdges[cellStart[c+1] - 1]
+    private int[] cellStart;
+    private int[] cellEdges;
+
+    public EdgeIndex(GraphDB g) {
+        this.g = g;
+        collectEdges();
+        buildGrid();
+    }
+
+    /**
+     * Helper method: Copy each undirected edge of the graph (once) into the edge arrays
+     */
+    private void collectEdges() {
+        int capacity = 1024;
+        from = new long[capacity];
+        to = new long[capacity];
+        way = new int[capacity];
+        for (long v : g.vertices()) {
+            for (long w : g.adjacent(v)) {
+                if (v > w)
+                    continue;  // Each edge is stored in both directions
+                if (numEdges == capacity) {
+                    capacity *= 2;
+                    from = Arrays.copyOf(from, capacity);
+                    to = Arrays.copyOf(to, capacity);
+                    way = Arrays.copyOf(way, capacity);
+                }
+                from[numEdges] = v;
+                to[numEdges] = w;
+                way[numEdges] = g.way(v, w);
+                numEdges++;
+            }
+        }
+
+        lon1 = new double[numEdges];
+        lat1 = new double[numEdges];
+        lon2 = new double[numEdges];
+        lat2 = new double[numEdges];
+        minLon = minLat = Double.POSITIVE_INFINITY;
+        maxLon = maxLat = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < numEdges; i++) {
+            lon1[i] = g.lon(from[i]);
+            lat1[i] = g.lat(from[i]);
+            lon2[i] = g.lon(to[i]);
+            lat2[i] = g.lat(to[i]);
+            minLon = Math.min(minLon, Math.min(lon1[i], lon2[i]));
+            maxLon = Math.max(maxLon, Math.max(lon1[i], lon2[i]));
+            minLat = Math.min(minLat, Math.min(lat1[i], lat2[i]));
+            maxLat = Math.max(maxLat, Math.max(lat1[i], lat2[i]));
+        }
+        if (numEdges == 0)
+            minLon = minLat = maxLon = maxLat = 0;
+    }
+
+    /**
+     * Helper method: Bucket the edges into grid cells with a counting pass and a filling pass
+     */
+    private void buildGrid() {
+        int side = Math.max(1, (int) Math.sqrt((double) numEdges / EDGES_PER_CELL));
+        cols = side;
+        rows = side;
+        // Avoid zero-sized cells when all edges are on one line
+        cellWidth = Math.max(maxLon - minLon, 1e-9) / cols;
+        cellHeight = Math.max(maxLat - minLat, 1e-9) / rows;
+
+        cellStart = new int[cols * rows + 1];
+        for (int i = 0; i < numEdges; i++) {
+            for (int r = row(Math.min(lat1[i], lat2[i])); r <= row(Math.max(lat1[i], lat2[i])); r++)
+                for (int c = col(Math.min(lon1[i], lon2[i])); c <= col(Math.max(lon1[i], lon2[i])); c++)
+                    cellStart[r * cols + c + 1]++;
+        }
+        for (int c = 0; c < cols * rows; c++)
+            cellStart[c + 1] += cellStart[c];
+
+        cellEdges = new int[cellStart[cols * rows]];
+        int[] fill = Arrays.copyOf(cellStart, cols * rows);
+        for (int i = 0; i < numEdges; i++) {
+            for (int r = row(Math.min(lat1[i], lat2[i])); r <= row(Math.max(lat1[i], lat2[i])); r++)
+                for (int c = col(Math.min(lon1[i], lon2[i])); c <= col(Math.max(lon1[i], lon2[i])); c++)
+                    cellEdges[fill[r * cols + c]++] = i;
+        }
+    }
+
+    /** Grid column containing the given longitude, clamped to the grid. */
+    private int col(double lon) {
+        int c = (int) ((lon - minLon) / cellWidth);
+        return Math.max(0, Math.min(cols - 1, c));
+    }
+
+    /** Grid row containing the given latitude, clamped to the grid. */
+    private int row(double lat) {
+        int r = (int) ((lat - minLat) / cellHeight);
+        return Math.max(0, Math.min(rows - 1, r));
+    }
+
+    /**
+     * Visits every edge whose bounding box intersects the query box, exactly once each.
+     * An edge that spans several cells is only reported from the first (lowest row, then
+     * column) cell that both it and the query cover, so no "seen" set is needed and
+     * concurrent queries are safe.
+     */
+    public void query(double ullon, double ullat, double lrlon, double lrlat, EdgeVisitor visitor) {
+        if (numEdges == 0 || lrlon < minLon || ullon > maxLon || ullat < minLat || lrlat > maxLat)
+            return;
+        int c0 = col(ullon), c1 = col(lrlon);
+        int r0 = row(lrlat), r1 = row(ullat);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = r * cols + c;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int e = cellEdges[k];
+                    double eMinLon = Math.min(lon1[e], lon2[e]), eMaxLon = Math.max(lon1[e], lon2[e]);
+                    double eMinLat = Math.min(lat1[e], lat2[e]), eMaxLat = Math.max(lat1[e], lat2[e]);
+                    if (eMaxLon < ullon || eMinLon > lrlon || eMaxLat < lrlat || eMinLat > ullat)
+                        continue;
+                    if (Math.max(row(eMinLat), r0) != r || Math.max(col(eMinLon), c0) != c)
+                        continue;  // Reported from another cell
+                    visitor.visit(e);
+                }
+            }
+        }
+    }
+
+    /** The point on an edge closest to a query point, as found by nearest. */
+    public static class Snap {
+        /** The edge. */
+        public final int edge;
+        /** The closest point on it. */
+        public final double lon, lat;
+        /** Position of that point along the edge, from 0 (at from) to 1 (at to). */
+        public final double fraction;
+
+        Snap(int edge, double lon, double lat, double fraction) {
+            this.edge = edge;
+            this.lon = lon;
+            this.lat = lat;
+            this.fraction = fraction;
+        }
+    }
+
+    /** Chooses which edges a nearest query may return. */
+    public interface EdgeFilter {
+        boolean accept(int edge);
+    }
+
+    /**
+     * Finds the edge passing closest to (lon, lat) among the edges the filter accepts, searching
+     * rings of cells outwards from the query point. Longitude differences are scaled by the
+     * cosine of the latitude so that the result is the nearest edge on the ground.
+     * @return The nearest edge and the closest point on it, or null if no edge is accepted
+     */
+    public Snap nearest(double lon, double lat, EdgeFilter filter) {
+        if (numEdges == 0)
+            return null;
+        double lonScale = Math.cos(Math.toRadians(lat));
+        int c0 = col(lon), r0 = row(lat);
+        int best = -1;
+        double bestDist = Double.POSITIVE_INFINITY, bestT = 0;
+        for (int ring = 0; ring <= cols || ring <= rows; ring++) {
+            for (int r = r0 - ring; r <= r0 + ring; r++) {
+                if (r < 0 || r >= rows)
+                    continue;
+                boolean edgeRow = r == r0 - ring || r == r0 + ring;
+                for (int c = c0 - ring; c <= c0 + ring; c += edgeRow ? 1 : 2 * ring) {
+                    if (c >= 0 && c < cols) {
+                        int cell = r * cols + c;
+                        for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                            int e = cellEdges[k];
+                            if (filter != null && !filter.accept(e))
+                                continue;
+                            double t = projection(e, lon, lat, lonScale);
+                            double dx = (lon1[e] + t * (lon2[e] - lon1[e]) - lon) * lonScale;
+                            double dy = lat1[e] + t * (lat2[e] - lat1[e]) - lat;
+                            double d = Math.sqrt(dx * dx + dy * dy);
+                            if (d < bestDist) {
+                                bestDist = d;
+                                best = e;
+                                bestT = t;
+                            }
+                        }
+                    }
+                    if (ring == 0)
+                        break;
+                }
+            }
+            // Any edge not yet seen passes entirely outside the block of cells visited so far
+            if (best != -1 && outsideBlockDistance(lon, lat, c0, r0, ring, lonScale) > bestDist)
+                break;
+        }
+        if (best == -1)
+            return null;
+        return new Snap(best, lon1[best] + bestT * (lon2[best] - lon1[best]),
+                lat1[best] + bestT * (lat2[best] - lat1[best]), bestT);
+    }
+
+    /**
+     * The point on edge e closest to (lon, lat), measured the same way as in nearest.
+     */
+    public Snap project(int e, double lon, double lat) {
+        double t = projection(e, lon, lat, Math.cos(Math.toRadians(lat)));
+        return new Snap(e, lon1[e] + t * (lon2[e] - lon1[e]), lat1[e] + t * (lat2[e] - lat1[e]), t);
+    }
+
+    /**
+     * Helper method: Position (0 to 1) along edge e of the point closest to (lon, lat)
+     */
+    private double projection(int e, double lon, double lat, double lonScale) {
+        double dx = (lon2[e] - lon1[e]) * lonScale, dy = lat2[e] - lat1[e];
+        double len2 = dx * dx + dy * dy;
+        if (len2 == 0)
+            return 0;
+        double t = ((lon - lon1[e]) * lonScale * dx + (lat - lat1[e]) * dy) / len2;
+        return Math.max(0, Math.min(1, t));
+    }
+
+    /**
+     * Helper method: Lower bound on the distance from (lon, lat) to anything outside the
+     * (2 * ring + 1) square block of cells centered on cell (c0, r0)
+     */
+    private double outsideBlockDistance(double lon, double lat, int c0, int r0, int ring,
+                                        double lonScale) {
+        double d = Double.POSITIVE_INFINITY;
+        // Sides of the block on the border of the grid have no edges beyond them
+        if (c0 - ring > 0)
+            d = Math.min(d, (lon - (minLon + (c0 - ring) * cellWidth)) * lonScale);
+        if (c0 + ring < cols - 1)
+            d = Math.min(d, (minLon + (c0 + ring + 1) * cellWidth - lon) * lonScale);
+        if (r0 - ring > 0)
+            d = Math.min(d, lat - (minLat + (r0 - ring) * cellHeight));
+        if (r0 + ring < rows - 1)
+            d = Math.min(d, minLat + (r0 + ring + 1) * cellHeight - lat);
+        return d;
+    }
+
+    /** Number of edges in the index. */
+    public int size() {
+        return numEdges;
+    }
+
+    /** First endpoint of edge e. */
+    public long from(int e) {
+        return from[e];
+    }
+
+    /** Second endpoint of edge e. */
+    public long to(int e) {
+        return to[e];
+    }
+
+    /** Index (in the GraphDB way table) of the way edge e is part of. */
+    public int way(int e) {
+        return way[e];
+    }
+
+    public double lon1(int e) {
+        return lon1[e];
+    }
+
+    public double lat1(int e) {
+        return lat1[e];
+    }
+
+    public double lon2(int e) {
+        return lon2[e];
+    }
+
+    public double lat2(int e) {
+        return lat2[e];
+    }
+}
@@ -4,7 +4,9 @@ import org.xml.sax.helpers.DefaultHandler;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -37,13 +39,35 @@ public class GraphBuildingHandler extends DefaultHandler {
             ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
                     "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
                     "secondary_link", "tertiary_link"));
+    /**
+     * Road classes used for level of detail when drawing the map: smaller is more important.
+     * Link roads share the class of the road they link.
+     */
+    private static final Map<String, Integer> ROAD_CLASSES = new HashMap<>();
+    static final int MINOR_ROAD_CLASS = 4;
+    static {
+        ROAD_CLASSES.put("motorway", 0);
+        ROAD_CLASSES.put("motorway_link", 0);
+        ROAD_CLASSES.put("trunk", 0);
+        ROAD_CLASSES.put("trunk_link", 0);
+        ROAD_CLASSES.put("primary", 1);
+        ROAD_CLASSES.put("primary_link", 1);
+        ROAD_CLASSES.put("secondary", 2);
+        ROAD_CLASSES.put("secondary_link", 2);
+        ROAD_CLASSES.put("tertiary", 3);
+        ROAD_CLASSES.put("tertiary_link", 3);
+    }
     private String activeState = "";
     private final GraphDB g;
 
     // Helper variable: Current list of nodes in the way
     // Set to null if we're not processing a way
+    private long lastNodeId;
     private ArrayList<Long> currentWay;
     private boolean isRoad;
+    private long currentWayId;
+    private String currentWayName;
+    private String currentHighway;
 
     public GraphBuildingHandler(GraphDB g) {
         this.g = g;
@@ -78,7 +102,8 @@ public class GraphBuildingHandler extends DefaultHandler {
             /* TODO Use the above information to save a "node" to somewhere. */
             /* Hint: A graph-like structure would be nice. */
 
-            g.addNode(Long.parseLong(attributes.getValue("id")), Double.parseDouble(attributes.getValue("lon")), Double.parseDouble(attributes.getValue("lat")));
+            lastNodeId = Long.parseLong(attributes.getValue("id"));
+            g.addNode(lastNodeId, Double.parseDouble(attributes.getValue("lon")), Double.parseDouble(attributes.getValue("lat")));
 
         } else if (qName.equals("way")) {
             /* We encountered a new <way...> tag. */
@@ -86,6 +111,9 @@ public class GraphBuildingHandler extends DefaultHandler {
 //            System.out.println("Beginning a way...");
             currentWay = new ArrayList<>();
             isRoad = false;
+            currentWayId = Long.parseLong(attributes.getValue("id"));
+            currentWayName = null;
+            currentHighway = null;
 
         } else if (activeState.equals("way") && qName.equals("nd")) {
             /* While looking at a way, we found a <nd...> tag. */
@@ -112,8 +140,10 @@ public class GraphBuildingHandler extends DefaultHandler {
                 /* TODO Figure out whether this way and its connections are valid. */
                 /* Hint: Setting a "flag" is good enough! */
                 isRoad = ALLOWED_HIGHWAY_TYPES.contains(v);
+                currentHighway = v;
             } else if (k.equals("name")) {
                 //System.out.println("Way Name: " + v);
+                currentWayName = v;
             }
 //            System.out.println("Tag with k=" + k + ", v=" + v + ".");
         } else if (activeState.equals("node") && qName.equals("tag") && attributes.getValue("k")
@@ -125,7 +155,7 @@ public class GraphBuildingHandler extends DefaultHandler {
             last node that you looked at (check the first if-case). */
 //            System.out.println("Node's name: " + attributes.getValue("v"));
 
-            /* This is NOT done for the Duke assignment as Autocomplete is not given. */
+            g.addLocation(lastNodeId, attributes.getValue("v"));
         }
     }
 
@@ -148,13 +178,25 @@ public class GraphBuildingHandler extends DefaultHandler {
             chance to actually connect the nodes together if the way is valid. */
 //            System.out.println("Finishing a way...");
             if (isRoad) {
+                int way = g.addWay(currentWayId, currentWayName, roadClass(currentHighway));
                 for (int i=0; i<currentWay.size()-1; i++)
-                    g.addEdge(currentWay.get(i), currentWay.get(i+1));
+                    g.addEdge(currentWay.get(i), currentWay.get(i+1), way);
             }
 
             currentWay = null;
             isRoad = false;
+            currentWayName = null;
+            currentHighway = null;
         }
     }
 
+    /**
+     * Helper method: Road class of a highway tag value; residential and similar roads are
+     * MINOR_ROAD_CLASS.
+     */
+    static int roadClass(String highway) {
+        Integer c = ROAD_CLASSES.get(highway);
+        return c == null ? MINOR_ROAD_CLASS : c;
+    }
+
 }
@@ -21,6 +21,31 @@ public class GraphDB {
      * creating helper classes, e.g. Node, Edge, etc. */
     //ArrayList<Node> nodes;
     HashMap<Long, Node> nodes;
+    // Named nodes (places), in the order they appear in the OSM file. Kept separately since
+    // most of them are not on a road and are removed from nodes by clean().
+    ArrayList<Node> locations;
+    // Grid over the vertices for closest(); built on first use, dropped when vertices change
+    private volatile PointIndex vertexIndex;
+    // Array-based snapshot for fast searches (see CompactGraph); dropped when the graph changes
+    private volatile CompactGraph compact;
+    // Number of vertices in each connected component, by component number (Node.component),
+    // or null if the graph changed since the components were found
+    private volatile int[] componentSizes;
+    private int largestComponent;
+    // Grid over the vertices of the largest component, for closestRoutable
+    private volatile PointIndex routableIndex;
+
+    /** Mean radius of the Earth, for distances in real units rather than degrees. */
+    static final double EARTH_RADIUS_METERS = 6371000;
+
+    // Way table: OSM id, name (index into wayNameTable) and road class of each road way, by
+    // way index. Names are shared between the many ways that make up one street.
+    private long[] wayIds = new long[64];
+    private int[] wayNames = new int[64];
+    private byte[] wayClasses = new byte[64];
+    private int numWays = 0;
+    private ArrayList<String> wayNameTable = new ArrayList<>();
+    private HashMap<String, Integer> wayNameIndex = new HashMap<>();
 
     /**
      * Example constructor shows how to create and start an XML parser.
@@ -28,7 +53,18 @@ public class GraphDB {
      * @param dbPath Path to the XML file to be parsed.
      */
     public GraphDB(String dbPath) {
+        this(dbPath, false);
+    }
+
+    /**
+     * @param dbPath Path to the XML file to be parsed.
+     * @param keepLargestComponent Whether to remove every vertex that is not connected to the
+     *                             largest connected component (islands left by the map extract,
+     *                             private roads and so on), so that any two vertices have a route
+     */
+    public GraphDB(String dbPath, boolean keepLargestComponent) {
         nodes = new HashMap<>();
+        locations = new ArrayList<>();
         try {
             File inputFile = new File(dbPath);
             SAXParserFactory factory = SAXParserFactory.newInstance();
@@ -39,6 +75,9 @@ public class GraphDB {
             e.printStackTrace();
         }
         clean();
+        findComponents();
+        if (keepLargestComponent)
+            removeSmallComponents();
     }
 
     /**
@@ -63,6 +102,96 @@ public class GraphDB {
                 nodes.remove(id);
                 //removeNode(id);
         }
+        vertexIndex = null;
+        compact = null;
+    }
+
+    /**
+     * Helper method: Number the connected components (breadth-first search from each vertex not
+     * yet numbered) and record their sizes
+     */
+    private synchronized void findComponents() {
+        for (Node x : nodes.values())
+            x.component = -1;
+        int[] sizes = new int[16];
+        int count = 0;
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        for (Node x : nodes.values()) {
+            if (x.component != -1)
+                continue;
+            if (count == sizes.length)
+                sizes = Arrays.copyOf(sizes, count * 2);
+            x.component = count;
+            queue.add(x);
+            while (!queue.isEmpty()) {
+                Node y = queue.poll();
+                sizes[count]++;
+                for (long id : y.getDestinations()) {
+                    Node z = nodes.get(id);
+                    if (z.component == -1) {
+                        z.component = count;
+                        queue.add(z);
+                    }
+                }
+            }
+            count++;
+        }
+        largestComponent = 0;
+        for (int c = 1; c < count; c++) {
+            if (sizes[c] > sizes[largestComponent])
+                largestComponent = c;
+        }
+        componentSizes = Arrays.copyOf(sizes, count);
+    }
+
+    /**
+     * Helper method: Remove every vertex outside the largest component
+     */
+    private void removeSmallComponents() {
+        nodes.values().removeIf(x -> x.component != largestComponent);
+        componentSizes = new int[]{componentSizes[largestComponent]};
+        for (Node x : nodes.values())
+            x.component = 0;
+        largestComponent = 0;
+        vertexIndex = null;
+        routableIndex = null;
+        compact = null;
+    }
+
+    /**
+     * Helper method: The component sizes, finding the components again if the graph changed
+     */
+    private int[] componentSizes() {
+        int[] sizes = componentSizes;
+        if (sizes == null) {
+            synchronized (this) {
+                if (componentSizes == null)
+                    findComponents();
+                sizes = componentSizes;
+            }
+        }
+        return sizes;
+    }
+
+    /** Number of the connected component vertex v is in. */
+    int component(long v) {
+        componentSizes();
+        return nodes.get(v).component;
+    }
+
+    /** Number of connected components in the graph. */
+    int numComponents() {
+        return componentSizes().length;
+    }
+
+    /** Number of vertices in the same connected component as v. */
+    int componentSize(long v) {
+        return componentSizes()[component(v)];
+    }
+
+    /** Whether there is a route between vertices v and w, in constant time. */
+    boolean connected(long v, long w) {
+        return component(v) == component(w);
     }
 
     /** Returns an iterable of all vertex IDs in the graph. */
@@ -95,15 +224,93 @@ public class GraphDB {
         return Math.sqrt(Math.pow(lon1 - lon2, 2) + Math.pow(lat1 - lat2, 2));
     }
 
-    /** Returns the vertex id closest to the given longitude and latitude. */
+    /** Returns the vertex id closest to the given longitude and latitude.
+     *  Ties go to the smaller id. */
     long closest(double lon, double lat) {
-        ArrayList<Node> nodelist = new ArrayList<>(nodes.values());
-        Collections.sort(nodelist, (o1, o2) -> {
-            double d1 = actualDistance(o1.lon, o1.lat, lon, lat);
-            double d2 = actualDistance(o2.lon, o2.lat, lon, lat);
-            return (d1 == d2)? Long.compare(o1.id, o2.id): Double.compare(d1, d2);
-        });
-        return nodelist.get(0).id;
+        PointIndex index = vertexIndex();
+        int i = index.nearest(lon, lat, 1);
+        if (i == -1)
+            throw new NoSuchElementException("The graph has no vertices");
+        return index.id(i);
+    }
+
+    /**
+     * Returns the vertex id closest to the given longitude and latitude among the vertices of
+     * the largest connected component, so that routes between any two results exist.
+     * Ties go to the smaller id.
+     */
+    long closestRoutable(double lon, double lat) {
+        PointIndex index = routableIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = routableIndex;
+                if (index == null) {
+                    int[] sizes = componentSizes();
+                    int n = sizes.length == 0 ? 0 : sizes[largestComponent];
+                    int i = 0;
+                    long[] ids = new long[n];
+                    double[] lons = new double[n], lats = new double[n];
+                    for (Node x : nodes.values()) {
+                        if (x.component != largestComponent)
+                            continue;
+                        ids[i] = x.id;
+                        lons[i] = x.lon;
+                        lats[i] = x.lat;
+                        i++;
+                    }
+                    index = new PointIndex(ids, lons, lats);
+                    routableIndex = index;
+                }
+            }
+        }
+        int i = index.nearest(lon, lat, 1);
+        if (i == -1)
+            throw new NoSuchElementException("The graph has no vertices");
+        return index.id(i);
+    }
+
+    /**
+     * Helper method: The grid index over all vertices, building it if needed
+     */
+    private PointIndex vertexIndex() {
+        PointIndex index = vertexIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = vertexIndex;
+                if (index == null) {
+                    int n = nodes.size(), i = 0;
+                    long[] ids = new long[n];
+                    double[] lons = new double[n], lats = new double[n];
+                    for (Node x : nodes.values()) {
+                        ids[i] = x.id;
+                        lons[i] = x.lon;
+                        lats[i] = x.lat;
+                        i++;
+                    }
+                    index = new PointIndex(ids, lons, lats);
+                    vertexIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * The graph as a CompactGraph (dense vertex numbering, primitive arrays), built on first use
+     * and rebuilt after the graph is modified.
+     */
+    CompactGraph compact() {
+        CompactGraph c = compact;
+        if (c == null) {
+            synchronized (this) {
+                c = compact;
+                if (c == null) {
+                    c = new CompactGraph(this);
+                    compact = c;
+                }
+            }
+        }
+        return c;
     }
 
     /** Longitude of vertex v. */
@@ -120,17 +327,133 @@ public class GraphDB {
      * Helper method: Add a node
      */
     void addNode(long id, double lon, double lat) {
+        vertexIndex = null;
+        compact = null;
+        componentsChanged();
         nodes.put(id, new Node(id, lon, lat));
     }
 
+    /**
+     * Helper method: Record that the (already added) node id is a location with the given name
+     */
+    void addLocation(long id, String name) {
+        Node x = nodes.get(id);
+        if (x == null)
+            throw new IllegalArgumentException();
+        if (x.name == null)
+            locations.add(x);
+        x.name = name;
+    }
+
     /**
      * Helper method: Add an edge (distance not supported)
      */
     void addEdge(long s, long t) {
+        addEdge(s, t, -1);
+    }
+
+    /**
+     * Helper method: Add an edge that is part of the way with the given index (see addWay)
+     */
+    void addEdge(long s, long t, int way) {
         if (!nodes.containsKey(s) || !nodes.containsKey(t))
             throw new IllegalArgumentException();
-        nodes.get(s).addEdge(t);
-        nodes.get(t).addEdge(s);
+        nodes.get(s).addEdge(t, way);
+        nodes.get(t).addEdge(s, way);
+        compact = null;
+        componentsChanged();
+    }
+
+    /**
+     * Helper method: Add a way to the way table and return its index.
+     * @param osmId OSM id of the way
+     * @param name Name of the way, or null if it has none
+     * @param roadClass Importance of the road, 0 (motorway) being the most important
+     *                  (see GraphBuildingHandler.roadClass)
+     */
+    int addWay(long osmId, String name, int roadClass) {
+        if (numWays == wayIds.length) {
+            wayIds = Arrays.copyOf(wayIds, numWays * 2);
+            wayNames = Arrays.copyOf(wayNames, numWays * 2);
+            wayClasses = Arrays.copyOf(wayClasses, numWays * 2);
+        }
+        int nameIdx = -1;
+        if (name != null) {
+            nameIdx = wayNameIndex.computeIfAbsent(name, k -> {
+                wayNameTable.add(k);
+                return wayNameTable.size() - 1;
+            });
+        }
+        wayIds[numWays] = osmId;
+        wayNames[numWays] = nameIdx;
+        wayClasses[numWays] = (byte) roadClass;
+        return numWays++;
+    }
+
+    /** Index of the way the edge between v and w belongs to, or -1 if unknown. */
+    int way(long v, long w) {
+        return nodes.get(v).getWay(w);
+    }
+
+    /** OSM id of the way with the given index. */
+    long wayId(int way) {
+        return wayIds[way];
+    }
+
+    /** Road class of the way with the given index; unknown ways count as the least important. */
+    int roadClass(int way) {
+        return way < 0 ? GraphBuildingHandler.MINOR_ROAD_CLASS : wayClasses[way];
+    }
+
+    /** Name of the way with the given index, or null if it is unnamed or unknown. */
+    String wayName(int way) {
+        if (way < 0 || wayNames[way] < 0)
+            return null;
+        return wayNameTable.get(wayNames[way]);
+    }
+
+    /**
+     * Great-circle distance between vertices v and w in meters (haversine formula).
+     */
+    double greatCircleDistance(long v, long w) {
+        Node x = nodes.get(v);
+        Node y = nodes.get(w);
+        return greatCircleDistance(x.lon, x.lat, y.lon, y.lat);
+    }
+
+    /**
+     * Helper method: Great-circle distance between two points in meters
+     */
+    static double greatCircleDistance(double lon1, double lat1, double lon2, double lat2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dphi = Math.toRadians(lat2 - lat1);
+        double dlambda = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dphi / 2) * Math.sin(dphi / 2)
+                + Math.cos(phi1) * Math.cos(phi2) * Math.sin(dlambda / 2) * Math.sin(dlambda / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    /**
+     * Initial bearing from vertex v to vertex w in degrees, clockwise from north, in [0, 360).
+     */
+    double bearing(long v, long w) {
+        double phi1 = Math.toRadians(lat(v));
+        double phi2 = Math.toRadians(lat(w));
+        double dlambda = Math.toRadians(lon(w) - lon(v));
+        double y = Math.sin(dlambda) * Math.cos(phi2);
+        double x = Math.cos(phi1) * Math.sin(phi2)
+                - Math.sin(phi1) * Math.cos(phi2) * Math.cos(dlambda);
+        return (Math.toDegrees(Math.atan2(y, x)) + 360) % 360;
+    }
+
+    /**
+     * Helper method: Forget the components after the graph changes; they are found again when
+     * next needed
+     */
+    private void componentsChanged() {
+        componentSizes = null;
+        routableIndex = null;
     }
 
     /**
@@ -142,6 +465,9 @@ public class GraphDB {
         for (Node x : nodes.values())
             x.removeEdge(id);  // Exceptions will not be thrown if there's not an edge (due to Node.removeEdge method)
         nodes.remove(id);
+        vertexIndex = null;
+        compact = null;
+        componentsChanged();
     }
 
     /**
@@ -151,5 +477,7 @@ public class GraphDB {
     void removeEdge(long s, long t) {
         nodes.get(s).removeEdge(t);
         nodes.get(t).removeEdge(s);
+        compact = null;
+        componentsChanged();
     }
 }
@@ -0,0 +1,277 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Splits the road graph into shards that can be served by separate processes (see ShardServer
+ * and ShardCoordinator), cutting as few roads as it can.
+ * <p>
+ * Partitioning is by inertial flow: recursive bisection where each cut is chosen among a few
+ * straight lines through the map (north-south, east-west and the two diagonals). For each
+ * line, the vertices are sorted by their position along it, the first and last quarter are
+ * tied to a source and a sink, and a minimum cut between them is found with unit-capacity max
+ * flow. The line with the smallest cut wins. Road networks have small natural cuts (rivers,
+ * freeways, hills), and this finds them while the quarters keep the parts balanced.
+ * </p>
+ * Usage: java GraphPartitioner [osm file] [shards] [output folder]
+ */
+public class GraphPartitioner {
+    /** Fraction of each part tied to the source, and to the sink, when bisecting. */
+    static final double BALANCE = 0.25;
+    /** Directions of the lines tried for each cut, in degrees from east. */
+    private static final double[] DIRECTIONS = {0, 45, 90, 135};
+    /** A highway tag value for each road class, for writing shards (see roadClass). */
+    private static final String[] CLASS_HIGHWAYS =
+        {"motorway", "primary", "secondary", "tertiary", "residential"};
+
+    /**
+     * Splits the vertices of c into the given number of shards, numbered from 0.
+     * @return The shard of each vertex, by CompactGraph index
+     */
+    public static int[] partition(CompactGraph c, int shards) {
+        if (shards < 1)
+            throw new IllegalArgumentException("At least one shard is needed");
+        int[] shardOf = new int[c.n];
+        int[] all = new int[c.n];
+        for (int v = 0; v < c.n; v++)
+            all[v] = v;
+        bisect(c, reverseEdges(c), all, 0, shards, shardOf);
+        return shardOf;
+    }
+
+    /**
+     * Helper method: Assign the vertices in part to shards first to first + count - 1
+     */
+    private static void bisect(CompactGraph c, int[] reverse, int[] part, int first, int count,
+                               int[] shardOf) {
+        if (count == 1 || part.length < 2) {
+            for (int v : part)
+                shardOf[v] = first;
+            return;
+        }
+        int countA = count / 2;
+        double fraction = (double) countA / count;
+        boolean[] inPart = new boolean[c.n];
+        for (int v : part)
+            inPart[v] = true;
+
+        boolean[] best = null;
+        int bestCut = Integer.MAX_VALUE, bestImbalance = Integer.MAX_VALUE;
+        for (double degrees : DIRECTIONS) {
+            boolean[] sideA = new boolean[c.n];
+            int cut = minCut(c, reverse, part, inPart, Math.toRadians(degrees), fraction, sideA);
+            int sizeA = 0;
+            for (int v : part) {
+                if (sideA[v])
+                    sizeA++;
+            }
+            int imbalance = Math.abs(sizeA - (int) Math.round(fraction * part.length));
+            if (cut < bestCut || (cut == bestCut && imbalance < bestImbalance)) {
+                best = sideA;
+                bestCut = cut;
+                bestImbalance = imbalance;
+            }
+        }
+
+        int sizeA = 0;
+        for (int v : part) {
+            if (best[v])
+                sizeA++;
+        }
+        int[] a = new int[sizeA], b = new int[part.length - sizeA];
+        int i = 0, j = 0;
+        for (int v : part) {
+            if (best[v])
+                a[i++] = v;
+            else
+                b[j++] = v;
+        }
+        bisect(c, reverse, a, first, countA, shardOf);
+        bisect(c, reverse, b, first + countA, count - countA, shardOf);
+    }
+
+    /**
+     * Helper method: Minimum cut of the part between the vertices that come first along the
+     * line at the given angle and those that come last, by unit-capacity max flow
+     * @param sideA Set to true for the vertices on the source side of the cut
+     * @return The number of edges cut
+     */
+    private static int minCut(CompactGraph c, int[] reverse, int[] part, boolean[] inPart,
+                              double angle, double fraction, boolean[] sideA) {
+        double dx = Math.cos(angle), dy = Math.sin(angle);
+        Integer[] order = new Integer[part.length];
+        for (int i = 0; i < part.length; i++)
+            order[i] = part[i];
+        Arrays.sort(order, Comparator.comparingDouble(v -> c.lon[v] * dx + c.lat[v] * dy));
+        int numSources = Math.max(1, (int) (2 * BALANCE * fraction * part.length));
+        int numSinks = Math.max(1, (int) (2 * BALANCE * (1 - fraction) * part.length));
+        boolean[] sink = new boolean[c.n];
+        for (int i = 0; i < numSinks; i++)
+            sink[order[part.length - 1 - i]] = true;
+
+        // Flow on each directed edge; the edge and its reverse always carry opposite amounts
+        int[] flow = new int[c.adjTarget.length];
+        int[] parentEdge = new int[c.n];
+        int cut = 0;
+        while (true) {
+            // Breadth-first search for an augmenting path from any source to any sink
+            Arrays.fill(sideA, false);
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int i = 0; i < numSources; i++) {
+                sideA[order[i]] = true;
+                parentEdge[order[i]] = -1;
+                queue.add(order[i]);
+            }
+            int reachedSink = -1;
+            while (!queue.isEmpty() && reachedSink == -1) {
+                int v = queue.poll();
+                for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                    int w = c.adjTarget[e];
+                    if (!inPart[w] || sideA[w] || flow[e] >= 1)
+                        continue;
+                    sideA[w] = true;
+                    parentEdge[w] = e;
+                    if (sink[w]) {
+                        reachedSink = w;
+                        break;
+                    }
+                    queue.add(w);
+                }
+            }
+            if (reachedSink == -1)
+                return cut;  // sideA is now what the sources reach: the source side of a min cut
+            for (int w = reachedSink; parentEdge[w] != -1; ) {
+                int e = parentEdge[w];
+                flow[e]++;
+                flow[reverse[e]]--;
+                w = c.adjTarget[reverse[e]];
+            }
+            cut++;
+        }
+    }
+
+    /**
+     * Helper method: For each directed edge v -> w, the index of a matching edge w -> v, with
+     * parallel edges paired one to one
+     */
+    private static int[] reverseEdges(CompactGraph c) {
+        int[] reverse = new int[c.adjTarget.length];
+        Arrays.fill(reverse, -1);
+        for (int v = 0; v < c.n; v++) {
+            for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                if (reverse[e] != -1)
+                    continue;
+                int w = c.adjTarget[e];
+                for (int f = c.adjStart[w]; f < c.adjStart[w + 1]; f++) {
+                    if (c.adjTarget[f] == v && reverse[f] == -1 && f != e) {
+                        reverse[e] = f;
+                        reverse[f] = e;
+                        break;
+                    }
+                }
+            }
+        }
+        return reverse;
+    }
+
+    /**
+     * Writes each shard as an OSM file that ShardServer can load: shard-k.osm has the shard's
+     * vertices, the roads that touch them, and the vertices at the far end of roads that
+     * leave the shard (its halo), which are listed in shard-k.halo.
+     * @param shardOf The shard of each vertex of g.compact(), as returned by partition
+     */
+    public static void write(GraphDB g, int[] shardOf, int shards, String folder)
+            throws IOException {
+        CompactGraph c = g.compact();
+        new File(folder).mkdirs();
+        for (int k = 0; k < shards; k++) {
+            boolean[] written = new boolean[c.n];
+            File osmFile = new File(folder, "shard-" + k + ".osm");
+            try (PrintWriter osm = new PrintWriter(osmFile, "UTF-8");
+                 PrintWriter halo = new PrintWriter(new File(folder, "shard-" + k + ".halo"))) {
+                osm.println("<?xml version='1.0' encoding='UTF-8'?>");
+                osm.println("<osm version=\"0.6\">");
+                for (int v = 0; v < c.n; v++) {
+                    if (shardOf[v] != k)
+                        continue;
+                    writeNode(osm, c, v, written);
+                    for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                        int w = c.adjTarget[e];
+                        if (shardOf[w] != k && !written[w]) {
+                            writeNode(osm, c, w, written);
+                            halo.println(c.ids[w]);
+                        }
+                    }
+                }
+                for (int v = 0; v < c.n; v++) {
+                    if (shardOf[v] != k)
+                        continue;
+                    for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                        int w = c.adjTarget[e];
+                        if (shardOf[w] != k || v < w)
+                            writeEdge(osm, g, c, v, w, c.adjWay[e]);
+                    }
+                }
+                osm.println("</osm>");
+            }
+        }
+    }
+
+    /**
+     * Helper method: Write vertex v as an OSM node element, once
+     */
+    private static void writeNode(PrintWriter osm, CompactGraph c, int v, boolean[] written) {
+        written[v] = true;
+        osm.printf("  <node id=\"%d\" lat=\"%s\" lon=\"%s\"/>\n", c.ids[v],
+                Double.toString(c.lat[v]), Double.toString(c.lon[v]));
+    }
+
+    /**
+     * Helper method: Write the edge v -w as a two-node way, keeping its way's id, name and
+     * road class
+     */
+    private static void writeEdge(PrintWriter osm, GraphDB g, CompactGraph c, int v, int w,
+                                  int way) {
+        osm.printf("  <way id=\"%d\"><nd ref=\"%d\"/><nd ref=\"%d\"/>",
+                way < 0 ? 0 : g.wayId(way), c.ids[v], c.ids[w]);
+        osm.printf("<tag k=\"highway\" v=\"%s\"/>", CLASS_HIGHWAYS[g.roadClass(way)]);
+        String name = g.wayName(way);
+        if (name != null)
+            osm.printf("<tag k=\"name\" v=\"%s\"/>", escape(name));
+        osm.println("</way>");
+    }
+
+    /**
+     * Helper method: s with the characters that are special in XML attributes escaped
+     */
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+                .replace("\"", "&quot;");
+    }
+
+    public static void main(String[] args) throws IOException {
+        String osm = args.length > 0 ? args[0] : "berkeley.osm";
+        int shards = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        String folder = args.length > 2 ? args[2] : "shards";
+
+        GraphDB g = new GraphDB(osm);
+        CompactGraph c = g.compact();
+        long start = System.nanoTime();
+        int[] shardOf = partition(c, shards);
+        int[] sizes = new int[shards];
+        int cut = 0;
+        for (int v = 0; v < c.n; v++) {
+            sizes[shardOf[v]]++;
+            for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                if (shardOf[c.adjTarget[e]] != shardOf[v])
+                    cut++;
+            }
+        }
+        System.out.printf("%d vertices in %d shards %s, %d roads cut, in %.1f s\n", c.n, shards,
+                Arrays.toString(sizes), cut / 2, (System.nanoTime() - start) / 1e9);
+        write(g, shardOf, shards, folder);
+    }
+}
@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes isochrones: the area reachable from a point within a travel budget along the roads.
+ * A Dijkstra search from the vertex closest to the point never relaxes past the budget, so it
+ * stops by itself once the reachable set is settled. Its state comes from the CompactGraph's
+ * pool, so concurrent requests reuse arrays instead of each building hash maps.
+ * The area is returned as a star-shaped (and so possibly concave) polygon: the plane around the
+ * start is cut into equal angular sectors, and each sector contributes the farthest reachable
+ * point in it, including points part way along edges where the budget runs out.
+ */
+public class Isochrone {
+    /** Number of angular sectors, i.e. at most this many polygon corners. */
+    static final int SECTORS = 72;
+    /** Speed used to turn minutes into meters when none is given (city driving). */
+    static final double DEFAULT_KMH = 30;
+
+    private final GraphDB g;
+
+    public Isochrone(GraphDB g) {
+        this.g = g;
+    }
+
+    /** Distance in meters covered in the given number of minutes at the given speed. */
+    static double metersFor(double minutes, double kmh) {
+        return minutes * kmh * 1000 / 60;
+    }
+
+    /**
+     * The area reachable from the vertex closest to (lon, lat) within the given distance.
+     * @return The area as an IsochroneResult; query_success is false if the graph is empty or
+     * the budget is negative.
+     */
+    public IsochroneResult compute(double lon, double lat, double meters) {
+        IsochroneResult result = new IsochroneResult();
+        CompactGraph c = g.compact();
+        if (c.n == 0 || !(meters >= 0))
+            return result;
+        int start = c.index(g.closest(lon, lat));
+        double lon0 = c.lon[start], lat0 = c.lat[start];
+        double lonScale = Math.cos(Math.toRadians(lat0));
+
+        // Farthest point found so far in each sector, as squared distance and coordinates
+        double[] best = new double[SECTORS];
+        double[] bestLon = new double[SECTORS], bestLat = new double[SECTORS];
+        Arrays.fill(best, -1);
+
+        CompactGraph.SearchState s = c.acquire();
+        try {
+            s.relax(start, 0, -1);
+            int reachable = 0;
+            while (!s.isEmpty()) {
+                int v = s.poll();
+                double d = s.dist[v];
+                reachable++;
+                offer(best, bestLon, bestLat, lon0, lat0, lonScale, c.lon[v], c.lat[v]);
+                for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                    int w = c.adjTarget[e];
+                    double nd = d + c.adjMeters[e];
+                    if (nd <= meters) {
+                        if (!s.settled(w))
+                            s.relax(w, nd, v);
+                    } else {
+                        // The budget runs out part way along this edge
+                        double t = (meters - d) / c.adjMeters[e];
+                        offer(best, bestLon, bestLat, lon0, lat0, lonScale,
+                                c.lon[v] + t * (c.lon[w] - c.lon[v]),
+                                c.lat[v] + t * (c.lat[w] - c.lat[v]));
+                    }
+                }
+            }
+            result.reachable = reachable;
+        } finally {
+            c.release(s);
+        }
+
+        List<double[]> polygon = new ArrayList<>();
+        for (int i = 0; i < SECTORS; i++) {
+            if (best[i] > 0)
+                polygon.add(new double[]{bestLon[i], bestLat[i]});
+        }
+        result.polygon = polygon;
+        result.startLon = lon0;
+        result.startLat = lat0;
+        result.querySuccess = true;
+        return result;
+    }
+
+    /**
+     * Helper method: Keep (lon, lat) as its sector's corner if it is the farthest point from
+     * the start seen in that sector
+     */
+    private static void offer(double[] best, double[] bestLon, double[] bestLat, double lon0,
+                              double lat0, double lonScale, double lon, double lat) {
+        double dx = (lon - lon0) * lonScale, dy = lat - lat0;
+        double d2 = dx * dx + dy * dy;
+        if (d2 == 0)
+            return;
+        double angle = Math.atan2(dy, dx) + Math.PI;  // 0 to 2 pi
+        int sector = Math.min(SECTORS - 1, (int) (angle / (2 * Math.PI) * SECTORS));
+        if (d2 > best[sector]) {
+            best[sector] = d2;
+            bestLon[sector] = lon;
+            bestLat[sector] = lat;
+        }
+    }
+}
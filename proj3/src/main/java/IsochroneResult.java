@@ -0,0 +1,25 @@
+import com.google.gson.annotations.SerializedName;
+
+import java.util.List;
+
+/**
+ * The result of an isochrone query, as an object that Gson serializes directly. Fields that
+ * are null (everything but query_success when the query failed) are left out of the JSON.
+ */
+public class IsochroneResult {
+    // False if the graph is empty or the budget is negative
+    @SerializedName("query_success")
+    boolean querySuccess;
+    // The vertex the search started from
+    @SerializedName("start_lon")
+    Double startLon;
+    @SerializedName("start_lat")
+    Double startLat;
+    // How many vertices are within the budget
+    @SerializedName("reachable")
+    Integer reachable;
+    // [lon, lat] of the corners of the area in counter-clockwise order, not repeating the
+    // first corner at the end
+    @SerializedName("polygon")
+    List<double[]> polygon;
+}
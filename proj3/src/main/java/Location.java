@@ -0,0 +1,36 @@
+import com.google.gson.annotations.SerializedName;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A named place found by a location search, as an object that Gson serializes directly with
+ * the same JSON keys as the map form returned by MapServer.getLocations.
+ */
+public class Location {
+    @SerializedName("lat")
+    final double lat;
+    @SerializedName("lon")
+    final double lon;
+    @SerializedName("name")
+    final String name;
+    @SerializedName("id")
+    final long id;
+
+    Location(Node x) {
+        this.lat = x.lat;
+        this.lon = x.lon;
+        this.name = x.name;
+        this.id = x.id;
+    }
+
+    /** The location as a map, as MapServer.getLocations returns it. */
+    Map<String, Object> toMap() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("lat", lat);
+        m.put("lon", lon);
+        m.put("name", name);
+        m.put("id", id);
+        return m;
+    }
+}
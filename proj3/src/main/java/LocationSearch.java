@@ -0,0 +1,171 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Search index over the names of the locations in a GraphDB.
+ * Exact searches look up the cleaned name in a hash map. When nothing matches exactly (usually
+ * a misspelling), a BK-tree over the distinct cleaned names finds names within a small edit
+ * distance, ranked by distance and then by popularity (how many places share the name, e.g.
+ * chain stores). Fuzzy queries stop after a fixed number of distance computations, so the work
+ * per query is bounded no matter how many names there are.
+ */
+public class LocationSearch {
+    /** Most distinct names returned by a fuzzy search. */
+    private static final int MAX_FUZZY_NAMES = 10;
+    /** Most BK-tree nodes whose distance is computed per fuzzy search. */
+    private static final int MAX_FUZZY_VISITS = 5000;
+
+    /** Locations by cleaned name, both in the order they appear in the OSM file. */
+    private final Map<String, List<Node>> byCleanName = new LinkedHashMap<>();
+    private BKNode bkRoot;
+
+    /**
+     * A BK-tree node: children are keyed by their edit distance to this node's name, so a
+     * search only needs to follow children whose key is within the tolerance of the distance
+     * from the query to this node (triangle inequality).
+     */
+    private static class BKNode {
+        String name;
+        Map<Integer, BKNode> children;
+
+        BKNode(String name) {
+            this.name = name;
+        }
+    }
+
+    public LocationSearch(GraphDB g) {
+        for (Node x : g.locations) {
+            String clean = GraphDB.cleanString(x.name);
+            if (clean.isEmpty())
+                continue;
+            List<Node> list = byCleanName.get(clean);
+            if (list == null) {
+                list = new ArrayList<>();
+                byCleanName.put(clean, list);
+                insert(clean);
+            }
+            list.add(x);
+        }
+    }
+
+    /**
+     * Returns the locations whose cleaned name equals the cleaned query, or if there are none,
+     * the locations with the closest names (within a small edit distance), best first.
+     */
+    public List<Location> find(String query) {
+        List<Location> ret = new LinkedList<>();
+        String clean = GraphDB.cleanString(query);
+        if (clean.isEmpty())
+            return ret;
+
+        List<Node> exact = byCleanName.get(clean);
+        if (exact != null) {
+            for (Node x : exact)
+                ret.add(new Location(x));
+            return ret;
+        }
+        for (String name : fuzzyNames(clean)) {
+            for (Node x : byCleanName.get(name))
+                ret.add(new Location(x));
+        }
+        return ret;
+    }
+
+    /**
+     * Like find, but each location is in the shape returned by MapServer.getLocations.
+     */
+    public List<Map<String, Object>> search(String query) {
+        List<Map<String, Object>> ret = new LinkedList<>();
+        for (Location x : find(query))
+            ret.add(x.toMap());
+        return ret;
+    }
+
+    /**
+     * Distinct cleaned names within the edit distance tolerance of the cleaned query,
+     * best match first: by edit distance, then by popularity, then alphabetically.
+     */
+    List<String> fuzzyNames(String clean) {
+        int tolerance = clean.length() <= 4 ? 1 : 2;
+        List<String> found = new ArrayList<>();
+        Map<String, Integer> distances = new HashMap<>();
+        if (bkRoot == null)
+            return found;
+
+        ArrayList<BKNode> stack = new ArrayList<>();
+        stack.add(bkRoot);
+        int visits = 0;
+        while (!stack.isEmpty() && visits < MAX_FUZZY_VISITS) {
+            BKNode n = stack.remove(stack.size() - 1);
+            visits++;
+            int d = editDistance(clean, n.name);
+            if (d <= tolerance) {
+                found.add(n.name);
+                distances.put(n.name, d);
+            }
+            if (n.children == null)
+                continue;
+            for (Map.Entry<Integer, BKNode> e : n.children.entrySet()) {
+                if (Math.abs(e.getKey() - d) <= tolerance)
+                    stack.add(e.getValue());
+            }
+        }
+
+        found.sort((a, b) -> {
+            int c = Integer.compare(distances.get(a), distances.get(b));
+            if (c == 0)
+                c = Integer.compare(byCleanName.get(b).size(), byCleanName.get(a).size());
+            return c == 0 ? a.compareTo(b) : c;
+        });
+        return found.size() > MAX_FUZZY_NAMES ? found.subList(0, MAX_FUZZY_NAMES) : found;
+    }
+
+    /**
+     * Helper method: Add a name to the BK-tree
+     */
+    private void insert(String name) {
+        if (bkRoot == null) {
+            bkRoot = new BKNode(name);
+            return;
+        }
+        BKNode n = bkRoot;
+        while (true) {
+            int d = editDistance(name, n.name);
+            if (n.children == null)
+                n.children = new HashMap<>();
+            BKNode child = n.children.get(d);
+            if (child == null) {
+                n.children.put(d, new BKNode(name));
+                return;
+            }
+            n = child;
+        }
+    }
+
+    /**
+     * Levenshtein distance between a and b, keeping only two rows of the table.
+     */
+    static int editDistance(String a, String b) {
+        int n = a.length(), m = b.length();
+        int[] prev = new int[m + 1];
+        int[] cur = new int[m + 1];
+        for (int j = 0; j <= m; j++)
+            prev[j] = j;
+        for (int i = 1; i <= n; i++) {
+            cur[0] = i;
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= m; j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                cur[j] = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+            }
+            int[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+        }
+        return prev[m];
+    }
+}
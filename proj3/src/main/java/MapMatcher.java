@@ -0,0 +1,301 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Snaps GPS traces onto the road graph with a hidden Markov model: the hidden state at each GPS
+ * point is the road position the vehicle was really at, candidates are the nearby points on
+ * road segments (found with an EdgeIndex), a candidate is likelier the closer it is to the GPS
+ * point, and a move between candidates is likelier the closer its route length is to the
+ * straight-line distance between the GPS points. The Viterbi algorithm picks the likeliest
+ * sequence of positions.
+ * Route lengths come from bounded Dijkstra searches on the CompactGraph, one per candidate per
+ * point. A Session matches a trace point by point and hands out positions as soon as they can
+ * no longer change, so long traces need little memory; matchAll runs traces in parallel.
+ */
+public class MapMatcher {
+    /** Standard deviation of GPS error, in meters. */
+    static final double GPS_SIGMA_METERS = 10;
+    /** Scale of the difference between route and straight-line distance, in meters. */
+    static final double TRANSITION_BETA_METERS = 50;
+    /** Road positions farther than this from a GPS point are not considered. */
+    static final double CANDIDATE_RADIUS_METERS = 50;
+    /** At most this many candidates (the nearest) per GPS point. */
+    static final int MAX_CANDIDATES = 8;
+    /** Routes longer than this many times the straight-line distance (plus slack) are ignored. */
+    static final double MAX_ROUTE_FACTOR = 2;
+
+    private static final double METERS_PER_DEGREE = GraphDB.EARTH_RADIUS_METERS * Math.PI / 180;
+
+    /** Where one GPS point was matched to. */
+    public static class Match {
+        /** Position of the GPS point in its trace. */
+        public final int index;
+        /** The road segment (OSM node ids of its ends) and the way it is part of. */
+        public final long from, to, wayId;
+        /** The matched position on the segment. */
+        public final double lon, lat;
+
+        Match(int index, long from, long to, long wayId, double lon, double lat) {
+            this.index = index;
+            this.from = from;
+            this.to = to;
+            this.wayId = wayId;
+            this.lon = lon;
+            this.lat = lat;
+        }
+    }
+
+    private final GraphDB g;
+    private final EdgeIndex edges;
+
+    public MapMatcher(GraphDB g, EdgeIndex edges) {
+        this.g = g;
+        this.edges = edges;
+    }
+
+    /**
+     * Matches a whole trace. Points with no road nearby are left out of the result.
+     * @param trace {lon, lat} of each GPS point, in order
+     */
+    public List<Match> match(double[][] trace) {
+        Session s = new Session();
+        List<Match> ret = new ArrayList<>();
+        for (double[] p : trace)
+            ret.addAll(s.add(p[0], p[1]));
+        ret.addAll(s.finish());
+        return ret;
+    }
+
+    /** Matches several traces in parallel on the common fork-join pool. */
+    public List<List<Match>> matchAll(List<double[][]> traces) {
+        return traces.parallelStream().map(this::match).collect(Collectors.toList());
+    }
+
+    /** One candidate at one GPS point, with the best way of getting to it (Viterbi). */
+    private static class State {
+        final int index;
+        final EdgeIndex.Snap snap;
+        /** Log probability of the best sequence of positions ending here (up to a constant). */
+        double score;
+        /** The previous state on that sequence; cleared once this state is emitted. */
+        State prev;
+
+        State(int index, EdgeIndex.Snap snap, double score, State prev) {
+            this.index = index;
+            this.snap = snap;
+            this.score = score;
+            this.prev = prev;
+        }
+    }
+
+    /**
+     * Matches one trace incrementally. Not thread safe; use one Session per trace.
+     */
+    public class Session {
+        private List<State> current = Collections.emptyList();
+        private double lastLon, lastLat;
+        private int nextIndex = 0;
+        // Most recent state that has been emitted, and so is on every surviving sequence
+        private State emitted;
+
+        /**
+         * Adds the next GPS point of the trace.
+         * @return The matches that became certain, in trace order (often empty)
+         */
+        public List<Match> add(double lon, double lat) {
+            int index = nextIndex++;
+            List<EdgeIndex.Snap> candidates = candidates(lon, lat);
+            if (candidates.isEmpty())
+                return Collections.emptyList();
+
+            List<State> next = new ArrayList<>();
+            double straight = current.isEmpty() ? 0
+                    : GraphDB.greatCircleDistance(lastLon, lastLat, lon, lat);
+            double[][] routes = new double[current.size()][];
+            for (int i = 0; i < current.size(); i++)
+                routes[i] = routeLengths(current.get(i).snap, candidates, straight);
+
+            boolean reachable = false;
+            for (int j = 0; j < candidates.size(); j++) {
+                EdgeIndex.Snap c = candidates.get(j);
+                double d = GraphDB.greatCircleDistance(lon, lat, c.lon, c.lat);
+                double emission = -0.5 * (d / GPS_SIGMA_METERS) * (d / GPS_SIGMA_METERS);
+                State best = null;
+                double bestScore = 0;
+                for (int i = 0; i < current.size(); i++) {
+                    if (routes[i][j] == Double.POSITIVE_INFINITY)
+                        continue;
+                    double score = current.get(i).score
+                            - Math.abs(routes[i][j] - straight) / TRANSITION_BETA_METERS;
+                    if (best == null || score > bestScore) {
+                        bestScore = score;
+                        best = current.get(i);
+                    }
+                }
+                reachable |= best != null;
+                next.add(new State(index, c, bestScore + emission, best));
+            }
+
+            List<Match> ret = new ArrayList<>();
+            if (reachable) {
+                next.removeIf(st -> st.prev == null);
+            } else if (!current.isEmpty()) {
+                // No candidate can be reached (e.g. a gap in the trace): keep the best
+                // sequence so far and start a new one here
+                ret.addAll(emitThrough(best(current)));
+            }
+            // Only differences between scores matter; keep them from drifting
+            double top = best(next).score;
+            for (State st : next)
+                st.score -= top;
+            current = next;
+            lastLon = lon;
+            lastLat = lat;
+            ret.addAll(emitThrough(commonAncestor(current)));
+            return ret;
+        }
+
+        /**
+         * Ends the trace.
+         * @return The remaining matches, following the likeliest sequence
+         */
+        public List<Match> finish() {
+            List<Match> ret = current.isEmpty() ? Collections.emptyList()
+                    : emitThrough(best(current));
+            current = Collections.emptyList();
+            return ret;
+        }
+
+        /**
+         * Helper method: Matches for the not yet emitted states on the sequence ending at
+         * last, which becomes the most recently emitted state
+         */
+        private List<Match> emitThrough(State last) {
+            if (last == null || last == emitted)
+                return Collections.emptyList();
+            ArrayList<Match> ret = new ArrayList<>();
+            for (State s = last; s != null && s != emitted; s = s.prev)
+                ret.add(toMatch(s));
+            Collections.reverse(ret);
+            emitted = last;
+            last.prev = null;  // Nothing before it is needed any more
+            return ret;
+        }
+    }
+
+    /** Helper method: The state with the highest score */
+    private static State best(List<State> states) {
+        State best = null;
+        for (State s : states) {
+            if (best == null || s.score > best.score)
+                best = s;
+        }
+        return best;
+    }
+
+    /**
+     * Helper method: The latest state that every state in the list descends from (all of their
+     * best sequences agree up to it), or null if there is none
+     */
+    private static State commonAncestor(List<State> states) {
+        if (states.size() == 1)
+            return states.get(0);
+        Map<State, Boolean> level = new IdentityHashMap<>();
+        for (State s : states)
+            level.put(s, true);
+        while (level.size() > 1) {
+            Map<State, Boolean> up = new IdentityHashMap<>();
+            for (State s : level.keySet()) {
+                if (s.prev == null)
+                    return null;
+                up.put(s.prev, true);
+            }
+            level = up;
+        }
+        return level.keySet().iterator().next();
+    }
+
+    /**
+     * Helper method: Points on road segments within CANDIDATE_RADIUS_METERS of (lon, lat),
+     * nearest first
+     */
+    private List<EdgeIndex.Snap> candidates(double lon, double lat) {
+        double dLat = CANDIDATE_RADIUS_METERS / METERS_PER_DEGREE;
+        double dLon = dLat / Math.cos(Math.toRadians(lat));
+        List<EdgeIndex.Snap> ret = new ArrayList<>();
+        List<Double> dist = new ArrayList<>();
+        edges.query(lon - dLon, lat + dLat, lon + dLon, lat - dLat, e -> {
+            EdgeIndex.Snap s = edges.project(e, lon, lat);
+            double d = GraphDB.greatCircleDistance(lon, lat, s.lon, s.lat);
+            if (d <= CANDIDATE_RADIUS_METERS) {
+                ret.add(s);
+                dist.add(d);
+            }
+        });
+        Integer[] order = new Integer[ret.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(dist.get(a), dist.get(b)));
+        List<EdgeIndex.Snap> sorted = new ArrayList<>();
+        for (int i = 0; i < order.length && i < MAX_CANDIDATES; i++)
+            sorted.add(ret.get(order[i]));
+        return sorted;
+    }
+
+    /**
+     * Helper method: Length of the shortest route from position a to each of the targets, or
+     * infinity where it is longer than the search bound. One Dijkstra search, started from both
+     * ends of a's segment.
+     */
+    private double[] routeLengths(EdgeIndex.Snap a, List<EdgeIndex.Snap> targets, double straight) {
+        double[] ret = new double[targets.size()];
+        double bound = MAX_ROUTE_FACTOR * straight + 2 * CANDIDATE_RADIUS_METERS;
+        CompactGraph c = g.compact();
+        CompactGraph.SearchState s = c.acquire();
+        try {
+            int u = c.index(edges.from(a.edge)), v = c.index(edges.to(a.edge));
+            double len = segmentLength(a.edge);
+            s.relax(u, a.fraction * len, -1);
+            s.relax(v, (1 - a.fraction) * len, -1);
+            while (!s.isEmpty() && s.dist[s.peek()] <= bound) {
+                int x = s.poll();
+                for (int e = c.adjStart[x]; e < c.adjStart[x + 1]; e++) {
+                    if (!s.settled(c.adjTarget[e]))
+                        s.relax(c.adjTarget[e], s.dist[x] + c.adjMeters[e], x);
+                }
+            }
+            for (int j = 0; j < ret.length; j++) {
+                EdgeIndex.Snap b = targets.get(j);
+                double blen = segmentLength(b.edge);
+                int bu = c.index(edges.from(b.edge)), bv = c.index(edges.to(b.edge));
+                double d = Math.min(
+                        s.settled(bu) ? s.dist[bu] + b.fraction * blen : Double.POSITIVE_INFINITY,
+                        s.settled(bv) ? s.dist[bv] + (1 - b.fraction) * blen
+                                : Double.POSITIVE_INFINITY);
+                if (b.edge == a.edge)
+                    d = Math.min(d, Math.abs(b.fraction - a.fraction) * len);
+                ret[j] = d <= bound ? d : Double.POSITIVE_INFINITY;
+            }
+        } finally {
+            c.release(s);
+        }
+        return ret;
+    }
+
+    /** Helper method: Length of a segment of the edge index in meters */
+    private double segmentLength(int e) {
+        return GraphDB.greatCircleDistance(edges.lon1(e), edges.lat1(e), edges.lon2(e),
+                edges.lat2(e));
+    }
+
+    private Match toMatch(State s) {
+        int way = edges.way(s.snap.edge);
+        return new Match(s.index, edges.from(s.snap.edge), edges.to(s.snap.edge),
+                way < 0 ? -1 : g.wayId(way), s.snap.lon, s.snap.lat);
+    }
+}
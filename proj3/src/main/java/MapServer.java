@@ -1,23 +1,30 @@
 import java.awt.Graphics;
-import java.awt.Graphics2D;
-import java.awt.BasicStroke;
-import java.awt.Color;
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 
 /* Maven is used to pull in these dependencies. */
 import com.google.gson.Gson;
 
+import spark.Route;
+
 import static spark.Spark.*;
 
 /**
@@ -38,14 +45,35 @@ public class MapServer {
             ROOT_LRLAT = 37.82280243352756, ROOT_LRLON = -122.2119140625;
     /** Each tile is 256x256 pixels. */
     public static final int TILE_SIZE = 256;
+    /**
+     * Turns response objects into JSON for every endpoint. Gson keeps no state between calls,
+     * so one instance is shared by all request threads.
+     */
+    private static final Gson GSON = new Gson();
     /** HTTP failed response. */
     private static final int HALT_RESPONSE = 403;
-    /** Route stroke information: typically roads are not more than 5px wide. */
-    public static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
-    /** Route stroke information: Cyan with half transparency. */
-    public static final Color ROUTE_STROKE_COLOR = new Color(108, 181, 230, 200);
+    /**
+     * Deepest quadtree level of the tiles in img/. The route geometry is simplified once for
+     * each depth up to this one, since the front end draws the route itself.
+     */
+    public static final int MAX_DEPTH = 7;
     /** The tile images are in the IMG_ROOT folder. */
     private static final String IMG_ROOT = "img/";
+    /**
+     * If this file exists, tiles are served from it (see TileArchive) instead of from
+     * separate files in IMG_ROOT. Create it with: java TileArchive img/ img.tiles
+     */
+    private static final String TILE_ARCHIVE = "img.tiles";
+    /** Most decoded tile images kept in memory (see TileCache). */
+    private static final int TILE_CACHE_SIZE = 1024;
+    /**
+     * If this file exists when the server starts, routes are the fastest under the congestion
+     * factors in it, which are reread whenever the file changes (see TrafficOverlay).
+     */
+    private static final String TRAFFIC_FEED = "traffic.txt";
+    private static final long TRAFFIC_POLL_MILLIS = 5000;
+    /** Tiles rendered from the graph (see VectorRenderer) are cached in this folder. */
+    private static final String VECTOR_CACHE_ROOT = "vector_tiles/";
     /**
      * The OSM XML file path. Downloaded from <a href="http://download.bbbike.org/osm/">here</a>
      * using custom region selection.
@@ -58,6 +86,8 @@ public class MapServer {
      * ullat -> upper left corner latitude,<br> ullon -> upper left corner longitude, <br>
      * lrlat -> lower right corner latitude,<br> lrlon -> lower right corner longitude <br>
      * w -> user viewport window width in pixels,<br> h -> user viewport height in pixels.
+     * <br>An optional mode=vector parameter draws the map from the road graph instead of
+     * the images in img/, which allows zooming past the deepest image level.
      **/
     private static final String[] REQUIRED_RASTER_REQUEST_PARAMS = {"ullat", "ullon", "lrlat",
         "lrlon", "w", "h"};
@@ -66,20 +96,37 @@ public class MapServer {
      * as keys in the params map.<br>
      * start_lat -> start point latitude,<br> start_lon -> start point longitude,<br>
      * end_lat -> end point latitude, <br>end_lon -> end point longitude.
+     * <br>An optional alternatives=k parameter also returns up to k - 1 other routes, and
+     * mode=vector returns polylines down to VectorRenderer.MAX_DEPTH rather than MAX_DEPTH.
      **/
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
         "end_lat", "end_lon"};
-
     /**
-     * The result of rastering must be a map containing all of the
-     * fields listed in the comments for getMapRaster in Rasterer.java.
+     * Each reverse geocoding request has the point to look up:<br>
+     * lat -> latitude,<br> lon -> longitude.
      **/
-    private static final String[] REQUIRED_RASTER_RESULT_PARAMS = {"render_grid", "raster_ul_lon",
-        "raster_ul_lat", "raster_lr_lon", "raster_lr_lat", "depth", "query_success"};
+    private static final String[] REQUIRED_REVERSE_REQUEST_PARAMS = {"lat", "lon"};
+    /**
+     * Each isochrone request has the starting point (lat, lon) and a budget given by exactly
+     * one of:<br>
+     * meters -> distance along the roads,<br>
+     * minutes -> travel time, at kmh km/h (optional, default Isochrone.DEFAULT_KMH).
+     **/
+    private static final String[] REQUIRED_ISOCHRONE_REQUEST_PARAMS = {"lat", "lon"};
 
     private static Rasterer rasterer;
+    private static TileArchive tileArchive;
+    private static VectorRenderer vectorRenderer;
     private static GraphDB graph;
-    private static LinkedList<Long> route = new LinkedList<>();
+    private static LocationSearch locationSearch;
+    private static EdgeIndex edgeIndex;
+    private static ReverseGeocoder reverseGeocoder;
+    private static Isochrone isochrone;
+    private static MapMatcher mapMatcher;
+    private static TripPlanner tripPlanner;
+    private static TileCache tileCache;
+    private static Prefetcher prefetcher;
+    private static TrafficOverlay traffic;
     /* Define any static variables here. Do not define any instance variables of MapServer. */
 
 
@@ -90,7 +137,29 @@ public class MapServer {
      **/
     public static void initialize() {
         graph = new GraphDB(OSM_DB_PATH);
-        rasterer = new Rasterer(IMG_ROOT);
+        locationSearch = new LocationSearch(graph);
+        tileArchive = null;
+        if (new File(TILE_ARCHIVE).isFile()) {
+            try {
+                tileArchive = new TileArchive(TILE_ARCHIVE);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        rasterer = new Rasterer(IMG_ROOT, tileArchive);
+        edgeIndex = new EdgeIndex(graph);
+        vectorRenderer = new VectorRenderer(graph, edgeIndex, VECTOR_CACHE_ROOT);
+        reverseGeocoder = new ReverseGeocoder(graph, edgeIndex);
+        isochrone = new Isochrone(graph);
+        mapMatcher = new MapMatcher(graph, edgeIndex);
+        tripPlanner = new TripPlanner(graph);
+        tileCache = new TileCache(TILE_CACHE_SIZE, MapServer::loadImage);
+        prefetcher = new Prefetcher(MapServer::getImage);
+        traffic = null;
+        if (new File(TRAFFIC_FEED).isFile()) {
+            traffic = new TrafficOverlay(graph);
+            traffic.watch(TRAFFIC_FEED, TRAFFIC_POLL_MILLIS);
+        }
     }
 
     public static void main(String[] args) {
@@ -106,61 +175,183 @@ public class MapServer {
 
         /* Define the raster endpoint for HTTP GET requests. I use anonymous functions to define
          * the request handlers. */
-        get("/raster", (req, res) -> {
+        get("/raster", foreground((req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
             /* The png image is written to the ByteArrayOutputStream */
             ByteArrayOutputStream os = new ByteArrayOutputStream();
-            /* getMapRaster() does almost all the work for this API call */
-            Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
+            /* raster() does almost all the work for this API call */
+            Function<Map<String, Double>, RasterResult> raster =
+                    "vector".equals(req.queryParams("mode"))
+                            ? vectorRenderer::raster : rasterer::raster;
+            RasterResult rasteredImgParams = raster.apply(params);
 
             boolean rasterSuccess = validateRasteredImgParams(rasteredImgParams);
 
             if (rasterSuccess) {
                 writeImagesToOutputStream(rasteredImgParams, os);
                 String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
-                rasteredImgParams.put("b64_encoded_image_data", encodedImage);
+                rasteredImgParams.b64EncodedImageData = encodedImage;
+                /* Start loading the tiles the user will probably want next. Only browsers that
+                 * opened the map through / have a session (see below), so clients that keep no
+                 * cookies don't each leave one behind. */
+                spark.Session session = req.session(false);
+                if (session != null)
+                    rasteredImgParams.prefetchTiles = prefetcher.observe(session.id(), params,
+                            rasteredImgParams, raster);
             }
 
             /* Encode response to Json */
-            Gson gson = new Gson();
-            return gson.toJson(rasteredImgParams);
-        });
+            return writeJson(res, rasteredImgParams);
+        }));
+
+        /* Serve the raw bytes of a single tile straight out of the memory-mapped archive. */
+        get("/tiles/:name", foreground((req, res) -> {
+            ByteBuffer tile = tileArchive == null ? null : tileArchive.tile(req.params(":name"));
+            if (tile == null)
+                halt(404, "No such tile.");
+            res.type("image/png");
+            WritableByteChannel out = Channels.newChannel(res.raw().getOutputStream());
+            while (tile.hasRemaining())
+                out.write(tile);
+            return "";
+        }));
 
         /* Define the routing endpoint for HTTP GET requests. */
-        get("/route", (req, res) -> {
+        get("/route", foreground((req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = Router.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
-                    params.get("end_lon"), params.get("end_lat"));
-            //route = findAndSetRoute(params);
-            return !route.isEmpty();
-        });
+            LinkedList<Long> route;
+            if (traffic != null) {
+                route = Router.trafficShortestPath(graph, traffic, params.get("start_lon"),
+                        params.get("start_lat"), params.get("end_lon"), params.get("end_lat"));
+            } else {
+                route = Router.routableShortestPath(graph, params.get("start_lon"),
+                        params.get("start_lat"), params.get("end_lon"), params.get("end_lat"));
+            }
+            /* The route is drawn by the front end, so rasters don't depend on it and the
+             * server keeps no route between requests. */
+            RouteResult result = new RouteResult();
+            boolean found = route != null && !route.isEmpty();
+            result.routeFound = found;
+            if (found) {
+                result.routePolylines = RouteGeometry.encodeForDepths(graph, route,
+                        polylineDepth(req));
+                result.directions = new LinkedList<>();
+                for (NavigationDirection d : Router.routeDirections(graph, route))
+                    result.directions.add(d.toString());
+            }
+            if (found && req.queryParams().contains("alternatives")) {
+                int k = getRequestParams(req, new String[]{"alternatives"})
+                        .get("alternatives").intValue();
+                result.alternativePolylines = new LinkedList<>();
+                // Under traffic, alternatives are measured by the same weights as the route
+                List<LinkedList<Long>> others = traffic == null
+                        ? Router.alternativesTo(graph, route, k - 1)
+                        : Router.alternativesTo(graph, route, k - 1, traffic.weights());
+                for (LinkedList<Long> r : others)
+                    result.alternativePolylines.add(
+                            RouteGeometry.encodeForDepths(graph, r, polylineDepth(req)));
+            }
+            return writeJson(res, result);
+        }));
 
-        /* Define the API endpoint for clearing the current route. */
-        get("/clear_route", (req, res) -> {
-            clearRoute();
-            return true;
-        });
+        /* Define the reverse geocoding endpoint: the nearest street and place to a point. */
+        get("/reverse", foreground((req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_REVERSE_REQUEST_PARAMS);
+            return writeJson(res, reverseGeocoder.reverse(params.get("lon"), params.get("lat")));
+        }));
+
+        /* Define the isochrone endpoint: the area reachable from a point within a budget. */
+        get("/isochrone", foreground((req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ISOCHRONE_REQUEST_PARAMS);
+            String[] budget = req.queryParams().contains("meters")
+                    ? new String[]{"meters"} : new String[]{"minutes"};
+            params.putAll(getRequestParams(req, budget));
+            double meters;
+            if (params.containsKey("meters")) {
+                meters = params.get("meters");
+            } else {
+                double kmh = req.queryParams().contains("kmh")
+                        ? getRequestParams(req, new String[]{"kmh"}).get("kmh")
+                        : Isochrone.DEFAULT_KMH;
+                meters = Isochrone.metersFor(params.get("minutes"), kmh);
+            }
+            return writeJson(res,
+                    isochrone.compute(params.get("lon"), params.get("lat"), meters));
+        }));
+
+        /* Define the map matching endpoint: the body is a GPS trace as JSON [[lon, lat], ...]
+         * and the result lists the road position of each point that is near a road. */
+        post("/match", foreground((req, res) -> {
+            double[][] trace = null;
+            try {
+                trace = GSON.fromJson(req.body(), double[][].class);
+            } catch (com.google.gson.JsonParseException e) {
+                halt(HALT_RESPONSE, "Incorrect trace - provide [[lon, lat], ...].");
+            }
+            if (trace == null)
+                halt(HALT_RESPONSE, "Request failed - trace missing.");
+            for (double[] p : trace) {
+                if (p == null || p.length != 2)
+                    halt(HALT_RESPONSE, "Incorrect trace - provide [[lon, lat], ...].");
+            }
+            return writeJson(res, mapMatcher.match(trace));
+        }));
+
+        /* Define the trip endpoint: the body lists stops as JSON [[lon, lat], ...] and the result
+         * is the order to visit them in, starting from the first, and the route that does so.
+         * Optional query parameters: round_trip=true to end back at the first stop,
+         * budget_ms, the time to spend improving the order, and mode=vector as for /route. */
+        post("/trip", foreground((req, res) -> {
+            double[][] stops = null;
+            try {
+                stops = GSON.fromJson(req.body(), double[][].class);
+            } catch (com.google.gson.JsonParseException e) {
+                halt(HALT_RESPONSE, "Incorrect stops - provide [[lon, lat], ...].");
+            }
+            if (stops == null || stops.length == 0)
+                halt(HALT_RESPONSE, "Request failed - stops missing.");
+            if (stops.length > TripPlanner.MAX_STOPS)
+                halt(HALT_RESPONSE, "Too many stops - at most " + TripPlanner.MAX_STOPS + ".");
+            for (double[] p : stops) {
+                if (p == null || p.length != 2)
+                    halt(HALT_RESPONSE, "Incorrect stops - provide [[lon, lat], ...].");
+            }
+            long budget = TripPlanner.DEFAULT_BUDGET_MILLIS;
+            if (req.queryParams().contains("budget_ms")) {
+                double ms = getRequestParams(req, new String[]{"budget_ms"}).get("budget_ms");
+                budget = (long) Math.max(0, Math.min(ms, TripPlanner.MAX_BUDGET_MILLIS));
+            }
+            boolean roundTrip = "true".equals(req.queryParams("round_trip"));
+            TripResult trip = tripPlanner.plan(stops, roundTrip, budget);
+            if (trip.tripFound)
+                trip.routePolylines = RouteGeometry.encodeForDepths(graph, trip.route,
+                        polylineDepth(req));
+            return writeJson(res, trip);
+        }));
 
         /* Define the API endpoint for search */
-        get("/search", (req, res) -> {
+        get("/search", foreground((req, res) -> {
             Set<String> reqParams = req.queryParams();
             String term = req.queryParams("term");
-            Gson gson = new Gson();
             /* Search for actual location data. */
             if (reqParams.contains("full")) {
-                List<Map<String, Object>> data = getLocations(term);
-                return gson.toJson(data);
+                List<Location> data = locationSearch.find(term);
+                return writeJson(res, data);
             } else {
                 /* Search for prefix matching strings. */
                 List<String> matches = getLocationsByPrefix(term);
-                return gson.toJson(matches);
+                return writeJson(res, matches);
             }
-        });
+        }));
 
         /* Define map application redirect */
         get("/", (request, response) -> {
+            /* Opening the map starts the session that prefetching predicts from */
+            request.session(true);
             response.redirect("/map.html", 301);
             return true;
         });
@@ -192,13 +383,36 @@ public class MapServer {
         return params;
     }
 
+    /**
+     * The deepest level to encode route polylines for: the vector renderer's when the request
+     * has mode=vector, since those maps zoom past the deepest image level, else MAX_DEPTH.
+     */
+    private static int polylineDepth(spark.Request req) {
+        return "vector".equals(req.queryParams("mode")) ? VectorRenderer.MAX_DEPTH : MAX_DEPTH;
+    }
+
+    /**
+     * Writes body as JSON straight to the response, rather than building it as a String
+     * first, so large responses start arriving sooner and take less memory.
+     * @return The value for the handler to return, so that Spark adds nothing to the body
+     */
+    private static String writeJson(spark.Response res, Object body) throws IOException {
+        res.type("application/json");
+        Writer out = new BufferedWriter(
+                new OutputStreamWriter(res.raw().getOutputStream(), StandardCharsets.UTF_8));
+        GSON.toJson(body, out);
+        out.flush();
+        return "";
+    }
+
     /** Writes the images corresponding to rasteredImgParams to the output stream.
      * In Spring 2016, students had to do this on their own, but in 2017,
      * we have made this into provided code since it was just a bit too low level.
+     * The route is not drawn here; /route returns its geometry for the front end to overlay.
      */
-    private static void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
+    private static void writeImagesToOutputStream(RasterResult rasteredImageParams,
                                                   ByteArrayOutputStream os) {
-        String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
+        String[][] renderGrid = rasteredImageParams.renderGrid;
         int numVertTiles = renderGrid.length;
         int numHorizTiles = renderGrid[0].length;
 
@@ -218,30 +432,8 @@ public class MapServer {
             }
         }
 
-        /* If there is a route, draw it. */
-        double ullon = (double) rasteredImageParams.get("raster_ul_lon"); //tiles.get(0).ulp;
-        double ullat = (double) rasteredImageParams.get("raster_ul_lat"); //tiles.get(0).ulp;
-        double lrlon = (double) rasteredImageParams.get("raster_lr_lon"); //tiles.get(0).ulp;
-        double lrlat = (double) rasteredImageParams.get("raster_lr_lat"); //tiles.get(0).ulp;
-
-        final double wdpp = (lrlon - ullon) / img.getWidth();
-        final double hdpp = (ullat - lrlat) / img.getHeight();
-        if (route != null && !route.isEmpty()) {
-            Graphics2D g2d = (Graphics2D) graphic;
-            g2d.setColor(MapServer.ROUTE_STROKE_COLOR);
-            g2d.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
-                    BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            route.stream().reduce((v, w) -> {
-                g2d.drawLine((int) ((graph.lon(v) - ullon) * (1 / wdpp)),
-                             (int) ((ullat - graph.lat(v)) * (1 / hdpp)),
-                             (int) ((graph.lon(w) - ullon) * (1 / wdpp)),
-                             (int) ((ullat - graph.lat(w)) * (1 / hdpp)));
-                return w;
-            });
-        }
-
-        rasteredImageParams.put("raster_width", img.getWidth());
-        rasteredImageParams.put("raster_height", img.getHeight());
+        rasteredImageParams.rasterWidth = img.getWidth();
+        rasteredImageParams.rasterHeight = img.getHeight();
 
         try {
             ImageIO.write(img, "png", os);
@@ -251,8 +443,43 @@ public class MapServer {
 
     }
 
+    /**
+     * The image of a tile in a render grid: vector tiles come from the VectorRenderer (which
+     * caches them itself), and the others from the tile cache.
+     */
     private static BufferedImage getImage(String imgPath) {
+        if (imgPath.startsWith(VectorRenderer.TILE_PREFIX))
+            return vectorRenderer.getTileImage(imgPath);
+        return tileCache.get(imgPath);
+    }
+
+    /**
+     * Helper method: The route, counted as a foreground request so that no tiles are prefetched
+     * while it runs (see Prefetcher.foregroundStarted).
+     */
+    private static Route foreground(Route route) {
+        return (req, res) -> {
+            prefetcher.foregroundStarted();
+            try {
+                return route.handle(req, res);
+            } finally {
+                prefetcher.foregroundFinished();
+            }
+        };
+    }
+
+    /**
+     * Helper method: Read and decode a tile image from the archive or its file
+     */
+    private static BufferedImage loadImage(String imgPath) {
         BufferedImage tileImg = null;
+        if (tileArchive != null && imgPath.startsWith(IMG_ROOT)) {
+            try {
+                tileImg = ImageIO.read(tileArchive.open(imgPath.substring(IMG_ROOT.length())));
+            } catch (IOException | IllegalArgumentException e) {
+                e.printStackTrace();
+            }
+        }
         if (tileImg == null) {
             try {
                 File in = new File(imgPath);
@@ -264,13 +491,6 @@ public class MapServer {
         return tileImg;
     }
 
-    /**
-     * Clear the current found route, if it exists.
-     */
-    public static void clearRoute() {
-        route = new LinkedList<Long>();
-    }
-
     /**
      * In linear time, collect all the names of OSM locations that prefix-match the query string.
      * @param prefix Prefix string to be searched for. Could be any case, with our without
@@ -284,7 +504,9 @@ public class MapServer {
 
     /**
      * Collect all locations that match a cleaned <code>locationName</code>, and return
-     * information about each node that matches.
+     * information about each node that matches. If nothing matches exactly, returns the
+     * locations with the most similar names instead (see LocationSearch), so that misspelled
+     * searches still find something.
      * @param locationName A full name of a location searched for.
      * @return A list of locations whose cleaned name matches the
      * cleaned <code>locationName</code>, and each location is a map of parameters for the Json
@@ -295,25 +517,20 @@ public class MapServer {
      * "id" -> Number, The id of the node. <br>
      */
     public static List<Map<String, Object>> getLocations(String locationName) {
-        return new LinkedList<>();
+        return locationSearch.search(locationName);
     }
 
     /** Validates that Rasterer has returned a result that can be rendered.
      * @param rip : Parameters provided by the rasterer
      */
-    private static boolean validateRasteredImgParams(Map<String, Object> rip) {
-        for (String p : REQUIRED_RASTER_RESULT_PARAMS) {
-            if (!rip.containsKey(p)) {
-                System.out.println("Your rastering result is missing the " + p + " field.");
-                return false;
-            }
+    private static boolean validateRasteredImgParams(RasterResult rip) {
+        if (!rip.querySuccess) {
+            System.out.println("query_success was reported as a failure");
+            return false;
         }
-        if (rip.containsKey("query_success")) {
-            boolean success = (boolean) rip.get("query_success");
-            if (!success) {
-                System.out.println("query_success was reported as a failure");
-                return false;
-            }
+        if (rip.renderGrid == null || rip.renderGrid.length == 0) {
+            System.out.println("Your rastering result is missing the render_grid field.");
+            return false;
         }
         return true;
     }
@@ -0,0 +1,59 @@
+/**
+ * One turn-by-turn instruction: which way to turn onto which street, and how far to follow it.
+ * Built by Router.routeDirections from a route of node ids.
+ */
+public class NavigationDirection {
+    /** Integer constants representing directions. */
+    public static final int START = 0, STRAIGHT = 1, SLIGHT_LEFT = 2, SLIGHT_RIGHT = 3,
+            RIGHT = 4, LEFT = 5, SHARP_LEFT = 6, SHARP_RIGHT = 7;
+
+    /** Human-readable form of each direction constant, indexed by the constant. */
+    public static final String[] DIRECTIONS = {"Start", "Go straight", "Slight left",
+        "Slight right", "Turn right", "Turn left", "Sharp left", "Sharp right"};
+
+    /** Used for edges whose way has no name tag. */
+    public static final String UNKNOWN_ROAD = "unknown road";
+
+    static final double METERS_PER_MILE = 1609.344;
+
+    /** The direction to take, one of the constants above. */
+    int direction;
+    /** The name of the way to take. */
+    String way;
+    /** How far to follow the way, in miles. */
+    double distance;
+
+    public NavigationDirection(int direction, String way, double distance) {
+        this.direction = direction;
+        this.way = way;
+        this.distance = distance;
+    }
+
+    /**
+     * Classifies the change in heading between two consecutive edges.
+     * @param fromBearing bearing of the edge we are arriving on, in degrees
+     * @param toBearing bearing of the edge we are leaving on, in degrees
+     */
+    static int turnDirection(double fromBearing, double toBearing) {
+        // Relative bearing in (-180, 180]; positive turns are clockwise, i.e. to the right
+        double delta = toBearing - fromBearing;
+        while (delta > 180)
+            delta -= 360;
+        while (delta <= -180)
+            delta += 360;
+        double abs = Math.abs(delta);
+        if (abs <= 15)
+            return STRAIGHT;
+        if (abs <= 30)
+            return delta < 0 ? SLIGHT_LEFT : SLIGHT_RIGHT;
+        if (abs <= 100)
+            return delta < 0 ? LEFT : RIGHT;
+        return delta < 0 ? SHARP_LEFT : SHARP_RIGHT;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s on %s and continue for %.3f miles.",
+                DIRECTIONS[direction], way, distance);
+    }
+}
@@ -1,5 +1,6 @@
 import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.TreeSet;
@@ -9,7 +10,13 @@ public class Node {
     public long id;
     double lon;
     double lat;
+    // Name of the location, if this node is a named place (set from its name tag)
+    String name;
+    // Connected component this node is in (see GraphDB.component)
+    int component;
     private ArrayList<Long> dests;
+    // Index (into GraphDB's way table) of the way each edge belongs to, parallel to dests
+    private int[] ways;
     //private TreeSet<Long> dests;
     //private TreeSet<Double> dists;
     //private HashMap<Long, Double> dests2dists;
@@ -29,15 +36,30 @@ public class Node {
         dists = new TreeSet<>();
         dests2dists = new HashMap<>();*/
         dests = new ArrayList<>();
+        ways = new int[2];
     }
 
     //public void addEdge(long dest, double dist) {
     public void addEdge(long dest) {
+        addEdge(dest, -1);
+    }
+
+    /** Adds an edge that belongs to the given way (-1 if unknown). */
+    public void addEdge(long dest, int way) {
         //dests2dists.put(dest, dist);
+        if (dests.size() == ways.length)
+            ways = Arrays.copyOf(ways, ways.length * 2);
+        ways[dests.size()] = way;
         dests.add(dest);
         //dists.add(dist);
     }
 
+    /** Returns the way index of the edge to dest, or -1 if there is no such edge. */
+    public int getWay(long dest) {
+        int i = dests.indexOf(dest);
+        return i == -1 ? -1 : ways[i];
+    }
+
     //public TreeSet<Long> getDestinations() {
     public ArrayList<Long> getDestinations() {
         return dests;
@@ -54,8 +76,10 @@ public class Node {
 
     /** For API */
     public void removeEdge(long dest){
-        if (!dests.contains(dest))
+        int i = dests.indexOf(dest);
+        if (i == -1)
             return;  // Exception not considered yet (probably won't)
-        dests.remove(dest);
+        dests.remove(i);
+        System.arraycopy(ways, i + 1, ways, i, dests.size() - i);
     }
 }
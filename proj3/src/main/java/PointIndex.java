@@ -0,0 +1,145 @@
+import java.util.Arrays;
+
+/**
+ * A uniform grid over a fixed set of points (e.g. graph vertices or named places) for nearest
+ * neighbor queries. Like EdgeIndex, everything is stored in flat arrays and a query looks at
+ * rings of cells around the query point, growing outwards until no unvisited cell can hold
+ * anything closer than the best point found so far.
+ * Distances are Euclidean in degrees, with longitudes optionally scaled (by the cosine of the
+ * latitude, say) so that they are comparable to latitudes.
+ */
+public class PointIndex {
+    private static final int POINTS_PER_CELL = 4;
+
+    private final long[] ids;
+    private final double[] lons, lats;
+
+    private double minLon, minLat;
+    private int cols, rows;
+    private double cellWidth, cellHeight;
+    // Points of cell c are cellPoints[cellStart[c]] to cellPoints[cellStart[c+1] - 1]
+    private int[] cellStart;
+    private int[] cellPoints;
+
+    /**
+     * @param ids Id of each point, used to break ties between equally close points
+     * @param lons Longitude of each point
+     * @param lats Latitude of each point
+     */
+    public PointIndex(long[] ids, double[] lons, double[] lats) {
+        this.ids = ids;
+        this.lons = lons;
+        this.lats = lats;
+        int n = ids.length;
+
+        minLon = minLat = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            minLon = Math.min(minLon, lons[i]);
+            maxLon = Math.max(maxLon, lons[i]);
+            minLat = Math.min(minLat, lats[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+        }
+        if (n == 0)
+            minLon = minLat = maxLon = maxLat = 0;
+
+        int side = Math.max(1, (int) Math.sqrt((double) n / POINTS_PER_CELL));
+        cols = side;
+        rows = side;
+        cellWidth = Math.max(maxLon - minLon, 1e-9) / cols;
+        cellHeight = Math.max(maxLat - minLat, 1e-9) / rows;
+
+        cellStart = new int[cols * rows + 1];
+        for (int i = 0; i < n; i++)
+            cellStart[cell(lons[i], lats[i]) + 1]++;
+        for (int c = 0; c < cols * rows; c++)
+            cellStart[c + 1] += cellStart[c];
+        cellPoints = new int[n];
+        int[] fill = Arrays.copyOf(cellStart, cols * rows);
+        for (int i = 0; i < n; i++)
+            cellPoints[fill[cell(lons[i], lats[i])]++] = i;
+    }
+
+    private int col(double lon) {
+        return Math.max(0, Math.min(cols - 1, (int) ((lon - minLon) / cellWidth)));
+    }
+
+    private int row(double lat) {
+        return Math.max(0, Math.min(rows - 1, (int) ((lat - minLat) / cellHeight)));
+    }
+
+    private int cell(double lon, double lat) {
+        return row(lat) * cols + col(lon);
+    }
+
+    /**
+     * Position (in the arrays given to the constructor) of the point nearest to (lon, lat),
+     * or -1 if there are no points. Ties go to the smaller id.
+     * @param lonScale Longitude differences are multiplied by this before measuring distance
+     */
+    public int nearest(double lon, double lat, double lonScale) {
+        if (ids.length == 0)
+            return -1;
+        int c0 = col(lon), r0 = row(lat);
+        int best = -1;
+        double bestDist = Double.POSITIVE_INFINITY;
+        for (int ring = 0; ring <= cols || ring <= rows; ring++) {
+            for (int r = r0 - ring; r <= r0 + ring; r++) {
+                if (r < 0 || r >= rows)
+                    continue;
+                boolean edgeRow = r == r0 - ring || r == r0 + ring;
+                for (int c = c0 - ring; c <= c0 + ring; c += edgeRow ? 1 : 2 * ring) {
+                    if (c >= 0 && c < cols) {
+                        int cell = r * cols + c;
+                        for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                            int i = cellPoints[k];
+                            double dx = (lons[i] - lon) * lonScale, dy = lats[i] - lat;
+                            double d = Math.sqrt(dx * dx + dy * dy);
+                            if (d < bestDist || (d == bestDist && ids[i] < ids[best])) {
+                                bestDist = d;
+                                best = i;
+                            }
+                        }
+                    }
+                    if (ring == 0)
+                        break;
+                }
+            }
+            // Anything not yet seen is outside the block of cells visited so far
+            if (best != -1 && outsideBlockDistance(lon, lat, c0, r0, ring, lonScale) > bestDist)
+                break;
+        }
+        return best;
+    }
+
+    /**
+     * Helper method: Lower bound on the distance from (lon, lat) to any point outside the
+     * (2 * ring + 1) square block of cells centered on cell (c0, r0)
+     */
+    private double outsideBlockDistance(double lon, double lat, int c0, int r0, int ring,
+                                        double lonScale) {
+        double d = Double.POSITIVE_INFINITY;
+        // Sides of the block on the border of the grid have no points beyond them
+        if (c0 - ring > 0)
+            d = Math.min(d, (lon - (minLon + (c0 - ring) * cellWidth)) * lonScale);
+        if (c0 + ring < cols - 1)
+            d = Math.min(d, (minLon + (c0 + ring + 1) * cellWidth - lon) * lonScale);
+        if (r0 - ring > 0)
+            d = Math.min(d, lat - (minLat + (r0 - ring) * cellHeight));
+        if (r0 + ring < rows - 1)
+            d = Math.min(d, minLat + (r0 + ring + 1) * cellHeight - lat);
+        return d;
+    }
+
+    public long id(int i) {
+        return ids[i];
+    }
+
+    public double lon(int i) {
+        return lons[i];
+    }
+
+    public double lat(int i) {
+        return lats[i];
+    }
+}
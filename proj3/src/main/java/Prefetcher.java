@@ -0,0 +1,200 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Guesses which tiles a user will ask for next and loads them in the background.
+ * It remembers the last two viewports of each session. If the user is panning, the next
+ * viewport is probably the last one moved by the same amount again; otherwise it is one tile
+ * further out in every direction. The user may also zoom in one level around the center.
+ * The tiles of these viewports that the current raster lacks are handed to a warming function
+ * (e.g. a TileCache lookup) on a single minimum-priority thread. A batch waits until no
+ * foreground request is running (so one queued by a request starts once that request is done),
+ * is abandoned as soon as another one starts, and only the most recent few batches are kept
+ * waiting.
+ */
+public class Prefetcher {
+    /** Most tiles predicted per raster request. */
+    static final int MAX_PREFETCH_TILES = 32;
+    /** Most sessions remembered; the least recently seen are forgotten first. */
+    private static final int MAX_SESSIONS = 1000;
+    /** Most batches of tiles waiting to be warmed; older ones are dropped. */
+    private static final int MAX_QUEUED_BATCHES = 4;
+
+    /** A query box and viewport size, as in a raster request. */
+    private static class Viewport {
+        final double ullon, ullat, lrlon, lrlat, w, h;
+
+        Viewport(double ullon, double ullat, double lrlon, double lrlat, double w, double h) {
+            this.ullon = ullon;
+            this.ullat = ullat;
+            this.lrlon = lrlon;
+            this.lrlat = lrlat;
+            this.w = w;
+            this.h = h;
+        }
+
+        Viewport(Map<String, Double> params) {
+            this(params.get("ullon"), params.get("ullat"), params.get("lrlon"),
+                    params.get("lrlat"), params.get("w"), params.get("h"));
+        }
+
+        Map<String, Double> toParams() {
+            Map<String, Double> params = new HashMap<>();
+            params.put("ullon", ullon);
+            params.put("ullat", ullat);
+            params.put("lrlon", lrlon);
+            params.put("lrlat", lrlat);
+            params.put("w", w);
+            params.put("h", h);
+            return params;
+        }
+    }
+
+    private final Consumer<String> warm;
+    private final Map<String, Viewport[]> sessions;
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger foreground = new AtomicInteger();
+
+    /**
+     * @param warm Loads one tile (by render_grid path) into whatever cache it should be in
+     */
+    public Prefetcher(Consumer<String> warm) {
+        this.warm = warm;
+        this.sessions = new LinkedHashMap<String, Viewport[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Viewport[]> eldest) {
+                return size() > MAX_SESSIONS;
+            }
+        };
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_BATCHES), r -> {
+                    Thread t = new Thread(r, "tile-prefetch");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }, new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+
+    /** Call when a foreground request starts; no tiles are warmed until it finishes. */
+    public void foregroundStarted() {
+        foreground.incrementAndGet();
+    }
+
+    /** Call when a foreground request started with foregroundStarted finishes. */
+    public void foregroundFinished() {
+        if (foreground.decrementAndGet() == 0) {
+            synchronized (foreground) {
+                foreground.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Records a raster request of a session, predicts the tiles it will want next and starts
+     * warming them in the background.
+     * @param session Identifies the user (e.g. the HTTP session id)
+     * @param params The raster request
+     * @param current The result of the request
+     * @param raster Computes the raster of a request the same way current was computed
+     * @return The predicted tiles, most likely first, as render_grid paths
+     */
+    public List<String> observe(String session, Map<String, Double> params, RasterResult current,
+                                Function<Map<String, Double>, RasterResult> raster) {
+        Viewport now = new Viewport(params);
+        Viewport before;
+        synchronized (sessions) {
+            Viewport[] history = sessions.get(session);
+            before = history == null ? null : history[1];
+            sessions.put(session, new Viewport[]{before, now});
+        }
+        if (!current.querySuccess)
+            return Collections.emptyList();
+
+        LinkedHashSet<String> have = new LinkedHashSet<>();
+        for (String[] row : current.renderGrid)
+            Collections.addAll(have, row);
+        LinkedHashSet<String> predicted = new LinkedHashSet<>();
+        for (Viewport next : predict(before, now, current)) {
+            RasterResult r = raster.apply(next.toParams());
+            if (!r.querySuccess)
+                continue;
+            for (String[] row : r.renderGrid) {
+                for (String path : row) {
+                    if (!have.contains(path) && predicted.size() < MAX_PREFETCH_TILES)
+                        predicted.add(path);
+                }
+            }
+        }
+
+        List<String> ret = new ArrayList<>(predicted);
+        if (!ret.isEmpty())
+            executor.execute(() -> warmAll(ret));
+        return ret;
+    }
+
+    /**
+     * Helper method: The viewports likely to be requested after now, most likely first
+     */
+    private static List<Viewport> predict(Viewport before, Viewport now, RasterResult current) {
+        List<Viewport> ret = new ArrayList<>();
+        double width = now.lrlon - now.ullon, height = now.ullat - now.lrlat;
+        boolean sameZoom = before != null
+                && Math.abs((before.lrlon - before.ullon) - width) < 1e-9 * Math.abs(width);
+        double dlon = sameZoom ? now.ullon - before.ullon : 0;
+        double dlat = sameZoom ? now.ullat - before.ullat : 0;
+        if (dlon != 0 || dlat != 0) {
+            // Panning: keep going the same way
+            ret.add(new Viewport(now.ullon + dlon, now.ullat + dlat, now.lrlon + dlon,
+                    now.lrlat + dlat, now.w, now.h));
+        } else {
+            // Standing still: one tile further out all round, at the same resolution
+            int across = current.renderGrid[0].length, down = current.renderGrid.length;
+            double tileW = (current.rasterLrLon - current.rasterUlLon) / across;
+            double tileH = (current.rasterUlLat - current.rasterLrLat) / down;
+            ret.add(new Viewport(now.ullon - tileW, now.ullat + tileH, now.lrlon + tileW,
+                    now.lrlat - tileH, now.w * (width + 2 * tileW) / width,
+                    now.h * (height + 2 * tileH) / height));
+        }
+        // Zooming in one level around the center
+        double clon = (now.ullon + now.lrlon) / 2, clat = (now.ullat + now.lrlat) / 2;
+        ret.add(new Viewport(clon - width / 4, clat + height / 4, clon + width / 4,
+                clat - height / 4, now.w, now.h));
+        return ret;
+    }
+
+    /**
+     * Helper method: Wait for the foreground requests to finish, then warm the tiles in order,
+     * giving up on the rest if another foreground request comes in
+     */
+    private void warmAll(List<String> paths) {
+        synchronized (foreground) {
+            try {
+                while (foreground.get() > 0)
+                    foreground.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        for (String path : paths) {
+            if (foreground.get() > 0)
+                return;
+            try {
+                warm.accept(path);
+            } catch (RuntimeException e) {
+                // A missing or broken tile is the foreground request's problem, not ours
+            }
+        }
+    }
+}
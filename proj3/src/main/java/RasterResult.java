@@ -0,0 +1,69 @@
+import com.google.gson.annotations.SerializedName;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of a raster query (see Rasterer.getMapRaster for what each field means), as an
+ * object that Gson serializes directly, with the same JSON keys as the map form. Fields that are
+ * null (everything but query_success when the query fails) are left out of the JSON.
+ */
+public class RasterResult {
+    @SerializedName("render_grid")
+    String[][] renderGrid;
+    @SerializedName("raster_ul_lon")
+    Double rasterUlLon;
+    @SerializedName("raster_ul_lat")
+    Double rasterUlLat;
+    @SerializedName("raster_lr_lon")
+    Double rasterLrLon;
+    @SerializedName("raster_lr_lat")
+    Double rasterLrLat;
+    @SerializedName("depth")
+    Integer depth;
+    @SerializedName("query_success")
+    boolean querySuccess;
+    // Filled in by MapServer once the image has been drawn
+    @SerializedName("raster_width")
+    Integer rasterWidth;
+    @SerializedName("raster_height")
+    Integer rasterHeight;
+    @SerializedName("b64_encoded_image_data")
+    String b64EncodedImageData;
+    // Tiles the user will probably want next (see Prefetcher), for the front end to fetch early
+    @SerializedName("prefetch_tiles")
+    List<String> prefetchTiles;
+
+    /** A failed query: only query_success, which is false. Shared, so never modify it. */
+    static final RasterResult FAILURE = new RasterResult();
+
+    RasterResult() {
+    }
+
+    RasterResult(String[][] renderGrid, double ulLon, double ulLat, double lrLon, double lrLat,
+                 int depth) {
+        this.renderGrid = renderGrid;
+        this.rasterUlLon = ulLon;
+        this.rasterUlLat = ulLat;
+        this.rasterLrLon = lrLon;
+        this.rasterLrLat = lrLat;
+        this.depth = depth;
+        this.querySuccess = true;
+    }
+
+    /** The result as the map that getMapRaster returns. */
+    Map<String, Object> toMap() {
+        Map<String, Object> results = new HashMap<>();
+        results.put("query_success", querySuccess);
+        if (!querySuccess)
+            return results;
+        results.put("render_grid", renderGrid);
+        results.put("raster_ul_lon", rasterUlLon);
+        results.put("raster_ul_lat", rasterUlLat);
+        results.put("raster_lr_lon", rasterLrLon);
+        results.put("raster_lr_lat", rasterLrLat);
+        results.put("depth", depth);
+        return results;
+    }
+}
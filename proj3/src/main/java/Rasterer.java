@@ -1,5 +1,6 @@
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -16,14 +17,73 @@ public class Rasterer {
     HashSet<String> fileNames;
     QuadTree root;
     String imgRoot;
+    // For each depth down to completeDepth (where every tile exists): the tiles in grid order
+    // (row, then column), their render_grid paths, and their LonDPP
+    private QuadTree[][][] tilesByDepth;
+    private String[][][] pathsByDepth;
+    private double[] lonDPPByDepth;
+    private int completeDepth;
+    // Whether any tile at completeDepth has children, in which case deeper queries need the tree
+    private boolean deeperTiles;
 
     /** imgRoot is the name of the directory containing the images.
      *  You may not actually need this for your class. */
     public Rasterer(String imgRoot) {
+        this(imgRoot, null);
+    }
+
+    /** Reads the tile names from a TileArchive instead of listing the imgRoot directory,
+     *  if one is given. render_grid paths still start with imgRoot. */
+    public Rasterer(String imgRoot, TileArchive archive) {
         // YOUR CODE HERE
         this.imgRoot = imgRoot;
-        fileNames = readFileNames(imgRoot);
+        fileNames = archive == null ? readFileNames(imgRoot) : new HashSet<>(archive.names());
         root = new QuadTree("root.png", MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT, MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT, fileNames, 0);
+        buildDepthTables();
+    }
+
+    /**
+     * Helper method: Lay out each complete level of the quadtree as a grid, so that a query can
+     * pick its depth from lonDPPByDepth and its tiles by arithmetic instead of descending the tree
+     */
+    private void buildDepthTables() {
+        ArrayList<QuadTree[][]> tiles = new ArrayList<>();
+        QuadTree[][] level = {{root}};
+        while (true) {
+            tiles.add(level);
+            int n = level.length;
+            QuadTree[][] next = new QuadTree[2 * n][2 * n];
+            boolean complete = true, any = false;
+            for (int i=0; i<n; i++) {
+                for (int j=0; j<n; j++) {
+                    QuadTree t = level[i][j];
+                    for (int k=0; k<4; k++) {
+                        QuadTree c = t.hasChild ? t.child[k] : null;
+                        complete &= c != null;
+                        any |= c != null;
+                        next[2 * i + k / 2][2 * j + k % 2] = c;
+                    }
+                }
+            }
+            if (!complete) {
+                deeperTiles = any;
+                break;
+            }
+            level = next;
+        }
+
+        completeDepth = tiles.size() - 1;
+        tilesByDepth = tiles.toArray(new QuadTree[0][][]);
+        pathsByDepth = new String[tilesByDepth.length][][];
+        lonDPPByDepth = new double[tilesByDepth.length];
+        for (int d=0; d<tilesByDepth.length; d++) {
+            int n = tilesByDepth[d].length;
+            pathsByDepth[d] = new String[n][n];
+            for (int i=0; i<n; i++)
+                for (int j=0; j<n; j++)
+                    pathsByDepth[d][i][j] = imgRoot + tilesByDepth[d][i][j].fileName;
+            lonDPPByDepth[d] = tilesByDepth[d][0][0].LonDPP;
+        }
     }
 
     /**
@@ -73,43 +133,88 @@ public class Rasterer {
      * @see #REQUIRED_RASTER_REQUEST_PARAMS
      */
     public Map<String, Object> getMapRaster(Map<String, Double> params) {
-        // System.out.println(params);
-        Map<String, Object> results = new HashMap<>();
-        //System.out.println("Since you haven't implemented getMapRaster, nothing is displayed in "
-        //                   + "your browser.");
-        //return results;
+        return raster(params).toMap();
+    }
 
+    /**
+     * Same as getMapRaster, but returns a RasterResult that can be serialized directly.
+     * The render_grid strings are shared between queries; don't modify them.
+     */
+    public RasterResult raster(Map<String, Double> params) {
         double ullon = params.get("ullon");
         double ullat = params.get("ullat");
         double lrlon = params.get("lrlon");
         double lrlat = params.get("lrlat");
         double w = params.get("w");
-        double h = params.get("h");
         double targetLonDPP = (lrlon - ullon) / w;
 
         // Check if the query box is out of range
         if (ullon >= lrlon || ullat <= lrlat
                 || ullon >= root.lrlon || lrlon <= root.ullon
-                || ullat <= root.lrlat || lrlat >= root.ullat) {
-            results.put("query_success", false);
-            return results;
-        }
+                || ullat <= root.lrlat || lrlat >= root.ullat)
+            return RasterResult.FAILURE;
+
+        // Same depth as descending the tree: the first one that is detailed enough
+        int depth = 0;
+        while (depth < completeDepth && lonDPPByDepth[depth] > targetLonDPP)
+            depth++;
+        if (lonDPPByDepth[depth] > targetLonDPP && deeperTiles)
+            return rasterFromTree(ullon, ullat, lrlon, lrlat, targetLonDPP);
+
+        QuadTree[][] tiles = tilesByDepth[depth];
+        int n = tiles.length;
+        double tileW = (root.lrlon - root.ullon) / n, tileH = (root.ullat - root.lrlat) / n;
+        int x0 = clamp((int) Math.floor((ullon - root.ullon) / tileW), n);
+        int x1 = clamp((int) Math.ceil((lrlon - root.ullon) / tileW) - 1, n);
+        int y0 = clamp((int) Math.floor((root.ullat - ullat) / tileH), n);
+        int y1 = clamp((int) Math.ceil((root.ullat - lrlat) / tileH) - 1, n);
+        // The tiles' own corners decide, as in QuadTree.overlap, in case rounding put a query
+        // edge that lies exactly on a tile boundary on the wrong side of it
+        QuadTree[] row = tiles[0];
+        while (x0 < x1 && (ullon >= row[x0].lrlon))
+            x0++;
+        while (x1 > x0 && (lrlon <= row[x1].ullon))
+            x1--;
+        if (x0 > 0 && ullon < row[x0 - 1].lrlon)
+            x0--;
+        if (x1 < n - 1 && lrlon > row[x1 + 1].ullon)
+            x1++;
+        while (y0 < y1 && (ullat <= tiles[y0][0].lrlat))
+            y0++;
+        while (y1 > y0 && (lrlat >= tiles[y1][0].ullat))
+            y1--;
+        if (y0 > 0 && ullat > tiles[y0 - 1][0].lrlat)
+            y0--;
+        if (y1 < n - 1 && lrlat < tiles[y1 + 1][0].ullat)
+            y1++;
 
+        String[][] grid = new String[y1 - y0 + 1][];
+        for (int i=y0; i<=y1; i++)
+            grid[i - y0] = Arrays.copyOfRange(pathsByDepth[depth][i], x0, x1 + 1);
+        return new RasterResult(grid, tiles[y0][x0].ullon, tiles[y0][x0].ullat,
+                tiles[y1][x1].lrlon, tiles[y1][x1].lrlat, depth);
+    }
+
+    /**
+     * Helper method: Descend the quadtree for queries that go deeper than the complete levels
+     */
+    private RasterResult rasterFromTree(double ullon, double ullat, double lrlon, double lrlat,
+                                        double targetLonDPP) {
         QuadTree[][] gridArr = root.collect(ullon, ullat, lrlon, lrlat, targetLonDPP);
 
-        if (gridArr == null) {  // Out of range or no result found
-            results.put("query_success", false);
-            return results;
-        }
+        if (gridArr == null)  // Out of range or no result found
+            return RasterResult.FAILURE;
+
+        QuadTree last = gridArr[gridArr.length-1][gridArr[gridArr.length-1].length-1];
+        return new RasterResult(quadTreesToStrings(gridArr), gridArr[0][0].ullon,
+                gridArr[0][0].ullat, last.lrlon, last.lrlat, gridArr[0][0].depth);
+    }
 
-        results.put("render_grid", quadTreesToStrings(gridArr));
-        results.put("raster_ul_lon", gridArr[0][0].ullon);
-        results.put("raster_ul_lat", gridArr[0][0].ullat);
-        results.put("raster_lr_lon", gridArr[gridArr.length-1][gridArr[gridArr.length-1].length-1].lrlon);
-        results.put("raster_lr_lat", gridArr[gridArr.length-1][gridArr[gridArr.length-1].length-1].lrlat);
-        results.put("depth", gridArr[0][0].depth);
-        results.put("query_success", true);
-        return results;
+    /**
+     * Helper method: Clamp a tile coordinate to [0, n)
+     */
+    private static int clamp(int i, int n) {
+        return Math.max(0, Math.min(n - 1, i));
     }
 
     /**
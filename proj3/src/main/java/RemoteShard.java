@@ -0,0 +1,87 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A shard served by a ShardServer in another process, reached over HTTP. The overlay is
+ * fetched once and kept. A request that fails throws UncheckedIOException.
+ */
+public class RemoteShard implements Shard {
+    private static final int TIMEOUT_MILLIS = 30000;
+
+    private final String baseUrl;
+    private volatile Overlay overlay;
+
+    /** @param baseUrl Where the shard server is, e.g. http://localhost:4601 */
+    public RemoteShard(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1)
+                : baseUrl;
+    }
+
+    @Override
+    public Closest closest(double lon, double lat) {
+        return ShardServer.GSON.fromJson(request("/closest?lon=" + lon + "&lat=" + lat, null),
+                Closest.class);
+    }
+
+    @Override
+    public Overlay overlay() {
+        if (overlay == null)
+            overlay = ShardServer.GSON.fromJson(request("/overlay", null), Overlay.class);
+        return overlay;
+    }
+
+    @Override
+    public double[] distances(long from, long[] to) {
+        ShardServer.DistancesRequest r = new ShardServer.DistancesRequest();
+        r.from = from;
+        r.to = to;
+        return ShardServer.GSON.fromJson(request("/distances", ShardServer.GSON.toJson(r)),
+                double[].class);
+    }
+
+    @Override
+    public List<Long> path(long from, long to) {
+        Long[] ids = ShardServer.GSON.fromJson(request("/path?from=" + from + "&to=" + to, null),
+                Long[].class);
+        return Arrays.asList(ids);
+    }
+
+    /**
+     * Helper method: The body of the response to a GET (if body is null) or POST request
+     */
+    private String request(String path, String body) {
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+            conn.setConnectTimeout(TIMEOUT_MILLIS);
+            conn.setReadTimeout(TIMEOUT_MILLIS);
+            if (body != null) {
+                conn.setRequestMethod("POST");
+                conn.setDoOutput(true);
+                conn.setRequestProperty("Content-Type", "application/json");
+                try (OutputStream out = conn.getOutputStream()) {
+                    out.write(body.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_OK)
+                throw new IOException(baseUrl + path + " answered " + conn.getResponseCode());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (InputStream in = conn.getInputStream()) {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) != -1)
+                    bytes.write(buf, 0, n);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
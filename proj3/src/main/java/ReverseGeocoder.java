@@ -0,0 +1,57 @@
+/**
+ * Answers "what is here?" for a clicked coordinate: the nearest named street, with the point on
+ * it closest to the click, and the nearest named place. Both lookups go through grid indexes
+ * (EdgeIndex and PointIndex) that are built once and only read afterwards, so a query touches
+ * a handful of cells and many queries can run at once.
+ */
+public class ReverseGeocoder {
+    private final GraphDB g;
+    private final EdgeIndex edges;
+    private final PointIndex places;
+
+    public ReverseGeocoder(GraphDB g, EdgeIndex edges) {
+        this.g = g;
+        this.edges = edges;
+        int n = g.locations.size();
+        long[] ids = new long[n];
+        double[] lons = new double[n], lats = new double[n];
+        for (int i = 0; i < n; i++) {
+            Node x = g.locations.get(i);
+            ids[i] = x.id;
+            lons[i] = x.lon;
+            lats[i] = x.lat;
+        }
+        places = new PointIndex(ids, lons, lats);
+    }
+
+    /**
+     * @return The nearest named street, with the point on it closest to (lon, lat), and the
+     * nearest named place (see ReverseResult).
+     */
+    public ReverseResult reverse(double lon, double lat) {
+        ReverseResult result = new ReverseResult();
+        EdgeIndex.Snap snap = edges.nearest(lon, lat, e -> g.wayName(edges.way(e)) != null);
+        result.querySuccess = snap != null;
+        if (snap != null) {
+            int way = edges.way(snap.edge);
+            result.street = g.wayName(way);
+            result.wayId = g.wayId(way);
+            result.lon = snap.lon;
+            result.lat = snap.lat;
+            result.distance = GraphDB.greatCircleDistance(lon, lat, snap.lon, snap.lat);
+        }
+
+        int i = places.nearest(lon, lat, Math.cos(Math.toRadians(lat)));
+        if (i != -1) {
+            Node x = g.locations.get(i);
+            ReverseResult.Place place = new ReverseResult.Place();
+            place.name = x.name;
+            place.id = x.id;
+            place.lon = x.lon;
+            place.lat = x.lat;
+            place.distance = GraphDB.greatCircleDistance(lon, lat, x.lon, x.lat);
+            result.place = place;
+        }
+        return result;
+    }
+}
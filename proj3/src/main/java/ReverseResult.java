@@ -0,0 +1,41 @@
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * The result of a reverse geocoding query, as an object that Gson serializes directly. Fields
+ * that are null (the street's when no named street was found, place when there is no named
+ * place) are left out of the JSON.
+ */
+public class ReverseResult {
+    // Whether a named street was found
+    @SerializedName("query_success")
+    boolean querySuccess;
+    @SerializedName("street")
+    String street;
+    // OSM id of the way the nearest street segment belongs to
+    @SerializedName("way_id")
+    Long wayId;
+    // The point on that segment closest to the query, and meters from the query to it
+    @SerializedName("lon")
+    Double lon;
+    @SerializedName("lat")
+    Double lat;
+    @SerializedName("distance")
+    Double distance;
+    @SerializedName("place")
+    Place place;
+
+    /** The nearest named place. */
+    static class Place {
+        @SerializedName("name")
+        String name;
+        @SerializedName("id")
+        long id;
+        @SerializedName("lon")
+        double lon;
+        @SerializedName("lat")
+        double lat;
+        // Meters from the query
+        @SerializedName("distance")
+        double distance;
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Turns a route (a list of node ids) into compact geometry that the front end can draw as an
+ * overlay on top of the rastered image, instead of the server drawing the route into the PNG.
+ * The route is simplified with Douglas-Peucker once per quadtree depth, using a tolerance of
+ * half a pixel at that depth, and each simplified line is written as an encoded polyline
+ * (https://developers.google.com/maps/documentation/utilities/polylinealgorithm).
+ */
+public class RouteGeometry {
+    /**
+     * Encoded polylines store coordinates as integers in units of 1e-6 degrees (as in the
+     * "polyline6" variant), so rounding moves a point well under the half-pixel tolerance of
+     * the deepest image level; the reference format's 1e-5 could move it by about 2 pixels.
+     */
+    static final double POLYLINE_PRECISION = 1e6;
+
+    /**
+     * Returns the route as encoded polylines, one per depth in [0, maxDepth].
+     * Element d is simplified for tiles at depth d (i.e. d-digit image names). Once half a
+     * pixel is finer than the encoding's grid (past depth 8 or so, which only vector maps
+     * reach), simplifying would gain nothing, so those depths share the unsimplified line.
+     */
+    public static String[] encodeForDepths(GraphDB g, List<Long> route, int maxDepth) {
+        double[] lons = new double[route.size()];
+        double[] lats = new double[route.size()];
+        int i = 0;
+        for (long id : route) {
+            lons[i] = g.lon(id);
+            lats[i] = g.lat(id);
+            i++;
+        }
+
+        String[] ret = new String[maxDepth + 1];
+        for (int depth = 0; depth <= maxDepth; depth++) {
+            double tolerance = lonDPP(depth) / 2;
+            if (tolerance < 0.5 / POLYLINE_PRECISION) {
+                boolean[] all = new boolean[lons.length];
+                Arrays.fill(all, true);
+                Arrays.fill(ret, depth, maxDepth + 1, encode(lons, lats, all));
+                break;
+            }
+            ret[depth] = encode(lons, lats, simplify(lons, lats, tolerance));
+        }
+        return ret;
+    }
+
+    /** Longitudinal distance per pixel of a tile at the given depth. */
+    static double lonDPP(int depth) {
+        return (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON) / (MapServer.TILE_SIZE * (1 << depth));
+    }
+
+    /**
+     * Douglas-Peucker simplification. Returns which points to keep so that no dropped point is
+     * further than tolerance from the simplified line. Uses an explicit stack since routes can
+     * be thousands of points long.
+     */
+    static boolean[] simplify(double[] xs, double[] ys, double tolerance) {
+        int n = xs.length;
+        boolean[] keep = new boolean[n];
+        if (n == 0)
+            return keep;
+        keep[0] = true;
+        keep[n - 1] = true;
+
+        Deque<int[]> stack = new ArrayDeque<>();
+        stack.push(new int[]{0, n - 1});
+        while (!stack.isEmpty()) {
+            int[] range = stack.pop();
+            int lo = range[0], hi = range[1];
+            double maxDist = -1;
+            int maxIdx = -1;
+            for (int i = lo + 1; i < hi; i++) {
+                double d = segmentDistance(xs[i], ys[i], xs[lo], ys[lo], xs[hi], ys[hi]);
+                if (d > maxDist) {
+                    maxDist = d;
+                    maxIdx = i;
+                }
+            }
+            if (maxIdx != -1 && maxDist > tolerance) {
+                keep[maxIdx] = true;
+                stack.push(new int[]{lo, maxIdx});
+                stack.push(new int[]{maxIdx, hi});
+            }
+        }
+        return keep;
+    }
+
+    /**
+     * Helper method: Distance from point (px, py) to the segment from (ax, ay) to (bx, by)
+     */
+    static double segmentDistance(double px, double py, double ax, double ay,
+                                  double bx, double by) {
+        double dx = bx - ax, dy = by - ay;
+        double len2 = dx * dx + dy * dy;
+        double t = len2 == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / len2;
+        t = Math.max(0, Math.min(1, t));
+        double cx = ax + t * dx - px;
+        double cy = ay + t * dy - py;
+        return Math.sqrt(cx * cx + cy * cy);
+    }
+
+    /**
+     * Encodes the kept points as a polyline string (latitude first, as in the reference format).
+     */
+    static String encode(double[] lons, double[] lats, boolean[] keep) {
+        StringBuilder sb = new StringBuilder();
+        long prevLat = 0, prevLon = 0;
+        for (int i = 0; i < lons.length; i++) {
+            if (!keep[i])
+                continue;
+            long lat = Math.round(lats[i] * POLYLINE_PRECISION);
+            long lon = Math.round(lons[i] * POLYLINE_PRECISION);
+            encodeValue(lat - prevLat, sb);
+            encodeValue(lon - prevLon, sb);
+            prevLat = lat;
+            prevLon = lon;
+        }
+        return sb.toString();
+    }
+
+    private static void encodeValue(long v, StringBuilder sb) {
+        v = v < 0 ? ~(v << 1) : v << 1;
+        while (v >= 0x20) {
+            sb.append((char) ((0x20 | (v & 0x1f)) + 63));
+            v >>= 5;
+        }
+        sb.append((char) (v + 63));
+    }
+}
@@ -0,0 +1,20 @@
+import com.google.gson.annotations.SerializedName;
+
+import java.util.List;
+
+/**
+ * The result of a route query, as an object that Gson serializes directly. Fields that are
+ * null (everything but route_found when no route was found) are left out of the JSON.
+ */
+public class RouteResult {
+    @SerializedName("route_found")
+    boolean routeFound;
+    // The route simplified for each depth (see RouteGeometry.encodeForDepths)
+    @SerializedName("route_polylines")
+    String[] routePolylines;
+    @SerializedName("directions")
+    List<String> directions;
+    // Only when alternatives were asked for: the polylines of each, best first
+    @SerializedName("alternative_polylines")
+    List<String[]> alternativePolylines;
+}
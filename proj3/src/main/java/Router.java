@@ -20,6 +20,306 @@ public class Router {
         return new Router(g).AStar(s, t);
     }
 
+    /**
+     * Like routableShortestPath, but finds the route that is fastest under the traffic
+     * currently applied to the overlay rather than the shortest one.
+     */
+    public static LinkedList<Long> trafficShortestPath(GraphDB g, TrafficOverlay traffic,
+                                                       double stlon, double stlat,
+                                                       double destlon, double destlat) {
+        long s = g.closestRoutable(stlon, stlat);
+        long t = g.closestRoutable(destlon, destlat);
+        return traffic.route(s, t);
+    }
+
+    /**
+     * Like shortestPath, but both points snap to the closest vertex in the largest connected
+     * component (see GraphDB.closestRoutable), so a point next to an isolated bit of road still
+     * gets a route.
+     */
+    public static LinkedList<Long> routableShortestPath(GraphDB g, double stlon, double stlat,
+                                                        double destlon, double destlat) {
+        long s = g.closestRoutable(stlon, stlat);
+        long t = g.closestRoutable(destlon, destlat);
+        return new Router(g).AStar(s, t);
+    }
+
+    /** Alternatives may be at most this much longer than the shortest route (0.4 = 40%). */
+    static final double ALTERNATIVE_STRETCH = 0.4;
+    /** Alternatives may share at most this fraction of their length with a better route. */
+    static final double ALTERNATIVE_MAX_OVERLAP = 0.6;
+    /** At most this many candidate routes are built and compared per query. */
+    static final int ALTERNATIVE_CANDIDATES = 64;
+
+    /**
+     * Up to k routes between the vertices closest to the two points, shortest first, that
+     * differ enough to be worth offering (plateau method). One search tree is grown from each
+     * end, both on the CompactGraph and bounded by the longest acceptable route. A plateau is
+     * a chain of edges that is in both trees; following the forward tree to its start and the
+     * backward tree from there gives a locally optimal route, and long plateaus make routes
+     * that are genuinely different from the shortest one. So the cost is about two
+     * Dijkstra searches no matter how large k is.
+     * @return The routes as lists of node ids; empty if the points are not connected
+     */
+    public static List<LinkedList<Long>> alternativeRoutes(GraphDB g, double stlon, double stlat,
+                                                          double destlon, double destlat, int k) {
+        if (g.compact().n == 0)
+            return new ArrayList<>();
+        return alternativeRoutes(g, g.closest(stlon, stlat), g.closest(destlon, destlat), k);
+    }
+
+    /**
+     * Up to k routes between vertices st and dest, shortest first (see above).
+     */
+    public static List<LinkedList<Long>> alternativeRoutes(GraphDB g, long st, long dest, int k) {
+        return alternativeRoutes(g, st, dest, k, g.compact().adjMeters, Collections.emptyList());
+    }
+
+    /**
+     * Up to k routes between the ends of route, shortest first, that differ enough from route
+     * and from each other. The route found some other way (A* is only shortest in degrees)
+     * need not be the first plateau route, so it is left out by its overlap rather than by
+     * dropping the first route.
+     */
+    public static List<LinkedList<Long>> alternativesTo(GraphDB g, List<Long> route, int k) {
+        return alternativesTo(g, route, k, g.compact().adjMeters);
+    }
+
+    /**
+     * Like alternativesTo, but routes are searched and their stretch measured under the given
+     * weight per CompactGraph edge (e.g. TrafficOverlay.weights) instead of meters. An edge of
+     * infinite weight (a closed road) is never used.
+     */
+    public static List<LinkedList<Long>> alternativesTo(GraphDB g, List<Long> route, int k,
+                                                        double[] weight) {
+        if (route.isEmpty())
+            return new ArrayList<>();
+        return alternativeRoutes(g, route.get(0), route.get(route.size() - 1), k, weight,
+                Collections.singletonList(route));
+    }
+
+    /**
+     * Helper method: Up to k routes between vertices st and dest, least weight first, that
+     * differ enough from each other and from each route in chosen.
+     */
+    private static List<LinkedList<Long>> alternativeRoutes(GraphDB g, long st, long dest, int k,
+                                                           double[] weight,
+                                                           List<List<Long>> chosen) {
+        List<LinkedList<Long>> ret = new ArrayList<>();
+        if (k <= 0 || !g.connected(st, dest))
+            return ret;
+        CompactGraph c = g.compact();
+        int s = c.index(st);
+        int t = c.index(dest);
+        List<HashSet<Long>> chosenEdges = new ArrayList<>();
+        for (List<Long> route : chosen)
+            chosenEdges.add(edges(c, route));
+        CompactGraph.SearchState fwd = c.acquire();
+        CompactGraph.SearchState bwd = c.acquire();
+        try {
+            // The graph is undirected, so the backward tree is a forward search from t
+            double best = growTree(c, fwd, s, t, weight);
+            if (best == Double.POSITIVE_INFINITY)
+                return ret;
+            growTree(c, bwd, t, s, weight);
+            double maxLength = (1 + ALTERNATIVE_STRETCH) * best;
+
+            // Plateaus by their first vertex, with their lengths
+            List<Integer> starts = new ArrayList<>();
+            List<Double> plateauLengths = new ArrayList<>();
+            for (int i = 0; i < fwd.numTouched(); i++) {
+                int u = fwd.touched(i);
+                if (!fwd.settled(u) || !bwd.settled(u) || fwd.dist[u] + bwd.dist[u] > maxLength)
+                    continue;
+                int p = fwd.parent[u];
+                if (p != -1 && bwd.parent[p] == u)
+                    continue;  // Not the first vertex of its plateau
+                double length = 0;
+                for (int v = u; bwd.parent[v] != -1 && fwd.parent[bwd.parent[v]] == v;
+                     v = bwd.parent[v])
+                    length += fwd.dist[bwd.parent[v]] - fwd.dist[v];
+                starts.add(u);
+                // The plateau starting at s is the shortest route, which always comes first
+                plateauLengths.add(u == s ? Double.POSITIVE_INFINITY : length);
+            }
+            // Longest plateau first, then shortest route through it (a plateau can be a single
+            // vertex, e.g. where the route around a block leaves both trees' paths)
+            Integer[] order = new Integer[starts.size()];
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+            Arrays.sort(order, (a, b) -> {
+                int cmp = Double.compare(plateauLengths.get(b), plateauLengths.get(a));
+                if (cmp != 0)
+                    return cmp;
+                int u = starts.get(a), v = starts.get(b);
+                return Double.compare(fwd.dist[u] + bwd.dist[u], fwd.dist[v] + bwd.dist[v]);
+            });
+
+            for (int i = 0; i < order.length && i < ALTERNATIVE_CANDIDATES && ret.size() < k; i++) {
+                int[] path = viaPath(fwd, bwd, starts.get(order[i]));
+                if (path == null)
+                    continue;  // The two halves cross, so the route has a loop
+                if (!isDiverse(c, path, chosenEdges))
+                    continue;
+                HashSet<Long> edges = new HashSet<>();
+                for (int j = 1; j < path.length; j++)
+                    edges.add(edgeKey(path[j - 1], path[j], c.n));
+                chosenEdges.add(edges);
+                LinkedList<Long> route = new LinkedList<>();
+                for (int v : path)
+                    route.add(c.ids[v]);
+                ret.add(route);
+            }
+        } finally {
+            c.release(fwd);
+            c.release(bwd);
+        }
+        return ret;
+    }
+
+    /**
+     * Helper method: Dijkstra from s until every vertex that could be on an acceptable route is
+     * settled, i.e. up to (1 + ALTERNATIVE_STRETCH) times the distance to t.
+     * Returns the distance from s to t, or infinity if t can't be reached. Edges of infinite
+     * weight are skipped.
+     */
+    private static double growTree(CompactGraph c, CompactGraph.SearchState st, int s, int t,
+                                   double[] weight) {
+        st.relax(s, 0, -1);
+        double limit = Double.POSITIVE_INFINITY;
+        while (!st.isEmpty() && st.dist[st.peek()] <= limit) {
+            int v = st.poll();
+            if (v == t)
+                limit = (1 + ALTERNATIVE_STRETCH) * st.dist[v];
+            for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                if (!st.settled(c.adjTarget[e]) && weight[e] < Double.POSITIVE_INFINITY)
+                    st.relax(c.adjTarget[e], st.dist[v] + weight[e], v);
+            }
+        }
+        return st.settled(t) ? st.dist[t] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Helper method: The route through u made of the forward tree path to u and the backward
+     * tree path from u, or null if they share a vertex other than u
+     */
+    private static int[] viaPath(CompactGraph.SearchState fwd, CompactGraph.SearchState bwd,
+                                 int u) {
+        ArrayList<Integer> first = new ArrayList<>();
+        for (int v = u; v != -1; v = fwd.parent[v])
+            first.add(v);
+        HashSet<Integer> seen = new HashSet<>(first);
+        int[] path = new int[first.size()];
+        for (int i = 0; i < path.length; i++)
+            path[i] = first.get(path.length - 1 - i);
+        ArrayList<Integer> rest = new ArrayList<>();
+        for (int v = bwd.parent[u]; v != -1; v = bwd.parent[v]) {
+            if (!seen.add(v))
+                return null;
+            rest.add(v);
+        }
+        int[] ret = Arrays.copyOf(path, path.length + rest.size());
+        for (int i = 0; i < rest.size(); i++)
+            ret[path.length + i] = rest.get(i);
+        return ret;
+    }
+
+    /**
+     * Helper method: Whether the route shares at most ALTERNATIVE_MAX_OVERLAP of its length
+     * with each of the routes chosen so far
+     */
+    private static boolean isDiverse(CompactGraph c, int[] path,
+                                     List<HashSet<Long>> chosenEdges) {
+        double length = 0;
+        for (int j = 1; j < path.length; j++)
+            length += edgeLength(c, path[j - 1], path[j]);
+        for (HashSet<Long> other : chosenEdges) {
+            double shared = 0;
+            for (int j = 1; j < path.length; j++) {
+                if (other.contains(edgeKey(path[j - 1], path[j], c.n)))
+                    shared += edgeLength(c, path[j - 1], path[j]);
+            }
+            if (shared > ALTERNATIVE_MAX_OVERLAP * length)
+                return false;
+        }
+        return true;
+    }
+
+    /** Helper method: The keys of the edges of a route of node ids */
+    private static HashSet<Long> edges(CompactGraph c, List<Long> route) {
+        HashSet<Long> ret = new HashSet<>();
+        Long prev = null;
+        for (long id : route) {
+            if (prev != null)
+                ret.add(edgeKey(c.index(prev), c.index(id), c.n));
+            prev = id;
+        }
+        return ret;
+    }
+
+    /** Helper method: Same key for both directions of the edge v-w */
+    private static long edgeKey(int v, int w, int n) {
+        return (long) Math.min(v, w) * n + Math.max(v, w);
+    }
+
+    /** Helper method: Length in meters of the edge v-w */
+    private static double edgeLength(CompactGraph c, int v, int w) {
+        for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+            if (c.adjTarget[e] == w)
+                return c.adjMeters[e];
+        }
+        throw new IllegalArgumentException("No edge " + c.ids[v] + "-" + c.ids[w]);
+    }
+
+    /**
+     * Turn a route of node ids into turn-by-turn directions. Consecutive edges on ways with the
+     * same name are merged into one instruction; the turn type comes from the change in bearing
+     * where the name changes. Runs in time linear in the route length (times node degree).
+     * @param g The graph the route was found in
+     * @param route The route, as returned by shortestPath
+     * @return The list of directions, empty if the route has fewer than two nodes
+     */
+    public static List<NavigationDirection> routeDirections(GraphDB g, List<Long> route) {
+        List<NavigationDirection> ret = new ArrayList<>();
+        if (route == null || route.size() < 2)
+            return ret;
+
+        Iterator<Long> itr = route.iterator();
+        long prev = itr.next();
+        long cur = itr.next();
+        NavigationDirection current = new NavigationDirection(NavigationDirection.START,
+                wayName(g, prev, cur), 0);
+        double currentMeters = g.greatCircleDistance(prev, cur);
+        double lastBearing = g.bearing(prev, cur);
+
+        while (itr.hasNext()) {
+            long next = itr.next();
+            String name = wayName(g, cur, next);
+            double bearing = g.bearing(cur, next);
+            if (!name.equals(current.way)) {
+                current.distance = currentMeters / NavigationDirection.METERS_PER_MILE;
+                ret.add(current);
+                current = new NavigationDirection(
+                        NavigationDirection.turnDirection(lastBearing, bearing), name, 0);
+                currentMeters = 0;
+            }
+            currentMeters += g.greatCircleDistance(cur, next);
+            lastBearing = bearing;
+            cur = next;
+        }
+        current.distance = currentMeters / NavigationDirection.METERS_PER_MILE;
+        ret.add(current);
+        return ret;
+    }
+
+    /**
+     * Helper method: Name of the way the edge v-w is on, or UNKNOWN_ROAD if it has none
+     */
+    private static String wayName(GraphDB g, long v, long w) {
+        String name = g.wayName(g.way(v, w));
+        return name == null ? NavigationDirection.UNKNOWN_ROAD : name;
+    }
+
     /**
      * Start of A* implementation.
      */
@@ -35,6 +335,8 @@ public class Router {
     }
 
     protected LinkedList<Long> AStar(long s, long t) {
+        if (!g.connected(s, t))
+            return null;  // Don't search the whole component for a target that isn't in it
         dist = new HashMap<>();
         dist.put(s, 0.0);
         from = new HashMap<>();
@@ -0,0 +1,43 @@
+import java.util.List;
+
+/**
+ * One part of a road graph split by GraphPartitioner, as the ShardCoordinator sees it: a
+ * ShardServer in the same process, or a RemoteShard talking to one in another process.
+ * A shard owns some vertices and also holds its halo, the vertices just across the roads
+ * that leave it, so paths in a shard may pass through halo vertices.
+ */
+public interface Shard {
+    /** A vertex owned by the shard, and its distance from a query point in degrees. */
+    class Closest {
+        long id;
+        double distance;
+    }
+
+    /**
+     * What the coordinator needs to know to route through the shard without its vertices.
+     * Boundary vertices are the owned vertices with a road leaving the shard; clique[i][j] is
+     * the length of the shortest path in the shard from boundary[i] to boundary[j]; and road
+     * i leaving the shard goes from cutFrom[i] (a boundary vertex) to cutTo[i] (in the halo).
+     */
+    class Overlay {
+        long[] boundary;
+        double[][] clique;
+        long[] cutFrom;
+        long[] cutTo;
+        double[] cutMeters;
+    }
+
+    /** The owned vertex closest to a point, or one with id -1 if the shard has none. */
+    Closest closest(double lon, double lat);
+
+    Overlay overlay();
+
+    /**
+     * Lengths in meters of the shortest paths in the shard from one vertex to each of some
+     * others, infinite where there is none.
+     */
+    double[] distances(long from, long[] to);
+
+    /** The shortest path in the shard between two vertices, or an empty list if none. */
+    List<Long> path(long from, long to);
+}
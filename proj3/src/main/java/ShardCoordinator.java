@@ -0,0 +1,227 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static spark.Spark.*;
+
+/**
+ * Routes across a graph split into shards (see GraphPartitioner) without holding the graph.
+ * All it keeps is the overlay: the boundary vertices of every shard, the shortest distances
+ * between the boundary vertices of each shard (which the shards compute), and the roads
+ * between shards. A route query asks the start and end shards for the distances from the
+ * endpoints to their boundary vertices, runs Dijkstra on the overlay, and then asks each shard
+ * on the way for its piece of the path. The shards may be in this process or in others.
+ * Usage: java ShardCoordinator [port] [shard url]...
+ */
+public class ShardCoordinator {
+    private final List<Shard> shards;
+    private final Shard.Overlay[] overlays;
+    // Overlay vertices are the boundary vertices of all the shards, those of shard k numbered
+    // from shardStart[k] in the order of overlays[k].boundary
+    private final int[] shardStart;
+    private final int[] shardOf;
+    private final long[] ids;
+    private final Map<Long, Integer> indexOf = new HashMap<>();
+    // Roads between shards from overlay vertex v are cutTarget[cutStart[v]] to
+    // cutTarget[cutStart[v+1]-1], with lengths in cutMeters
+    private final int[] cutStart, cutTarget;
+    private final double[] cutMeters;
+
+    /** Fetches the overlay of every shard (in parallel, since they may be remote). */
+    public ShardCoordinator(List<Shard> shards) {
+        this.shards = shards;
+        int k = shards.size();
+        overlays = new Shard.Overlay[k];
+        IntStream.range(0, k).parallel().forEach(i -> overlays[i] = shards.get(i).overlay());
+
+        shardStart = new int[k + 1];
+        for (int i = 0; i < k; i++)
+            shardStart[i + 1] = shardStart[i] + overlays[i].boundary.length;
+        int n = shardStart[k];
+        shardOf = new int[n];
+        ids = new long[n];
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j < overlays[i].boundary.length; j++) {
+                shardOf[shardStart[i] + j] = i;
+                ids[shardStart[i] + j] = overlays[i].boundary[j];
+                indexOf.put(overlays[i].boundary[j], shardStart[i] + j);
+            }
+        }
+
+        cutStart = new int[n + 1];
+        for (Shard.Overlay o : overlays) {
+            for (long from : o.cutFrom)
+                cutStart[indexOf.get(from) + 1]++;
+        }
+        for (int v = 0; v < n; v++)
+            cutStart[v + 1] += cutStart[v];
+        cutTarget = new int[cutStart[n]];
+        cutMeters = new double[cutStart[n]];
+        int[] fill = cutStart.clone();
+        for (Shard.Overlay o : overlays) {
+            for (int i = 0; i < o.cutFrom.length; i++) {
+                int v = indexOf.get(o.cutFrom[i]);
+                Integer w = indexOf.get(o.cutTo[i]);
+                if (w == null)
+                    throw new IllegalArgumentException("Vertex " + o.cutTo[i]
+                            + " is in a halo but on no shard's boundary; are the shards from"
+                            + " the same partition?");
+                cutTarget[fill[v]] = w;
+                cutMeters[fill[v]] = o.cutMeters[i];
+                fill[v]++;
+            }
+        }
+    }
+
+    /**
+     * The shortest route between the vertices closest to two points.
+     * @return The route as node ids, or null if there is none
+     */
+    public LinkedList<Long> route(double stlon, double stlat, double destlon, double destlat) {
+        Shard.Closest[] from = new Shard.Closest[shards.size()];
+        Shard.Closest[] to = new Shard.Closest[shards.size()];
+        IntStream.range(0, shards.size()).parallel().forEach(i -> {
+            from[i] = shards.get(i).closest(stlon, stlat);
+            to[i] = shards.get(i).closest(destlon, destlat);
+        });
+        int a = nearest(from), b = nearest(to);
+        if (a == -1 || b == -1)
+            return null;
+        return route(a, from[a].id, b, to[b].id);
+    }
+
+    /**
+     * Helper method: The shard with the closest vertex, ties going to the smaller id (as in
+     * GraphDB.closest), or -1 if every shard is empty
+     */
+    private static int nearest(Shard.Closest[] closest) {
+        int best = -1;
+        for (int i = 0; i < closest.length; i++) {
+            if (closest[i].id == -1)
+                continue;
+            if (best == -1 || closest[i].distance < closest[best].distance
+                    || (closest[i].distance == closest[best].distance
+                    && closest[i].id < closest[best].id))
+                best = i;
+        }
+        return best;
+    }
+
+    /**
+     * The shortest route from vertex s, owned by shard a, to vertex t, owned by shard b.
+     * @return The route as node ids, or null if there is none
+     */
+    LinkedList<Long> route(int a, long s, int b, long t) {
+        long[] boundaryA = overlays[a].boundary, boundaryB = overlays[b].boundary;
+        double[] fromS, toT;
+        double best = Double.POSITIVE_INFINITY;
+        if (a == b) {
+            // Also ask for the route that stays in the shard
+            long[] targets = new long[boundaryA.length + 1];
+            System.arraycopy(boundaryA, 0, targets, 0, boundaryA.length);
+            targets[boundaryA.length] = t;
+            fromS = shards.get(a).distances(s, targets);
+            best = fromS[boundaryA.length];
+            toT = shards.get(b).distances(t, boundaryB);
+        } else {
+            double[][] ends = new double[2][];
+            IntStream.range(0, 2).parallel().forEach(i -> ends[i] = i == 0
+                    ? shards.get(a).distances(s, boundaryA)
+                    : shards.get(b).distances(t, boundaryB));
+            fromS = ends[0];
+            toT = ends[1];
+        }
+
+        // Dijkstra on the overlay, starting from all of a's boundary at once
+        CompactGraph.SearchState q = new CompactGraph.SearchState(ids.length);
+        for (int i = 0; i < boundaryA.length; i++)
+            q.relax(shardStart[a] + i, fromS[i], -1);
+        int last = -1;
+        while (!q.isEmpty() && q.dist[q.peek()] < best) {
+            int v = q.poll();
+            int k = shardOf[v];
+            if (k == b && q.dist[v] + toT[v - shardStart[b]] < best) {
+                best = q.dist[v] + toT[v - shardStart[b]];
+                last = v;
+            }
+            double[] row = overlays[k].clique[v - shardStart[k]];
+            for (int j = 0; j < row.length; j++) {
+                int w = shardStart[k] + j;
+                if (!q.settled(w))
+                    q.relax(w, q.dist[v] + row[j], v);
+            }
+            for (int e = cutStart[v]; e < cutStart[v + 1]; e++) {
+                if (!q.settled(cutTarget[e]))
+                    q.relax(cutTarget[e], q.dist[v] + cutMeters[e], v);
+            }
+        }
+        if (best == Double.POSITIVE_INFINITY)
+            return null;
+        if (last == -1)
+            return new LinkedList<>(shards.get(a).path(s, t));
+
+        // Overlay vertices on the route, then the path for each piece from its shard
+        LinkedList<Integer> hops = new LinkedList<>();
+        for (int v = last; v != -1; v = q.parent[v])
+            hops.addFirst(v);
+        List<List<Long>> pieces = new ArrayList<>();
+        List<long[]> requests = new ArrayList<>();
+        List<Integer> requestShards = new ArrayList<>();
+        requests.add(new long[]{s, ids[hops.getFirst()]});
+        requestShards.add(a);
+        Integer prev = null;
+        for (int v : hops) {
+            if (prev != null && shardOf[prev] == shardOf[v]) {
+                requests.add(new long[]{ids[prev], ids[v]});
+                requestShards.add(shardOf[v]);
+            } else if (prev != null) {
+                requests.add(new long[]{ids[prev], ids[v]});  // A road between shards
+                requestShards.add(-1);
+            }
+            prev = v;
+        }
+        requests.add(new long[]{ids[hops.getLast()], t});
+        requestShards.add(b);
+        for (int i = 0; i < requests.size(); i++)
+            pieces.add(null);
+        IntStream.range(0, requests.size()).parallel().forEach(i -> {
+            long[] r = requests.get(i);
+            int k = requestShards.get(i);
+            pieces.set(i, k == -1 ? Arrays.asList(r[0], r[1])
+                    : shards.get(k).path(r[0], r[1]));
+        });
+
+        LinkedList<Long> route = new LinkedList<>();
+        for (List<Long> piece : pieces) {
+            for (long id : piece) {
+                if (route.isEmpty() || route.getLast() != id)
+                    route.add(id);
+            }
+        }
+        return route;
+    }
+
+    public static void main(String[] args) {
+        List<Shard> shards = new ArrayList<>();
+        for (int i = 1; i < args.length; i++)
+            shards.add(new RemoteShard(args[i]));
+        ShardCoordinator coordinator = new ShardCoordinator(shards);
+        port(Integer.parseInt(args[0]));
+        get("/route", (req, res) -> {
+            LinkedList<Long> route = coordinator.route(
+                    Double.parseDouble(req.queryParams("start_lon")),
+                    Double.parseDouble(req.queryParams("start_lat")),
+                    Double.parseDouble(req.queryParams("end_lon")),
+                    Double.parseDouble(req.queryParams("end_lat")));
+            Map<String, Object> result = new HashMap<>();
+            result.put("route_found", route != null);
+            if (route != null)
+                result.put("route", route);
+            return ShardServer.GSON.toJson(result);
+        });
+    }
+}
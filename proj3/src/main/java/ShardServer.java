@@ -0,0 +1,210 @@
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static spark.Spark.*;
+
+/**
+ * Holds one shard written by GraphPartitioner and answers the ShardCoordinator's questions
+ * about it, either directly in the same process or over HTTP when run on its own.
+ * Only the shard is loaded, so a region too big for one heap can be served by several
+ * processes. The boundary cliques are computed once on loading, one search per boundary
+ * vertex, in parallel.
+ * Usage: java ShardServer [shard osm file] [port]
+ */
+public class ShardServer implements Shard {
+    /** Distances are sent as JSON, and some of them are infinite. */
+    static final Gson GSON = new GsonBuilder().serializeSpecialFloatingPointValues().create();
+
+    private final CompactGraph c;
+    private final PointIndex owned;
+    private final Overlay overlay;
+
+    /** The body of a distances request. */
+    static class DistancesRequest {
+        long from;
+        long[] to;
+    }
+
+    /**
+     * Loads the shard in osmPath, whose halo is listed in the file of the same name ending in
+     * .halo instead of .osm.
+     */
+    public ShardServer(String osmPath) throws IOException {
+        this(new GraphDB(osmPath), readHalo(osmPath.replaceAll("\\.osm$", "") + ".halo"));
+    }
+
+    ShardServer(GraphDB g, Set<Long> halo) {
+        c = g.compact();
+        List<Integer> ownedVertices = new ArrayList<>();
+        for (int v = 0; v < c.n; v++) {
+            if (!halo.contains(c.ids[v]))
+                ownedVertices.add(v);
+        }
+        long[] ids = new long[ownedVertices.size()];
+        double[] lons = new double[ids.length], lats = new double[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            int v = ownedVertices.get(i);
+            ids[i] = c.ids[v];
+            lons[i] = c.lon[v];
+            lats[i] = c.lat[v];
+        }
+        owned = new PointIndex(ids, lons, lats);
+
+        overlay = new Overlay();
+        List<Long> boundary = new ArrayList<>();
+        List<Long> cutFrom = new ArrayList<>(), cutTo = new ArrayList<>();
+        List<Double> cutMeters = new ArrayList<>();
+        for (int v : ownedVertices) {
+            boolean isBoundary = false;
+            for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                if (halo.contains(c.ids[c.adjTarget[e]])) {
+                    isBoundary = true;
+                    cutFrom.add(c.ids[v]);
+                    cutTo.add(c.ids[c.adjTarget[e]]);
+                    cutMeters.add(c.adjMeters[e]);
+                }
+            }
+            if (isBoundary)
+                boundary.add(c.ids[v]);
+        }
+        overlay.boundary = toArray(boundary);
+        overlay.cutFrom = toArray(cutFrom);
+        overlay.cutTo = toArray(cutTo);
+        overlay.cutMeters = new double[cutMeters.size()];
+        for (int i = 0; i < overlay.cutMeters.length; i++)
+            overlay.cutMeters[i] = cutMeters.get(i);
+        overlay.clique = new double[overlay.boundary.length][];
+        IntStream.range(0, overlay.boundary.length).parallel().forEach(i ->
+                overlay.clique[i] = distances(overlay.boundary[i], overlay.boundary));
+    }
+
+    private static long[] toArray(List<Long> list) {
+        long[] ret = new long[list.size()];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = list.get(i);
+        return ret;
+    }
+
+    /**
+     * Helper method: The ids in a halo file, one per line
+     */
+    private static Set<Long> readHalo(String path) throws IOException {
+        Set<Long> halo = new HashSet<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.trim().isEmpty())
+                    halo.add(Long.parseLong(line.trim()));
+            }
+        }
+        return halo;
+    }
+
+    @Override
+    public Closest closest(double lon, double lat) {
+        Closest ret = new Closest();
+        int i = owned.nearest(lon, lat, 1);
+        ret.id = i == -1 ? -1 : owned.id(i);
+        ret.distance = i == -1 ? Double.POSITIVE_INFINITY
+                : Math.hypot(lon - owned.lon(i), lat - owned.lat(i));
+        return ret;
+    }
+
+    @Override
+    public Overlay overlay() {
+        return overlay;
+    }
+
+    @Override
+    public double[] distances(long from, long[] to) {
+        double[] ret = new double[to.length];
+        Arrays.fill(ret, Double.POSITIVE_INFINITY);
+        int s = c.index(from);
+        if (s == -1)
+            return ret;
+        CompactGraph.SearchState state = c.acquire();
+        try {
+            search(state, s, to);
+            for (int i = 0; i < to.length; i++) {
+                int v = c.index(to[i]);
+                if (v != -1 && state.settled(v))
+                    ret[i] = state.dist[v];
+            }
+            state.reset();
+        } finally {
+            c.release(state);
+        }
+        return ret;
+    }
+
+    @Override
+    public List<Long> path(long from, long to) {
+        LinkedList<Long> ret = new LinkedList<>();
+        int s = c.index(from), t = c.index(to);
+        if (s == -1 || t == -1)
+            return ret;
+        CompactGraph.SearchState state = c.acquire();
+        try {
+            search(state, s, new long[]{to});
+            if (state.settled(t)) {
+                for (int v = t; v != -1; v = state.parent[v])
+                    ret.addFirst(c.ids[v]);
+            }
+            state.reset();
+        } finally {
+            c.release(state);
+        }
+        return ret;
+    }
+
+    /**
+     * Helper method: Dijkstra from s until all the targets that are in the shard are settled
+     */
+    private void search(CompactGraph.SearchState state, int s, long[] targets) {
+        boolean[] isTarget = new boolean[c.n];
+        int left = 0;
+        for (long id : targets) {
+            int v = c.index(id);
+            if (v != -1 && !isTarget[v]) {
+                isTarget[v] = true;
+                left++;
+            }
+        }
+        state.relax(s, 0, -1);
+        while (!state.isEmpty() && left > 0) {
+            int v = state.poll();
+            if (isTarget[v])
+                left--;
+            for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                if (!state.settled(c.adjTarget[e]))
+                    state.relax(c.adjTarget[e], state.dist[v] + c.adjMeters[e], v);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        ShardServer shard = new ShardServer(args[0]);
+        port(Integer.parseInt(args[1]));
+        get("/closest", (req, res) -> GSON.toJson(shard.closest(
+                Double.parseDouble(req.queryParams("lon")),
+                Double.parseDouble(req.queryParams("lat")))));
+        get("/overlay", (req, res) -> GSON.toJson(shard.overlay()));
+        post("/distances", (req, res) -> {
+            DistancesRequest r = GSON.fromJson(req.body(), DistancesRequest.class);
+            return GSON.toJson(shard.distances(r.from, r.to));
+        });
+        get("/path", (req, res) -> GSON.toJson(shard.path(
+                Long.parseLong(req.queryParams("from")), Long.parseLong(req.queryParams("to")))));
+    }
+}
@@ -0,0 +1,179 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A single file holding every tile image, so that serving a tile doesn't need a file open and
+ * read. The file is memory-mapped once and each tile is handed out as a read-only slice of the
+ * mapping, without copying.
+ * <p>
+ * Layout (as written by DataOutputStream): magic "TILE", version, tile count, then for every
+ * tile its name (writeUTF), the offset of its bytes from the start of the file (8 bytes) and
+ * their length (4 bytes), followed by the tile bytes themselves.
+ * </p>
+ * Running main converts a directory of tiles (such as img/) into an archive.
+ */
+public class TileArchive {
+    private static final int MAGIC = 0x54494C45;  // "TILE"
+    private static final int VERSION = 1;
+
+    private final MappedByteBuffer data;
+    private final Map<String, Integer> index;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    /** Maps the archive at the given path and reads its header. */
+    public TileArchive(String path) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Tile archive larger than 2GB: " + path);
+            // The mapping stays valid after the channel is closed
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        DataInputStream header = new DataInputStream(new ByteBufferInputStream(data.duplicate()));
+        if (header.readInt() != MAGIC)
+            throw new IOException("Not a tile archive: " + path);
+        int version = header.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported tile archive version " + version);
+        int count = header.readInt();
+        index = new HashMap<>(count * 2);
+        offsets = new long[count];
+        lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            index.put(header.readUTF(), i);
+            offsets[i] = header.readLong();
+            lengths[i] = header.readInt();
+        }
+    }
+
+    /** Names of all tiles in the archive. */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    public boolean contains(String name) {
+        return index.containsKey(name);
+    }
+
+    /**
+     * The bytes of the named tile as a read-only view into the mapped file, or null if there is
+     * no such tile. Safe to call from several threads; each call gets its own buffer position.
+     */
+    public ByteBuffer tile(String name) {
+        Integer i = index.get(name);
+        if (i == null)
+            return null;
+        ByteBuffer buf = data.asReadOnlyBuffer();
+        buf.position((int) offsets[i]);
+        buf.limit((int) offsets[i] + lengths[i]);
+        return buf.slice();
+    }
+
+    /** The named tile as an InputStream over the mapping (e.g. for ImageIO), or null. */
+    public InputStream open(String name) {
+        ByteBuffer buf = tile(name);
+        return buf == null ? null : new ByteBufferInputStream(buf);
+    }
+
+    /**
+     * Helper class: reads a ByteBuffer without copying it into a byte[] first
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            // InputStream's contract: asking for nothing reads nothing, even at the end
+            if (len == 0)
+                return 0;
+            if (!buf.hasRemaining())
+                return -1;
+            len = Math.min(len, buf.remaining());
+            buf.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int k = (int) Math.max(0, Math.min(n, buf.remaining()));
+            buf.position(buf.position() + k);
+            return k;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+
+    /**
+     * Packs every file directly inside dir into a new archive at archivePath.
+     * @return The number of tiles written
+     */
+    public static int pack(String dir, String archivePath) throws IOException {
+        File[] files = new File(dir).listFiles(File::isFile);
+        if (files == null)
+            throw new IOException("Not a directory: " + dir);
+        Arrays.sort(files);
+
+        // Header size must be known before the offsets can be written
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream names = new DataOutputStream(header);
+        for (File f : files)
+            names.writeUTF(f.getName());
+        long offset = 12 + header.size() + (8 + 4) * (long) files.length;
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(archivePath)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(files.length);
+            for (File f : files) {
+                out.writeUTF(f.getName());
+                out.writeLong(offset);
+                out.writeInt((int) f.length());
+                offset += f.length();
+            }
+            for (File f : files)
+                out.write(Files.readAllBytes(f.toPath()));
+        }
+        return files.length;
+    }
+
+    /**
+     * Usage: java TileArchive [tile directory] [archive file]
+     */
+    public static void main(String[] args) throws IOException {
+        String dir = args.length > 0 ? args[0] : "img/";
+        String out = args.length > 1 ? args[1] : "img.tiles";
+        int n = pack(dir, out);
+        System.out.printf("Packed %d tiles from %s into %s\n", n, dir, out);
+    }
+}
@@ -0,0 +1,52 @@
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A bounded, least recently used cache of decoded tile images by render_grid path, so that
+ * repeated and prefetched tiles skip reading and decoding the PNG. Safe to use from several
+ * threads; a tile that two threads miss at once may be loaded twice.
+ */
+public class TileCache {
+    private final Function<String, BufferedImage> loader;
+    private final Map<String, BufferedImage> images;
+
+    /**
+     * @param capacity Most tiles kept
+     * @param loader Reads a tile that is not in the cache (may return null, which is not cached)
+     */
+    public TileCache(int capacity, Function<String, BufferedImage> loader) {
+        this.loader = loader;
+        this.images = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** The tile at path, loading it if it is not cached. */
+    public BufferedImage get(String path) {
+        BufferedImage img;
+        synchronized (images) {
+            img = images.get(path);
+        }
+        if (img != null)
+            return img;
+        img = loader.apply(path);  // Outside the lock, so other tiles can be served meanwhile
+        if (img != null) {
+            synchronized (images) {
+                images.put(path, img);
+            }
+        }
+        return img;
+    }
+
+    /** Whether the tile at path is cached (does not count as a use). */
+    public boolean contains(String path) {
+        synchronized (images) {
+            return images.containsKey(path);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batch tool that regenerates the img/ tile pyramid from the road graph, so that it no longer
+ * has to be a static artifact. The deepest level is drawn by VectorRenderer; every shallower
+ * tile is made by downsampling its four children, so each road is only drawn once.
+ * Tiles are written with the names QuadTree expects (root.png, 1.png ... 4.png, 11.png ...),
+ * and the work is split over a fork-join pool one quadrant at a time.
+ *
+ * Passing dirty tile names re-renders only those quadrants: everything inside a dirty tile,
+ * plus its ancestors (which are re-downsampled, reading clean siblings back from disk).
+ *
+ * Usage: java TilePyramidGenerator [osm file] [output dir] [max depth] [dirty tile ...]
+ */
+public class TilePyramidGenerator {
+    private static final String OSM_DB_PATH = "berkeley.osm";
+    private static final String IMG_ROOT = "img/";
+
+    private final VectorRenderer renderer;
+    private final File outDir;
+    private final int maxDepth;
+    /** Digits of the dirty tiles ("" is the root), or null if everything is dirty. */
+    private final List<String> dirty;
+    private final AtomicInteger rendered = new AtomicInteger();
+    private final AtomicInteger reused = new AtomicInteger();
+
+    /**
+     * @param renderer Draws the deepest level
+     * @param outDir Directory to write tiles into
+     * @param maxDepth Depth of the deepest level (7 for the images in img/)
+     * @param dirtyTiles Tiles to regenerate, e.g. "14.png" or "14"; null or empty for all
+     */
+    public TilePyramidGenerator(VectorRenderer renderer, String outDir, int maxDepth,
+                                Collection<String> dirtyTiles) {
+        this.renderer = renderer;
+        this.outDir = new File(outDir);
+        this.outDir.mkdirs();
+        this.maxDepth = maxDepth;
+        if (dirtyTiles == null || dirtyTiles.isEmpty()) {
+            this.dirty = null;
+        } else {
+            this.dirty = new ArrayList<>();
+            for (String t : dirtyTiles)
+                dirty.add(digits(t));
+        }
+    }
+
+    /** Generates the pyramid on the given pool, returning the number of tiles written. */
+    public int generate(ForkJoinPool pool) {
+        pool.invoke(new TileTask(0, 0, 0));
+        return rendered.get();
+    }
+
+    /** Number of clean tiles that were read back from disk instead of being regenerated. */
+    public int reusedCount() {
+        return reused.get();
+    }
+
+    /**
+     * Produces the image for one tile: draws it at the deepest level, otherwise builds its four
+     * children in parallel and shrinks them into one tile.
+     */
+    private class TileTask extends RecursiveTask<BufferedImage> {
+        private static final long serialVersionUID = 1L;
+        private final int depth, x, y;
+
+        TileTask(int depth, int x, int y) {
+            this.depth = depth;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        protected BufferedImage compute() {
+            String name = VectorRenderer.tileName(depth, x, y);
+            File file = new File(outDir, name);
+            if (!isDirty(name) && file.isFile()) {
+                reused.incrementAndGet();
+                return read(file);
+            }
+
+            BufferedImage img;
+            if (depth == maxDepth) {
+                img = renderer.renderTile(depth, x, y);
+            } else {
+                List<TileTask> children = new ArrayList<>(4);
+                for (int q = 0; q < 4; q++)
+                    children.add(new TileTask(depth + 1, 2 * x + (q & 1), 2 * y + (q >> 1)));
+                invokeAll(children);
+                img = downsample(children);
+            }
+            write(img, file);
+            rendered.incrementAndGet();
+            return img;
+        }
+    }
+
+    /**
+     * Helper method: Shrink four child tiles (upper left, upper right, lower left, lower right)
+     * into one tile
+     */
+    private static BufferedImage downsample(List<TileTask> children) {
+        int size = MapServer.TILE_SIZE;
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = img.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        for (int q = 0; q < 4; q++) {
+            BufferedImage child = children.get(q).join();
+            g2d.drawImage(child, (q & 1) * size / 2, (q >> 1) * size / 2, size / 2, size / 2, null);
+        }
+        g2d.dispose();
+        return img;
+    }
+
+    /**
+     * A tile must be regenerated if it is inside a dirty tile, or if it contains one.
+     */
+    private boolean isDirty(String name) {
+        if (dirty == null)
+            return true;
+        String digits = digits(name);
+        for (String d : dirty) {
+            if (d.startsWith(digits) || digits.startsWith(d))
+                return true;
+        }
+        return false;
+    }
+
+    /** Helper method: "14.png" -> "14", "root.png" -> "" */
+    private static String digits(String name) {
+        String d = name.replace(".png", "");
+        return d.equals("root") ? "" : d;
+    }
+
+    private static BufferedImage read(File f) {
+        try {
+            return ImageIO.read(f);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void write(BufferedImage img, File f) {
+        try {
+            ImageIO.write(img, "png", f);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void main(String[] args) {
+        String osm = args.length > 0 ? args[0] : OSM_DB_PATH;
+        String out = args.length > 1 ? args[1] : IMG_ROOT;
+        int maxDepth = args.length > 2 ? Integer.parseInt(args[2]) : MapServer.MAX_DEPTH;
+        List<String> dirtyTiles = new ArrayList<>();
+        for (int i = 3; i < args.length; i++)
+            dirtyTiles.add(args[i]);
+
+        GraphDB g = new GraphDB(osm);
+        TilePyramidGenerator gen = new TilePyramidGenerator(new VectorRenderer(g, null), out,
+                maxDepth, dirtyTiles);
+        long start = System.currentTimeMillis();
+        int n = gen.generate(ForkJoinPool.commonPool());
+        System.out.printf("Wrote %d tiles (reused %d) to %s in %d ms\n", n, gen.reusedCount(),
+                out, System.currentTimeMillis() - start);
+    }
+}
@@ -0,0 +1,308 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Shortest routes under edge weights that change while the server runs (live traffic), using
+ * customizable route planning with one overlay level.
+ * <p>
+ * Preprocessing does not depend on the weights: the vertices are split into cells, which are
+ * consecutive runs of CELL_SIZE vertices in CompactGraph order (a Hilbert curve, so the cells
+ * are compact areas). A vertex with an edge into another cell is a boundary vertex.
+ * </p><p>
+ * Customization applies a weight to every edge and computes, for each cell, the distance
+ * between every pair of its boundary vertices when staying inside the cell (a clique). Cells
+ * are independent, so this runs in parallel. The result is swapped in as a whole, so queries
+ * always see one consistent set of weights.
+ * </p><p>
+ * A query is a Dijkstra search that uses the real edges inside the start and end cells and
+ * only the cliques and the edges between cells elsewhere. Clique arcs on the result are
+ * unpacked by a small search inside their cell.
+ * </p>
+ * Weights are meters multiplied by a congestion factor per OSM way (1 = free flowing), read
+ * from a text file with lines "way_id factor"; a factor of Infinity closes the road.
+ * The overlay describes the graph as it was when the overlay was made.
+ */
+public class TrafficOverlay {
+    /** Vertices per cell. */
+    static final int CELL_SIZE = 256;
+
+    private final GraphDB g;
+    private final CompactGraph c;
+    private final int numCells;
+    // Boundary vertices of cell k are boundary[boundaryStart[k]] to boundary[boundaryStart[k+1]-1];
+    // boundaryIndex[v] is v's position among its cell's boundary vertices, or -1
+    private final int[] boundaryStart, boundary, boundaryIndex;
+    private volatile Metric metric;
+    private ScheduledExecutorService watcher;
+
+    /** One set of weights with its cliques. Never changed once made. */
+    private static class Metric {
+        final double[] weight;
+        // clique[k][i * b + j]: distance in cell k from its i-th to its j-th boundary vertex
+        final double[][] clique;
+
+        Metric(double[] weight, double[][] clique) {
+            this.weight = weight;
+            this.clique = clique;
+        }
+    }
+
+    /** Preprocesses the graph and customizes it with free-flowing traffic. */
+    public TrafficOverlay(GraphDB g) {
+        this.g = g;
+        this.c = g.compact();
+        numCells = (c.n + CELL_SIZE - 1) / CELL_SIZE;
+
+        boundaryIndex = new int[c.n];
+        boundaryStart = new int[numCells + 1];
+        int count = 0;
+        for (int v = 0; v < c.n; v++) {
+            boundaryIndex[v] = -1;
+            for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                if (cell(c.adjTarget[e]) != cell(v)) {
+                    boundaryIndex[v] = count - boundaryStart[cell(v)];
+                    count++;
+                    break;
+                }
+            }
+            boundaryStart[cell(v) + 1] = count;
+        }
+        boundary = new int[count];
+        for (int v = 0; v < c.n; v++) {
+            if (boundaryIndex[v] != -1)
+                boundary[boundaryStart[cell(v)] + boundaryIndex[v]] = v;
+        }
+
+        customize(Collections.emptyMap());
+    }
+
+    private int cell(int v) {
+        return v / CELL_SIZE;
+    }
+
+    /**
+     * Applies new congestion factors: every edge of a way in the map has its length multiplied
+     * by the way's factor, and every other edge counts at its length. Queries that start after
+     * this returns use the new weights.
+     * @param wayFactors Congestion factor by OSM way id
+     */
+    public void customize(Map<Long, Double> wayFactors) {
+        double[] weight = new double[c.adjTarget.length];
+        for (int e = 0; e < weight.length; e++) {
+            Double factor = c.adjWay[e] < 0 ? null : wayFactors.get(g.wayId(c.adjWay[e]));
+            weight[e] = c.adjMeters[e] * (factor == null ? 1 : factor);
+        }
+        double[][] clique = new double[numCells][];
+        IntStream.range(0, numCells).parallel().forEach(k -> clique[k] = cellClique(k, weight));
+        metric = new Metric(weight, clique);
+    }
+
+    /**
+     * Helper method: Distances between all boundary vertices of cell k, staying in the cell
+     */
+    private double[] cellClique(int k, double[] weight) {
+        int b = boundaryStart[k + 1] - boundaryStart[k];
+        double[] ret = new double[b * b];
+        CompactGraph.SearchState s = c.acquire();
+        try {
+            for (int i = 0; i < b; i++) {
+                searchCell(s, boundary[boundaryStart[k] + i], -1, weight);
+                for (int j = 0; j < b; j++)
+                    ret[i * b + j] = s.dist[boundary[boundaryStart[k] + j]];
+                s.reset();
+            }
+        } finally {
+            c.release(s);
+        }
+        return ret;
+    }
+
+    /**
+     * Helper method: Dijkstra from u that stays in u's cell, stopping once target (if not -1)
+     * is settled
+     */
+    private void searchCell(CompactGraph.SearchState s, int u, int target, double[] weight) {
+        int k = cell(u);
+        s.relax(u, 0, -1);
+        while (!s.isEmpty()) {
+            int v = s.poll();
+            if (v == target)
+                return;
+            for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                int w = c.adjTarget[e];
+                if (cell(w) == k && !s.settled(w))
+                    s.relax(w, s.dist[v] + weight[e], v);
+            }
+        }
+    }
+
+    /**
+     * The route from vertex st to vertex dest with the least weight under the current traffic.
+     * @return The route as node ids, or null if there is none (e.g. every way is closed)
+     */
+    public LinkedList<Long> route(long st, long dest) {
+        if (!g.connected(st, dest))
+            return null;
+        Metric m = metric;  // The same weights for the whole query
+        int s = c.index(st), t = c.index(dest);
+        CompactGraph.SearchState q = c.acquire();
+        try {
+            q.relax(s, 0, -1);
+            while (!q.isEmpty()) {
+                int v = q.poll();
+                if (v == t)
+                    break;
+                int k = cell(v);
+                boolean local = k == cell(s) || k == cell(t);
+                if (!local) {
+                    // Only boundary vertices are reached outside the end cells: take the clique
+                    int b = boundaryStart[k + 1] - boundaryStart[k], i = boundaryIndex[v];
+                    for (int j = 0; j < b; j++) {
+                        int w = boundary[boundaryStart[k] + j];
+                        if (!q.settled(w))
+                            q.relax(w, q.dist[v] + m.clique[k][i * b + j], v);
+                    }
+                }
+                for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                    int w = c.adjTarget[e];
+                    if ((local || cell(w) != k) && !q.settled(w))
+                        q.relax(w, q.dist[v] + m.weight[e], v);
+                }
+            }
+            if (!q.settled(t))
+                return null;
+            return unpack(q, s, t, m);
+        } finally {
+            c.release(q);
+        }
+    }
+
+    /** The current weight of each CompactGraph edge. Callers must not change it. */
+    double[] weights() {
+        return metric.weight;
+    }
+
+    /** Total weight of a route of node ids under the current traffic. */
+    public double weight(LinkedList<Long> route) {
+        Metric m = metric;
+        double total = 0;
+        Long prev = null;
+        for (long id : route) {
+            if (prev != null) {
+                int v = c.index(prev), w = c.index(id);
+                double best = Double.POSITIVE_INFINITY;
+                for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                    if (c.adjTarget[e] == w)
+                        best = Math.min(best, m.weight[e]);
+                }
+                total += best;
+            }
+            prev = id;
+        }
+        return total;
+    }
+
+    /**
+     * Helper method: The full route from the query's parent pointers, replacing each clique
+     * arc (two vertices of one cell other than the end cells) by the path it stands for
+     */
+    private LinkedList<Long> unpack(CompactGraph.SearchState q, int s, int t, Metric m) {
+        LinkedList<Long> ret = new LinkedList<>();
+        CompactGraph.SearchState inner = c.acquire();
+        try {
+            int v = t;
+            ret.addFirst(c.ids[v]);
+            while (v != s) {
+                int p = q.parent[v];
+                int k = cell(v);
+                if (cell(p) == k && k != cell(s) && k != cell(t)) {
+                    searchCell(inner, p, v, m.weight);
+                    for (int x = inner.parent[v]; x != p; x = inner.parent[x])
+                        ret.addFirst(c.ids[x]);
+                    inner.reset();
+                }
+                ret.addFirst(c.ids[p]);
+                v = p;
+            }
+        } finally {
+            c.release(inner);
+        }
+        return ret;
+    }
+
+    /**
+     * Reads a traffic file: one "way_id factor" pair per line; blank lines and lines starting
+     * with # are ignored.
+     */
+    static Map<Long, Double> readFeed(String path) throws IOException {
+        Map<Long, Double> factors = new HashMap<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(path))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] parts = line.split("\\s+");
+                try {
+                    if (parts.length != 2)
+                        throw new NumberFormatException();
+                    double factor = Double.parseDouble(parts[1]);
+                    if (!(factor > 0))
+                        throw new NumberFormatException();
+                    factors.put(Long.parseLong(parts[0]), factor);
+                } catch (NumberFormatException e) {
+                    throw new IOException(path + ":" + lineNumber + ": expected \"way_id factor\""
+                            + " with a positive factor, got: " + line);
+                }
+            }
+        }
+        return factors;
+    }
+
+    /**
+     * Customizes with the traffic file at path now, then again whenever it changes (checked
+     * every periodMillis) on a background thread. A file that can't be read leaves the
+     * current weights in place.
+     */
+    public synchronized void watch(String path, long periodMillis) {
+        if (watcher != null)
+            watcher.shutdownNow();
+        watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "traffic-feed");
+            t.setDaemon(true);
+            return t;
+        });
+        File file = new File(path);
+        long[] lastModified = {Long.MIN_VALUE};
+        watcher.scheduleWithFixedDelay(() -> {
+            long modified = file.lastModified();
+            if (modified == lastModified[0])
+                return;
+            lastModified[0] = modified;
+            try {
+                customize(modified == 0 ? Collections.emptyMap() : readFeed(path));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops watching the traffic file. */
+    public synchronized void stopWatching() {
+        if (watcher != null)
+            watcher.shutdownNow();
+        watcher = null;
+    }
+}
@@ -0,0 +1,277 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Plans a trip through a list of stops: the order to visit them in and the road route that
+ * does so. The cost between every pair of stops comes from one Dijkstra search per stop on the
+ * CompactGraph that stops once all the other stops are settled; these run in parallel.
+ * The order starts from nearest neighbor and is then improved with 2-opt (reversing a stretch
+ * of the trip) and Or-opt (moving a run of one to three stops elsewhere) until neither helps
+ * or the time budget runs out. Roads go both ways, so the costs are symmetric, which the
+ * 2-opt step relies on.
+ */
+public class TripPlanner {
+    /** Most stops in one trip. */
+    static final int MAX_STOPS = 100;
+    /** Time spent improving the order when the request doesn't say. */
+    static final long DEFAULT_BUDGET_MILLIS = 200;
+    /** Most time a request may ask for. */
+    static final long MAX_BUDGET_MILLIS = 5000;
+    /** Longest run of stops Or-opt moves at once. */
+    private static final int OR_OPT_MAX_RUN = 3;
+    /** Improvements smaller than this many meters are ignored, so rounding can't loop. */
+    private static final double EPSILON = 1e-7;
+
+    private final GraphDB g;
+
+    public TripPlanner(GraphDB g) {
+        this.g = g;
+    }
+
+    /**
+     * The trip from the first stop through all the others, each snapped to its closest
+     * routable vertex.
+     * @param stops [lon, lat] of each stop; the first is where the trip starts
+     * @param roundTrip Whether the trip ends back at the first stop
+     * @param budgetMillis How long to spend improving the order
+     * @return The trip as a TripResult, without route_polylines; trip_found is false if some
+     * stop can't be reached from the first.
+     */
+    public TripResult plan(double[][] stops, boolean roundTrip, long budgetMillis) {
+        long deadline = System.nanoTime() + budgetMillis * 1000000;
+        TripResult result = new TripResult();
+        CompactGraph c = g.compact();
+        int m = stops.length;
+        int[] vertex = new int[m];
+        for (int i = 0; i < m; i++)
+            vertex[i] = c.index(g.closestRoutable(stops[i][0], stops[i][1]));
+
+        double[][] d = costMatrix(c, vertex);
+        for (int i = 1; i < m; i++) {
+            if (Double.isInfinite(d[0][i]))
+                return result;
+        }
+
+        int[] order = solve(d, roundTrip, deadline);
+        List<Integer> orderList = new ArrayList<>();
+        for (int stop : order)
+            orderList.add(stop);
+        LinkedList<Long> route = new LinkedList<>();
+        route.add(c.ids[vertex[order[0]]]);
+        int legs = roundTrip && m > 1 ? m : m - 1;
+        for (int i = 0; i < legs; i++)
+            appendLeg(c, route, vertex[order[i]], vertex[order[(i + 1) % m]]);
+
+        result.tripFound = true;
+        result.order = orderList;
+        result.distance = cost(d, order, roundTrip);
+        result.route = route;
+        return result;
+    }
+
+    /**
+     * Helper method: d[i][j] is the road distance from vertex[i] to vertex[j], or infinity if
+     * there is no road between them
+     */
+    private static double[][] costMatrix(CompactGraph c, int[] vertex) {
+        double[][] d = new double[vertex.length][];
+        IntStream.range(0, vertex.length).parallel().forEach(i -> {
+            CompactGraph.SearchState s = c.acquire();
+            try {
+                int left = 0;
+                boolean[] isTarget = new boolean[c.n];
+                for (int v : vertex) {
+                    if (!isTarget[v])
+                        left++;
+                    isTarget[v] = true;
+                }
+                s.relax(vertex[i], 0, -1);
+                while (!s.isEmpty() && left > 0) {
+                    int v = s.poll();
+                    if (isTarget[v])
+                        left--;
+                    for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                        if (!s.settled(c.adjTarget[e]))
+                            s.relax(c.adjTarget[e], s.dist[v] + c.adjMeters[e], v);
+                    }
+                }
+                d[i] = new double[vertex.length];
+                for (int j = 0; j < vertex.length; j++) {
+                    d[i][j] = s.settled(vertex[j])
+                            ? s.dist[vertex[j]] : Double.POSITIVE_INFINITY;
+                }
+                s.reset();
+            } finally {
+                c.release(s);
+            }
+        });
+        return d;
+    }
+
+    /**
+     * Helper method: Add the shortest path from u to v to route, which already ends at u
+     */
+    private static void appendLeg(CompactGraph c, LinkedList<Long> route, int u, int v) {
+        CompactGraph.SearchState s = c.acquire();
+        try {
+            s.relax(u, 0, -1);
+            while (!s.isEmpty()) {
+                int x = s.poll();
+                if (x == v)
+                    break;
+                for (int e = c.adjStart[x]; e < c.adjStart[x + 1]; e++) {
+                    if (!s.settled(c.adjTarget[e]))
+                        s.relax(c.adjTarget[e], s.dist[x] + c.adjMeters[e], x);
+                }
+            }
+            LinkedList<Long> leg = new LinkedList<>();
+            for (int x = v; x != u; x = s.parent[x])
+                leg.addFirst(c.ids[x]);
+            route.addAll(leg);
+            s.reset();
+        } finally {
+            c.release(s);
+        }
+    }
+
+    /**
+     * A good order to visit stops 0 to d.length - 1 in, starting from 0.
+     * @param d Symmetric cost between each pair of stops
+     * @param roundTrip Whether the trip returns to 0 at the end
+     * @param deadline System.nanoTime() after which to stop improving the order
+     */
+    static int[] solve(double[][] d, boolean roundTrip, long deadline) {
+        int m = d.length;
+        int[] order = new int[m];
+        boolean[] visited = new boolean[m];
+        visited[0] = true;
+        for (int i = 1; i < m; i++) {
+            int best = -1;
+            for (int j = 0; j < m; j++) {
+                if (!visited[j] && (best == -1 || d[order[i - 1]][j] < d[order[i - 1]][best]))
+                    best = j;
+            }
+            order[i] = best;
+            visited[best] = true;
+        }
+
+        boolean improved = true;
+        while (improved && System.nanoTime() < deadline) {
+            improved = twoOpt(d, order, roundTrip, deadline);
+            improved |= orOpt(d, order, roundTrip, deadline);
+        }
+        return order;
+    }
+
+    /** The length of the trip that visits the stops in the given order. */
+    static double cost(double[][] d, int[] order, boolean roundTrip) {
+        double total = 0;
+        for (int i = 0; i + 1 < order.length; i++)
+            total += d[order[i]][order[i + 1]];
+        if (roundTrip && order.length > 1)
+            total += d[order[order.length - 1]][order[0]];
+        return total;
+    }
+
+    /**
+     * Helper method: The stop after position i, or -1 if the trip ends there
+     */
+    private static int next(int[] order, int i, boolean roundTrip) {
+        if (i + 1 < order.length)
+            return order[i + 1];
+        return roundTrip ? order[0] : -1;
+    }
+
+    /**
+     * Helper method: Cost from a to b, where b = -1 (the end of the trip) costs nothing
+     */
+    private static double d(double[][] d, int a, int b) {
+        return b == -1 ? 0 : d[a][b];
+    }
+
+    /**
+     * Helper method: Reverse every stretch of the order that makes the trip shorter
+     * @return Whether anything changed
+     */
+    private static boolean twoOpt(double[][] d, int[] order, boolean roundTrip, long deadline) {
+        boolean improved = false;
+        for (int i = 1; i < order.length - 1 && System.nanoTime() < deadline; i++) {
+            for (int j = i + 1; j < order.length; j++) {
+                int a = order[i - 1], b = order[i], c = order[j], e = next(order, j, roundTrip);
+                double delta = d[a][c] + d(d, b, e) - d[a][b] - d(d, c, e);
+                if (delta < -EPSILON) {
+                    for (int x = i, y = j; x < y; x++, y--) {
+                        int t = order[x];
+                        order[x] = order[y];
+                        order[y] = t;
+                    }
+                    improved = true;
+                }
+            }
+        }
+        return improved;
+    }
+
+    /**
+     * Helper method: Move every run of up to OR_OPT_MAX_RUN stops, possibly reversed, to
+     * wherever it makes the trip shorter
+     * @return Whether anything changed
+     */
+    private static boolean orOpt(double[][] d, int[] order, boolean roundTrip, long deadline) {
+        boolean improved = false;
+        int m = order.length;
+        for (int len = 1; len <= OR_OPT_MAX_RUN; len++) {
+            for (int i = 1; i + len <= m && System.nanoTime() < deadline; i++) {
+                int prev = order[i - 1], first = order[i], last = order[i + len - 1];
+                int after = next(order, i + len - 1, roundTrip);
+                double removed = d[prev][first] + d(d, last, after) - d(d, prev, after);
+                // Try between order[j] and the stop after it, for j outside the run
+                for (int j = 0; j < m; j++) {
+                    if (j >= i - 1 && j < i + len)
+                        continue;
+                    int a = order[j], b = next(order, j, roundTrip);
+                    double base = d(d, a, b);
+                    double forward = d[a][first] + d(d, last, b) - base;
+                    double backward = d[a][last] + d(d, first, b) - base;
+                    boolean reverse = backward < forward;
+                    if (Math.min(forward, backward) < removed - EPSILON) {
+                        move(order, i, len, j, reverse);
+                        improved = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return improved;
+    }
+
+    /**
+     * Helper method: Move the run of len stops at position i to just after the stop at
+     * position j (reversing it if asked)
+     */
+    private static void move(int[] order, int i, int len, int j, boolean reverse) {
+        int[] run = Arrays.copyOfRange(order, i, i + len);
+        if (reverse) {
+            for (int x = 0, y = len - 1; x < y; x++, y--) {
+                int t = run[x];
+                run[x] = run[y];
+                run[y] = t;
+            }
+        }
+        int afterStop = order[j];
+        int[] rest = new int[order.length - len];
+        System.arraycopy(order, 0, rest, 0, i);
+        System.arraycopy(order, i + len, rest, i, order.length - i - len);
+        int k = 0;
+        for (int x = 0; x < rest.length; x++) {
+            order[k++] = rest[x];
+            if (rest[x] == afterStop) {
+                for (int stop : run)
+                    order[k++] = stop;
+            }
+        }
+    }
+}
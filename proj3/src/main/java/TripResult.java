@@ -0,0 +1,27 @@
+import com.google.gson.annotations.SerializedName;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * The result of a trip query, as an object that Gson serializes directly. Fields that are null
+ * (everything but trip_found when no trip was found) are left out of the JSON.
+ */
+public class TripResult {
+    // False if some stop can't be reached from the first
+    @SerializedName("trip_found")
+    boolean tripFound;
+    // Stop indices in visiting order, starting with 0 and not repeating it at the end of a
+    // round trip
+    @SerializedName("order")
+    List<Integer> order;
+    // Length of the trip in meters
+    @SerializedName("distance")
+    Double distance;
+    // Node ids of the whole trip
+    @SerializedName("route")
+    LinkedList<Long> route;
+    // The route simplified for each depth (see RouteGeometry.encodeForDepths)
+    @SerializedName("route_polylines")
+    String[] routePolylines;
+}
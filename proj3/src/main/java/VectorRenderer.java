@@ -0,0 +1,299 @@
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Renders map tiles straight from the road geometry in GraphDB, so that the map can be shown
+ * at any zoom level instead of only the levels that have pre-rendered images in img/.
+ * Tiles follow the same quadtree layout and naming as img/ ("1.png" is the upper left quarter
+ * of the root, "14.png" the lower right quarter of that, etc.) but have no depth limit.
+ * Only the edges in a tile's bounding box are drawn (found with an EdgeIndex), and minor roads
+ * are left out when zoomed far out. Rendered tiles are kept in a bounded in-memory cache and
+ * written to a cache directory on disk, so each tile is only rendered once. Tiles on disk are
+ * kept under a subdirectory named for the style and the graph (see cacheVersion), so a new
+ * graph or a style change starts a fresh cache instead of serving stale tiles.
+ */
+public class VectorRenderer {
+    /** Prefix of vector tile names in render_grid, to tell them apart from files in img/. */
+    public static final String TILE_PREFIX = "vector/";
+    /** Deepest level we will render; at 20 a pixel is well under a millimeter. */
+    public static final int MAX_DEPTH = 20;
+    /** Bump whenever the drawing below changes, so that tiles cached on disk are redrawn. */
+    private static final int STYLE_VERSION = 1;
+    /** Number of decoded tiles kept in memory. */
+    private static final int MEMORY_CACHE_TILES = 512;
+
+    private static final Color BACKGROUND = new Color(242, 239, 233);
+    /** Drawing style by road class (see GraphBuildingHandler.roadClass), most important first. */
+    private static final Color[] CLASS_COLORS = {new Color(233, 144, 160),
+        new Color(253, 215, 161), new Color(246, 250, 187), new Color(255, 255, 255),
+        new Color(255, 255, 255)};
+    private static final float[] CLASS_WIDTHS = {3.0f, 2.5f, 2.0f, 1.5f, 1.0f};
+    /** Shallowest depth at which each road class is drawn (level of detail). */
+    private static final int[] CLASS_MIN_DEPTH = {0, 0, 1, 2, 3};
+    private static final Color CASING = new Color(190, 185, 180);
+
+    private final GraphDB g;
+    private final EdgeIndex index;
+    private final File cacheRoot;
+    private final Map<String, BufferedImage> memoryCache;
+
+    /**
+     * @param g The graph to draw
+     * @param cacheRoot Directory rendered tiles are written to, under a subdirectory for the
+     *                  style and graph (created if missing), or null for no disk cache
+     */
+    public VectorRenderer(GraphDB g, String cacheRoot) {
+        this(g, new EdgeIndex(g), cacheRoot);
+    }
+
+    public VectorRenderer(GraphDB g, EdgeIndex index, String cacheRoot) {
+        this.g = g;
+        this.index = index;
+        this.cacheRoot = cacheRoot == null ? null : new File(cacheRoot, cacheVersion(g));
+        if (this.cacheRoot != null)
+            this.cacheRoot.mkdirs();
+        this.memoryCache = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+                return size() > MEMORY_CACHE_TILES;
+            }
+        };
+    }
+
+    /**
+     * Same contract as Rasterer.getMapRaster, except that the depth is not limited to the
+     * images in img/ and render_grid holds vector tile names (see getTileImage).
+     */
+    public Map<String, Object> getMapRaster(Map<String, Double> params) {
+        return raster(params).toMap();
+    }
+
+    /**
+     * Same as getMapRaster, but returns a RasterResult that can be serialized directly.
+     */
+    public RasterResult raster(Map<String, Double> params) {
+        double ullon = params.get("ullon");
+        double ullat = params.get("ullat");
+        double lrlon = params.get("lrlon");
+        double lrlat = params.get("lrlat");
+        double targetLonDPP = (lrlon - ullon) / params.get("w");
+
+        if (ullon >= lrlon || ullat <= lrlat
+                || ullon >= MapServer.ROOT_LRLON || lrlon <= MapServer.ROOT_ULLON
+                || ullat <= MapServer.ROOT_LRLAT || lrlat >= MapServer.ROOT_ULLAT)
+            return RasterResult.FAILURE;
+
+        int depth = 0;
+        while (depth < MAX_DEPTH && tileWidth(depth) / MapServer.TILE_SIZE > targetLonDPP)
+            depth++;
+
+        int n = 1 << depth;
+        double tileW = tileWidth(depth), tileH = tileHeight(depth);
+        int x0 = clamp((int) Math.floor((ullon - MapServer.ROOT_ULLON) / tileW), n);
+        int x1 = clamp((int) Math.ceil((lrlon - MapServer.ROOT_ULLON) / tileW) - 1, n);
+        int y0 = clamp((int) Math.floor((MapServer.ROOT_ULLAT - ullat) / tileH), n);
+        int y1 = clamp((int) Math.ceil((MapServer.ROOT_ULLAT - lrlat) / tileH) - 1, n);
+
+        String[][] grid = new String[y1 - y0 + 1][x1 - x0 + 1];
+        for (int y = y0; y <= y1; y++)
+            for (int x = x0; x <= x1; x++)
+                grid[y - y0][x - x0] = TILE_PREFIX + tileName(depth, x, y);
+
+        return new RasterResult(grid, MapServer.ROOT_ULLON + x0 * tileW,
+                MapServer.ROOT_ULLAT - y0 * tileH, MapServer.ROOT_ULLON + (x1 + 1) * tileW,
+                MapServer.ROOT_ULLAT - (y1 + 1) * tileH, depth);
+    }
+
+    /**
+     * Returns the image of a vector tile, from memory, from the disk cache, or by rendering it.
+     * @param path A name from render_grid, i.e. TILE_PREFIX followed by a quadtree tile name
+     */
+    public BufferedImage getTileImage(String path) {
+        String name = path.startsWith(TILE_PREFIX) ? path.substring(TILE_PREFIX.length()) : path;
+        synchronized (memoryCache) {
+            BufferedImage img = memoryCache.get(name);
+            if (img != null)
+                return img;
+        }
+
+        BufferedImage img = null;
+        File cached = cacheRoot == null ? null : new File(cacheRoot, name);
+        if (cached != null && cached.isFile()) {
+            try {
+                img = ImageIO.read(cached);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (img == null) {
+            int[] xyz = parseTileName(name);
+            img = renderTile(xyz[0], xyz[1], xyz[2]);
+            if (cached != null)
+                writeAtomically(img, cached);
+        }
+        synchronized (memoryCache) {
+            memoryCache.put(name, img);
+        }
+        return img;
+    }
+
+    /**
+     * Name of the disk cache subdirectory for drawing g: the style version and a hash of the
+     * nodes, edges and road classes that are drawn. The hash does not depend on the order
+     * the graph lists them in.
+     */
+    static String cacheVersion(GraphDB g) {
+        long hash = 0;
+        for (long v : g.vertices()) {
+            long h = Long.hashCode(v) * 31L + Double.hashCode(g.lon(v));
+            h = h * 31 + Double.hashCode(g.lat(v));
+            for (long w : g.adjacent(v))
+                h += (Long.hashCode(w) * 31L + g.roadClass(g.way(v, w))) * 0x9E3779B97F4A7C15L;
+            hash += h * 0xC2B2AE3D27D4EB4FL + (h >>> 29);
+        }
+        return "v" + STYLE_VERSION + "-" + Long.toHexString(hash);
+    }
+
+    /**
+     * Helper method: writes img to file through a temporary file in the same directory, so
+     * that other threads never read a half-written tile. Two threads rendering the same tile
+     * both write it, and whichever rename is last wins, which is fine as the images are equal.
+     */
+    private static void writeAtomically(BufferedImage img, File file) {
+        File tmp = null;
+        try {
+            tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            ImageIO.write(img, "png", tmp);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (tmp != null)
+                tmp.delete();
+        }
+    }
+
+    /**
+     * Draws the tile at (x, y) of the given depth, with (0, 0) the upper left tile.
+     */
+    public BufferedImage renderTile(int depth, int x, int y) {
+        double tileW = tileWidth(depth), tileH = tileHeight(depth);
+        double ullon = MapServer.ROOT_ULLON + x * tileW;
+        double ullat = MapServer.ROOT_ULLAT - y * tileH;
+        return render(ullon, ullat, ullon + tileW, ullat - tileH,
+                MapServer.TILE_SIZE, MapServer.TILE_SIZE, depth);
+    }
+
+    /**
+     * Draws the roads in the given bounding box onto a width by height image.
+     * @param depth Quadtree depth that the box corresponds to, which decides which road classes
+     *              are drawn and how thick
+     */
+    public BufferedImage render(double ullon, double ullat, double lrlon, double lrlat,
+                                int width, int height, int depth) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = img.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setColor(BACKGROUND);
+        g2d.fillRect(0, 0, width, height);
+
+        double lonPerPx = (lrlon - ullon) / width;
+        double latPerPx = (ullat - lrlat) / height;
+        float scale = (float) Math.min(4, Math.pow(2, Math.max(0, depth - 3) / 2.0));
+
+        // Pad the query by the widest stroke so that lines crossing the tile border line up
+        double padLon = (CLASS_WIDTHS[0] + 2) * scale * lonPerPx;
+        double padLat = (CLASS_WIDTHS[0] + 2) * scale * latPerPx;
+        int[][] byClass = new int[CLASS_WIDTHS.length][16];
+        int[] counts = new int[CLASS_WIDTHS.length];
+        index.query(ullon - padLon, ullat + padLat, lrlon + padLon, lrlat - padLat, e -> {
+            int c = Math.min(g.roadClass(index.way(e)), CLASS_WIDTHS.length - 1);
+            if (depth < CLASS_MIN_DEPTH[c])
+                return;
+            if (counts[c] == byClass[c].length)
+                byClass[c] = Arrays.copyOf(byClass[c], counts[c] * 2);
+            byClass[c][counts[c]++] = e;
+        });
+
+        // Minor roads first so that major roads are drawn on top of them
+        for (int c = CLASS_WIDTHS.length - 1; c >= 0; c--) {
+            float w = CLASS_WIDTHS[c] * scale;
+            g2d.setStroke(new BasicStroke(w + 1, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g2d.setColor(CASING);
+            drawEdges(g2d, byClass[c], counts[c], ullon, ullat, lonPerPx, latPerPx);
+            g2d.setStroke(new BasicStroke(w, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g2d.setColor(CLASS_COLORS[c]);
+            drawEdges(g2d, byClass[c], counts[c], ullon, ullat, lonPerPx, latPerPx);
+        }
+        g2d.dispose();
+        return img;
+    }
+
+    private void drawEdges(Graphics2D g2d, int[] edges, int count, double ullon, double ullat,
+                           double lonPerPx, double latPerPx) {
+        for (int i = 0; i < count; i++) {
+            int e = edges[i];
+            g2d.drawLine((int) Math.round((index.lon1(e) - ullon) / lonPerPx),
+                         (int) Math.round((ullat - index.lat1(e)) / latPerPx),
+                         (int) Math.round((index.lon2(e) - ullon) / lonPerPx),
+                         (int) Math.round((ullat - index.lat2(e)) / latPerPx));
+        }
+    }
+
+    /** Width in degrees of longitude of a tile at the given depth. */
+    static double tileWidth(int depth) {
+        return (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON) / (1 << depth);
+    }
+
+    /** Height in degrees of latitude of a tile at the given depth. */
+    static double tileHeight(int depth) {
+        return (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT) / (1 << depth);
+    }
+
+    /**
+     * Quadtree file name of the tile at (x, y) of the given depth: one digit per level, 1 to 4
+     * for the upper left, upper right, lower left and lower right quadrants.
+     */
+    static String tileName(int depth, int x, int y) {
+        if (depth == 0)
+            return "root.png";
+        char[] digits = new char[depth];
+        for (int level = 0; level < depth; level++) {
+            int bit = depth - 1 - level;
+            int quadrant = ((x >> bit) & 1) + 2 * ((y >> bit) & 1);
+            digits[level] = (char) ('1' + quadrant);
+        }
+        return new String(digits) + ".png";
+    }
+
+    /** Inverse of tileName: returns {depth, x, y}. */
+    static int[] parseTileName(String name) {
+        String digits = name.replace(".png", "");
+        if (digits.equals("root"))
+            return new int[]{0, 0, 0};
+        int x = 0, y = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            int quadrant = digits.charAt(i) - '1';
+            if (quadrant < 0 || quadrant > 3)
+                throw new IllegalArgumentException("Not a tile name: " + name);
+            x = (x << 1) | (quadrant & 1);
+            y = (y << 1) | (quadrant >> 1);
+        }
+        return new int[]{digits.length(), x, y};
+    }
+
+    private static int clamp(int i, int n) {
+        return Math.max(0, Math.min(n - 1, i));
+    }
+}
@@ -7,9 +7,11 @@ import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -19,8 +21,10 @@ import java.util.Set;
 public class CSCourseDB {
 
     private final Map<String, Course> courses = new LinkedHashMap<>();
+    /* Prerequisite graph compiled for closure queries; built on first use, dropped on change. */
+    private DagClosure<String> closure;
 
-    private CSCourseDB(String dbPath) {
+    CSCourseDB(String dbPath) {
         try {
             SAXParserFactory factory = SAXParserFactory.newInstance();
             SAXParser saxParser = factory.newSAXParser();
@@ -40,6 +44,7 @@ public class CSCourseDB {
      */
     void addCourse(Course c) {
         this.courses.put(c.id, c);
+        this.closure = null;
     }
 
     /**
@@ -50,6 +55,66 @@ public class CSCourseDB {
      */
     void addPrereq(String from, String to) {
         this.courses.get(to).prereqs.add(from);
+        this.closure = null;
+    }
+
+    /**
+     * The prerequisite graph, compiled so that closure queries are bit operations.
+     *
+     * @throws IllegalArgumentException if the prerequisites form a cycle
+     */
+    DagClosure<String> prereqClosure() {
+        if (closure == null) {
+            DagClosure.Builder<String> builder = new DagClosure.Builder<>();
+            for (Course c : courses.values()) {
+                builder.addNode(c.id);
+                for (String p : c.prereqs) {
+                    builder.addEdge(p, c.id);
+                }
+            }
+            closure = builder.build();
+        }
+        return closure;
+    }
+
+    /**
+     * Every course that must be taken before a course, directly or not.
+     *
+     * @param courseId course
+     * @return the prerequisites, each after its own prerequisites
+     */
+    public List<String> allPrereqs(String courseId) {
+        return prereqClosure().closure(courseId);
+    }
+
+    /**
+     * Every course that needs a course, directly or not.
+     *
+     * @param courseId course
+     * @return the courses, each after its own prerequisites
+     */
+    public List<String> unlocks(String courseId) {
+        return prereqClosure().unlocks(courseId);
+    }
+
+    /**
+     * Whether a student who has taken some courses may take another. Having taken a course
+     * counts as having met its prerequisites.
+     *
+     * @param courseId course to take
+     * @param taken courses already taken
+     */
+    public boolean canTake(String courseId, Collection<String> taken) {
+        return prereqClosure().eligible(courseId, taken);
+    }
+
+    /**
+     * Every course not yet taken that a student who has taken some courses may take.
+     *
+     * @param taken courses already taken
+     */
+    public List<String> eligibleCourses(Collection<String> taken) {
+        return prereqClosure().eligible(taken);
     }
 
     @Override
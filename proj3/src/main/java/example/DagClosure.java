@@ -0,0 +1,269 @@
+package example;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A directed acyclic graph (such as a prerequisite catalog) compiled for fast reachability
+ * questions. Nodes get dense ids in topological order, so every edge goes from a smaller id to
+ * a larger one, and each node stores the set of all nodes that come before it (its ancestors)
+ * and all that come after it (its descendants) as bitsets. Questions like "everything needed
+ * before X" or "is X allowed given these" are then a few bitwise operations on 64 nodes at a
+ * time, instead of walking the graph. The direct parents are kept as a bitset too, for the
+ * "is X allowed" check, so memory is three bits per pair of nodes.
+ *
+ * @param <T> Node keys, e.g. course ids
+ */
+public class DagClosure<T> {
+    private final List<T> keys;
+    private final Map<T, Integer> ids;
+    private final int words;
+    /* Row v of each matrix is words longs starting at v * words; bit w of a row is node w */
+    private final long[] parents;
+    private final long[] ancestors;
+    private final long[] descendants;
+
+    /**
+     * Collects nodes and edges, then compiles them with build.
+     *
+     * @param <T> Node keys
+     */
+    public static class Builder<T> {
+        private final Map<T, Integer> index = new HashMap<>();
+        private final List<T> keys = new ArrayList<>();
+        private final List<int[]> edges = new ArrayList<>();
+
+        /** Adds a node, if it is not there already. */
+        public Builder<T> addNode(T key) {
+            index.computeIfAbsent(key, k -> {
+                keys.add(k);
+                return keys.size() - 1;
+            });
+            return this;
+        }
+
+        /** Adds an edge (and its nodes, if needed): before must come before after. */
+        public Builder<T> addEdge(T before, T after) {
+            addNode(before);
+            addNode(after);
+            edges.add(new int[]{index.get(before), index.get(after)});
+            return this;
+        }
+
+        /**
+         * Compiles the graph.
+         *
+         * @throws IllegalArgumentException If the edges form a cycle
+         */
+        public DagClosure<T> build() {
+            return new DagClosure<>(keys, edges);
+        }
+    }
+
+    private DagClosure(List<T> insertionKeys, List<int[]> edges) {
+        int n = insertionKeys.size();
+        List<List<Integer>> out = new ArrayList<>();
+        int[] inDegree = new int[n];
+        for (int i = 0; i < n; i++) {
+            out.add(new ArrayList<>());
+        }
+        for (int[] e : edges) {
+            out.get(e[0]).add(e[1]);
+            inDegree[e[1]]++;
+        }
+
+        /* Kahn's algorithm; ties keep insertion order, so the numbering is deterministic */
+        int[] order = new int[n];
+        int head = 0, tail = 0;
+        for (int v = 0; v < n; v++) {
+            if (inDegree[v] == 0) {
+                order[tail++] = v;
+            }
+        }
+        while (head < tail) {
+            int v = order[head++];
+            for (int w : out.get(v)) {
+                if (--inDegree[w] == 0) {
+                    order[tail++] = w;
+                }
+            }
+        }
+        if (tail < n) {
+            List<T> cycle = new ArrayList<>();
+            for (int v = 0; v < n; v++) {
+                if (inDegree[v] > 0) {
+                    cycle.add(insertionKeys.get(v));
+                }
+            }
+            throw new IllegalArgumentException("Not acyclic; these are on or after a cycle: "
+                + cycle);
+        }
+
+        int[] idOf = new int[n];
+        keys = new ArrayList<>(n);
+        ids = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            idOf[order[i]] = i;
+            keys.add(insertionKeys.get(order[i]));
+            ids.put(insertionKeys.get(order[i]), i);
+        }
+
+        words = (n + 63) / 64;
+        parents = new long[n * words];
+        ancestors = new long[n * words];
+        descendants = new long[n * words];
+        for (int[] e : edges) {
+            set(parents, idOf[e[1]], idOf[e[0]]);
+        }
+        /* Parents have smaller ids, so their ancestor rows are complete when they are read */
+        for (int v = 0; v < n; v++) {
+            for (int w = nextBit(parents, v, 0); w != -1; w = nextBit(parents, v, w + 1)) {
+                set(ancestors, v, w);
+                or(ancestors, v, ancestors, w);
+            }
+        }
+        /* And children have larger ids */
+        for (int v = n - 1; v >= 0; v--) {
+            for (int w = nextBit(parents, v, 0); w != -1; w = nextBit(parents, v, w + 1)) {
+                set(descendants, w, v);
+                or(descendants, w, descendants, v);
+            }
+        }
+    }
+
+    private void set(long[] matrix, int row, int bit) {
+        matrix[row * words + (bit >>> 6)] |= 1L << bit;
+    }
+
+    private boolean get(long[] matrix, int row, int bit) {
+        return (matrix[row * words + (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    /** Helper method: row to of dst |= row from of src. */
+    private void or(long[] dst, int to, long[] src, int from) {
+        for (int i = 0; i < words; i++) {
+            dst[to * words + i] |= src[from * words + i];
+        }
+    }
+
+    /** Helper method: The first set bit at or after bit in a row, or -1. */
+    private int nextBit(long[] matrix, int row, int bit) {
+        int i = bit >>> 6;
+        if (i >= words) {
+            return -1;
+        }
+        long word = matrix[row * words + i] & (-1L << bit);
+        while (true) {
+            if (word != 0) {
+                return i * 64 + Long.numberOfTrailingZeros(word);
+            }
+            if (++i == words) {
+                return -1;
+            }
+            word = matrix[row * words + i];
+        }
+    }
+
+    /** Number of nodes. */
+    public int size() {
+        return keys.size();
+    }
+
+    /** The dense id of a node: its position in topological order. */
+    public int id(T key) {
+        Integer id = ids.get(key);
+        if (id == null) {
+            throw new IllegalArgumentException("No such node: " + key);
+        }
+        return id;
+    }
+
+    /** The node with the given id. */
+    public T key(int id) {
+        return keys.get(id);
+    }
+
+    /** All nodes, each after everything that comes before it. */
+    public List<T> topologicalOrder() {
+        return new ArrayList<>(keys);
+    }
+
+    /** Whether before comes (directly or not) before after. */
+    public boolean precedes(T before, T after) {
+        return get(ancestors, id(after), id(before));
+    }
+
+    /** Everything that must come before key, in topological order. */
+    public List<T> closure(T key) {
+        return keysOf(ancestors, id(key));
+    }
+
+    /** Everything that needs key, directly or not, in topological order. */
+    public List<T> unlocks(T key) {
+        return keysOf(descendants, id(key));
+    }
+
+    /**
+     * Whether key is allowed once the given nodes are done, i.e. all of its parents are done
+     * or come before something that is done (doing something counts as having met what it
+     * needs, as with a course taken on an exemption).
+     */
+    public boolean eligible(T key, Collection<T> done) {
+        long[] met = met(done);
+        int v = id(key);
+        for (int i = 0; i < words; i++) {
+            if ((parents[v * words + i] & ~met[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Every node that is not done and is eligible, in topological order. */
+    public List<T> eligible(Collection<T> done) {
+        long[] met = met(done);
+        List<T> ret = new ArrayList<>();
+        for (int v = 0; v < keys.size(); v++) {
+            if ((met[v >>> 6] & (1L << v)) != 0) {
+                continue;
+            }
+            boolean ok = true;
+            for (int i = 0; i < words && ok; i++) {
+                ok = (parents[v * words + i] & ~met[i]) == 0;
+            }
+            if (ok) {
+                ret.add(keys.get(v));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Helper method: The done nodes and everything before them, as one bitset
+     */
+    private long[] met(Collection<T> done) {
+        long[] met = new long[words];
+        for (T key : done) {
+            int v = id(key);
+            met[v >>> 6] |= 1L << v;
+            for (int i = 0; i < words; i++) {
+                met[i] |= ancestors[v * words + i];
+            }
+        }
+        return met;
+    }
+
+    /**
+     * Helper method: The keys of the set bits of a row, in id order
+     */
+    private List<T> keysOf(long[] matrix, int row) {
+        List<T> ret = new ArrayList<>();
+        for (int w = nextBit(matrix, row, 0); w != -1; w = nextBit(matrix, row, w + 1)) {
+            ret.add(keys.get(w));
+        }
+        return ret;
+    }
+}
@@ -29,6 +29,8 @@ $(function() {
     var getInProgress = false;
     var route_params = {};
     var map;
+    var routeCanvas;
+    var routePolylines = null;
     var dest;
     var tx = 0, ty = 0;
     var rtx, rty;
@@ -38,10 +40,20 @@ $(function() {
     var img_w, img_h;
     var constrain, theme;
 
+    /* Route overlay style: typically roads are not more than 5px wide; cyan with half transparency. */
+    const route_stroke_width = 5;
+    const route_stroke_color = 'rgba(108, 181, 230, 0.78)';
+
+    /* Open map.html?vector to draw the map from the road graph, which allows deeper zoom */
+    const vector_mode = document.location.search.indexOf('vector') !== -1;
+    if (vector_mode) {
+        params.mode = 'vector';
+    }
+
     /* Starting hyper-parameters #machinelearning */
     const zoom_delta = 0.04;
     const base_move_delta = 0.03;
-    const max_level = 7;
+    const max_level = vector_mode ? 20 : 7;
     const min_level = 2; // Level limits based on pulled data
     var wdpp = 0.00004291534423828125; // Starting wdpp for level 3
     var hdpp = 0.00003388335630702399; // Starting hdpp for level 3
@@ -55,7 +67,6 @@ $(function() {
     }
     const raster_server = host + '/raster';
     const route_server = host + '/route';
-    const clear_route = host + '/clear_route';
     const search = host + '/search';
 
     /* ════════════════════════════ ೋღ HELPERS ღೋ ══════════════════════════ */
@@ -100,6 +111,55 @@ $(function() {
         }
     }
 
+    /* Decode an encoded polyline (lat/lon pairs at 1e-6 precision) into [[lon, lat], ...] */
+    function decodePolyline(str) {
+        var points = [];
+        var index = 0, lat = 0, lon = 0;
+        while (index < str.length) {
+            var values = [0, 0];
+            for (var k = 0; k < 2; k++) {
+                var result = 0, shift = 0, b;
+                do {
+                    b = str.charCodeAt(index++) - 63;
+                    result |= (b & 0x1f) << shift;
+                    shift += 5;
+                } while (b >= 0x20);
+                values[k] = (result & 1) ? ~(result >> 1) : (result >> 1);
+            }
+            lat += values[0];
+            lon += values[1];
+            points.push([lon / 1e6, lat / 1e6]);
+        }
+        return points;
+    }
+
+    /* Draw the route on the overlay canvas, which covers exactly the current raster image */
+    function drawRoute() {
+        routeCanvas.width = img_w || 0;
+        routeCanvas.height = img_h || 0;
+        if (!routePolylines || !img_w) {
+            return;
+        }
+        const level = Math.min(current_level, routePolylines.length - 1);
+        const points = decodePolyline(routePolylines[level]);
+        const ctx = routeCanvas.getContext('2d');
+        ctx.strokeStyle = route_stroke_color;
+        ctx.lineWidth = route_stroke_width;
+        ctx.lineCap = 'round';
+        ctx.lineJoin = 'round';
+        ctx.beginPath();
+        for (var i = 0; i < points.length; i++) {
+            const x = (points[i][0] - ullon_bound) * (1 / wdpp);
+            const y = (ullat_bound - points[i][1]) * (1 / hdpp);
+            if (i === 0) {
+                ctx.moveTo(x, y);
+            } else {
+                ctx.lineTo(x, y);
+            }
+        }
+        ctx.stroke();
+    }
+
     function updateImg(successCallback) {
         /* Synchronous ajax call for image update.
            Could be async for better experience but then user spam locks up the server.
@@ -132,6 +192,7 @@ $(function() {
                     rtx = (route_params.end_lon - params.ullon) * (1 / wdpp) - dest.width / 2 - tx;
                     rty = - (route_params.end_lat - params.ullat) * (1 / hdpp) - dest.height - ty;
                     updateMarkers();
+                    drawRoute();
                     getInProgress = false;
                     if (successCallback) {
                         successCallback();
@@ -153,6 +214,7 @@ $(function() {
 
     function updateT() {
         map.style.transform = 'translateX(' + tx + 'px) translateY(' + ty + 'px)';
+        routeCanvas.style.transform = map.style.transform;
         dest.style.transform = 'translateX(' + (tx+rtx) + 'px) translateY(' + (ty+rty) + 'px)';
         for (var i = 0; i < markers.length; i++) {
             const marker = markers[i];
@@ -168,9 +230,12 @@ $(function() {
         $.get({
             async: true,
             url: route_server,
-            data: route_params,
-            success: function() {
-                updateImg();
+            /* In vector mode, ask for polylines down to the deepest vector level */
+            data: vector_mode ? $.extend({mode: 'vector'}, route_params) : route_params,
+            dataType: 'json',
+            success: function(data) {
+                routePolylines = data.route_found ? data.route_polylines : null;
+                drawRoute();
             },
         });
     }
@@ -305,6 +370,7 @@ $(function() {
     /* ══════════════════════════════════ ೋღ SETUP ღೋ ════════════════════════════════ */
 
     map = document.getElementById('map');
+    routeCanvas = document.getElementById('route');
     dest = document.getElementById('dest');
     dest.style.visibility = 'hidden';
     params.lrlon = real_lrlon();
@@ -395,15 +461,11 @@ $(function() {
        zoomOut();
     });
 
+    /* The server keeps no route, so clearing it only removes the overlay */
     $('.clear').click(function() {
-        $.get({
-            async: true,
-            url: clear_route,
-            success: function() {
-                dest.style.visibility = 'hidden';
-                update();
-            },
-        });
+        dest.style.visibility = 'hidden';
+        routePolylines = null;
+        drawRoute();
     });
 
     $('.info').click(function() {
@@ -0,0 +1,142 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AlternativeRoutesTest {
+    /**
+     * Two ways around a block from 1 to 3: north through 2 (shorter) and south through 4.
+     * Node 5 is a dead end off 2, and 6 is an island.
+     */
+    private static GraphDB block() throws Exception {
+        return SmallGraphs.fromXml(
+                SmallGraphs.node(1, -122.270, 37.870),
+                SmallGraphs.node(2, -122.260, 37.872),
+                SmallGraphs.node(3, -122.250, 37.870),
+                SmallGraphs.node(4, -122.260, 37.867),
+                SmallGraphs.node(5, -122.260, 37.880),
+                SmallGraphs.node(6, -122.200, 37.900),
+                SmallGraphs.node(7, -122.201, 37.900),
+                SmallGraphs.way(10, "residential", "North St", 1, 2, 3),
+                SmallGraphs.way(11, "residential", "South St", 1, 4, 3),
+                SmallGraphs.way(12, "residential", "Dead End", 2, 5),
+                SmallGraphs.way(13, "residential", "Island Rd", 6, 7));
+    }
+
+    @Test
+    public void testBothWaysAroundTheBlock() throws Exception {
+        List<LinkedList<Long>> routes = Router.alternativeRoutes(block(),
+                -122.270, 37.870, -122.250, 37.870, 3);
+        assertEquals(2, routes.size());
+        assertEquals(Arrays.asList(1L, 2L, 3L), routes.get(0));
+        assertEquals(Arrays.asList(1L, 4L, 3L), routes.get(1));
+    }
+
+    @Test
+    public void testKLimitsRoutes() throws Exception {
+        List<LinkedList<Long>> routes = Router.alternativeRoutes(block(),
+                -122.270, 37.870, -122.250, 37.870, 1);
+        assertEquals(1, routes.size());
+        assertEquals(Arrays.asList(1L, 2L, 3L), routes.get(0));
+    }
+
+    /** The given route is left out by overlap, even when it is not the shortest one. */
+    @Test
+    public void testAlternativesToRoute() throws Exception {
+        GraphDB g = block();
+        assertEquals(Arrays.asList(Arrays.asList(1L, 4L, 3L)),
+                Router.alternativesTo(g, Arrays.asList(1L, 2L, 3L), 3));
+        assertEquals(Arrays.asList(Arrays.asList(1L, 2L, 3L)),
+                Router.alternativesTo(g, Arrays.asList(1L, 4L, 3L), 3));
+        assertTrue(Router.alternativesTo(g, Arrays.asList(1L, 2L, 3L), 0).isEmpty());
+    }
+
+    /** Under traffic, a closed road is never part of an alternative. */
+    @Test
+    public void testAlternativesUnderTraffic() throws Exception {
+        GraphDB g = block();
+        TrafficOverlay traffic = new TrafficOverlay(g);
+        List<Long> north = Arrays.asList(1L, 2L, 3L);
+        assertEquals(1, Router.alternativesTo(g, north, 3, traffic.weights()).size());
+        Map<Long, Double> factors = new HashMap<>();
+        factors.put(11L, Double.POSITIVE_INFINITY);
+        traffic.customize(factors);
+        assertTrue(Router.alternativesTo(g, north, 3, traffic.weights()).isEmpty());
+        assertEquals(1, Router.alternativesTo(g, north, 3).size());
+    }
+
+    @Test
+    public void testUnreachable() throws Exception {
+        assertTrue(Router.alternativeRoutes(block(),
+                -122.270, 37.870, -122.200, 37.900, 3).isEmpty());
+    }
+
+    /**
+     * On a random grid, the first route should be no longer than the A* route (which is only
+     * shortest in degrees), no route should visit a vertex twice, and every route should be
+     * within the allowed stretch.
+     */
+    @Test
+    public void testRandomGrid() throws Exception {
+        Random r = new Random(35);
+        int side = 12;
+        List<String> elements = new LinkedList<>();
+        for (int i = 0; i < side; i++) {
+            for (int j = 0; j < side; j++) {
+                elements.add(SmallGraphs.node(i * side + j + 1,
+                        -122.3 + j * 0.002 + r.nextDouble() * 0.0008,
+                        37.8 + i * 0.002 + r.nextDouble() * 0.0008));
+            }
+        }
+        long way = 1000;
+        for (int i = 0; i < side; i++) {
+            for (int j = 0; j < side; j++) {
+                long v = i * side + j + 1;
+                if (j + 1 < side && r.nextDouble() < 0.85)
+                    elements.add(SmallGraphs.way(way++, "residential", null, v, v + 1));
+                if (i + 1 < side && r.nextDouble() < 0.85)
+                    elements.add(SmallGraphs.way(way++, "residential", null, v, v + side));
+            }
+        }
+        GraphDB g = SmallGraphs.fromXml(elements.toArray(new String[0]));
+
+        for (int q = 0; q < 30; q++) {
+            double stlon = -122.3 + r.nextDouble() * 0.022, stlat = 37.8 + r.nextDouble() * 0.022;
+            double enlon = -122.3 + r.nextDouble() * 0.022, enlat = 37.8 + r.nextDouble() * 0.022;
+            LinkedList<Long> shortest = Router.shortestPath(g, stlon, stlat, enlon, enlat);
+            List<LinkedList<Long>> routes = Router.alternativeRoutes(g, stlon, stlat,
+                    enlon, enlat, 4);
+            if (shortest == null) {
+                assertTrue(routes.isEmpty());
+                continue;
+            }
+            assertFalse(routes.isEmpty());
+            assertTrue(length(g, routes.get(0)) <= length(g, shortest) + 1e-6);
+            for (LinkedList<Long> route : routes) {
+                assertEquals(shortest.getFirst(), route.getFirst());
+                assertEquals(shortest.getLast(), route.getLast());
+                assertEquals(route.size(), new HashSet<>(route).size());
+                assertTrue(length(g, route)
+                        <= (1 + Router.ALTERNATIVE_STRETCH) * length(g, routes.get(0)) + 1e-6);
+            }
+        }
+    }
+
+    private static double length(GraphDB g, List<Long> route) {
+        double total = 0;
+        Long prev = null;
+        for (long v : route) {
+            if (prev != null)
+                total += g.greatCircleDistance(prev, v);
+            prev = v;
+        }
+        return total;
+    }
+}
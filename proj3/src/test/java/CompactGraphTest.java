@@ -0,0 +1,50 @@
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CompactGraphTest {
+    /** Every cell gets a different index, and consecutive indices are neighboring cells. */
+    @Test
+    public void testHilbertIndexIsAContinuousCurve() {
+        int side = 16;
+        int[] x = new int[side * side], y = new int[side * side];
+        boolean[] seen = new boolean[side * side];
+        for (int i = 0; i < side; i++) {
+            for (int j = 0; j < side; j++) {
+                int d = (int) CompactGraph.hilbertIndex(i, j, side);
+                assertFalse(seen[d]);
+                seen[d] = true;
+                x[d] = i;
+                y[d] = j;
+            }
+        }
+        for (int d = 1; d < side * side; d++)
+            assertEquals(1, Math.abs(x[d] - x[d - 1]) + Math.abs(y[d] - y[d - 1]));
+    }
+
+    /** Both layouts hold the same vertices, coordinates and edges. */
+    @Test
+    public void testLayoutsAgree() throws Exception {
+        GraphDB g = SmallGraphs.mainAndOak();
+        CompactGraph hash = new CompactGraph(g, false), hilbert = new CompactGraph(g, true);
+        assertEquals(edges(hash), edges(hilbert));
+        for (int v = 0; v < hilbert.n; v++) {
+            assertEquals(v, hilbert.index(hilbert.ids[v]));
+            assertEquals(g.lon(hilbert.ids[v]), hilbert.lon[v], 0);
+            assertEquals(g.lat(hilbert.ids[v]), hilbert.lat[v], 0);
+        }
+    }
+
+    private static Set<String> edges(CompactGraph c) {
+        Set<String> ret = new HashSet<>();
+        for (int v = 0; v < c.n; v++) {
+            for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++)
+                ret.add(c.ids[v] + "-" + c.ids[c.adjTarget[e]] + " " + c.adjWay[e] + " "
+                        + c.adjMeters[e]);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,70 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ConnectivityTest {
+    /** Main St and Oak Ave (nodes 1 to 4) plus an island, Lone Ln, from 5 to 6. */
+    private static final String[] ELEMENTS = {
+        SmallGraphs.node(1, -122.270, 37.870),
+        SmallGraphs.node(2, -122.265, 37.870),
+        SmallGraphs.node(3, -122.260, 37.870),
+        SmallGraphs.node(4, -122.260, 37.875),
+        SmallGraphs.node(5, -122.2705, 37.8705),
+        SmallGraphs.node(6, -122.2706, 37.8706),
+        SmallGraphs.way(10, "primary", "Main St", 1, 2, 3),
+        SmallGraphs.way(11, "residential", "Oak Ave", 3, 4),
+        SmallGraphs.way(12, "residential", "Lone Ln", 5, 6)
+    };
+
+    @Test
+    public void testComponents() throws Exception {
+        GraphDB g = SmallGraphs.fromXml(ELEMENTS);
+        assertEquals(2, g.numComponents());
+        assertEquals(4, g.componentSize(1));
+        assertEquals(2, g.componentSize(6));
+        assertTrue(g.connected(1, 4));
+        assertFalse(g.connected(1, 5));
+        assertEquals(g.component(5), g.component(6));
+    }
+
+    @Test
+    public void testDisconnectedRouteFails() throws Exception {
+        GraphDB g = SmallGraphs.fromXml(ELEMENTS);
+        // Closest to the first point is the island
+        assertNull(Router.shortestPath(g, -122.2706, 37.8706, -122.260, 37.875));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L),
+                Router.routableShortestPath(g, -122.2706, 37.8706, -122.260, 37.875));
+    }
+
+    @Test
+    public void testClosestRoutable() throws Exception {
+        GraphDB g = SmallGraphs.fromXml(ELEMENTS);
+        assertEquals(6, g.closest(-122.2706, 37.8706));
+        assertEquals(1, g.closestRoutable(-122.2706, 37.8706));
+    }
+
+    @Test
+    public void testKeepLargestComponent() throws Exception {
+        GraphDB g = new GraphDB(SmallGraphs.osmFile(ELEMENTS), true);
+        assertEquals(1, g.numComponents());
+        int count = 0;
+        for (long v : g.vertices())
+            count++;
+        assertEquals(4, count);
+        assertEquals(1, g.closest(-122.2706, 37.8706));
+    }
+
+    @Test
+    public void testComponentsFollowEdits() throws Exception {
+        GraphDB g = SmallGraphs.fromXml(ELEMENTS);
+        g.removeEdge(2, 3);
+        assertEquals(3, g.numComponents());
+        assertFalse(g.connected(1, 4));
+        assertNull(Router.shortestPath(g, -122.270, 37.870, -122.260, 37.875));
+        g.addEdge(1, 5);
+        assertTrue(g.connected(2, 6));
+        assertEquals(2, g.numComponents());
+    }
+}
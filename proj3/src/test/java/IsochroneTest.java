@@ -0,0 +1,78 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IsochroneTest {
+    @Test
+    public void testBudgetEndsPartWayAlongEdge() throws Exception {
+        GraphDB g = SmallGraphs.mainAndOak();
+        double oneBlock = g.greatCircleDistance(1, 2);
+        IsochroneResult result = new Isochrone(g).compute(-122.2701, 37.8701, oneBlock + 100);
+        assertTrue(result.querySuccess);
+        assertEquals(-122.270, result.startLon, 1e-9);
+        assertEquals(2, (int) result.reachable);
+
+        // Node 2 and the point 100m past it are in the same sector; only the farther one counts
+        List<double[]> polygon = result.polygon;
+        assertEquals(1, polygon.size());
+        double[] corner = polygon.get(0);
+        assertEquals(37.870, corner[1], 1e-9);
+        assertEquals(oneBlock + 100, GraphDB.greatCircleDistance(-122.270, 37.870,
+                corner[0], corner[1]), 0.5);
+    }
+
+    @Test
+    public void testWholeGraphReachable() throws Exception {
+        GraphDB g = SmallGraphs.mainAndOak();
+        IsochroneResult result = new Isochrone(g).compute(-122.270, 37.870, 1e6);
+        assertEquals(4, (int) result.reachable);
+        // East along Main St (farthest is node 3), and north-east to node 4
+        List<double[]> polygon = result.polygon;
+        assertEquals(2, polygon.size());
+        assertArrayEquals(new double[]{-122.260, 37.870}, polygon.get(0), 1e-9);
+        assertArrayEquals(new double[]{-122.260, 37.875}, polygon.get(1), 1e-9);
+    }
+
+    @Test
+    public void testNegativeBudgetFails() throws Exception {
+        GraphDB g = SmallGraphs.mainAndOak();
+        assertFalse(new Isochrone(g).compute(-122.270, 37.870, -1).querySuccess);
+    }
+
+    /**
+     * The SearchState heap should hand vertices back in distance order, including after
+     * decrease-key, and a released state should come back cleared.
+     */
+    @Test
+    public void testSearchStateHeapOrderAndReuse() throws Exception {
+        CompactGraph c = SmallGraphs.mainAndOak().compact();
+        Random r = new Random(34);
+        for (int round = 0; round < 100; round++) {
+            CompactGraph.SearchState s = c.acquire();
+            double[] expected = new double[c.n];
+            Arrays.fill(expected, Double.POSITIVE_INFINITY);
+            for (int k = 0; k < 10; k++) {
+                int v = r.nextInt(c.n);
+                double d = r.nextDouble();
+                assertEquals(d < expected[v], s.relax(v, d, -1));
+                expected[v] = Math.min(expected[v], d);
+            }
+            double last = -1;
+            while (!s.isEmpty()) {
+                int v = s.poll();
+                assertEquals(expected[v], s.dist[v], 0);
+                assertTrue(s.dist[v] >= last);
+                last = s.dist[v];
+            }
+            c.release(s);
+            s = c.acquire();
+            for (int v = 0; v < c.n; v++)
+                assertFalse(s.reached(v) || s.settled(v));
+            c.release(s);
+        }
+    }
+}
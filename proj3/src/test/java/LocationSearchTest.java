@@ -0,0 +1,51 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LocationSearchTest {
+    private static LocationSearch search;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        GraphDB g = SmallGraphs.fromXml(
+                "<node id=\"1\" lat=\"37.87\" lon=\"-122.27\"><tag k=\"name\" v=\"Chipotle\"/></node>",
+                "<node id=\"2\" lat=\"37.88\" lon=\"-122.26\"><tag k=\"name\" v=\"Chipotle\"/></node>",
+                "<node id=\"3\" lat=\"37.86\" lon=\"-122.25\"><tag k=\"name\" v=\"Chipotle's\"/></node>",
+                "<node id=\"4\" lat=\"37.85\" lon=\"-122.24\"><tag k=\"name\" v=\"Chiptole\"/></node>",
+                "<node id=\"5\" lat=\"37.84\" lon=\"-122.23\"><tag k=\"name\" v=\"Cheeseboard\"/></node>");
+        search = new LocationSearch(g);
+    }
+
+    @Test
+    public void testExactMatchesInFileOrder() {
+        List<Map<String, Object>> results = search.search("CHIPOTLE");
+        assertEquals(2, results.size());
+        assertEquals(1L, results.get(0).get("id"));
+        assertEquals(2L, results.get(1).get("id"));
+        assertEquals("Chipotle", results.get(0).get("name"));
+        assertEquals(-122.27, (Double) results.get(0).get("lon"), 1e-9);
+    }
+
+    @Test
+    public void testFuzzyRanking() {
+        // One edit from "chipotle" (2 places) and "chiptole" (1 place), two from "chipotles"
+        assertEquals(Arrays.asList("chipotle", "chiptole", "chipotles"),
+                search.fuzzyNames("chiptle"));
+        List<Map<String, Object>> results = search.search("chesboard");
+        assertEquals(1, results.size());
+        assertEquals(5L, results.get(0).get("id"));
+        assertTrue(search.search("xyz").isEmpty());
+    }
+
+    @Test
+    public void testEditDistance() {
+        assertEquals(3, LocationSearch.editDistance("kitten", "sitting"));
+        assertEquals(0, LocationSearch.editDistance("", ""));
+        assertEquals(4, LocationSearch.editDistance("", "abcd"));
+    }
+}
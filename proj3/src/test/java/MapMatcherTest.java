@@ -0,0 +1,91 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MapMatcherTest {
+    /** About 15 meters, in degrees of latitude. */
+    private static final double OFFSET = 15 / 111195.0;
+
+    /**
+     * A trace along Main St (way 10) and up Oak Ave (way 11), with every point 15m off the
+     * road and a stray point nearer to the parallel Side St (way 12) that should be ignored.
+     */
+    @Test
+    public void testFollowsRoad() throws Exception {
+        GraphDB g = SmallGraphs.fromXml(
+                SmallGraphs.node(1, -122.270, 37.870),
+                SmallGraphs.node(2, -122.265, 37.870),
+                SmallGraphs.node(3, -122.260, 37.870),
+                SmallGraphs.node(4, -122.260, 37.875),
+                SmallGraphs.node(5, -122.270, 37.8704),
+                SmallGraphs.node(6, -122.266, 37.8704),
+                SmallGraphs.way(10, "primary", "Main St", 1, 2, 3),
+                SmallGraphs.way(11, "residential", "Oak Ave", 3, 4),
+                SmallGraphs.way(12, "residential", "Side St", 5, 6));
+        MapMatcher m = new MapMatcher(g, new EdgeIndex(g));
+        double[][] trace = {
+            {-122.2695, 37.870 - OFFSET},
+            {-122.2680, 37.870 - OFFSET},
+            {-122.2670, 37.8703},  // 11m from Side St, 33m from Main St
+            {-122.2655, 37.870 - OFFSET},
+            {-122.2630, 37.870 - OFFSET},
+            {-122.2610, 37.870 - OFFSET},
+            {-122.260 + OFFSET, 37.872},
+            {-122.260 + OFFSET, 37.874},
+            {-122.250, 37.900}  // Nowhere near a road
+        };
+        List<MapMatcher.Match> matches = m.match(trace);
+        assertEquals(8, matches.size());
+        long[] expectedWays = {10, 10, 10, 10, 10, 10, 11, 11};
+        for (int i = 0; i < matches.size(); i++) {
+            assertEquals(i, matches.get(i).index);
+            assertEquals(expectedWays[i], matches.get(i).wayId);
+        }
+        assertEquals(37.870, matches.get(2).lat, 1e-9);
+        assertEquals(-122.260, matches.get(7).lon, 1e-9);
+    }
+
+    /**
+     * A session should hand out matches before the trace ends, and the result should not
+     * depend on whether traces run one at a time or in parallel.
+     */
+    @Test
+    public void testStreamingAndParallel() throws Exception {
+        GraphDB g = SmallGraphs.mainAndOak();
+        MapMatcher m = new MapMatcher(g, new EdgeIndex(g));
+        Random r = new Random(37);
+        List<double[][]> traces = new ArrayList<>();
+        for (int t = 0; t < 20; t++) {
+            double[][] trace = new double[40][];
+            for (int i = 0; i < trace.length; i++) {
+                double lon = -122.270 + 0.01 * i / trace.length;
+                trace[i] = new double[]{lon, 37.870 + (r.nextDouble() - 0.5) * 2 * OFFSET};
+            }
+            traces.add(trace);
+        }
+
+        MapMatcher.Session s = m.new Session();
+        int early = 0;
+        for (double[] p : traces.get(0))
+            early += s.add(p[0], p[1]).size();
+        assertTrue(early > 0);
+        assertEquals(traces.get(0).length, early + s.finish().size());
+
+        List<List<MapMatcher.Match>> parallel = m.matchAll(traces);
+        for (int t = 0; t < traces.size(); t++) {
+            List<MapMatcher.Match> sequential = m.match(traces.get(t));
+            assertEquals(sequential.size(), parallel.get(t).size());
+            for (int i = 0; i < sequential.size(); i++) {
+                assertEquals(10, sequential.get(i).wayId);
+                assertEquals(sequential.get(i).lon, parallel.get(t).get(i).lon, 0);
+                assertEquals(Arrays.asList(sequential.get(i).from, sequential.get(i).to),
+                        Arrays.asList(parallel.get(t).get(i).from, parallel.get(t).get(i).to));
+            }
+        }
+    }
+}
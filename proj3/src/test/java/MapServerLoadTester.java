@@ -0,0 +1,205 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays the recorded requests in test_params against a running MapServer and reports
+ * throughput, latency percentiles and error rates for each endpoint.
+ * Lives next to the autograder tests since it reads the same serialized TestParameters.
+ * Usage (with MapServer already running):
+ *   java MapServerLoadTester [host] [concurrency] [requests/sec, 0 = unlimited] [total requests]
+ * Latencies are measured from the time a request was scheduled, not from when a worker
+ * got around to sending it, so a server that falls behind the target rate is not hidden.
+ */
+public class MapServerLoadTester {
+    private static final String TEST_PARAMS = "test_params";
+    private static final String DEFAULT_HOST = "http://localhost:4567";
+    private static final int DEFAULT_CONCURRENCY = 8;
+    private static final int DEFAULT_TOTAL = 2000;
+    private static final int TIMEOUT_MS = 30000;
+
+    /** A single recorded request: the endpoint it hits (for reporting) and its full URL. */
+    private static class Request {
+        String endpoint;
+        String url;
+
+        Request(String endpoint, String url) {
+            this.endpoint = endpoint;
+            this.url = url;
+        }
+    }
+
+    /** Latencies and error counts of one endpoint. Workers record into it concurrently. */
+    private static class Stats {
+        private final long[] latencies;
+        private int count;
+        private int errors;
+
+        Stats(int capacity) {
+            latencies = new long[capacity];
+        }
+
+        synchronized void record(long nanos, boolean ok) {
+            latencies[count++] = nanos;
+            if (!ok)
+                errors++;
+        }
+
+        synchronized String summary(double seconds) {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return String.format("%6d reqs %8.1f req/s  err %5.2f%%  p50 %7.2f  p90 %7.2f  "
+                            + "p99 %7.2f  max %7.2f ms",
+                    count, count / seconds, count == 0 ? 0 : 100.0 * errors / count,
+                    percentile(sorted, 0.50), percentile(sorted, 0.90),
+                    percentile(sorted, 0.99), percentile(sorted, 1.0));
+        }
+
+        /** Nearest-rank percentile of sorted nanosecond latencies, in milliseconds. */
+        private static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0)
+                return 0;
+            int rank = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(rank, 0)] / 1e6;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : DEFAULT_HOST;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CONCURRENCY;
+        double rate = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+        int total = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_TOTAL;
+
+        List<Request> requests = buildRequests(host, readTestParameters(TEST_PARAMS));
+        if (requests.isEmpty()) {
+            System.out.println("No recorded requests found in " + TEST_PARAMS);
+            return;
+        }
+        System.out.printf("Replaying %d requests (%d recorded) against %s, concurrency %d, %s\n",
+                total, requests.size(), host, concurrency,
+                rate > 0 ? rate + " req/s" : "unthrottled");
+
+        Map<String, Stats> stats = new LinkedHashMap<>();
+        for (Request r : requests)
+            stats.putIfAbsent(r.endpoint, new Stats(total));
+        Stats overall = new Stats(total);
+
+        long interval = rate > 0 ? (long) (1e9 / rate) : 0;
+        long start = System.nanoTime();
+        AtomicLong nextSlot = new AtomicLong(start);
+        AtomicLong issued = new AtomicLong();
+
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            pool.submit(() -> {
+                long n;
+                while ((n = issued.getAndIncrement()) < total) {
+                    Request r = requests.get((int) (n % requests.size()));
+                    long scheduled = interval > 0 ? nextSlot.getAndAdd(interval) : System.nanoTime();
+                    sleepUntil(scheduled);
+                    boolean ok = send(r.url);
+                    long latency = System.nanoTime() - scheduled;
+                    stats.get(r.endpoint).record(latency, ok);
+                    overall.record(latency, ok);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Finished in %.2f s\n", seconds);
+        for (Map.Entry<String, Stats> e : stats.entrySet())
+            System.out.printf("%-14s %s\n", e.getKey(), e.getValue().summary(seconds));
+        System.out.printf("%-14s %s\n", "total", overall.summary(seconds));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<TestParameters> readTestParameters(String filename) throws Exception {
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filename))) {
+            return (List<TestParameters>) ois.readObject();
+        }
+    }
+
+    /**
+     * Helper method: Turn each recorded test case into its pan/zoom, route and search requests.
+     */
+    private static List<Request> buildRequests(String host, List<TestParameters> params)
+            throws UnsupportedEncodingException {
+        List<Request> ret = new ArrayList<>();
+        for (TestParameters p : params) {
+            if (p.rasterParams != null)
+                ret.add(new Request("/raster", host + "/raster?" + query(p.rasterParams)));
+            if (p.routeParams != null) {
+                ret.add(new Request("/route", host + "/route?" + query(p.routeParams)));
+            }
+            if (p.prefixSearchParam != null)
+                ret.add(new Request("/search", host + "/search?term="
+                        + URLEncoder.encode(p.prefixSearchParam, "UTF-8")));
+            if (p.actualSearchParam != null)
+                ret.add(new Request("/search?full", host + "/search?full=true&term="
+                        + URLEncoder.encode(p.actualSearchParam, "UTF-8")));
+        }
+        return ret;
+    }
+
+    private static String query(Map<String, Double> params) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Double> e : params.entrySet()) {
+            if (sb.length() > 0)
+                sb.append('&');
+            sb.append(e.getKey()).append('=').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    /** Sends one GET request and drains the body. Returns whether the server answered 200. */
+    private static boolean send(String url) {
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setConnectTimeout(TIMEOUT_MS);
+            conn.setReadTimeout(TIMEOUT_MS);
+            int code = conn.getResponseCode();
+            try (InputStream in = code < 400 ? conn.getInputStream() : conn.getErrorStream()) {
+                if (in != null) {
+                    byte[] buf = new byte[8192];
+                    while (in.read(buf) != -1) {
+                        // Discard; we only care about timing.
+                    }
+                }
+            }
+            return code == HttpURLConnection.HTTP_OK;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (conn != null)
+                conn.disconnect();
+        }
+    }
+
+    private static void sleepUntil(long nanoTime) {
+        long wait = nanoTime - System.nanoTime();
+        if (wait <= 0)
+            return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
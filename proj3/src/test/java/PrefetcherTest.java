@@ -0,0 +1,137 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class PrefetcherTest {
+    private static Map<String, Double> viewport(double ullon, double ullat, double width) {
+        Map<String, Double> params = new HashMap<>();
+        params.put("ullon", ullon);
+        params.put("ullat", ullat);
+        params.put("lrlon", ullon + width);
+        params.put("lrlat", ullat - width * 0.8);
+        params.put("w", 512.0);
+        params.put("h", 410.0);
+        return params;
+    }
+
+    private static Set<String> tiles(RasterResult r) {
+        Set<String> ret = new HashSet<>();
+        for (String[] row : r.renderGrid)
+            ret.addAll(Arrays.asList(row));
+        return ret;
+    }
+
+    @Test
+    public void testPanningPredictsTheNextViewport() throws Exception {
+        Function<Map<String, Double>, RasterResult> raster =
+                new VectorRenderer(SmallGraphs.mainAndOak(), null)::raster;
+        Set<String> warmed = ConcurrentHashMap.newKeySet();
+        Prefetcher p = new Prefetcher(warmed::add);
+
+        double width = 0.01;
+        Map<String, Double> first = viewport(-122.28, 37.87, width);
+        List<String> still = p.observe("a", first, raster.apply(first), raster);
+        assertFalse(still.isEmpty());
+        assertTrue(still.size() <= Prefetcher.MAX_PREFETCH_TILES);
+        assertTrue(Collections.disjoint(still, tiles(raster.apply(first))));
+
+        Map<String, Double> second = viewport(-122.28 + width / 2, 37.87, width);
+        RasterResult current = raster.apply(second);
+        List<String> panning = p.observe("a", second, current, raster);
+        // The tiles the next pan east would add come first
+        Set<String> expected = tiles(raster.apply(viewport(-122.28 + width, 37.87, width)));
+        expected.removeAll(tiles(current));
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, new HashSet<>(panning.subList(0, expected.size())));
+
+        // Another session is not affected by this one's panning
+        List<String> other = p.observe("b", second, current, raster);
+        assertFalse(new HashSet<>(other.subList(0, expected.size())).equals(expected));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!warmed.containsAll(panning) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(warmed.containsAll(panning));
+    }
+
+    @Test
+    public void testNothingWarmedDuringForegroundRequests() throws Exception {
+        Function<Map<String, Double>, RasterResult> raster =
+                new VectorRenderer(SmallGraphs.mainAndOak(), null)::raster;
+        AtomicInteger warmed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+        Prefetcher p = new Prefetcher(path -> {
+            warmed.incrementAndGet();
+            done.countDown();
+        });
+        Map<String, Double> params = viewport(-122.28, 37.87, 0.01);
+        p.foregroundStarted();
+        p.observe("a", params, raster.apply(params), raster);
+        Thread.sleep(200);
+        assertEquals(0, warmed.get());
+        p.foregroundFinished();
+
+        p.observe("a", params, raster.apply(params), raster);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    /** In the order MapServer calls it: observe inside the request's own foreground window. */
+    @Test
+    public void testBatchQueuedByARequestIsWarmedAfterIt() throws Exception {
+        Function<Map<String, Double>, RasterResult> raster =
+                new VectorRenderer(SmallGraphs.mainAndOak(), null)::raster;
+        Set<String> warmed = ConcurrentHashMap.newKeySet();
+        Prefetcher p = new Prefetcher(warmed::add);
+        Map<String, Double> params = viewport(-122.28, 37.87, 0.01);
+        p.foregroundStarted();
+        List<String> predicted;
+        try {
+            predicted = p.observe("a", params, raster.apply(params), raster);
+            // Writing the response takes a while, long enough for the batch to be picked up
+            Thread.sleep(200);
+        } finally {
+            p.foregroundFinished();
+        }
+        assertFalse(predicted.isEmpty());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!warmed.containsAll(predicted) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(warmed.containsAll(predicted));
+    }
+
+    @Test
+    public void testTileCacheLoadsOnceAndEvicts() {
+        AtomicInteger loads = new AtomicInteger();
+        TileCache cache = new TileCache(2, path -> {
+            loads.incrementAndGet();
+            return path.equals("missing") ? null
+                    : new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+        });
+        BufferedImage a = cache.get("a");
+        assertSame(a, cache.get("a"));
+        assertEquals(1, loads.get());
+        assertNull(cache.get("missing"));
+        assertFalse(cache.contains("missing"));
+        cache.get("b");
+        cache.get("a");
+        cache.get("c");  // Evicts b, the least recently used
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("c"));
+    }
+}
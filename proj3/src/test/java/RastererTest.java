@@ -0,0 +1,114 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RastererTest {
+    /**
+     * An empty file for every tile name down to the given depth, plus (if extra is given) the
+     * four children of the tile named extra.
+     */
+    private static File tileDir(int depth, String extra) throws Exception {
+        File dir = Files.createTempDirectory("tiles").toFile();
+        dir.deleteOnExit();
+        touch(dir, "", depth);
+        if (extra != null) {
+            for (int k = 1; k <= 4; k++)
+                new File(dir, extra + k + ".png").createNewFile();
+        }
+        return dir;
+    }
+
+    private static void touch(File dir, String prefix, int depth) throws Exception {
+        if (depth == 0)
+            return;
+        for (int k = 1; k <= 4; k++) {
+            new File(dir, prefix + k + ".png").createNewFile();
+            touch(dir, prefix + k, depth - 1);
+        }
+    }
+
+    /** The result of descending the quadtree, which raster must agree with. */
+    private static Map<String, Object> fromTree(Rasterer r, Map<String, Double> p) {
+        Map<String, Object> results = new HashMap<>();
+        QuadTree[][] grid = null;
+        if (p.get("ullon") < p.get("lrlon") && p.get("ullat") > p.get("lrlat"))
+            grid = r.root.collect(p.get("ullon"), p.get("ullat"), p.get("lrlon"), p.get("lrlat"),
+                    (p.get("lrlon") - p.get("ullon")) / p.get("w"));
+        if (grid == null) {
+            results.put("query_success", false);
+            return results;
+        }
+        QuadTree last = grid[grid.length - 1][grid[0].length - 1];
+        results.put("render_grid", r.quadTreesToStrings(grid));
+        results.put("raster_ul_lon", grid[0][0].ullon);
+        results.put("raster_ul_lat", grid[0][0].ullat);
+        results.put("raster_lr_lon", last.lrlon);
+        results.put("raster_lr_lat", last.lrlat);
+        results.put("depth", grid[0][0].depth);
+        results.put("query_success", true);
+        return results;
+    }
+
+    private static void checkRandomQueries(Rasterer r, long seed) {
+        Random rand = new Random(seed);
+        double width = MapServer.ROOT_LRLON - MapServer.ROOT_ULLON;
+        double height = MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT;
+        for (int q = 0; q < 3000; q++) {
+            Map<String, Double> p = new HashMap<>();
+            double ullon = MapServer.ROOT_ULLON + (rand.nextDouble() * 1.2 - 0.1) * width;
+            double ullat = MapServer.ROOT_ULLAT - (rand.nextDouble() * 1.2 - 0.1) * height;
+            double size = Math.pow(2, -rand.nextInt(9)) * rand.nextDouble();
+            if (q % 10 == 0) {
+                // Snap the corner onto a tile boundary
+                int n = 1 << rand.nextInt(5);
+                ullon = MapServer.ROOT_ULLON + Math.round((ullon - MapServer.ROOT_ULLON)
+                        / width * n) * width / n;
+            }
+            p.put("ullon", ullon);
+            p.put("ullat", ullat);
+            p.put("lrlon", ullon + size * width);
+            p.put("lrlat", ullat - size * height);
+            p.put("w", 200.0 + rand.nextInt(1000));
+            p.put("h", 200.0 + rand.nextInt(1000));
+
+            Map<String, Object> expected = null, actual;
+            try {
+                expected = fromTree(r, p);
+            } catch (IllegalArgumentException e) {
+                // The tree can't make a grid of tiles from different depths; neither should raster
+                try {
+                    r.getMapRaster(p);
+                    fail("Expected IllegalArgumentException for " + p);
+                } catch (IllegalArgumentException expectedToo) {
+                    continue;
+                }
+            }
+            actual = r.getMapRaster(p);
+            assertEquals(p.toString(), expected.keySet(), actual.keySet());
+            for (String key : expected.keySet()) {
+                if (key.equals("render_grid"))
+                    assertArrayEquals(p.toString(), (String[][]) expected.get(key),
+                            (String[][]) actual.get(key));
+                else
+                    assertEquals(p.toString(), expected.get(key), actual.get(key));
+            }
+        }
+    }
+
+    @Test
+    public void testTablesMatchTree() throws Exception {
+        checkRandomQueries(new Rasterer(tileDir(4, null).getPath() + "/"), 39);
+    }
+
+    /** Past the last complete level, queries fall back to the tree. */
+    @Test
+    public void testPartialLevelMatchesTree() throws Exception {
+        checkRandomQueries(new Rasterer(tileDir(3, "111").getPath() + "/"), 40);
+    }
+}
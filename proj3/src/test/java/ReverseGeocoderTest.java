@@ -0,0 +1,74 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReverseGeocoderTest {
+    /**
+     * Compares PointIndex against a linear scan, on a grid of points so that there are ties.
+     */
+    @Test
+    public void testPointIndexMatchesBruteForce() {
+        Random r = new Random(61);
+        int n = 500;
+        long[] ids = new long[n];
+        double[] lons = new double[n], lats = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = r.nextInt(1000000);
+            lons[i] = -122.3 + r.nextInt(40) * 0.002;
+            lats[i] = 37.8 + r.nextInt(40) * 0.002;
+        }
+        PointIndex index = new PointIndex(ids, lons, lats);
+        for (int q = 0; q < 2000; q++) {
+            double lon = -122.32 + r.nextDouble() * 0.12;
+            double lat = 37.78 + r.nextDouble() * 0.12;
+            int best = -1;
+            double bestDist = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                double d = Math.sqrt(Math.pow(lons[i] - lon, 2) + Math.pow(lats[i] - lat, 2));
+                if (d < bestDist || (d == bestDist && ids[i] < ids[best])) {
+                    bestDist = d;
+                    best = i;
+                }
+            }
+            assertEquals(ids[best], index.id(index.nearest(lon, lat, 1)));
+        }
+    }
+
+    @Test
+    public void testReverse() throws Exception {
+        GraphDB g = SmallGraphs.fromXml(
+                SmallGraphs.node(1, -122.270, 37.870),
+                SmallGraphs.node(2, -122.260, 37.870),
+                SmallGraphs.node(3, -122.260, 37.880),
+                SmallGraphs.node(4, -122.250, 37.880),
+                "<node id=\"5\" lat=\"37.8701\" lon=\"-122.2651\"><tag k=\"name\" v=\"Cafe\"/></node>",
+                SmallGraphs.way(10, "residential", "Main St", 1, 2),
+                SmallGraphs.way(11, "residential", null, 2, 3),
+                SmallGraphs.way(12, "residential", "Oak Ave", 3, 4));
+        ReverseGeocoder geocoder = new ReverseGeocoder(g, new EdgeIndex(g));
+
+        // Closest to the unnamed way 11, but that has no name; Main St is next closest
+        ReverseResult result = geocoder.reverse(-122.2599, 37.8730);
+        assertTrue(result.querySuccess);
+        assertEquals("Main St", result.street);
+        assertEquals(10L, (long) result.wayId);
+        assertEquals(-122.2600, result.lon, 1e-9);
+        assertEquals(37.870, result.lat, 1e-9);
+
+        result = geocoder.reverse(-122.255, 37.8795);
+        assertEquals("Oak Ave", result.street);
+        assertEquals(-122.255, result.lon, 1e-9);
+        assertEquals(37.880, result.lat, 1e-9);
+        assertEquals(55.6, result.distance, 0.5);
+        assertEquals("Cafe", result.place.name);
+    }
+
+    @Test
+    public void testClosestUsesIndex() throws Exception {
+        GraphDB g = SmallGraphs.mainAndOak();
+        assertEquals(2, g.closest(-122.266, 37.871));
+        assertEquals(4, g.closest(-122.0, 38.0));
+    }
+}
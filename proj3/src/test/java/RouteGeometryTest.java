@@ -0,0 +1,58 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RouteGeometryTest {
+    /**
+     * The example from the encoded polyline format documentation, at 1e-6 degrees rather than
+     * its 1e-5.
+     */
+    @Test
+    public void testEncode() {
+        double[] lons = {-120.2, -120.95, -126.453};
+        double[] lats = {38.5, 40.7, 43.252};
+        boolean[] keep = {true, true, true};
+        assertEquals("_izlhA~rlgdF_{geC~ywl@_kwzCn`{nI", RouteGeometry.encode(lons, lats, keep));
+    }
+
+    /** Vector maps get a polyline for every level, the deep ones keeping every point. */
+    @Test
+    public void testDeepLevelsAreUnsimplified() throws Exception {
+        GraphDB g = SmallGraphs.mainAndOak();
+        List<Long> route = Arrays.asList(1L, 2L, 3L, 4L);
+        String[] polylines = RouteGeometry.encodeForDepths(g, route, VectorRenderer.MAX_DEPTH);
+        assertEquals(VectorRenderer.MAX_DEPTH + 1, polylines.length);
+        double[] lons = {g.lon(1), g.lon(2), g.lon(3), g.lon(4)};
+        double[] lats = {g.lat(1), g.lat(2), g.lat(3), g.lat(4)};
+        String all = RouteGeometry.encode(lons, lats, new boolean[]{true, true, true, true});
+        assertEquals(all, polylines[VectorRenderer.MAX_DEPTH]);
+        // Node 2 is on the straight line from 1 to 3, so shallow levels drop it
+        assertNotEquals(all, polylines[0]);
+    }
+
+    /** Rounding to the encoding's grid must not undo the simplification at the deepest level. */
+    @Test
+    public void testPrecisionFinerThanTolerance() {
+        double rounding = 0.5 / RouteGeometry.POLYLINE_PRECISION;
+        assertTrue(rounding < RouteGeometry.lonDPP(MapServer.MAX_DEPTH) / 2);
+    }
+
+    @Test
+    public void testSimplifyDropsCollinearPoints() {
+        double[] xs = {0, 1, 2, 3, 4};
+        double[] ys = {0, 0.001, 0, -0.001, 0};
+        boolean[] keep = RouteGeometry.simplify(xs, ys, 0.01);
+        assertArrayEquals(new boolean[]{true, false, false, false, true}, keep);
+    }
+
+    @Test
+    public void testSimplifyKeepsCorners() {
+        double[] xs = {0, 1, 2, 2, 2};
+        double[] ys = {0, 0, 0, 1, 2};
+        boolean[] keep = RouteGeometry.simplify(xs, ys, 0.01);
+        assertArrayEquals(new boolean[]{true, false, true, false, true}, keep);
+    }
+}
@@ -0,0 +1,49 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks turn-by-turn directions on the tiny map from SmallGraphs.mainAndOak.
+ */
+public class RouterDirectionsTest {
+    private static GraphDB graph;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        graph = SmallGraphs.mainAndOak();
+    }
+
+    @Test
+    public void testWayTable() {
+        assertEquals("Main St", graph.wayName(graph.way(1, 2)));
+        assertEquals("Oak Ave", graph.wayName(graph.way(4, 3)));
+        assertEquals(11, graph.wayId(graph.way(3, 4)));
+    }
+
+    @Test
+    public void testDirections() {
+        List<NavigationDirection> directions =
+                Router.routeDirections(graph, Arrays.asList(1L, 2L, 3L, 4L));
+        assertEquals(2, directions.size());
+        assertEquals(NavigationDirection.START, directions.get(0).direction);
+        assertEquals("Main St", directions.get(0).way);
+        assertEquals(NavigationDirection.LEFT, directions.get(1).direction);
+        assertEquals("Oak Ave", directions.get(1).way);
+
+        double mainMeters = GraphDB.greatCircleDistance(-122.270, 37.870, -122.260, 37.870);
+        assertEquals(mainMeters / NavigationDirection.METERS_PER_MILE,
+                directions.get(0).distance, 1e-9);
+    }
+
+    @Test
+    public void testTurnDirection() {
+        assertEquals(NavigationDirection.STRAIGHT, NavigationDirection.turnDirection(350, 5));
+        assertEquals(NavigationDirection.SLIGHT_RIGHT, NavigationDirection.turnDirection(0, 20));
+        assertEquals(NavigationDirection.RIGHT, NavigationDirection.turnDirection(90, 180));
+        assertEquals(NavigationDirection.SHARP_LEFT, NavigationDirection.turnDirection(90, 300));
+    }
+}
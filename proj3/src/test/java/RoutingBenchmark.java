@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares point-to-point Dijkstra throughput on a CompactGraph with vertices in hash map order
+ * against one with vertices in Hilbert curve order (the default). Both run the same queries
+ * with the same reused SearchState, so the only difference is the memory layout.
+ * Usage: java RoutingBenchmark [osm file] [queries] [seed]
+ * An osm file of grid:N instead runs on a synthetic N x N street grid (see grid), so the
+ * comparison does not need berkeley.osm.
+ * For cache miss counts, run it under e.g. perf stat -e cache-misses,cache-references with
+ * one layout at a time (-Dlayout=hash or -Dlayout=hilbert).
+ */
+public class RoutingBenchmark {
+    private static final int WARMUP_QUERIES = 200;
+
+    public static void main(String[] args) throws IOException {
+        String osm = args.length > 0 ? args[0] : "berkeley.osm";
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 38;
+        String layout = System.getProperty("layout", "both");
+
+        GraphDB g = osm.startsWith("grid:")
+                ? new GraphDB(grid(Integer.parseInt(osm.substring(5)), seed))
+                : new GraphDB(osm);
+        CompactGraph hash = new CompactGraph(g, false);
+        CompactGraph hilbert = new CompactGraph(g, true);
+        System.out.printf("%d vertices, %d directed edges\n", hash.n, hash.adjStart[hash.n]);
+
+        // The same queries (by OSM id) for both layouts
+        Random r = new Random(seed);
+        long[][] pairs = new long[queries + WARMUP_QUERIES][];
+        for (int i = 0; i < pairs.length; i++)
+            pairs[i] = new long[]{hash.ids[r.nextInt(hash.n)], hash.ids[r.nextInt(hash.n)]};
+
+        if (!layout.equals("hilbert"))
+            run("hash map order", hash, pairs);
+        if (!layout.equals("hash"))
+            run("hilbert order", hilbert, pairs);
+    }
+
+    /**
+     * Helper method: Writes an OSM file of a side x side grid of intersections about 200 m
+     * apart, jittered a little, with one street in ten missing, and returns its path.
+     */
+    private static String grid(int side, long seed) throws IOException {
+        Random r = new Random(seed);
+        List<String> elements = new ArrayList<>();
+        for (int i = 0; i < side; i++) {
+            for (int j = 0; j < side; j++) {
+                elements.add(SmallGraphs.node(i * side + j + 1,
+                        -122.3 + j * 0.002 + r.nextDouble() * 0.0008,
+                        37.8 + i * 0.002 + r.nextDouble() * 0.0008));
+            }
+        }
+        long way = (long) side * side + 1;
+        for (int i = 0; i < side; i++) {
+            for (int j = 0; j < side; j++) {
+                long v = i * side + j + 1;
+                if (j + 1 < side && r.nextDouble() < 0.9)
+                    elements.add(SmallGraphs.way(way++, "residential", null, v, v + 1));
+                if (i + 1 < side && r.nextDouble() < 0.9)
+                    elements.add(SmallGraphs.way(way++, "residential", null, v, v + side));
+            }
+        }
+        return SmallGraphs.osmFile(elements.toArray(new String[0]));
+    }
+
+    /**
+     * Helper method: Run the queries on one layout and print queries per second
+     */
+    private static void run(String name, CompactGraph c, long[][] pairs) {
+        CompactGraph.SearchState s = c.acquire();
+        double checksum = 0;
+        long settled = 0, start = 0;
+        for (int i = 0; i < pairs.length; i++) {
+            if (i == WARMUP_QUERIES)
+                start = System.nanoTime();
+            int from = c.index(pairs[i][0]), to = c.index(pairs[i][1]);
+            s.relax(from, 0, -1);
+            while (!s.isEmpty()) {
+                int v = s.poll();
+                if (i >= WARMUP_QUERIES)
+                    settled++;
+                if (v == to) {
+                    checksum += s.dist[v];
+                    break;
+                }
+                for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                    if (!s.settled(c.adjTarget[e]))
+                        s.relax(c.adjTarget[e], s.dist[v] + c.adjMeters[e], v);
+                }
+            }
+            s.reset();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int measured = pairs.length - WARMUP_QUERIES;
+        System.out.printf("%-16s %8.1f queries/s, %8.1f ns per settled vertex "
+                        + "(%d settled, distance checksum %.1f)\n", name, measured / seconds,
+                seconds * 1e9 / Math.max(1, settled), settled, checksum);
+        c.release(s);
+    }
+}
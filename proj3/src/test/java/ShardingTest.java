@@ -0,0 +1,181 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ShardingTest {
+    private static final int SIDE = 24;
+    private static final int SHARDS = 4;
+
+    private static GraphDB g;
+    private static int[] shardOf;
+    private static String folder;
+
+    /** A SIDE x SIDE grid with some streets missing, written out as SHARDS shards. */
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Random r = new Random(44);
+        List<String> elements = new LinkedList<>();
+        for (int i = 0; i < SIDE; i++) {
+            for (int j = 0; j < SIDE; j++) {
+                elements.add(SmallGraphs.node(i * SIDE + j + 1,
+                        -122.3 + j * 0.002 + r.nextDouble() * 0.0008,
+                        37.8 + i * 0.002 + r.nextDouble() * 0.0008));
+            }
+        }
+        long way = 1000;
+        for (int i = 0; i < SIDE; i++) {
+            for (int j = 0; j < SIDE; j++) {
+                long v = i * SIDE + j + 1;
+                if (j + 1 < SIDE && r.nextDouble() < 0.9)
+                    elements.add(SmallGraphs.way(way++, "residential", "Street " + i, v, v + 1));
+                if (i + 1 < SIDE && r.nextDouble() < 0.9)
+                    elements.add(SmallGraphs.way(way++, "primary", null, v, v + SIDE));
+            }
+        }
+        g = SmallGraphs.fromXml(elements.toArray(new String[0]));
+        shardOf = GraphPartitioner.partition(g.compact(), SHARDS);
+        folder = Files.createTempDirectory("shards").toString();
+        GraphPartitioner.write(g, shardOf, SHARDS, folder);
+    }
+
+    /** The length of the shortest route in the whole graph, by plain Dijkstra. */
+    private static double dijkstra(long st, long dest) {
+        CompactGraph c = g.compact();
+        CompactGraph.SearchState s = c.acquire();
+        s.relax(c.index(st), 0, -1);
+        double ret = Double.POSITIVE_INFINITY;
+        while (!s.isEmpty()) {
+            int v = s.poll();
+            if (v == c.index(dest)) {
+                ret = s.dist[v];
+                break;
+            }
+            for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                if (!s.settled(c.adjTarget[e]))
+                    s.relax(c.adjTarget[e], s.dist[v] + c.adjMeters[e], v);
+            }
+        }
+        s.reset();
+        c.release(s);
+        return ret;
+    }
+
+    /** The length of a route, checking that each step is a road of the whole graph. */
+    private static double length(List<Long> route) {
+        double total = 0;
+        for (int i = 0; i + 1 < route.size(); i++) {
+            boolean adjacent = false;
+            for (long w : g.adjacent(route.get(i)))
+                adjacent |= w == route.get(i + 1);
+            assertTrue("No road from " + route.get(i) + " to " + route.get(i + 1), adjacent);
+            total += g.greatCircleDistance(route.get(i), route.get(i + 1));
+        }
+        return total;
+    }
+
+    private static List<Shard> localShards() throws IOException {
+        List<Shard> shards = new ArrayList<>();
+        for (int k = 0; k < SHARDS; k++)
+            shards.add(new ShardServer(new File(folder, "shard-" + k + ".osm").getPath()));
+        return shards;
+    }
+
+    /** Checks the coordinator against Dijkstra on the whole graph for random pairs. */
+    private static void checkRoutes(ShardCoordinator coordinator, Random r, int queries) {
+        CompactGraph c = g.compact();
+        for (int q = 0; q < queries; q++) {
+            int s = r.nextInt(c.n), t = r.nextInt(c.n);
+            LinkedList<Long> route = coordinator.route(c.lon[s], c.lat[s], c.lon[t], c.lat[t]);
+            double expected = dijkstra(c.ids[s], c.ids[t]);
+            if (Double.isInfinite(expected)) {
+                assertNull(route);
+                continue;
+            }
+            assertNotNull(route);
+            assertEquals(c.ids[s], (long) route.getFirst());
+            assertEquals(c.ids[t], (long) route.getLast());
+            assertEquals(expected, length(route), 1e-6);
+        }
+    }
+
+    @Test
+    public void testPartitionIsBalanced() {
+        int[] sizes = new int[SHARDS];
+        for (int k : shardOf)
+            sizes[k]++;
+        for (int size : sizes)
+            assertTrue(size >= GraphPartitioner.BALANCE * shardOf.length / SHARDS);
+    }
+
+    @Test
+    public void testCutIsSmall() {
+        CompactGraph c = g.compact();
+        int cut = 0;
+        for (int v = 0; v < c.n; v++) {
+            for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                if (shardOf[c.adjTarget[e]] != shardOf[v])
+                    cut++;
+            }
+        }
+        // Two straight lines across the grid would cut about 2 * SIDE roads
+        assertTrue(cut / 2 <= 3 * SIDE);
+    }
+
+    @Test
+    public void testRoutesMatchWholeGraph() throws Exception {
+        checkRoutes(new ShardCoordinator(localShards()), new Random(1), 300);
+    }
+
+    /** The same, with each shard served by its own process. */
+    @Test
+    public void testShardProcesses() throws Exception {
+        List<Process> processes = new ArrayList<>();
+        try {
+            List<Shard> shards = new ArrayList<>();
+            String java = new File(System.getProperty("java.home"), "bin/java").getPath();
+            for (int k = 0; k < SHARDS; k++) {
+                int port;
+                try (ServerSocket socket = new ServerSocket(0)) {
+                    port = socket.getLocalPort();
+                }
+                ProcessBuilder pb = new ProcessBuilder(java, "-cp",
+                        System.getProperty("java.class.path"), "ShardServer",
+                        new File(folder, "shard-" + k + ".osm").getPath(), "" + port);
+                pb.redirectErrorStream(true);
+                pb.redirectOutput(new File(folder, "shard-" + k + ".log"));
+                processes.add(pb.start());
+                shards.add(new RemoteShard("http://localhost:" + port));
+            }
+            for (Shard shard : shards)
+                waitUntilUp(shard);
+            checkRoutes(new ShardCoordinator(shards), new Random(2), 50);
+        } finally {
+            for (Process p : processes)
+                p.destroy();
+        }
+    }
+
+    private static void waitUntilUp(Shard shard) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 60000;
+        while (true) {
+            try {
+                shard.overlay();
+                return;
+            } catch (RuntimeException e) {
+                if (System.currentTimeMillis() > deadline)
+                    throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Builds small GraphDBs from hand-written OSM XML, for tests that should not depend on
+ * berkeley.osm.
+ */
+public class SmallGraphs {
+    /**
+     * Main St runs east from 1 through 2 to 3, then Oak Ave runs north from 3 to 4.
+     * Main St is a primary road, Oak Ave is residential.
+     */
+    public static GraphDB mainAndOak() throws IOException {
+        return fromXml(
+                "<node id=\"1\" lat=\"37.870\" lon=\"-122.270\"/>",
+                "<node id=\"2\" lat=\"37.870\" lon=\"-122.265\"/>",
+                "<node id=\"3\" lat=\"37.870\" lon=\"-122.260\"/>",
+                "<node id=\"4\" lat=\"37.875\" lon=\"-122.260\"/>",
+                way(10, "primary", "Main St", 1, 2, 3),
+                way(11, "residential", "Oak Ave", 3, 4));
+    }
+
+    /** An OSM way element with the given highway type, name (may be null) and nodes. */
+    public static String way(long id, String highway, String name, long... refs) {
+        StringBuilder sb = new StringBuilder("<way id=\"" + id + "\">");
+        for (long ref : refs)
+            sb.append("<nd ref=\"").append(ref).append("\"/>");
+        sb.append("<tag k=\"highway\" v=\"").append(highway).append("\"/>");
+        if (name != null)
+            sb.append("<tag k=\"name\" v=\"").append(name).append("\"/>");
+        return sb.append("</way>").toString();
+    }
+
+    /** An OSM node element. */
+    public static String node(long id, double lon, double lat) {
+        return "<node id=\"" + id + "\" lat=\"" + lat + "\" lon=\"" + lon + "\"/>";
+    }
+
+    /** Writes the given elements into a temporary OSM file and builds a GraphDB from it. */
+    public static GraphDB fromXml(String... elements) throws IOException {
+        return new GraphDB(osmFile(elements));
+    }
+
+    /** Writes the given elements into a temporary OSM file and returns its path. */
+    public static String osmFile(String... elements) throws IOException {
+        File osm = File.createTempFile("small", ".osm");
+        osm.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(osm)) {
+            out.println("<osm>");
+            for (String e : elements)
+                out.println(e);
+            out.println("</osm>");
+        }
+        return osm.getPath();
+    }
+}
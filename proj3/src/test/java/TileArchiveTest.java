@@ -0,0 +1,54 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class TileArchiveTest {
+    @Test
+    public void testPackAndRead() throws Exception {
+        File dir = Files.createTempDirectory("tiles").toFile();
+        byte[] root = {1, 2, 3};
+        byte[] one = new byte[5000];
+        for (int i = 0; i < one.length; i++)
+            one[i] = (byte) i;
+        Files.write(new File(dir, "root.png").toPath(), root);
+        Files.write(new File(dir, "1.png").toPath(), one);
+        Files.write(new File(dir, "2.png").toPath(), new byte[0]);
+
+        File archiveFile = File.createTempFile("tiles", ".tiles");
+        assertEquals(3, TileArchive.pack(dir.getPath(), archiveFile.getPath()));
+        TileArchive archive = new TileArchive(archiveFile.getPath());
+
+        assertEquals(new HashSet<>(Arrays.asList("root.png", "1.png", "2.png")), archive.names());
+        assertNull(archive.tile("3.png"));
+        assertEquals(0, archive.tile("2.png").remaining());
+
+        ByteBuffer buf = archive.tile("root.png");
+        byte[] read = new byte[buf.remaining()];
+        buf.get(read);
+        assertArrayEquals(root, read);
+
+        try (InputStream in = archive.open("1.png")) {
+            byte[] streamed = new byte[one.length];
+            int n = 0, k;
+            while ((k = in.read(streamed, n, streamed.length - n)) > 0)
+                n += k;
+            assertEquals(one.length, n);
+            assertEquals(-1, in.read());
+            assertEquals(-1, in.read(streamed, 0, 1));
+            assertEquals(0, in.read(streamed, 0, 0));
+            assertArrayEquals(one, streamed);
+        }
+
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+        archiveFile.delete();
+    }
+}
@@ -0,0 +1,38 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class TilePyramidGeneratorTest {
+    @Test
+    public void testFullAndIncremental() throws Exception {
+        GraphDB graph = SmallGraphs.mainAndOak();
+        File dir = Files.createTempDirectory("pyramid").toFile();
+        dir.deleteOnExit();
+        VectorRenderer renderer = new VectorRenderer(graph, null);
+
+        TilePyramidGenerator full = new TilePyramidGenerator(renderer, dir.getPath(), 2, null);
+        assertEquals(1 + 4 + 16, full.generate(new ForkJoinPool(2)));
+        assertTrue(new File(dir, "root.png").isFile());
+        assertTrue(new File(dir, "3.png").isFile());
+        assertTrue(new File(dir, "42.png").isFile());
+
+        // The generated directory is laid out the way Rasterer expects
+        Rasterer rasterer = new Rasterer(dir.getPath() + "/");
+        assertTrue(rasterer.root.hasChild);
+        assertEquals("14.png", rasterer.root.child[0].child[3].fileName);
+
+        // Only 14.png and its ancestors are regenerated; their clean siblings are reused
+        TilePyramidGenerator incremental = new TilePyramidGenerator(renderer, dir.getPath(), 2,
+                Arrays.asList("14.png"));
+        assertEquals(3, incremental.generate(new ForkJoinPool(2)));
+        assertEquals(6, incremental.reusedCount());
+
+        for (File f : dir.listFiles())
+            f.delete();
+    }
+}
@@ -0,0 +1,167 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TrafficOverlayTest {
+    private static final int SIDE = 30;
+
+    /** A SIDE x SIDE grid with some streets missing; every street is its own way. */
+    private static GraphDB grid(Random r) throws Exception {
+        List<String> elements = new LinkedList<>();
+        for (int i = 0; i < SIDE; i++) {
+            for (int j = 0; j < SIDE; j++) {
+                elements.add(SmallGraphs.node(i * SIDE + j + 1,
+                        -122.3 + j * 0.002 + r.nextDouble() * 0.0008,
+                        37.8 + i * 0.002 + r.nextDouble() * 0.0008));
+            }
+        }
+        long way = 1000;
+        for (int i = 0; i < SIDE; i++) {
+            for (int j = 0; j < SIDE; j++) {
+                long v = i * SIDE + j + 1;
+                if (j + 1 < SIDE && r.nextDouble() < 0.9)
+                    elements.add(SmallGraphs.way(way++, "residential", null, v, v + 1));
+                if (i + 1 < SIDE && r.nextDouble() < 0.9)
+                    elements.add(SmallGraphs.way(way++, "residential", null, v, v + SIDE));
+            }
+        }
+        return SmallGraphs.fromXml(elements.toArray(new String[0]));
+    }
+
+    /** The least weight from st to dest by plain Dijkstra over the whole graph. */
+    private static double dijkstra(GraphDB g, Map<Long, Double> factors, long st, long dest) {
+        CompactGraph c = g.compact();
+        CompactGraph.SearchState s = c.acquire();
+        s.relax(c.index(st), 0, -1);
+        double ret = Double.POSITIVE_INFINITY;
+        while (!s.isEmpty()) {
+            int v = s.poll();
+            if (v == c.index(dest)) {
+                ret = s.dist[v];
+                break;
+            }
+            for (int e = c.adjStart[v]; e < c.adjStart[v + 1]; e++) {
+                Double f = factors.get(g.wayId(c.adjWay[e]));
+                if (!s.settled(c.adjTarget[e]))
+                    s.relax(c.adjTarget[e], s.dist[v] + c.adjMeters[e] * (f == null ? 1 : f), v);
+            }
+        }
+        s.reset();
+        c.release(s);
+        return ret;
+    }
+
+    /** Checks that route is a real path from st to dest with the Dijkstra weight. */
+    private static void checkRoute(GraphDB g, TrafficOverlay traffic, Map<Long, Double> factors,
+                                   long st, long dest) {
+        LinkedList<Long> route = traffic.route(st, dest);
+        double expected = dijkstra(g, factors, st, dest);
+        if (Double.isInfinite(expected)) {
+            assertNull(route);
+            return;
+        }
+        assertNotNull(route);
+        assertEquals(st, (long) route.getFirst());
+        assertEquals(dest, (long) route.getLast());
+        assertEquals(expected, traffic.weight(route), 1e-6);
+    }
+
+    @Test
+    public void testMatchesDijkstraAfterEachCustomization() throws Exception {
+        Random r = new Random(41);
+        GraphDB g = grid(r);
+        TrafficOverlay traffic = new TrafficOverlay(g);
+        List<Long> ids = new LinkedList<>();
+        for (long id : g.vertices())
+            ids.add(id);
+        Long[] vertices = ids.toArray(new Long[0]);
+
+        Map<Long, Double> factors = new HashMap<>();
+        for (int round = 0; round < 3; round++) {
+            for (int q = 0; q < 100; q++) {
+                long st = vertices[r.nextInt(vertices.length)];
+                long dest = vertices[r.nextInt(vertices.length)];
+                checkRoute(g, traffic, factors, st, dest);
+            }
+            factors = new HashMap<>();
+            for (long way = 1000; way < 1000 + 2 * SIDE * SIDE; way++) {
+                double x = r.nextDouble();
+                if (x < 0.3)
+                    factors.put(way, 1 + 5 * r.nextDouble());
+                else if (x < 0.33)
+                    factors.put(way, Double.POSITIVE_INFINITY);
+            }
+            traffic.customize(factors);
+        }
+    }
+
+    @Test
+    public void testClosedRoadIsAvoided() throws Exception {
+        GraphDB g = SmallGraphs.fromXml(
+                SmallGraphs.node(1, -122.270, 37.870),
+                SmallGraphs.node(2, -122.260, 37.872),
+                SmallGraphs.node(3, -122.250, 37.870),
+                SmallGraphs.node(4, -122.260, 37.867),
+                SmallGraphs.way(10, "residential", "North St", 1, 2, 3),
+                SmallGraphs.way(11, "residential", "South St", 1, 4, 3));
+        TrafficOverlay traffic = new TrafficOverlay(g);
+        assertEquals(Arrays.asList(1L, 2L, 3L), traffic.route(1, 3));
+
+        Map<Long, Double> factors = new HashMap<>();
+        factors.put(10L, Double.POSITIVE_INFINITY);
+        traffic.customize(factors);
+        assertEquals(Arrays.asList(1L, 4L, 3L), traffic.route(1, 3));
+
+        factors.put(11L, Double.POSITIVE_INFINITY);
+        traffic.customize(factors);
+        assertNull(traffic.route(1, 3));
+    }
+
+    @Test
+    public void testWatchFeed() throws Exception {
+        GraphDB g = SmallGraphs.fromXml(
+                SmallGraphs.node(1, -122.270, 37.870),
+                SmallGraphs.node(2, -122.260, 37.872),
+                SmallGraphs.node(3, -122.250, 37.870),
+                SmallGraphs.node(4, -122.260, 37.867),
+                SmallGraphs.way(10, "residential", "North St", 1, 2, 3),
+                SmallGraphs.way(11, "residential", "South St", 1, 4, 3));
+        TrafficOverlay traffic = new TrafficOverlay(g);
+        File feed = File.createTempFile("traffic", ".txt");
+        feed.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(feed)) {
+            out.println("# North St is jammed");
+            out.println("10 3.5");
+        }
+        traffic.watch(feed.getPath(), 10);
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!Arrays.asList(1L, 4L, 3L).equals(traffic.route(1, 3))
+                    && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(Arrays.asList(1L, 4L, 3L), traffic.route(1, 3));
+        } finally {
+            traffic.stopWatching();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testBadFeedLine() throws Exception {
+        File feed = File.createTempFile("traffic", ".txt");
+        feed.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(feed)) {
+            out.println("10 fast");
+        }
+        TrafficOverlay.readFeed(feed.getPath());
+    }
+}
@@ -0,0 +1,121 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TripPlannerTest {
+    private static final long NO_LIMIT = Long.MAX_VALUE;
+
+    /** Costs between random points in the plane. */
+    private static double[][] randomPlane(Random r, int m) {
+        double[] x = new double[m], y = new double[m];
+        for (int i = 0; i < m; i++) {
+            x[i] = r.nextDouble();
+            y[i] = r.nextDouble();
+        }
+        double[][] d = new double[m][m];
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < m; j++)
+                d[i][j] = Math.hypot(x[i] - x[j], y[i] - y[j]);
+        }
+        return d;
+    }
+
+    /** The cost of the best order starting at 0, by trying them all. */
+    private static double bruteForce(double[][] d, int[] order, int pos, boolean[] used,
+                                     boolean roundTrip) {
+        if (pos == order.length)
+            return TripPlanner.cost(d, order, roundTrip);
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = 1; i < order.length; i++) {
+            if (!used[i]) {
+                used[i] = true;
+                order[pos] = i;
+                best = Math.min(best, bruteForce(d, order, pos + 1, used, roundTrip));
+                used[i] = false;
+            }
+        }
+        return best;
+    }
+
+    private static void checkPermutation(int[] order) {
+        assertEquals(0, order[0]);
+        int[] sorted = order.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++)
+            assertEquals(i, sorted[i]);
+    }
+
+    @Test
+    public void testStopsOnALine() {
+        double[] x = {0, 5, 2, 9, 1, 7};
+        double[][] d = new double[x.length][x.length];
+        for (int i = 0; i < x.length; i++) {
+            for (int j = 0; j < x.length; j++)
+                d[i][j] = Math.abs(x[i] - x[j]);
+        }
+        int[] order = TripPlanner.solve(d, false, NO_LIMIT);
+        assertArrayEquals(new int[]{0, 4, 2, 1, 5, 3}, order);
+        assertEquals(9, TripPlanner.cost(d, order, false), 1e-9);
+        assertEquals(18, TripPlanner.cost(d, TripPlanner.solve(d, true, NO_LIMIT), true), 1e-9);
+    }
+
+    /** Local search won't always find the best order, but it should come close. */
+    @Test
+    public void testCloseToOptimal() {
+        Random r = new Random(42);
+        for (boolean roundTrip : new boolean[]{false, true}) {
+            double total = 0, optimal = 0;
+            for (int trial = 0; trial < 30; trial++) {
+                double[][] d = randomPlane(r, 8);
+                int[] order = TripPlanner.solve(d, roundTrip, NO_LIMIT);
+                checkPermutation(order);
+                double best = bruteForce(d, new int[8], 1, new boolean[8], roundTrip);
+                double cost = TripPlanner.cost(d, order, roundTrip);
+                assertTrue(cost >= best - 1e-9);
+                total += cost;
+                optimal += best;
+            }
+            assertTrue(total <= optimal * 1.05);
+        }
+    }
+
+    @Test
+    public void testBudgetIsRespected() {
+        double[][] d = randomPlane(new Random(7), TripPlanner.MAX_STOPS);
+        long start = System.nanoTime();
+        int[] order = TripPlanner.solve(d, true, start);
+        checkPermutation(order);
+        assertTrue(System.nanoTime() - start < 1000000000L);
+    }
+
+    @Test
+    public void testPlanOnGraph() throws Exception {
+        GraphDB g = SmallGraphs.mainAndOak();
+        TripPlanner planner = new TripPlanner(g);
+        List<Long> ids = new LinkedList<>();
+        for (long id : g.vertices())
+            ids.add(id);
+        double[][] stops = new double[Math.min(5, ids.size())][];
+        for (int i = 0; i < stops.length; i++)
+            stops[i] = new double[]{g.lon(ids.get(i)), g.lat(ids.get(i))};
+
+        TripResult trip = planner.plan(stops, true, TripPlanner.DEFAULT_BUDGET_MILLIS);
+        assertTrue(trip.tripFound);
+        List<Long> route = trip.route;
+        assertEquals(route.get(0), route.get(route.size() - 1));
+        Set<Long> visited = new HashSet<>(route);
+        double length = 0;
+        for (int i = 0; i + 1 < route.size(); i++)
+            length += g.greatCircleDistance(route.get(i), route.get(i + 1));
+        for (int i = 0; i < stops.length; i++)
+            assertTrue(visited.contains(ids.get(i)));
+        assertEquals(trip.distance, length, 1e-3);
+    }
+}
@@ -0,0 +1,90 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class VectorRendererTest {
+    private static GraphDB graph;
+    private static EdgeIndex index;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        graph = SmallGraphs.mainAndOak();
+        index = new EdgeIndex(graph);
+    }
+
+    @Test
+    public void testTileNames() {
+        assertEquals("root.png", VectorRenderer.tileName(0, 0, 0));
+        assertEquals("2.png", VectorRenderer.tileName(1, 1, 0));
+        assertEquals("3.png", VectorRenderer.tileName(1, 0, 1));
+        assertEquals("14.png", VectorRenderer.tileName(2, 1, 1));
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                int[] xyz = VectorRenderer.parseTileName(VectorRenderer.tileName(3, x, y));
+                assertArrayEquals(new int[]{3, x, y}, xyz);
+            }
+        }
+    }
+
+    @Test
+    public void testEdgeIndexQuery() {
+        assertEquals(3, index.size());
+        List<Integer> all = new ArrayList<>();
+        index.query(-123, 38, -122, 37, all::add);
+        assertEquals(3, all.size());
+
+        // Only the Oak Ave edge reaches north of 37.872
+        List<Integer> north = new ArrayList<>();
+        index.query(-122.27, 37.88, -122.25, 37.872, north::add);
+        assertEquals(1, north.size());
+        assertEquals("Oak Ave", graph.wayName(index.way(north.get(0))));
+    }
+
+    @Test
+    public void testGetMapRasterAnyDepth() {
+        VectorRenderer renderer = new VectorRenderer(graph, index, null);
+        Map<String, Double> params = new HashMap<>();
+        params.put("ullon", -122.2701);
+        params.put("ullat", 37.8751);
+        params.put("lrlon", -122.2699);
+        params.put("lrlat", 37.8699);
+        params.put("w", 1000.0);
+        params.put("h", 1000.0);
+        Map<String, Object> result = renderer.getMapRaster(params);
+        assertTrue((Boolean) result.get("query_success"));
+        int depth = (Integer) result.get("depth");
+        assertTrue("Should zoom past the image pyramid, got depth " + depth, depth > 7);
+        assertTrue((Double) result.get("raster_ul_lon") <= -122.2701);
+        assertTrue((Double) result.get("raster_lr_lat") <= 37.8699);
+
+        String[][] grid = (String[][]) result.get("render_grid");
+        BufferedImage img = renderer.getTileImage(grid[0][0]);
+        assertEquals(MapServer.TILE_SIZE, img.getWidth());
+    }
+
+    @Test
+    public void testDiskCacheIsPerGraph() throws Exception {
+        File root = Files.createTempDirectory("vector_tiles").toFile();
+        VectorRenderer renderer = new VectorRenderer(graph, index, root.getPath());
+        File dir = new File(root, VectorRenderer.cacheVersion(graph));
+        BufferedImage img = renderer.getTileImage(VectorRenderer.TILE_PREFIX + "1.png");
+        assertArrayEquals(new String[]{"1.png"}, dir.list());
+        assertEquals(img.getWidth(), new VectorRenderer(graph, index, root.getPath())
+                .getTileImage(VectorRenderer.TILE_PREFIX + "1.png").getWidth());
+
+        assertEquals(VectorRenderer.cacheVersion(graph),
+                VectorRenderer.cacheVersion(SmallGraphs.mainAndOak()));
+        GraphDB other = SmallGraphs.mainAndOak();
+        other.removeEdge(1, 2);
+        assertNotEquals(VectorRenderer.cacheVersion(graph), VectorRenderer.cacheVersion(other));
+    }
+}
@@ -0,0 +1,108 @@
+package example;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class DagClosureTest {
+    @Test
+    public void testCourseCatalog() {
+        CSCourseDB db = new CSCourseDB("berkeley-cs.xml");
+        assertEquals(Arrays.asList("CS 61A", "CS 61B"), db.allPrereqs("CS 61C"));
+        assertTrue(db.unlocks("CS 61A").containsAll(Arrays.asList("CS 61B", "CS 61C")));
+        assertTrue(db.allPrereqs("CS 61A").isEmpty());
+
+        assertFalse(db.canTake("CS 61C", Collections.singletonList("CS 61A")));
+        assertTrue(db.canTake("CS 61C", Arrays.asList("CS 61A", "CS 61B")));
+        /* Taking 61B counts as having met its prerequisite, 61A */
+        assertTrue(db.canTake("CS 61C", Collections.singletonList("CS 61B")));
+        assertTrue(db.eligibleCourses(Collections.emptyList()).contains("CS 61A"));
+        assertFalse(db.eligibleCourses(Collections.emptyList()).contains("CS 61B"));
+        assertFalse(db.eligibleCourses(Collections.singletonList("CS 61A")).contains("CS 61A"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCycle() {
+        new DagClosure.Builder<String>().addEdge("a", "b").addEdge("b", "c").addEdge("c", "a")
+            .build();
+    }
+
+    /** Compares every query with graph walks on a random DAG bigger than one 64-bit word. */
+    @Test
+    public void testRandomDag() {
+        Random r = new Random(45);
+        int n = 300;
+        Map<Integer, List<Integer>> parents = new HashMap<>();
+        DagClosure.Builder<Integer> builder = new DagClosure.Builder<>();
+        /* Add the nodes in a shuffled order so that ids don't match the keys */
+        List<Integer> nodes = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            nodes.add(i);
+            parents.put(i, new ArrayList<>());
+        }
+        Collections.shuffle(nodes, r);
+        for (int v : nodes) {
+            builder.addNode(v);
+        }
+        for (int v = 1; v < n; v++) {
+            for (int k = 0; k < 3; k++) {
+                int p = r.nextInt(v);
+                parents.get(v).add(p);
+                builder.addEdge(p, v);
+            }
+        }
+        DagClosure<Integer> dag = builder.build();
+
+        List<Integer> order = dag.topologicalOrder();
+        for (int v = 0; v < n; v++) {
+            for (int p : parents.get(v)) {
+                assertTrue(order.indexOf(p) < order.indexOf(v));
+            }
+        }
+
+        for (int q = 0; q < 50; q++) {
+            int v = r.nextInt(n);
+            Set<Integer> ancestors = walk(parents, v);
+            assertEquals(ancestors, new HashSet<>(dag.closure(v)));
+            for (int w : dag.unlocks(v)) {
+                assertTrue(walk(parents, w).contains(v));
+            }
+            int w = r.nextInt(n);
+            assertEquals(ancestors.contains(w), dag.precedes(w, v));
+
+            Set<Integer> done = new HashSet<>();
+            for (int k = 0; k < 20; k++) {
+                done.add(r.nextInt(n));
+            }
+            Set<Integer> met = new HashSet<>(done);
+            for (int d : done) {
+                met.addAll(walk(parents, d));
+            }
+            assertEquals(met.containsAll(parents.get(v)), dag.eligible(v, done));
+        }
+    }
+
+    /** All ancestors of v, by breadth-first search. */
+    private static Set<Integer> walk(Map<Integer, List<Integer>> parents, int v) {
+        Set<Integer> seen = new HashSet<>();
+        ArrayDeque<Integer> queue = new ArrayDeque<>(parents.get(v));
+        while (!queue.isEmpty()) {
+            int x = queue.poll();
+            if (seen.add(x)) {
+                queue.addAll(parents.get(x));
+            }
+        }
+        return seen;
+    }
+}